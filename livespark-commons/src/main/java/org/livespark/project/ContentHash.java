@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.project;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-1 content hashes, rendered as lower-case hex strings.
+ */
+public final class ContentHash {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private ContentHash() {
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance( "SHA-1" );
+        } catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( "SHA-1 is required by every Java platform.", e );
+        }
+    }
+
+    public static String of( final byte[] content ) {
+        return toHex( newDigest().digest( content ) );
+    }
+
+    public static String of( final String content ) {
+        return of( content.getBytes( UTF_8 ) );
+    }
+
+    public static String of( final File file ) throws IOException {
+        final MessageDigest digest = newDigest();
+        final byte[] buffer = new byte[8192];
+        final InputStream is = new BufferedInputStream( new FileInputStream( file ) );
+        try {
+            int read;
+            while ( ( read = is.read( buffer ) ) != -1 ) {
+                digest.update( buffer, 0, read );
+            }
+        } finally {
+            is.close();
+        }
+
+        return toHex( digest.digest() );
+    }
+
+    public static String toHex( final byte[] bytes ) {
+        final char[] hex = new char[bytes.length * 2];
+        for ( int i = 0; i < bytes.length; i++ ) {
+            hex[i * 2] = HEX_DIGITS[( bytes[i] >> 4 ) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+
+        return new String( hex );
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.project;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.uberfire.java.nio.file.DirectoryStream;
+import org.uberfire.java.nio.file.Path;
+import org.uberfire.java.nio.fs.jgit.JGitPathImpl;
+
+/**
+ * Exports a project stored in a git-backed file system straight from the git object database, bypassing the per-file
+ * path resolution and blob lookups of the generic file system API.
+ * <p>
+ * The commit of the project's branch and the tree of the project are resolved once. The tree is then walked without
+ * reading any file, and the distinct blobs are read through a single object reader in the order the object database
+ * prefers, so that export is bound by sequential reads. Files with identical content are read once.
+ * <p>
+ * Every export returns the id of the project's git tree, which identifies the exported content and can serve as a cache
+ * key.
+ */
+public class GitProjectExporter {
+
+    /**
+     * Receives the exported files.
+     */
+    public interface EntryHandler {
+
+        /**
+         * @param path
+         *            The path of the file relative to the project root, separated by slashes.
+         * @param content
+         *            The content of the file. It may be read more than once.
+         */
+        void handle( String path, ObjectLoader content ) throws IOException;
+    }
+
+    /**
+     * @return True if the given project root is stored in git and can be exported by this exporter.
+     */
+    public static boolean isGitBacked( final Path root ) {
+        return root instanceof JGitPathImpl;
+    }
+
+    /**
+     * Passes every file of the project to the given handler.
+     *
+     * @param root
+     *            A {@link #isGitBacked(Path) git-backed} project root. Its branch is exported.
+     * @param filter
+     *            Files it accepts are skipped.
+     * @return The id of the project's tree.
+     */
+    public String export( final Path root,
+                          final DirectoryStream.Filter<Path> filter,
+                          final EntryHandler handler ) throws IOException {
+        final JGitPathImpl gitRoot = (JGitPathImpl) root;
+        final Repository repository = gitRoot.getFileSystem().gitRepo().getRepository();
+        final ObjectReader reader = repository.newObjectReader();
+        try {
+            final ObjectId treeId = resolveTree( repository, reader, gitRoot );
+            final Map<ObjectId, List<String>> pathsByBlob = listFiles( reader, treeId, root, filter );
+
+            final AsyncObjectLoaderQueue<ObjectId> blobs = reader.open( pathsByBlob.keySet(), true );
+            try {
+                while ( blobs.next() ) {
+                    final ObjectLoader content = blobs.open();
+                    for ( final String path : pathsByBlob.get( blobs.getObjectId() ) ) {
+                        handler.handle( path, content );
+                    }
+                }
+            } finally {
+                blobs.release();
+            }
+
+            return treeId.name();
+        } finally {
+            reader.release();
+        }
+    }
+
+    /**
+     * @return The id of the project's tree on its branch, resolved without reading any file.
+     */
+    public String resolveTreeId( final Path root ) throws IOException {
+        final JGitPathImpl gitRoot = (JGitPathImpl) root;
+        final Repository repository = gitRoot.getFileSystem().gitRepo().getRepository();
+        final ObjectReader reader = repository.newObjectReader();
+        try {
+            return resolveTree( repository, reader, gitRoot ).name();
+        } finally {
+            reader.release();
+        }
+    }
+
+    /**
+     * Lists the files that differ between two trees of the project, comparing tree entries only.
+     *
+     * @param filter
+     *            Files it accepts are skipped.
+     * @return The paths of the added, modified and deleted files, relative to the project root.
+     * @throws IOException
+     *             If either tree is not in the repository.
+     */
+    public Set<String> diff( final Path root,
+                             final String fromTreeId,
+                             final String toTreeId,
+                             final DirectoryStream.Filter<Path> filter ) throws IOException {
+        final Repository repository = ( (JGitPathImpl) root ).getFileSystem().gitRepo().getRepository();
+        final Set<String> changed = new HashSet<String>();
+        final TreeWalk treeWalk = new TreeWalk( repository );
+        try {
+            treeWalk.addTree( ObjectId.fromString( fromTreeId ) );
+            treeWalk.addTree( ObjectId.fromString( toTreeId ) );
+            treeWalk.setRecursive( true );
+            treeWalk.setFilter( TreeFilter.ANY_DIFF );
+            while ( treeWalk.next() ) {
+                final String path = treeWalk.getPathString();
+                if ( !filter.accept( root.resolve( path ) ) ) {
+                    changed.add( path );
+                }
+            }
+        } catch ( IllegalArgumentException e ) {
+            throw new IOException( "Invalid tree id " + fromTreeId + " or " + toTreeId, e );
+        } finally {
+            treeWalk.release();
+        }
+
+        return changed;
+    }
+
+    /**
+     * @return The path of the given file relative to the given git-backed project root, as in {@link #diff}, or null if
+     *         the file is not part of the project.
+     */
+    public static String relativePath( final Path root,
+                                       final Path file ) {
+        if ( !( file instanceof JGitPathImpl ) ) {
+            return null;
+        }
+
+        final String rootDir = trimSlashes( ( (JGitPathImpl) root ).getPath() );
+        final String filePath = trimSlashes( ( (JGitPathImpl) file ).getPath() );
+        if ( rootDir.isEmpty() ) {
+            return filePath;
+        }
+
+        return filePath.startsWith( rootDir + "/" ) ? filePath.substring( rootDir.length() + 1 ) : null;
+    }
+
+    private static ObjectId resolveTree( final Repository repository,
+                                         final ObjectReader reader,
+                                         final JGitPathImpl root ) throws IOException {
+        final ObjectId commitId = repository.resolve( Constants.R_HEADS + root.getRefTree() );
+        if ( commitId == null ) {
+            throw new IOException( "Branch " + root.getRefTree() + " does not exist in " + repository );
+        }
+
+        final RevWalk revWalk = new RevWalk( reader );
+        try {
+            final ObjectId commitTree = revWalk.parseCommit( commitId ).getTree();
+            final String projectDir = trimSlashes( root.getPath() );
+            if ( projectDir.isEmpty() ) {
+                return commitTree;
+            }
+
+            final TreeWalk projectWalk = TreeWalk.forPath( reader, projectDir, commitTree );
+            if ( projectWalk == null ) {
+                throw new IOException( projectDir + " does not exist on branch " + root.getRefTree() + " of " + repository );
+            }
+            try {
+                if ( !projectWalk.isSubtree() ) {
+                    throw new IOException( projectDir + " is not a directory on branch " + root.getRefTree() + " of " + repository );
+                }
+                return projectWalk.getObjectId( 0 );
+            } finally {
+                projectWalk.release();
+            }
+        } finally {
+            revWalk.release();
+        }
+    }
+
+    /*
+     * Only trees are read here. Symbolic links and submodules are not part of the exported project.
+     */
+    private static Map<ObjectId, List<String>> listFiles( final ObjectReader reader,
+                                                          final ObjectId treeId,
+                                                          final Path root,
+                                                          final DirectoryStream.Filter<Path> filter ) throws IOException {
+        final Map<ObjectId, List<String>> pathsByBlob = new LinkedHashMap<ObjectId, List<String>>();
+        final TreeWalk treeWalk = new TreeWalk( reader );
+        try {
+            treeWalk.addTree( treeId );
+            treeWalk.setRecursive( true );
+            while ( treeWalk.next() ) {
+                final FileMode mode = treeWalk.getFileMode( 0 );
+                if ( mode.getObjectType() != Constants.OBJ_BLOB || mode == FileMode.SYMLINK ) {
+                    continue;
+                }
+
+                final String path = treeWalk.getPathString();
+                if ( filter.accept( root.resolve( path ) ) ) {
+                    continue;
+                }
+
+                final ObjectId blobId = treeWalk.getObjectId( 0 );
+                List<String> paths = pathsByBlob.get( blobId );
+                if ( paths == null ) {
+                    paths = new ArrayList<String>( 1 );
+                    pathsByBlob.put( blobId, paths );
+                }
+                paths.add( path );
+            }
+        } finally {
+            treeWalk.release();
+        }
+
+        return pathsByBlob;
+    }
+
+    private static String trimSlashes( final String path ) {
+        int start = 0;
+        int end = path.length();
+        while ( start < end && path.charAt( start ) == '/' ) {
+            start++;
+        }
+        while ( end > start && path.charAt( end - 1 ) == '/' ) {
+            end--;
+        }
+
+        return path.substring( start, end );
+    }
+
+}
@@ -16,73 +16,335 @@
 
 package org.livespark.project;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.InputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import org.eclipse.jgit.lib.ObjectLoader;
 import org.guvnor.common.services.project.model.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.uberfire.io.IOService;
 import org.uberfire.java.nio.IOException;
 import org.uberfire.java.nio.file.DirectoryStream;
 import org.uberfire.java.nio.file.Files;
-import org.uberfire.java.nio.file.NoSuchFileException;
 import org.uberfire.java.nio.file.Path;
 import org.uberfire.java.nio.file.Paths;
+import org.uberfire.java.nio.file.StandardDeleteOption;
 
+/**
+ * Writes the files of a project to a directory on disk.
+ * <p>
+ * Whole projects are walked in parallel: every directory is a fork/join task, and its files are written by further
+ * tasks in batches of {@value #FILES_PER_TASK}. All projects of an unpacker share one pool of
+ * {@value #PARALLELISM_PROPERTY} threads (default: the number of processors), so concurrent builds cannot oversubscribe
+ * the disk. A parallelism of 1 walks projects serially. The pool lives until the unpacker is {@link #shutdown() shut
+ * down}.
+ * <p>
+ * Projects stored in git are read straight from the object database by a {@link GitProjectExporter} instead, which
+ * also records the id of the exported tree in the {@link SyncSummary}.
+ */
 public class ProjectUnpacker {
 
+    private static final Logger logger = LoggerFactory.getLogger( ProjectUnpacker.class );
+
+    public static final String PARALLELISM_PROPERTY = "livespark.unpack.parallelism";
+    private static final int FILES_PER_TASK = 32;
+
+    private final ForkJoinPool pool = new ForkJoinPool( readParallelism() );
     private final org.uberfire.java.nio.file.DirectoryStream.Filter<Path> filter;
     private final IOService ioService;
+    private final GitProjectExporter gitExporter = new GitProjectExporter();
 
     public ProjectUnpacker( IOService ioService, org.uberfire.java.nio.file.DirectoryStream.Filter<Path> filter ) {
         this.ioService = ioService;
         this.filter = filter;
     }
 
-    public void writeSourceFileSystemToDisk( Project project,
-                                             org.uberfire.java.nio.file.Path tmpRoot ) throws NoSuchFileException,
-                                                                                       IllegalArgumentException,
-                                                                                       UnsupportedOperationException,
-                                                                                       IOException,
-                                                                                       SecurityException,
-                                                                                       java.io.IOException {
-        org.uberfire.backend.vfs.Path root = project.getRootPath();
-        DirectoryStream<org.uberfire.java.nio.file.Path> directoryStream = Files.newDirectoryStream( org.uberfire.backend.server.util.Paths.convert( root ) );
-
-        visitPaths( directoryStream, root.toURI(), tmpRoot );
-    }
-
-    private org.uberfire.java.nio.file.Path visitPaths( DirectoryStream<org.uberfire.java.nio.file.Path> directoryStream,
-                                                        String projectPrefix,
-                                                        org.uberfire.java.nio.file.Path tmp ) throws NoSuchFileException,
-                                                                                              IllegalArgumentException,
-                                                                                              UnsupportedOperationException,
-                                                                                              IOException,
-                                                                                              SecurityException,
-                                                                                              java.io.IOException {
-
-        for ( final org.uberfire.java.nio.file.Path path : directoryStream ) {
-            final String destinationPath = filterPrefix( projectPrefix,
-                                                         path );
-            if ( Files.isDirectory( path ) ) {
-                new File( tmp.toFile(), destinationPath ).mkdir();
-                visitPaths( Files.newDirectoryStream( path ),
-                            projectPrefix,
-                            tmp );
-            } else {
-                //Don't process dotFiles
-                if ( !filter.accept( path ) ) {
-                    //Add new resource
-                    final InputStream is = ioService.newInputStream( path );
-                    final BufferedInputStream bis = new BufferedInputStream( is );
-                    writePath( destinationPath,
-                               bis,
-                               tmp.toUri().toString() );
+    private static int readParallelism() {
+        final String configured = System.getProperty( PARALLELISM_PROPERTY );
+        if ( configured != null ) {
+            try {
+                return Math.max( 1, Integer.parseInt( configured.trim() ) );
+            } catch ( NumberFormatException e ) {
+                logger.warn( "Ignoring invalid value for " + PARALLELISM_PROPERTY + ": " + configured );
+            }
+        }
+
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Stops the threads that walk projects. The unpacker cannot be used afterwards.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Brings a workspace the project was previously unpacked into up to date with the project. Only files whose content
+     * hash differs from the one recorded in the workspace's {@link WorkspaceManifest} are written, and only files that
+     * no longer exist in the project are deleted, so untouched files keep their timestamps and downstream incremental
+     * compilers can skip them.
+     */
+    public SyncSummary syncSourceFileSystemToDisk( Project project,
+                                                   org.uberfire.java.nio.file.Path tmpRoot ) throws IOException,
+                                                                                             java.io.IOException {
+        final long start = System.currentTimeMillis();
+        final org.uberfire.backend.vfs.Path root = project.getRootPath();
+        final WorkspaceManifest manifest = WorkspaceManifest.load( tmpRoot.toFile() );
+        final SyncSummary summary = new SyncSummary();
+        final Set<String> visited = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+        final Path rootPath = org.uberfire.backend.server.util.Paths.convert( root );
+
+        if ( GitProjectExporter.isGitBacked( rootPath ) ) {
+            summary.setTreeId( gitExporter.export( rootPath, filter, new GitProjectExporter.EntryHandler() {
+
+                @Override
+                public void handle( final String path,
+                                    final ObjectLoader content ) throws java.io.IOException {
+                    visited.add( path );
+                    writeIfChanged( content.getBytes(), path, manifest, summary );
+                }
+            } ) );
+        } else {
+            walk( rootPath, root.toURI(), manifest.getWorkspace(), new FileAction() {
+
+                @Override
+                public void apply( final Path path,
+                                   final String destinationPath ) throws java.io.IOException {
+                    visited.add( destinationPath );
+                    writeIfChanged( path, destinationPath, manifest, summary );
+                }
+            } );
+        }
+
+        for ( final String unpacked : manifest.getPaths() ) {
+            if ( !visited.contains( unpacked ) ) {
+                new File( manifest.getWorkspace(), unpacked ).delete();
+                manifest.remove( unpacked );
+                summary.fileDeleted();
+            }
+        }
+        manifest.setTreeId( summary.getTreeId() );
+        manifest.save();
+        summary.setElapsedMillis( System.currentTimeMillis() - start );
+
+        return summary;
+    }
+
+    /**
+     * @return The id of the project's git tree, or null if the project is not stored in git.
+     */
+    public String getTreeId( Project project ) throws java.io.IOException {
+        final Path rootPath = org.uberfire.backend.server.util.Paths.convert( project.getRootPath() );
+
+        return GitProjectExporter.isGitBacked( rootPath ) ? gitExporter.resolveTreeId( rootPath ) : null;
+    }
+
+    /**
+     * Checks that the given resources are the only files of the project that changed since the workspace was last
+     * synchronized, so that {@link #writePathsToDisk writing them} brings the workspace up to the given tree. Changes
+     * that bypassed the server, such as commits pushed over git, make this return false. Projects that are not stored
+     * in git cannot be checked and are trusted.
+     *
+     * @param treeId
+     *            The current tree of the project, as returned by {@link #getTreeId(Project)}.
+     */
+    public boolean coversChanges( Project project,
+                                  Collection<org.uberfire.backend.vfs.Path> resources,
+                                  org.uberfire.java.nio.file.Path tmpRoot,
+                                  String treeId ) {
+        if ( treeId == null ) {
+            return true;
+        }
+
+        final String syncedTreeId = WorkspaceManifest.load( tmpRoot.toFile() ).getTreeId();
+        if ( syncedTreeId == null ) {
+            return false;
+        }
+        if ( syncedTreeId.equals( treeId ) ) {
+            return true;
+        }
+
+        final Path rootPath = org.uberfire.backend.server.util.Paths.convert( project.getRootPath() );
+        final Set<String> covered = new HashSet<String>();
+        for ( final org.uberfire.backend.vfs.Path resource : resources ) {
+            final String relativePath = GitProjectExporter.relativePath( rootPath, org.uberfire.backend.server.util.Paths.convert( resource ) );
+            if ( relativePath != null ) {
+                covered.add( relativePath );
+            }
+        }
+
+        try {
+            for ( final String changed : gitExporter.diff( rootPath, syncedTreeId, treeId, filter ) ) {
+                if ( !isCovered( changed, covered ) ) {
+                    logger.debug( "{} changed in {} without a recorded change.", changed, rootPath );
+                    return false;
+                }
+            }
+        } catch ( java.io.IOException e ) {
+            logger.debug( "Unable to compare the trees of " + rootPath + ".", e );
+            return false;
+        }
+
+        return true;
+    }
+
+    /*
+     * A deleted or renamed directory is recorded as one change, which covers every file below it.
+     */
+    private static boolean isCovered( final String path,
+                                      final Set<String> covered ) {
+        for ( String current = path; current != null; ) {
+            if ( covered.contains( current ) ) {
+                return true;
+            }
+            final int separator = current.lastIndexOf( '/' );
+            current = separator > 0 ? current.substring( 0, separator ) : null;
+        }
+
+        return false;
+    }
+
+    /**
+     * Brings the given resources of a previously unpacked project up to date on disk. Resources that still exist are
+     * written if their content changed and resources that no longer exist are removed from the temporary directory.
+     * Resources outside of the project are ignored.
+     *
+     * @param treeId
+     *            The tree of the project the workspace is brought up to, as checked by {@link #coversChanges}, or
+     *            null if the project is not stored in git.
+     */
+    public SyncSummary writePathsToDisk( Project project,
+                                         Collection<org.uberfire.backend.vfs.Path> resources,
+                                         org.uberfire.java.nio.file.Path tmpRoot,
+                                         String treeId ) throws IOException,
+                                                                java.io.IOException {
+        final long start = System.currentTimeMillis();
+        final String projectPrefix = project.getRootPath().toURI();
+        final WorkspaceManifest manifest = WorkspaceManifest.load( tmpRoot.toFile() );
+        final SyncSummary summary = new SyncSummary();
+
+        for ( final org.uberfire.backend.vfs.Path resource : resources ) {
+            if ( !resource.toURI().startsWith( projectPrefix + "/" ) ) {
+                continue;
+            }
+
+            final Path path = org.uberfire.backend.server.util.Paths.convert( resource );
+            final String destinationPath = filterPrefix( projectPrefix, path );
+            final File destination = new File( manifest.getWorkspace(), destinationPath );
+
+            if ( !Files.exists( path ) ) {
+                Files.deleteIfExists( Paths.get( destination.toURI().toString() ),
+                                      StandardDeleteOption.NON_EMPTY_DIRECTORIES );
+                manifest.removeTree( destinationPath );
+                summary.fileDeleted();
+            } else if ( Files.isDirectory( path ) ) {
+                destination.mkdirs();
+            } else if ( !filter.accept( path ) ) {
+                writeIfChanged( path, destinationPath, manifest, summary );
+            }
+        }
+        manifest.setTreeId( treeId );
+        summary.setTreeId( treeId );
+        manifest.save();
+        summary.setElapsedMillis( System.currentTimeMillis() - start );
+
+        return summary;
+    }
+
+    /*
+     * A task that cannot read or write a file fails the walk, and its I/O exception is rethrown here.
+     */
+    private void walk( final Path directory,
+                       final String projectPrefix,
+                       final File outputRoot,
+                       final FileAction action ) throws java.io.IOException {
+        try {
+            pool.invoke( new DirectoryTask( directory, projectPrefix, outputRoot, action ) );
+        } catch ( WalkFailure e ) {
+            throw e.getCause();
+        }
+    }
+
+    /*
+     * The stream is closed before any file is written, so no more than one directory stream per pool thread is open.
+     */
+    private void listDirectory( final Path directory,
+                                final List<Path> subdirectories,
+                                final List<Path> files ) throws java.io.IOException {
+        final DirectoryStream<Path> directoryStream = Files.newDirectoryStream( directory );
+        try {
+            for ( final Path path : directoryStream ) {
+                if ( Files.isDirectory( path ) ) {
+                    subdirectories.add( path );
+                } else if ( !filter.accept( path ) ) {
+                    files.add( path );
                 }
             }
+        } finally {
+            directoryStream.close();
+        }
+    }
+
+    private void writeIfChanged( final Path path,
+                                 final String destinationPath,
+                                 final WorkspaceManifest manifest,
+                                 final SyncSummary summary ) throws java.io.IOException {
+        writeIfChanged( ioService.readAllBytes( path ), destinationPath, manifest, summary );
+    }
+
+    private void writeIfChanged( final byte[] content,
+                                 final String destinationPath,
+                                 final WorkspaceManifest manifest,
+                                 final SyncSummary summary ) throws java.io.IOException {
+        final String hash = ContentHash.of( content );
+        final File destination = new File( manifest.getWorkspace(), destinationPath );
+
+        if ( hash.equals( manifest.getHash( destinationPath ) ) && destination.isFile() ) {
+            summary.fileUnchanged();
+            return;
         }
 
-        return tmp;
+        writeAtomically( destination, content );
+        manifest.put( destinationPath, hash );
+        summary.fileWritten();
+    }
+
+    /*
+     * Replacing instead of overwriting in place means a file is never seen half-written, and never modifies other
+     * hard links to the previous content.
+     */
+    private void writeAtomically( final File destination,
+                                  final byte[] content ) throws java.io.IOException {
+        destination.getParentFile().mkdirs();
+        final File tmpFile = new File( destination.getParentFile(), "." + destination.getName() + ".tmp" );
+        final OutputStream os = new FileOutputStream( tmpFile );
+        try {
+            os.write( content );
+        } finally {
+            os.close();
+        }
+
+        moveAtomically( tmpFile, destination );
+    }
+
+    private static void moveAtomically( final File tmpFile,
+                                        final File destination ) throws java.io.IOException {
+        java.nio.file.Files.move( tmpFile.toPath(),
+                                  destination.toPath(),
+                                  java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                                  java.nio.file.StandardCopyOption.ATOMIC_MOVE );
     }
 
     private String filterPrefix( String pathPrefix,
@@ -90,12 +352,92 @@ public class ProjectUnpacker {
         return path.toUri().toString().substring( pathPrefix.length() + 1 );
     }
 
-    private void writePath( String destinationPath,
-                            BufferedInputStream bis,
-                            String outputRoot ) {
-        org.uberfire.java.nio.file.Path fullPath = Paths.get( outputRoot + "/" + destinationPath );
-        ioService.copy( bis,
-                        fullPath );
+    private interface FileAction {
+
+        void apply( Path path, String destinationPath ) throws java.io.IOException;
+    }
+
+    private static class WalkFailure extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        WalkFailure( final java.io.IOException cause ) {
+            super( cause );
+        }
+
+        @Override
+        public synchronized java.io.IOException getCause() {
+            return (java.io.IOException) super.getCause();
+        }
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final String projectPrefix;
+        private final File outputRoot;
+        private final FileAction action;
+
+        DirectoryTask( final Path directory,
+                       final String projectPrefix,
+                       final File outputRoot,
+                       final FileAction action ) {
+            this.directory = directory;
+            this.projectPrefix = projectPrefix;
+            this.outputRoot = outputRoot;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            final List<Path> subdirectories = new ArrayList<Path>();
+            final List<Path> files = new ArrayList<Path>();
+            try {
+                listDirectory( directory, subdirectories, files );
+            } catch ( java.io.IOException e ) {
+                throw new WalkFailure( e );
+            }
+
+            final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+            for ( final Path subdirectory : subdirectories ) {
+                new File( outputRoot, filterPrefix( projectPrefix, subdirectory ) ).mkdirs();
+                tasks.add( new DirectoryTask( subdirectory, projectPrefix, outputRoot, action ) );
+            }
+            for ( int i = 0; i < files.size(); i += FILES_PER_TASK ) {
+                tasks.add( new FileBatchTask( files.subList( i, Math.min( files.size(), i + FILES_PER_TASK ) ), projectPrefix, action ) );
+            }
+            invokeAll( tasks );
+        }
+    }
+
+    private class FileBatchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> files;
+        private final String projectPrefix;
+        private final FileAction action;
+
+        FileBatchTask( final List<Path> files,
+                       final String projectPrefix,
+                       final FileAction action ) {
+            this.files = files;
+            this.projectPrefix = projectPrefix;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                for ( final Path file : files ) {
+                    action.apply( file, filterPrefix( projectPrefix, file ) );
+                }
+            } catch ( java.io.IOException e ) {
+                throw new WalkFailure( e );
+            }
+        }
     }
 
 }
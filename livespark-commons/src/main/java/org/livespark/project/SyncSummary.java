@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.project;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts what a {@link ProjectUnpacker} synchronization did to a workspace.
+ */
+public class SyncSummary {
+
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private volatile long elapsedMillis;
+    private volatile String treeId;
+
+    void fileWritten() {
+        written.incrementAndGet();
+    }
+
+    void fileDeleted() {
+        deleted.incrementAndGet();
+    }
+
+    void fileUnchanged() {
+        unchanged.incrementAndGet();
+    }
+
+    void setElapsedMillis( final long elapsedMillis ) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    void setTreeId( final String treeId ) {
+        this.treeId = treeId;
+    }
+
+    public int getWritten() {
+        return written.get();
+    }
+
+    public int getDeleted() {
+        return deleted.get();
+    }
+
+    public int getUnchanged() {
+        return unchanged.get();
+    }
+
+    /**
+     * @return How long the synchronization took.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return The id of the git tree the project was read from, or null if the project is not stored in git.
+     */
+    public String getTreeId() {
+        return treeId;
+    }
+
+    public boolean hasChanges() {
+        return getWritten() > 0 || getDeleted() > 0;
+    }
+
+    @Override
+    public String toString() {
+        return getWritten() + " written, " + getDeleted() + " deleted, " + getUnchanged() + " unchanged in " + getElapsedMillis() + " ms";
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the content hash of every project file unpacked into a workspace, keyed by the file's path relative to the
+ * workspace root. The manifest is stored in the workspace itself, so it lives and dies with the workspace.
+ * <p>
+ * For projects stored in git, the manifest also records the id of the tree the workspace was last synchronized to.
+ */
+public class WorkspaceManifest {
+
+    static final String MANIFEST_FILE_NAME = ".livespark-manifest";
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    /*
+     * Relative paths never start with a slash, so this key cannot clash with a file.
+     */
+    private static final String TREE_ID_KEY = "/tree-id";
+
+    private final File workspace;
+    private final File manifestFile;
+    private final Map<String, String> hashes = new ConcurrentHashMap<String, String>();
+    private volatile String treeId;
+
+    private WorkspaceManifest( final File workspace, final File manifestFile ) {
+        this.workspace = workspace;
+        this.manifestFile = manifestFile;
+    }
+
+    public static boolean exists( final File workspace ) {
+        return new File( workspace, MANIFEST_FILE_NAME ).isFile();
+    }
+
+    /**
+     * @return The manifest stored in the given workspace, or an empty manifest if there is none or it cannot be read.
+     */
+    public static WorkspaceManifest load( final File workspace ) {
+        return load( workspace, new File( workspace, MANIFEST_FILE_NAME ) );
+    }
+
+    /**
+     * @return The manifest of the given directory stored in the given file, or an empty manifest if there is none or it
+     * cannot be read. Used for directories that must not contain the manifest themselves.
+     */
+    public static WorkspaceManifest load( final File workspace, final File manifestFile ) {
+        final WorkspaceManifest manifest = new WorkspaceManifest( workspace, manifestFile );
+
+        if ( manifestFile.isFile() ) {
+            final Properties stored = new Properties();
+            try {
+                final InputStream is = new BufferedInputStream( new FileInputStream( manifestFile ) );
+                try {
+                    stored.load( is );
+                } finally {
+                    is.close();
+                }
+            } catch ( IOException e ) {
+                // An unreadable manifest only means every file will be treated as changed.
+                return manifest;
+            }
+
+            for ( final String path : stored.stringPropertyNames() ) {
+                if ( TREE_ID_KEY.equals( path ) ) {
+                    manifest.treeId = stored.getProperty( path );
+                } else {
+                    manifest.hashes.put( path, stored.getProperty( path ) );
+                }
+            }
+        }
+
+        return manifest;
+    }
+
+    public File getWorkspace() {
+        return workspace;
+    }
+
+    /**
+     * @return The id of the git tree the workspace was last synchronized to, or null if it is not known.
+     */
+    public String getTreeId() {
+        return treeId;
+    }
+
+    public void setTreeId( final String treeId ) {
+        this.treeId = treeId;
+    }
+
+    public String getHash( final String relativePath ) {
+        return hashes.get( relativePath );
+    }
+
+    public void put( final String relativePath, final String hash ) {
+        hashes.put( relativePath, hash );
+    }
+
+    public void remove( final String relativePath ) {
+        hashes.remove( relativePath );
+    }
+
+    /**
+     * Removes the given path and every path below it.
+     */
+    public void removeTree( final String relativePath ) {
+        final String prefix = relativePath + "/";
+        for ( final String path : getPaths() ) {
+            if ( path.equals( relativePath ) || path.startsWith( prefix ) ) {
+                hashes.remove( path );
+            }
+        }
+    }
+
+    public Set<String> getPaths() {
+        return new HashSet<String>( hashes.keySet() );
+    }
+
+    /**
+     * @return A hash of every recorded path and content hash. Two workspaces with the same tree hash contain the same
+     * project files.
+     */
+    public String getTreeHash() {
+        final MessageDigest digest = ContentHash.newDigest();
+        for ( final Map.Entry<String, String> entry : new TreeMap<String, String>( hashes ).entrySet() ) {
+            digest.update( ( entry.getKey() + "\0" + entry.getValue() + "\n" ).getBytes( UTF_8 ) );
+        }
+
+        return ContentHash.toHex( digest.digest() );
+    }
+
+    /**
+     * Saves a copy of this manifest for another workspace with the same content, such as a clone of this workspace.
+     */
+    public void copyTo( final File workspace ) throws IOException {
+        final WorkspaceManifest copy = new WorkspaceManifest( workspace, new File( workspace, MANIFEST_FILE_NAME ) );
+        copy.hashes.putAll( hashes );
+        copy.treeId = treeId;
+        copy.save();
+    }
+
+    public void save() throws IOException {
+        final Properties stored = new Properties();
+        stored.putAll( hashes );
+        if ( treeId != null ) {
+            stored.setProperty( TREE_ID_KEY, treeId );
+        }
+
+        final File tmpFile = new File( manifestFile.getParentFile(), manifestFile.getName() + ".tmp" );
+        final OutputStream os = new BufferedOutputStream( new FileOutputStream( tmpFile ) );
+        try {
+            stored.store( os, null );
+        } finally {
+            os.close();
+        }
+
+        java.nio.file.Files.move( tmpFile.toPath(),
+                                  manifestFile.toPath(),
+                                  java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                                  java.nio.file.StandardCopyOption.ATOMIC_MOVE );
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.project;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.guvnor.common.services.project.model.Project;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.uberfire.io.IOService;
+import org.uberfire.java.nio.file.DirectoryStream;
+import org.uberfire.java.nio.file.Files;
+import org.uberfire.java.nio.file.Path;
+import org.uberfire.java.nio.file.Paths;
+
+public class ProjectUnpackerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File source;
+    private File workspace;
+    private Project project;
+    private ProjectUnpacker unpacker;
+
+    @Before
+    public void setup() throws Exception {
+        source = folder.newFolder( "source" );
+        workspace = folder.newFolder( "workspace" );
+
+        String rootUri = Paths.get( source.toURI() ).toUri().toString();
+        if ( rootUri.endsWith( "/" ) ) {
+            rootUri = rootUri.substring( 0, rootUri.length() - 1 );
+        }
+        final org.uberfire.backend.vfs.Path root = mock( org.uberfire.backend.vfs.Path.class );
+        when( root.toURI() ).thenReturn( rootUri );
+        project = mock( Project.class );
+        when( project.getRootPath() ).thenReturn( root );
+
+        final IOService ioService = mock( IOService.class );
+        when( ioService.readAllBytes( any( Path.class ) ) ).thenAnswer( new Answer<byte[]>() {
+
+            @Override
+            public byte[] answer( final InvocationOnMock invocation ) throws Throwable {
+                return Files.readAllBytes( (Path) invocation.getArguments()[0] );
+            }
+        } );
+
+        unpacker = new ProjectUnpacker( ioService, new DirectoryStream.Filter<Path>() {
+
+            @Override
+            public boolean accept( final Path path ) {
+                return path.getFileName().toString().startsWith( "." );
+            }
+        } );
+    }
+
+    @After
+    public void teardown() {
+        unpacker.shutdown();
+    }
+
+    @Test
+    public void testFirstSyncWritesEverything() throws Exception {
+        write( source, "pom.xml", "<project/>" );
+        write( source, "src/main/java/Foo.java", "class Foo {}" );
+
+        final SyncSummary summary = sync();
+
+        assertEquals( 2, summary.getWritten() );
+        assertEquals( 0, summary.getUnchanged() );
+        assertEquals( 0, summary.getDeleted() );
+        assertEquals( "class Foo {}", read( workspace, "src/main/java/Foo.java" ) );
+        assertEquals( new HashSet<String>( Arrays.asList( "pom.xml", "src/main/java/Foo.java" ) ),
+                      WorkspaceManifest.load( workspace ).getPaths() );
+        assertEquals( ContentHash.of( "<project/>".getBytes( "UTF-8" ) ), WorkspaceManifest.load( workspace ).getHash( "pom.xml" ) );
+    }
+
+    @Test
+    public void testUnchangedFilesAreNotRewritten() throws Exception {
+        write( source, "pom.xml", "<project/>" );
+        sync();
+        final File unpacked = new File( workspace, "pom.xml" );
+        unpacked.setLastModified( 1000L );
+
+        final SyncSummary summary = sync();
+
+        assertEquals( 0, summary.getWritten() );
+        assertEquals( 1, summary.getUnchanged() );
+        assertFalse( summary.hasChanges() );
+        assertEquals( 1000L, unpacked.lastModified() );
+    }
+
+    @Test
+    public void testChangedFileIsRewritten() throws Exception {
+        write( source, "pom.xml", "<project/>" );
+        write( source, "src/main/java/Foo.java", "class Foo {}" );
+        sync();
+
+        write( source, "src/main/java/Foo.java", "class Foo { int bar; }" );
+        final SyncSummary summary = sync();
+
+        assertEquals( 1, summary.getWritten() );
+        assertEquals( 1, summary.getUnchanged() );
+        assertEquals( "class Foo { int bar; }", read( workspace, "src/main/java/Foo.java" ) );
+    }
+
+    @Test
+    public void testMissingFileIsRewritten() throws Exception {
+        write( source, "pom.xml", "<project/>" );
+        sync();
+        new File( workspace, "pom.xml" ).delete();
+
+        final SyncSummary summary = sync();
+
+        assertEquals( 1, summary.getWritten() );
+        assertEquals( "<project/>", read( workspace, "pom.xml" ) );
+    }
+
+    @Test
+    public void testDeletedFileIsRemovedButBuildOutputIsKept() throws Exception {
+        write( source, "pom.xml", "<project/>" );
+        write( source, "src/main/java/Foo.java", "class Foo {}" );
+        sync();
+        write( workspace, "target/classes/Foo.class", "compiled" );
+
+        new File( source, "src/main/java/Foo.java" ).delete();
+        final SyncSummary summary = sync();
+
+        assertEquals( 1, summary.getDeleted() );
+        assertFalse( new File( workspace, "src/main/java/Foo.java" ).exists() );
+        assertTrue( new File( workspace, "target/classes/Foo.class" ).exists() );
+        assertEquals( new HashSet<String>( Arrays.asList( "pom.xml" ) ), WorkspaceManifest.load( workspace ).getPaths() );
+    }
+
+    @Test
+    public void testFilteredFilesAreSkipped() throws Exception {
+        write( source, "pom.xml", "<project/>" );
+        write( source, ".gitignore", "target" );
+
+        final SyncSummary summary = sync();
+
+        assertEquals( 1, summary.getWritten() );
+        assertFalse( new File( workspace, ".gitignore" ).exists() );
+        assertNull( WorkspaceManifest.load( workspace ).getHash( ".gitignore" ) );
+    }
+
+    @Test
+    public void testFileSystemProjectHasNoTreeId() throws Exception {
+        write( source, "pom.xml", "<project/>" );
+
+        assertNull( sync().getTreeId() );
+        assertNull( WorkspaceManifest.load( workspace ).getTreeId() );
+        assertNull( unpacker.getTreeId( project ) );
+    }
+
+    private SyncSummary sync() throws Exception {
+        return unpacker.syncSourceFileSystemToDisk( project, Paths.get( workspace.toURI() ) );
+    }
+
+    private static void write( final File root,
+                               final String path,
+                               final String content ) throws Exception {
+        final File file = new File( root, path );
+        file.getParentFile().mkdirs();
+        final OutputStream os = new FileOutputStream( file );
+        try {
+            os.write( content.getBytes( "UTF-8" ) );
+        } finally {
+            os.close();
+        }
+    }
+
+    private static String read( final File root,
+                                final String path ) throws Exception {
+        return new String( java.nio.file.Files.readAllBytes( new File( root, path ).toPath() ), "UTF-8" );
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.project;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorkspaceManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File workspace;
+
+    @Before
+    public void setup() throws Exception {
+        workspace = folder.newFolder( "workspace" );
+    }
+
+    @Test
+    public void testMissingManifestIsEmpty() {
+        assertFalse( WorkspaceManifest.exists( workspace ) );
+
+        final WorkspaceManifest manifest = WorkspaceManifest.load( workspace );
+
+        assertTrue( manifest.getPaths().isEmpty() );
+        assertNull( manifest.getTreeId() );
+        assertSame( workspace, manifest.getWorkspace() );
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        final WorkspaceManifest manifest = WorkspaceManifest.load( workspace );
+        manifest.put( "pom.xml", "a" );
+        manifest.put( "src/main/java/Foo.java", "b" );
+        manifest.setTreeId( "0123456789abcdef0123456789abcdef01234567" );
+        manifest.save();
+
+        assertTrue( WorkspaceManifest.exists( workspace ) );
+
+        final WorkspaceManifest loaded = WorkspaceManifest.load( workspace );
+
+        assertEquals( new HashSet<String>( Arrays.asList( "pom.xml", "src/main/java/Foo.java" ) ), loaded.getPaths() );
+        assertEquals( "a", loaded.getHash( "pom.xml" ) );
+        assertEquals( "b", loaded.getHash( "src/main/java/Foo.java" ) );
+        assertEquals( "0123456789abcdef0123456789abcdef01234567", loaded.getTreeId() );
+        assertEquals( manifest.getTreeHash(), loaded.getTreeHash() );
+    }
+
+    @Test
+    public void testPathsWithSpecialCharactersSurviveSaving() throws Exception {
+        final WorkspaceManifest manifest = WorkspaceManifest.load( workspace );
+        manifest.put( "src/main/resources/a b=c:d#e.properties", "a" );
+        manifest.save();
+
+        assertEquals( "a", WorkspaceManifest.load( workspace ).getHash( "src/main/resources/a b=c:d#e.properties" ) );
+    }
+
+    @Test
+    public void testManifestStoredOutsideOfWorkspace() throws Exception {
+        final File manifestFile = new File( folder.getRoot(), "deployment.manifest" );
+        final WorkspaceManifest manifest = WorkspaceManifest.load( workspace, manifestFile );
+        manifest.put( "index.html", "a" );
+        manifest.save();
+
+        assertTrue( manifestFile.isFile() );
+        assertFalse( WorkspaceManifest.exists( workspace ) );
+        assertEquals( "a", WorkspaceManifest.load( workspace, manifestFile ).getHash( "index.html" ) );
+    }
+
+    @Test
+    public void testCopyTo() throws Exception {
+        final File clone = folder.newFolder( "clone" );
+        final WorkspaceManifest manifest = WorkspaceManifest.load( workspace );
+        manifest.put( "pom.xml", "a" );
+        manifest.setTreeId( "0123456789abcdef0123456789abcdef01234567" );
+
+        manifest.copyTo( clone );
+
+        final WorkspaceManifest copy = WorkspaceManifest.load( clone );
+        assertSame( clone, copy.getWorkspace() );
+        assertEquals( "a", copy.getHash( "pom.xml" ) );
+        assertEquals( "0123456789abcdef0123456789abcdef01234567", copy.getTreeId() );
+        assertFalse( WorkspaceManifest.exists( workspace ) );
+    }
+
+    @Test
+    public void testRemoveTree() {
+        final WorkspaceManifest manifest = WorkspaceManifest.load( workspace );
+        manifest.put( "src/main/java/org/Foo.java", "a" );
+        manifest.put( "src/main/java/org/sub/Bar.java", "b" );
+        manifest.put( "src/main/java/organisation/Baz.java", "c" );
+        manifest.put( "src/main/java/org", "d" );
+
+        manifest.removeTree( "src/main/java/org" );
+
+        assertEquals( new HashSet<String>( Arrays.asList( "src/main/java/organisation/Baz.java" ) ), manifest.getPaths() );
+    }
+
+    @Test
+    public void testTreeHashDependsOnPathsAndHashesOnly() {
+        final WorkspaceManifest first = WorkspaceManifest.load( workspace );
+        first.put( "a", "1" );
+        first.put( "b", "2" );
+
+        final WorkspaceManifest second = WorkspaceManifest.load( workspace );
+        second.put( "b", "2" );
+        second.put( "a", "1" );
+        second.setTreeId( "0123456789abcdef0123456789abcdef01234567" );
+
+        assertEquals( first.getTreeHash(), second.getTreeHash() );
+
+        second.put( "b", "3" );
+        assertFalse( first.getTreeHash().equals( second.getTreeHash() ) );
+
+        second.put( "b", "2" );
+        second.put( "c", "2" );
+        assertFalse( first.getTreeHash().equals( second.getTreeHash() ) );
+    }
+
+    @Test
+    public void testSaveReplacesPreviousManifest() throws Exception {
+        final WorkspaceManifest manifest = WorkspaceManifest.load( workspace );
+        manifest.put( "a", "1" );
+        manifest.save();
+        manifest.remove( "a" );
+        manifest.put( "b", "2" );
+        manifest.save();
+
+        assertEquals( new HashSet<String>( Arrays.asList( "b" ) ), WorkspaceManifest.load( workspace ).getPaths() );
+        assertFalse( new File( workspace, WorkspaceManifest.MANIFEST_FILE_NAME + ".tmp" ).exists() );
+        assertArrayEquals( new String[]{ WorkspaceManifest.MANIFEST_FILE_NAME }, workspace.list() );
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.jboss.errai.bus.server.annotations.Service;
+import org.jboss.errai.bus.server.api.RpcContext;
+import org.livespark.backend.server.service.build.BuildLogStore;
+import org.livespark.client.shared.BuildLogLines;
+import org.livespark.client.shared.BuildLogService;
+
+@ApplicationScoped
+@Service
+public class BuildLogServiceImpl implements BuildLogService {
+
+    @Inject
+    private BuildLogStore logStore;
+
+    @Override
+    public BuildLogLines getLines( final int from, final int to ) {
+        return logStore.getLines( RpcContext.getQueueSession().getSessionId(), from, to );
+    }
+
+}
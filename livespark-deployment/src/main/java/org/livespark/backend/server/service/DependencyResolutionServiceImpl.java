@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service;
+
+import java.util.List;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.jboss.errai.bus.server.annotations.Service;
+import org.livespark.backend.server.service.maven.OfflineDependencyResolver;
+import org.livespark.client.shared.DependencyResolutionService;
+import org.livespark.client.shared.DependencyResolutionStatus;
+
+@ApplicationScoped
+@Service
+public class DependencyResolutionServiceImpl implements DependencyResolutionService {
+
+    @Inject
+    private OfflineDependencyResolver dependencyResolver;
+
+    @Override
+    public List<DependencyResolutionStatus> getStatuses() {
+        return dependencyResolver.getStatuses();
+    }
+
+    @Override
+    public boolean isOffline() {
+        return dependencyResolver.isOffline();
+    }
+
+}
@@ -19,13 +19,15 @@ package org.livespark.backend.server.service;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Priority;
-import javax.annotation.Resource;
-import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
 import javax.enterprise.inject.Alternative;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -43,9 +45,20 @@ import org.jboss.errai.bus.server.api.RpcContext;
 import org.kie.workbench.common.services.backend.builder.BuildServiceImpl;
 import org.livespark.backend.server.service.build.BuildCallable;
 import org.livespark.backend.server.service.build.BuildCallableFactory;
+import org.livespark.backend.server.service.codeserver.CodeServerPool;
 import org.livespark.backend.server.service.dir.TmpDirFactory;
+import org.livespark.backend.server.service.dir.WorkspaceManager;
+import org.livespark.backend.server.service.dir.WorkspacePreparer;
+import org.livespark.backend.server.service.incremental.ProjectChangeTracker;
+import org.livespark.backend.server.service.incremental.WorkspaceChanges;
+import org.livespark.backend.server.service.metrics.BuildMetrics;
+import org.livespark.backend.server.service.metrics.BuildTimeline;
+import org.livespark.backend.server.service.scheduler.BuildScheduler;
+import org.livespark.backend.server.service.scheduler.ScheduledBuild;
 import org.livespark.client.shared.GwtWarBuildService;
 import org.livespark.project.ProjectUnpacker;
+import org.livespark.project.SyncSummary;
+import org.livespark.project.WorkspaceManifest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.uberfire.backend.vfs.Path;
@@ -67,26 +80,66 @@ public class GwtWarBuildServiceImpl implements GwtWarBuildService {
 
     private static final Logger logger = LoggerFactory.getLogger( BuildServiceImpl.class );
 
+    private static final String SOURCE_DIR = "src/main/java";
+    private static final String CLASSES_DIR = "target/classes";
+    private static final String MAVEN_STATUS_DIR = "maven-status";
+
     @Inject
     private BuildCallableFactory callableFactory;
 
     @Inject
     private TmpDirFactory tmpDirFactory;
 
+    @Inject
+    private ProjectChangeTracker changeTracker;
+
+    @Inject
+    private WorkspaceManager workspaceManager;
+
     private ProjectUnpacker unpacker;
 
     @Inject
     @Named("ioStrategy")
     private IOService ioService;
 
-    @Resource
-    private ManagedExecutorService execService;
+    @Inject
+    private BuildScheduler buildScheduler;
+
+    @Inject
+    private CodeServerPool codeServerPool;
+
+    @Inject
+    private BuildMetrics metrics;
+
+    @Inject
+    private Event<BuildResults> buildResultsEvent;
+
+    private final WorkspacePreparer workspacePreparer = new WorkspacePreparer() {
+
+        @Override
+        public File prepare( final Project project, final File workspace ) throws IOException {
+            syncProjectSourceToTmpDir( project, workspace );
+            return assertExists( new File( workspace, "pom.xml" ) );
+        }
+
+        @Override
+        public void handOver( final Project project, final File workspace, final File clone ) throws IOException {
+            // The manifest goes first, since the tracker's marker claims the clone is synchronized.
+            WorkspaceManifest.load( workspace ).copyTo( clone );
+            changeTracker.handOver( workspace, clone );
+        }
+    };
 
     @PostConstruct
     private void setup() {
         unpacker = new ProjectUnpacker( ioService, new DotFileFilter() );
     }
 
+    @PreDestroy
+    private void shutdown() {
+        unpacker.shutdown();
+    }
+
     @Override
     public BuildResults build( final Project project ) {
         return new BuildResults();
@@ -94,12 +147,16 @@ public class GwtWarBuildServiceImpl implements GwtWarBuildService {
 
     private BuildResults buildHelper( final Project project,
                                       final HttpSession session,
+                                      final String queueSessionId,
+                                      final String buildMode,
                                       final CallableProducer producer ) {
         final BuildResults buildResults = new BuildResults();
+        final BuildTimeline timeline = new BuildTimeline( metrics );
+        final BuildTimeline.Span workspaceSpan = timeline.start( BuildTimeline.WORKSPACE );
         final File tmpRoot;
         try {
             tmpRoot = tmpDirFactory.getTmpDir( project, session );
-            copyProjectSourceToTmpDir( project, tmpRoot );
+            workspaceSpan.end();
         } catch ( IOException e ) {
             final BuildMessage errorMsg = generateErrorBuildMessage( e );
             buildResults.addBuildMessage( errorMsg );
@@ -109,47 +166,173 @@ public class GwtWarBuildServiceImpl implements GwtWarBuildService {
             return buildResults;
         }
 
-        final File pomXml = assertExists( new File( tmpRoot,
-                                                    "pom.xml" ) );
-        runMaven( project, producer, buildResults, pomXml );
+        final File pomXml = new File( tmpRoot,
+                                      "pom.xml" );
+        final BuildCallable callable = producer.get( project, pomXml );
+        final String buildKey = buildMode + ":" + project.getRootPath().toURI();
+        final boolean queued = buildScheduler.schedule( new ScheduledBuild( session.getId(),
+                                                                            queueSessionId,
+                                                                            buildKey,
+                                                                            tmpRoot,
+                                                                            createBuildTask( project, tmpRoot, pomXml, callable, timeline ),
+                                                                            createCancellationCleanup( tmpRoot ) ) );
+
+        final BuildMessage message = new BuildMessage();
+        message.setLevel( Level.INFO );
+        message.setText( queued ? "Build scheduled..." : "Build already scheduled..." );
+        buildResults.addBuildMessage( message );
 
         return buildResults;
     }
 
-    private void runMaven( final Project project,
-                           final CallableProducer producer,
-                           final BuildResults buildResults,
-                           final File pomXml ) {
-        startBuild( project, producer, pomXml );
+    private Callable<List<BuildMessage>> createBuildTask( final Project project,
+                                                          final File tmpRoot,
+                                                          final File pomXml,
+                                                          final BuildCallable callable,
+                                                          final BuildTimeline timeline ) {
+        final long scheduledAt = System.currentTimeMillis();
+        return new Callable<List<BuildMessage>>() {
+
+            @Override
+            public List<BuildMessage> call() throws Exception {
+                timeline.record( BuildTimeline.QUEUE, System.currentTimeMillis() - scheduledAt );
+                timeline.attach();
+                workspaceManager.beginUse( tmpRoot );
+                try {
+                    /*
+                     * Sources are only synchronized once the build starts, since an earlier build may still be running in the workspace.
+                     */
+                    final BuildTimeline.Span unpackSpan = timeline.start( BuildTimeline.UNPACK );
+                    if ( !WorkspaceManifest.exists( tmpRoot ) ) {
+                        workspaceManager.populate( project, tmpRoot, workspacePreparer );
+                    }
+                    final WorkspaceChanges changes = syncProjectSourceToTmpDir( project, tmpRoot );
+                    unpackSpan.end();
+                    assertExists( pomXml );
+
+                    final List<BuildMessage> messages = callable.call( changes );
+                    if ( !Thread.currentThread().isInterrupted() ) {
+                        publishBuildResults( messages );
+                    }
+
+                    return messages;
+                } finally {
+                    workspaceManager.endUse( tmpRoot );
+                    BuildTimeline.detach();
+                }
+            }
+        };
+    }
+
+    /*
+     * Builds run after the request returned, so their messages reach the client's problems view through an event.
+     */
+    private void publishBuildResults( final List<BuildMessage> messages ) {
+        final BuildResults results = new BuildResults();
+        for ( final BuildMessage message : messages ) {
+            results.addBuildMessage( message );
+        }
+        buildResultsEvent.fire( results );
+    }
 
-        try {
+    /*
+     * A build that is interrupted while packaging can leave a truncated WAR behind, and one that is interrupted while
+     * compiling can leave the compiler's incremental build state half written. Compiled classes are kept, since the
+     * superseding build only recompiles stale sources.
+     */
+    private Runnable createCancellationCleanup( final File tmpRoot ) {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                final File targetDir = new File( tmpRoot, "target" );
+                final File[] wars = targetDir.listFiles();
+                if ( wars != null ) {
+                    for ( final File war : wars ) {
+                        if ( war.isFile() && war.getName().endsWith( ".war" ) ) {
+                            war.delete();
+                        }
+                    }
+                }
+                Files.deleteIfExists( Paths.get( new File( targetDir, MAVEN_STATUS_DIR ).toURI().toString() ),
+                                      StandardDeleteOption.NON_EMPTY_DIRECTORIES );
+            }
+        };
+    }
 
-            final BuildMessage message = new BuildMessage();
-            message.setLevel( Level.INFO );
-            message.setText( "Build started..." );
-            buildResults.addBuildMessage( message );
+    private WorkspaceChanges syncProjectSourceToTmpDir( final Project project, final File tmpDir ) throws IOException {
+        WorkspaceChanges changes = changeTracker.getChangesSince( project, tmpDir );
+
+        SyncSummary summary = null;
+
+        if ( !changes.isFullBuildRequired() ) {
+            /*
+             * Changes that never reached the change tracker, such as commits pushed over git, would leave the workspace
+             * stale. They show up as a difference between the project's tree and the one the workspace was synchronized to.
+             */
+            final org.uberfire.java.nio.file.Path tmpRoot = Paths.get( tmpDir.toURI().toString() );
+            final String treeId = unpacker.getTreeId( project );
+            if ( unpacker.coversChanges( project, changes.getChangedPaths(), tmpRoot, treeId ) ) {
+                summary = unpacker.writePathsToDisk( project, changes.getChangedPaths(), tmpRoot, treeId );
+                deleteClassesOfDeletedSources( project, tmpDir, changes.getChangedPaths() );
+            } else {
+                logger.info( "Workspace {} of {} missed changes made outside of the workbench and is synchronized fully.", tmpDir, project.getProjectName() );
+                changes = changes.asFullBuild();
+            }
+        }
 
-        } catch ( Exception e ) {
-            logBuildException( project,
-                               e );
-            final BuildMessage errorMsg = generateErrorBuildMessage( e );
-            buildResults.addBuildMessage( errorMsg );
-            logger.error( errorMsg.getText(),
-                          e );
+        if ( changes.isFullBuildRequired() ) {
+            summary = copyProjectSourceToTmpDir( project, tmpDir );
+            deleteCompiledClasses( tmpDir );
         }
+
+        changeTracker.markSynced( changes );
+        logger.debug( "Synchronized sources of {} into {}: {}", project.getProjectName(), tmpDir, summary );
+
+        return changes;
     }
 
-    private void startBuild( final Project project,
-                             final CallableProducer producer,
-                             final File pomXml ) {
-        execService.submit( producer.get( project, pomXml ) );
+    private SyncSummary copyProjectSourceToTmpDir( final Project project, final File tmpDir ) throws IOException {
+        if ( !WorkspaceManifest.exists( tmpDir ) ) {
+            // Without a manifest we cannot tell which files on disk came from the project, so start from a clean slate.
+            deleteChangeableContents( tmpDir );
+        }
+
+        return unpacker.syncSourceFileSystemToDisk( project, Paths.get( tmpDir.toURI().toString() ) );
     }
 
-    private File copyProjectSourceToTmpDir( final Project project, final File tmpDir ) throws IOException {
-        deleteChangeableContents( tmpDir );
-        unpacker.writeSourceFileSystemToDisk( project, Paths.get( tmpDir.toURI().toString() ) );
+    private void deleteCompiledClasses( final File tmpDir ) {
+        final File classesDir = new File( tmpDir, CLASSES_DIR );
+        Files.deleteIfExists( Paths.get( classesDir.toURI().toString() ),
+                              StandardDeleteOption.NON_EMPTY_DIRECTORIES );
+    }
 
-        return tmpDir;
+    private void deleteClassesOfDeletedSources( final Project project,
+                                                final File tmpDir,
+                                                final Collection<Path> changedPaths ) {
+        /*
+         * Only stale sources are recompiled, so classes of deleted sources would otherwise stay in target/classes.
+         */
+        final String sourcePrefix = project.getRootPath().toURI() + "/" + SOURCE_DIR + "/";
+        for ( final Path changed : changedPaths ) {
+            final String uri = changed.toURI();
+            if ( uri.startsWith( sourcePrefix ) && uri.endsWith( ".java" ) && !ioService.exists( org.uberfire.backend.server.util.Paths.convert( changed ) ) ) {
+                final String className = uri.substring( sourcePrefix.length(), uri.length() - ".java".length() );
+                final File classFile = new File( tmpDir, CLASSES_DIR + "/" + className + ".class" );
+                final File packageDir = classFile.getParentFile();
+                final String simpleName = classFile.getName().replace( ".class", "" );
+
+                classFile.delete();
+                final File[] innerClasses = packageDir.listFiles();
+                if ( innerClasses != null ) {
+                    for ( final File innerClass : innerClasses ) {
+                        if ( innerClass.getName().startsWith( simpleName + "$" ) ) {
+                            innerClass.delete();
+                        }
+                    }
+                }
+            }
+        }
     }
 
     private void deleteChangeableContents( File tmpDir ) {
@@ -177,13 +360,6 @@ public class GwtWarBuildServiceImpl implements GwtWarBuildService {
         return msg;
     }
 
-    private void logBuildException( final Project project,
-                                    Throwable t ) {
-        // TODO add error messages to build results
-        logger.error( "Unable to build LiveSpark project, " + project.getProjectName(),
-                      t );
-    }
-
     private File assertExists( File file ) {
         if ( !file.exists() )
             throw new RuntimeException( "The following required file did not exist: " + file.getAbsolutePath() );
@@ -205,6 +381,8 @@ public class GwtWarBuildServiceImpl implements GwtWarBuildService {
         final ServletRequest sreq = RpcContext.getServletRequest();
         return buildHelper( project,
                             session,
+                            queueSessionId,
+                            "production",
                             new CallableProducer() {
 
                                 @Override
@@ -219,48 +397,82 @@ public class GwtWarBuildServiceImpl implements GwtWarBuildService {
         final String queueSessionId = RpcContext.getQueueSession().getSessionId();
         final HttpSession session = RpcContext.getHttpSession();
         final ServletRequest sreq = RpcContext.getServletRequest();
-        return buildHelper( project,
-                            session,
-                            new CallableProducer() {
+        if ( !tmpDirFactory.hasTmpDir( session ) ) {
+            final File warmWorkspace = codeServerPool.takeWarmWorkspace( project );
+            if ( warmWorkspace != null ) {
+                // The workspace comes with a running code server, which the dev mode callable acquires.
+                tmpDirFactory.adoptTmpDir( warmWorkspace, session );
+            }
+        }
 
-                                @Override
-                                public BuildCallable get( Project project, File pomXml ) {
-                                    return callableFactory.createDevModeDeploymentCallable( project, pomXml, session, queueSessionId, sreq );
-                                }
-                            } );
+        final BuildResults results = buildHelper( project,
+                                                  session,
+                                                  queueSessionId,
+                                                  "development",
+                                                  new CallableProducer() {
+
+                                                      @Override
+                                                      public BuildCallable get( Project project, File pomXml ) {
+                                                          return callableFactory.createDevModeDeploymentCallable( project, pomXml, session, queueSessionId, sreq );
+                                                      }
+                                                  } );
+        codeServerPool.replenish( project, workspacePreparer );
+
+        return results;
+    }
+
+    @Override
+    public boolean cancelBuild( Project project ) {
+        final HttpSession session = RpcContext.getHttpSession();
+        if ( !tmpDirFactory.hasTmpDir( session ) ) {
+            return false;
+        }
+
+        final File tmpRoot;
+        try {
+            tmpRoot = tmpDirFactory.getTmpDir( project, session );
+        } catch ( IOException e ) {
+            logger.error( "Unable to find the workspace of " + project.getProjectName(), e );
+            return false;
+        }
+
+        return buildScheduler.cancel( session.getId(), tmpRoot );
     }
 
     @Override
     public boolean isBuilt( Project project ) {
         /*
          * In BuildServiceImpl this returns true after the first initial build is performed so that incremental builds can be done subsequently.
-         * Since we don't currently have incremental builds, we always return true.
+         * Here resource changes are only recorded and applied to each build workspace on its next build (which is a full build if the
+         * workspace was never built), so incremental updates can always be accepted.
          */
         return true;
     }
 
     @Override
     public IncrementalBuildResults addPackageResource( Path resource ) {
-        // Currently no incremental build support
+        changeTracker.recordChange( resource );
         return new IncrementalBuildResults();
     }
 
     @Override
     public IncrementalBuildResults deletePackageResource( Path resource ) {
-        // Currently no incremental build support
+        changeTracker.recordChange( resource );
         return new IncrementalBuildResults();
     }
 
     @Override
     public IncrementalBuildResults updatePackageResource( Path resource ) {
-        // Currently no incremental build support
+        changeTracker.recordChange( resource );
         return new IncrementalBuildResults();
     }
 
     @Override
     public IncrementalBuildResults applyBatchResourceChanges( Project project,
                                                               Map<Path, Collection<ResourceChange>> changes ) {
-        // Currently no incremental build support
+        for ( final Path resource : changes.keySet() ) {
+            changeTracker.recordChange( project, resource );
+        }
         return new IncrementalBuildResults();
     }
 
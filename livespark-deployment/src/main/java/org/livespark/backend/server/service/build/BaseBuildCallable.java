@@ -22,20 +22,22 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletRequest;
 
 import org.apache.maven.shared.invoker.DefaultInvocationRequest;
-import org.apache.maven.shared.invoker.DefaultInvoker;
 import org.apache.maven.shared.invoker.InvocationOutputHandler;
 import org.apache.maven.shared.invoker.InvocationResult;
 import org.guvnor.common.services.project.builder.model.BuildMessage;
 import org.guvnor.common.services.project.model.Project;
 import org.guvnor.common.services.shared.message.Level;
-import org.jboss.errai.bus.client.api.base.MessageBuilder;
-import org.jboss.errai.bus.server.api.ServerMessageBus;
-import org.jboss.errai.common.client.protocols.MessageParts;
+import org.livespark.backend.server.service.cache.GwtUnitCache;
+import org.livespark.backend.server.service.incremental.WorkspaceChanges;
+import org.livespark.backend.server.service.maven.MavenBuildEngine;
+import org.livespark.backend.server.service.metrics.BuildTimeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,27 +46,48 @@ public abstract class BaseBuildCallable implements BuildCallable {
     private static final Logger logger = LoggerFactory.getLogger( BaseBuildCallable.class );
     private static final String LOG_BUILD_OUTPUT_PROPERTY = "livespark.log_build_output";
     private static final boolean logBuildOutput = Boolean.valueOf( System.getProperty( LOG_BUILD_OUTPUT_PROPERTY, "false" ) );
+    /*
+     * Stops a build at its first compile error instead of letting Maven run the remaining goals and permutations.
+     */
+    private static final String FAIL_FAST_PROPERTY = "livespark.build.fail_fast";
+    private static final boolean failFast = Boolean.valueOf( System.getProperty( FAIL_FAST_PROPERTY, "false" ) );
+    /*
+     * Despite its name, setting this to false makes the maven-compiler-plugin recompile only stale sources instead of
+     * recompiling the whole module whenever any source changed.
+     */
+    private static final String COMPILER_INCREMENTAL_PROPERTY = "maven.compiler.useIncrementalCompilation";
 
     protected final Project project;
     protected final File pomXml;
     protected final ServletRequest sreq;
-    protected final ServerMessageBus bus;
     protected final String queueSessionId;
     protected final OutputHandler outputHandler;
+    protected final MavenBuildEngine buildEngine;
+    protected final GwtUnitCache unitCache;
 
+    /*
+     * Set while a build runs. Guarded by this, so that a build is never interrupted after it finished.
+     */
+    private MavenOutputParser outputParser;
+    private WorkspaceChanges changes;
+    private Thread buildThread;
+    private boolean abortedOnError;
 
     BaseBuildCallable( Project project,
                        File pomXml,
                        String queueSessionId,
                        ServletRequest sreq,
-                       ServerMessageBus bus ) {
+                       OutputHandler clientOutputHandler,
+                       MavenBuildEngine buildEngine,
+                       GwtUnitCache unitCache ) {
         this.project = project;
         this.pomXml = pomXml;
         this.queueSessionId = queueSessionId;
         this.sreq = sreq;
-        this.bus = bus;
+        this.buildEngine = buildEngine;
+        this.unitCache = unitCache;
 
-        OutputHandler outputHandler = new ClientOutputHandler( bus, queueSessionId );
+        OutputHandler outputHandler = clientOutputHandler;
         if ( logBuildOutput ) {
             outputHandler = new LoggingWrapper( outputHandler, logger );
         }
@@ -76,22 +99,98 @@ public abstract class BaseBuildCallable implements BuildCallable {
 
     @Override
     public List<BuildMessage> call() throws Exception {
+        return call( null );
+    }
+
+    @Override
+    public List<BuildMessage> call( final WorkspaceChanges changes ) throws Exception {
         final List<BuildMessage> retVal = new ArrayList<BuildMessage>();
+        final MavenOutputParser parser = new MavenOutputParser( project, pomXml.getParentFile() );
+        synchronized ( this ) {
+            outputParser = parser;
+            this.changes = changes;
+            buildThread = Thread.currentThread();
+            abortedOnError = false;
+        }
 
         try {
-            cleanClientConsole();
             final InvocationResult res = executeRequest();
             retVal.addAll( postBuildTasks( res ) );
         } catch ( Throwable t ) {
-            logBuildException( project, t );
+            if ( isAbortedOnError() ) {
+                retVal.add( createFailureMessage() );
+            } else if ( isCancelled( t ) ) {
+                logger.debug( "Build of {} was cancelled.", project.getProjectName() );
+                Thread.currentThread().interrupt();
+            } else {
+                logBuildException( project, t );
+                retVal.add( createErrorMessage( t ) );
+            }
+        } finally {
+            final boolean aborted;
+            synchronized ( this ) {
+                outputParser = null;
+                this.changes = null;
+                buildThread = null;
+                aborted = abortedOnError;
+            }
+            if ( aborted ) {
+                // The interrupt only served to stop Maven.
+                Thread.interrupted();
+            }
+            retVal.addAll( 0, parser.getMessages() );
+
+            final String summary = BuildTimeline.current().getSummary();
+            if ( !summary.isEmpty() ) {
+                sendOutputToClient( "[INFO] Build phases: " + summary );
+            }
+            outputHandler.flush();
         }
 
         return retVal;
     }
 
+    /*
+     * A forked Maven process is killed when the build thread is interrupted, which surfaces as an exception caused by
+     * the interrupt.
+     */
+    private boolean isCancelled( final Throwable t ) {
+        if ( Thread.currentThread().isInterrupted() ) {
+            return true;
+        }
+        for ( Throwable cause = t; cause != null; cause = cause.getCause() ) {
+            if ( cause instanceof InterruptedException || cause instanceof CancellationException ) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return The changes synchronized into the workspace before the running build, or null if they are unknown.
+     */
+    protected synchronized WorkspaceChanges getChanges() {
+        return changes;
+    }
+
+    private synchronized boolean isAbortedOnError() {
+        return abortedOnError;
+    }
+
+    /*
+     * Interrupting the build thread stops Maven the same way as a cancelled build.
+     */
+    private synchronized void abortOnError() {
+        if ( buildThread != null && !abortedOnError ) {
+            abortedOnError = true;
+            outputHandler.handleOutput( "[ERROR] Stopping the build at the first compile error." );
+            buildThread.interrupt();
+        }
+    }
+
     private void logBuildException( final Project project,
                                     Throwable t ) {
-        // TODO add error messages to build results
         logger.error( "Unable to build LiveSpark project, " + project.getProjectName(),
                       t );
     }
@@ -110,8 +209,16 @@ public abstract class BaseBuildCallable implements BuildCallable {
 
     private BuildMessage createFailureMessage() {
         final BuildMessage message = new BuildMessage();
-        message.setLevel( Level.INFO );
-        message.setText( "Build was successful" );
+        message.setLevel( Level.ERROR );
+        message.setText( "Build failed" );
+
+        return message;
+    }
+
+    private BuildMessage createErrorMessage( final Throwable t ) {
+        final BuildMessage message = new BuildMessage();
+        message.setLevel( Level.ERROR );
+        message.setText( "Unable to build project: " + t.getMessage() );
 
         return message;
     }
@@ -134,7 +241,16 @@ public abstract class BaseBuildCallable implements BuildCallable {
             }
         } );
 
-        return new DefaultInvoker().execute( packageRequest );
+        final GwtUnitCache.Lease unitCacheLease = unitCache.lease( pomXml );
+        unitCacheLease.configure( packageRequest );
+
+        final BuildTimeline.Span mavenSpan = BuildTimeline.current().start( BuildTimeline.MAVEN );
+        try {
+            return buildEngine.execute( packageRequest );
+        } finally {
+            mavenSpan.end();
+            unitCacheLease.release();
+        }
     }
 
     protected DefaultInvocationRequest createPackageRequest( final File pomXml ) {
@@ -142,17 +258,16 @@ public abstract class BaseBuildCallable implements BuildCallable {
 
         packageRequest.setPomFile( pomXml );
         packageRequest.setGoals( Collections.singletonList( "package" ) );
+        packageRequest.setProperties( createBuildProperties() );
 
         return packageRequest;
     }
 
-    private void cleanClientConsole() {
-        MessageBuilder.createMessage()
-                      .toSubject( "MavenBuilderOutput" )
-                      .signalling()
-                      .with( MessageParts.SessionID, queueSessionId )
-                      .with( "clean", Boolean.TRUE )
-                      .noErrorHandling().sendNowWith( bus );
+    protected Properties createBuildProperties() {
+        final Properties props = new Properties();
+        props.setProperty( COMPILER_INCREMENTAL_PROPERTY, "false" );
+
+        return props;
     }
 
     protected String getWildflyHome() throws MalformedURLException, URISyntaxException {
@@ -183,5 +298,16 @@ public abstract class BaseBuildCallable implements BuildCallable {
 
     protected void sendOutputToClient( String output ) {
         outputHandler.handleOutput( output );
+
+        final MavenOutputParser parser;
+        synchronized ( this ) {
+            parser = outputParser;
+        }
+        if ( parser != null ) {
+            final BuildMessage message = parser.parse( output );
+            if ( failFast && message != null && MavenOutputParser.isFatal( message ) ) {
+                abortOnError();
+            }
+        }
     }
 }
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.enterprise.event.Event;
 import javax.servlet.ServletRequest;
@@ -32,32 +33,101 @@ import javax.servlet.http.HttpSessionBindingEvent;
 import javax.servlet.http.HttpSessionBindingListener;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.FileFilterUtils;
-import org.apache.commons.io.filefilter.IOFileFilter;
-import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
-import org.apache.commons.io.monitor.FileAlterationMonitor;
-import org.apache.commons.io.monitor.FileAlterationObserver;
 import org.apache.maven.shared.invoker.InvocationResult;
+import org.codehaus.plexus.util.cli.CommandLineException;
 import org.guvnor.common.services.project.builder.model.BuildMessage;
 import org.guvnor.common.services.project.model.Project;
-import org.jboss.errai.bus.server.api.ServerMessageBus;
+import org.livespark.backend.server.service.cache.GwtUnitCache;
+import org.livespark.backend.server.service.cache.WarCache;
+import org.livespark.backend.server.service.deploy.DeploymentListener;
+import org.livespark.backend.server.service.deploy.DeploymentStrategy;
+import org.livespark.backend.server.service.deploy.DeploymentWatcher;
+import org.livespark.backend.server.service.maven.MavenBuildEngine;
+import org.livespark.backend.server.service.metrics.BuildTimeline;
+import org.livespark.backend.server.service.reaper.ResourceReaper;
 import org.livespark.client.shared.AppReady;
 
 public class BuildAndDeployCallable extends BaseBuildCallable implements HttpSessionBindingListener {
 
+    private static final InvocationResult CACHED_RESULT = new InvocationResult() {
+
+        @Override
+        public int getExitCode() {
+            return 0;
+        }
+
+        @Override
+        public CommandLineException getExecutionException() {
+            return null;
+        }
+    };
+
     private final Event<AppReady> appReadyEvent;
+    private final WarCache warCache;
+    private final DeploymentWatcher deploymentWatcher;
+    private final DeploymentStrategy deploymentStrategy;
+    protected final ResourceReaper reaper;
     protected final HttpSession session;
 
+    /*
+     * Started when the last deployment was handed to the server, and ended when the server deployed it.
+     */
+    private final AtomicReference<BuildTimeline.Span> pendingDeployment = new AtomicReference<BuildTimeline.Span>();
+
+    private volatile File lastDeployment;
+
     BuildAndDeployCallable( Project project,
                             File pomXml,
                             HttpSession session,
                             String queueSessionId,
                             ServletRequest sreq,
-                            ServerMessageBus bus,
-                            Event<AppReady> appReadyEvent ) {
-        super( project, pomXml, queueSessionId, sreq, bus );
+                            OutputHandler clientOutputHandler,
+                            MavenBuildEngine buildEngine,
+                            Event<AppReady> appReadyEvent,
+                            WarCache warCache,
+                            GwtUnitCache unitCache,
+                            DeploymentWatcher deploymentWatcher,
+                            DeploymentStrategy deploymentStrategy,
+                            ResourceReaper reaper ) {
+        super( project, pomXml, queueSessionId, sreq, clientOutputHandler, buildEngine, unitCache );
         this.session = session;
         this.appReadyEvent = appReadyEvent;
+        this.warCache = warCache;
+        this.deploymentWatcher = deploymentWatcher;
+        this.deploymentStrategy = deploymentStrategy;
+        this.reaper = reaper;
+    }
+
+    /**
+     * Deploys the WAR cached for the current content of the workspace if there is one, and otherwise packages the
+     * project and caches the resulting WAR.
+     */
+    @Override
+    protected InvocationResult executeRequest() throws Throwable {
+        final String cacheKey = warCache.getKey( pomXml.getParentFile(), getBuildMode() );
+
+        if ( cacheKey != null && warCache.restore( cacheKey, getTargetDir() ) ) {
+            sendOutputToClient( "[INFO] Project is unchanged since it was last built. Using the cached WAR." );
+            return CACHED_RESULT;
+        }
+
+        final InvocationResult res = executePackageRequest();
+        if ( cacheKey != null && res.getExitCode() == 0 ) {
+            warCache.store( cacheKey, getWarFiles() );
+        }
+
+        return res;
+    }
+
+    protected InvocationResult executePackageRequest() throws Throwable {
+        return super.executeRequest();
+    }
+
+    /**
+     * @return Identifies what the packaged WAR depends on besides the project sources.
+     */
+    protected String getBuildMode() {
+        return "production";
     }
 
     @Override
@@ -70,7 +140,8 @@ public class BuildAndDeployCallable extends BaseBuildCallable implements HttpSes
     }
 
     protected List<BuildMessage> deployIfSuccessful( InvocationResult res ) throws MalformedURLException, URISyntaxException, IOException, Exception {
-        if ( res.getExitCode() == 0 )
+        // A cancelled build is superseded, so it must not replace what the newer build deploys.
+        if ( res.getExitCode() == 0 && !Thread.currentThread().isInterrupted() )
             deploy();
 
         return Collections.emptyList();
@@ -83,8 +154,20 @@ public class BuildAndDeployCallable extends BaseBuildCallable implements HttpSes
             final File destination = getDeployWarFile( deployDir, war.getName() );
 
             sendOutputToClient( "Deploying " + war.getName() + " as " + destination.getName() + " ..." );
-            replaceDeployedWarFile( war, destination );
+            // Watch before deploying so that a fast deployment scanner cannot be missed.
             maybeStartDeployedFileMonitor( deployDir, destination );
+            final BuildTimeline timeline = BuildTimeline.current();
+            final BuildTimeline.Span copySpan = timeline.start( BuildTimeline.DEPLOY_COPY );
+            final boolean redeploying = deploymentStrategy.deploy( war, destination );
+            copySpan.end();
+            lastDeployment = destination;
+            if ( redeploying ) {
+                pendingDeployment.set( timeline.start( BuildTimeline.SERVER_DEPLOY ) );
+            } else {
+                sendOutputToClient( "Only static resources changed. Updated " + destination.getName() + " without redeploying it." );
+                timeline.record( BuildTimeline.APP_READY, timeline.getElapsed() );
+                fireAppReadyEvent( destination, sreq );
+            }
         }
     }
 
@@ -93,7 +176,7 @@ public class BuildAndDeployCallable extends BaseBuildCallable implements HttpSes
         FileMonitorHandle monitorHandle = (FileMonitorHandle) session.getAttribute( monitorHandleAttr );
 
         if ( monitorHandle == null ) {
-            monitorHandle = startDeployedFileObserver( deployDir, destination );
+            monitorHandle = watchDeployment( destination );
             session.setAttribute( monitorHandleAttr, monitorHandle );
         }
     }
@@ -102,32 +185,31 @@ public class BuildAndDeployCallable extends BaseBuildCallable implements HttpSes
         return FileMonitorHandle.class.getSimpleName() + "-" + destination.getName();
     }
 
-    private FileMonitorHandle startDeployedFileObserver( File deployDir, final File destination ) throws Exception {
-        final FileAlterationMonitor monitor = new FileAlterationMonitor( 500 );
-        final IOFileFilter filter = FileFilterUtils.nameFileFilter( destination.getName() + ".deployed" );
-        final FileAlterationObserver observer = new FileAlterationObserver( deployDir, filter );
-        observer.addListener( new FileAlterationListenerAdaptor() {
+    private FileMonitorHandle watchDeployment( final File destination ) {
+        final DeploymentWatcher.Registration registration = deploymentWatcher.watch( destination, new DeploymentListener() {
 
             @Override
-            public void onFileCreate( final File file ) {
+            public void onDeployed( final File deployment ) {
+                final BuildTimeline.Span serverDeploySpan = pendingDeployment.getAndSet( null );
+                if ( serverDeploySpan != null ) {
+                    final BuildTimeline timeline = serverDeploySpan.getTimeline();
+                    serverDeploySpan.end();
+                    timeline.record( BuildTimeline.APP_READY, timeline.getElapsed() );
+                    sendOutputToClient( "[INFO] Deployed " + deployment.getName() + ". Build phases: " + timeline.getSummary() );
+                    outputHandler.flush();
+                }
                 fireAppReadyEvent( destination, sreq );
             }
 
             @Override
-            public void onFileChange(final File file) {
-                fireAppReadyEvent( destination, sreq );
+            public void onDeploymentFailed( final File deployment ) {
+                pendingDeployment.set( null );
+                sendOutputToClient( "[ERROR] Deployment of " + deployment.getName() + " failed. See the server log for details." );
+                outputHandler.flush();
             }
         } );
-        monitor.addObserver( observer );
-        monitor.start();
 
-        return new FileMonitorHandle( monitor, destination.getName() );
-    }
-
-    private void replaceDeployedWarFile( final File war,
-                            final File destination ) throws IOException {
-        FileUtils.deleteQuietly( destination );
-        FileUtils.copyFile( war, destination );
+        return new FileMonitorHandle( registration, destination.getName(), reaper );
     }
 
     private File getDeployWarFile( File deployDir, String packagedWarName ) {
@@ -157,7 +239,14 @@ public class BuildAndDeployCallable extends BaseBuildCallable implements HttpSes
         return deployDir;
     }
 
-    private void fireAppReadyEvent(File war, ServletRequest sreq) {
+    /**
+     * @return The WAR this callable deployed last, or null if it has not deployed yet.
+     */
+    protected File getLastDeployment() {
+        return lastDeployment;
+    }
+
+    protected void fireAppReadyEvent(File war, ServletRequest sreq) {
         final String url = "http://" +
             sreq.getServerName() + ":" +
             sreq.getServerPort() + "/" +
@@ -172,13 +261,31 @@ public class BuildAndDeployCallable extends BaseBuildCallable implements HttpSes
 
     @Override
     public void valueUnbound( HttpSessionBindingEvent event ) {
+        /*
+         * The deployments are looked up now, because the workspace holding the packaged WARs is deleted in the
+         * background as well.
+         */
+        final List<File> deployments = new ArrayList<File>();
         try {
             final File deploymentDir = getDeployDir();
             for ( final File war : getWarFiles() ) {
-                FileUtils.deleteQuietly( getDeployWarFile( deploymentDir, war.getName() ) );
+                deployments.add( getDeployWarFile( deploymentDir, war.getName() ) );
             }
         } catch ( Throwable t ) {
             throw new RuntimeException( t );
         }
+
+        for ( final File deployment : deployments ) {
+            reaper.submit( "deployment " + deployment, new Runnable() {
+
+                @Override
+                public void run() {
+                    deploymentStrategy.undeploy( deployment );
+                    if ( deployment.exists() ) {
+                        throw new IllegalStateException( "Unable to delete " + deployment );
+                    }
+                }
+            } );
+        }
     }
 }
\ No newline at end of file
@@ -18,9 +18,8 @@ package org.livespark.backend.server.service.build;
 
 import java.io.File;
 import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 
 import javax.enterprise.event.Event;
 import javax.servlet.ServletRequest;
@@ -28,79 +27,174 @@ import javax.servlet.http.HttpSession;
 import javax.servlet.http.HttpSessionBindingEvent;
 
 import org.apache.maven.shared.invoker.DefaultInvocationRequest;
-import org.apache.maven.shared.invoker.DefaultInvoker;
 import org.apache.maven.shared.invoker.InvocationOutputHandler;
 import org.apache.maven.shared.invoker.InvocationRequest;
 import org.apache.maven.shared.invoker.InvocationResult;
-import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.guvnor.common.services.project.builder.model.BuildMessage;
 import org.guvnor.common.services.project.model.Project;
-import org.jboss.errai.bus.server.api.ServerMessageBus;
+import org.livespark.backend.server.service.cache.GwtUnitCache;
+import org.livespark.backend.server.service.cache.WarCache;
+import org.livespark.backend.server.service.codeserver.CodeServer;
+import org.livespark.backend.server.service.codeserver.CodeServerPool;
+import org.livespark.backend.server.service.deploy.DeploymentStrategy;
+import org.livespark.backend.server.service.deploy.DeploymentWatcher;
+import org.livespark.backend.server.service.incremental.WorkspaceChanges;
+import org.livespark.backend.server.service.maven.MavenBuildEngine;
+import org.livespark.backend.server.service.metrics.BuildTimeline;
+import org.livespark.backend.server.service.reaper.ResourceReaper;
 import org.livespark.client.shared.AppReady;
+import org.uberfire.backend.vfs.Path;
 
 public class BuildAndDeployWithCodeServerCallable extends BuildAndDeployCallable {
 
-    private static final String GWT_CODE_SERVER_PORT = "gwt.codeServerPort";
-    private static final String GWT_CODE_SERVER_LAUNCHER_DIR = "gwt.codeServer.launcherDir";
-    private volatile boolean isCodeServerReady = false;
-    private volatile Throwable error = null;
-    private ExecutorService execService;
-    private Future< ? > runningCodeServer;
-    private final CodeServerPortHandle codeServerPort;
+    private static final String FAST_REFRESH_PROPERTY = "livespark.devmode.fast_refresh";
+    private static final boolean fastRefreshEnabled = Boolean.parseBoolean( System.getProperty( FAST_REFRESH_PROPERTY, "true" ) );
+
+    private static final String CLIENT_PACKAGE = "/client/";
+    private static final String SHARED_PACKAGE = "/client/shared/";
+    private static final String MAIN_SOURCES = "/src/main/";
+
+    private static final InvocationResult RECOMPILED = new InvocationResult() {
+
+        @Override
+        public int getExitCode() {
+            return 0;
+        }
+
+        @Override
+        public CommandLineException getExecutionException() {
+            return null;
+        }
+    };
+
+    private final CodeServer codeServer;
+    private final CodeServerPool codeServerPool;
+
+    /*
+     * True while a build refreshes the client through the code server instead of packaging.
+     */
+    private volatile boolean fastRefresh;
 
     BuildAndDeployWithCodeServerCallable( Project project,
                                           File pomXml,
                                           HttpSession session,
                                           String queueSessionId,
                                           ServletRequest sreq,
-                                          ServerMessageBus bus,
+                                          OutputHandler clientOutputHandler,
+                                          MavenBuildEngine buildEngine,
                                           Event<AppReady> appReadyEvent,
-                                          CodeServerPortHandle codeServerPort,
-                                          ExecutorService execService ) {
-        super( project, pomXml, session, queueSessionId, sreq, bus, appReadyEvent );
-        this.codeServerPort = codeServerPort;
-        this.execService = execService;
+                                          WarCache warCache,
+                                          GwtUnitCache unitCache,
+                                          DeploymentWatcher deploymentWatcher,
+                                          DeploymentStrategy deploymentStrategy,
+                                          ResourceReaper reaper,
+                                          CodeServerPool codeServerPool ) {
+        super( project, pomXml, session, queueSessionId, sreq, clientOutputHandler, buildEngine, appReadyEvent, warCache, unitCache, deploymentWatcher, deploymentStrategy, reaper );
+        this.codeServerPool = codeServerPool;
+        this.codeServer = codeServerPool.acquire( project, pomXml, outputHandler );
     }
 
     public Integer getCodeServerPort() {
-        return codeServerPort.getPortNumber();
+        return codeServer.getPort();
     }
 
     @Override
     protected InvocationResult executeRequest() throws Throwable {
-        final InvocationRequest codeServerRequest = createCodeServerRequest( pomXml );
-        final DefaultInvocationRequest packageRequest = createDevModePackageRequest( pomXml );
+        // A warm code server from the pool is already running, otherwise it is (re)started here.
+        final BuildTimeline.Span codeServerSpan = BuildTimeline.current().start( BuildTimeline.CODE_SERVER );
+        codeServer.start();
+        codeServer.awaitReady();
+        codeServerSpan.end();
+
+        fastRefresh = fastRefreshEnabled && getLastDeployment() != null && isClientOnly( getChanges() );
+        if ( fastRefresh ) {
+            if ( recompile() ) {
+                return RECOMPILED;
+            }
+            // Packaging also gets client changes out, the code server compiles them when the application reloads.
+            fastRefresh = false;
+            if ( Thread.currentThread().isInterrupted() ) {
+                throw new InterruptedException();
+            }
+            sendOutputToClient( "[WARNING] Recompiling through the code server failed. Packaging and redeploying instead." );
+        }
 
-        setCodeServerOutputHandler( codeServerRequest );
-        setPackageOutputHandler( packageRequest );
+        return super.executeRequest();
+    }
 
-        maybeLaunchCodeServer( codeServerRequest );
-        blockUntilCodeServerIsReadyOrError();
-        if ( error != null ) {
-            // TODO Handle this error. Currently gets swallowed.
-            throw error;
+    /*
+     * In development mode the deployed application loads its client code from the code server, so client changes only
+     * need a recompile. Shared types are also loaded by the deployed server side, so changing them requires packaging.
+     */
+    private static boolean isClientOnly( final WorkspaceChanges changes ) {
+        if ( changes == null || changes.isFullBuildRequired() || changes.getChangedPaths().isEmpty() ) {
+            return false;
+        }
+        for ( final Path path : changes.getChangedPaths() ) {
+            final String uri = path.toURI();
+            if ( !uri.contains( MAIN_SOURCES ) || !uri.contains( CLIENT_PACKAGE ) || uri.contains( SHARED_PACKAGE ) ) {
+                return false;
+            }
         }
 
-        return new DefaultInvoker().execute( packageRequest );
+        return true;
+    }
+
+    private boolean recompile() {
+        sendOutputToClient( "[INFO] Only client sources changed. Recompiling through the code server without redeploying." );
+
+        final BuildTimeline.Span recompileSpan = BuildTimeline.current().start( BuildTimeline.RECOMPILE );
+        try {
+            return codeServer.recompile();
+        } finally {
+            recompileSpan.end();
+        }
     }
 
-    protected InvocationRequest createCodeServerRequest( final File pomXml ) {
-        final DefaultInvocationRequest codeServerRequest = new DefaultInvocationRequest();
-        final Properties codeServerProperties = new Properties();
-        final File webappFolder = new File( pomXml.getParentFile(), "src/main/webapp" );
+    /*
+     * After a fast refresh the deployed application is current, so it is only reloaded.
+     */
+    @Override
+    protected List<BuildMessage> deployIfSuccessful( final InvocationResult res ) throws Exception {
+        if ( !fastRefresh ) {
+            return super.deployIfSuccessful( res );
+        }
+
+        if ( res.getExitCode() == 0 && !Thread.currentThread().isInterrupted() ) {
+            final BuildTimeline timeline = BuildTimeline.current();
+            timeline.record( BuildTimeline.APP_READY, timeline.getElapsed() );
+            fireAppReadyEvent( getLastDeployment(), sreq );
+        }
+
+        return Collections.emptyList();
+    }
 
-        codeServerProperties.setProperty( GWT_CODE_SERVER_LAUNCHER_DIR, webappFolder.getAbsolutePath() );
-        codeServerProperties.setProperty( GWT_CODE_SERVER_PORT, String.valueOf( codeServerPort.getPortNumber() ) );
+    @Override
+    protected InvocationResult executePackageRequest() throws Throwable {
+        final DefaultInvocationRequest packageRequest = createDevModePackageRequest( pomXml );
+        setPackageOutputHandler( packageRequest );
 
-        codeServerRequest.setPomFile( pomXml );
-        codeServerRequest.setGoals( Collections.singletonList( "gwt:run-codeserver" ) );
-        codeServerRequest.setProperties( codeServerProperties );
+        final BuildTimeline.Span mavenSpan = BuildTimeline.current().start( BuildTimeline.MAVEN );
+        try {
+            return buildEngine.execute( packageRequest );
+        } finally {
+            mavenSpan.end();
+        }
+    }
 
-        return codeServerRequest;
+    /*
+     * The code server writes a launcher script with its port into the webapp, so WARs packaged for different code
+     * servers are not interchangeable.
+     */
+    @Override
+    protected String getBuildMode() {
+        return "devmode:" + codeServer.getPort();
     }
 
     protected DefaultInvocationRequest createDevModePackageRequest( final File pomXml ) {
         final DefaultInvocationRequest packageRequest = new DefaultInvocationRequest();
-        final Properties props = new Properties();
+        final Properties props = createBuildProperties();
 
         props.setProperty( "gwt.compiler.skip", "true" );
 
@@ -111,45 +205,6 @@ public class BuildAndDeployWithCodeServerCallable extends BuildAndDeployCallable
         return packageRequest;
     }
 
-    private void maybeLaunchCodeServer(final InvocationRequest codeServerRequest ) {
-        if ( !isCodeServerReady ) {
-            runningCodeServer = execService.submit( new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        new DefaultInvoker().execute( codeServerRequest );
-                    } catch ( MavenInvocationException e ) {
-                        error = e;
-                    }
-                }
-            } );
-        }
-    }
-
-    private void maybeShutdownCodeServer() {
-        if ( runningCodeServer != null )
-            runningCodeServer.cancel( true );
-    }
-
-    private void blockUntilCodeServerIsReadyOrError() throws InterruptedException {
-        while ( !( isCodeServerReady || error != null ) ) {
-            Thread.sleep( 500 );
-        }
-    }
-
-    private void setCodeServerOutputHandler( final InvocationRequest codeServerRequest ) {
-        codeServerRequest.setOutputHandler( new InvocationOutputHandler() {
-
-            @Override
-            public void consumeLine( String line ) {
-                if ( !isCodeServerReady && line.contains( "The code server is ready at" ) ) {
-                    isCodeServerReady = true;
-                }
-                sendOutputToClient( line );
-            }
-        } );
-    }
-
     private void setPackageOutputHandler( final InvocationRequest packageRequest ) {
         packageRequest.setOutputHandler( new InvocationOutputHandler() {
             @Override
@@ -165,8 +220,13 @@ public class BuildAndDeployWithCodeServerCallable extends BuildAndDeployCallable
 
     @Override
     public void valueUnbound( HttpSessionBindingEvent event ) {
-        maybeShutdownCodeServer();
-        codeServerPort.relinquishPort();
+        reaper.submit( "code server on port " + codeServer.getPort(), new Runnable() {
+
+            @Override
+            public void run() {
+                codeServerPool.release( project, codeServer );
+            }
+        } );
         super.valueUnbound( event );
     }
 }
\ No newline at end of file
@@ -20,7 +20,17 @@ import java.util.List;
 import java.util.concurrent.Callable;
 
 import org.guvnor.common.services.project.builder.model.BuildMessage;
+import org.livespark.backend.server.service.incremental.WorkspaceChanges;
 
 
 public interface BuildCallable extends Callable<List<BuildMessage>> {
+
+    /**
+     * Builds the workspace after the given changes were synchronized into it.
+     *
+     * @param changes
+     *            The synchronized changes, or null if they are unknown.
+     */
+    List<BuildMessage> call( WorkspaceChanges changes ) throws Exception;
+
 }
@@ -17,19 +17,21 @@
 package org.livespark.backend.server.service.build;
 
 import java.io.File;
-import java.util.Set;
 
-import javax.annotation.Resource;
-import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpSession;
 
-import org.apache.mina.util.ConcurrentHashSet;
 import org.guvnor.common.services.project.model.Project;
-import org.jboss.errai.bus.server.api.ServerMessageBus;
+import org.livespark.backend.server.service.cache.GwtUnitCache;
+import org.livespark.backend.server.service.cache.WarCache;
+import org.livespark.backend.server.service.codeserver.CodeServerPool;
+import org.livespark.backend.server.service.deploy.DeploymentStrategyProvider;
+import org.livespark.backend.server.service.deploy.DeploymentWatcher;
+import org.livespark.backend.server.service.maven.MavenBuildEngineProvider;
+import org.livespark.backend.server.service.reaper.ResourceReaper;
 import org.livespark.client.shared.AppReady;
 
 @ApplicationScoped
@@ -38,20 +40,32 @@ public class BuildCallableFactory {
     public static final String CODE_SERVER_CALLABLE_ATTR_KEY = BuildAndDeployWithCodeServerCallable.class.getCanonicalName();
     public static final String BUILD_AND_DEPLOY_CALLABLE_ATTR_KEY = BuildAndDeployCallable.class.getCanonicalName();
 
-    // TODO make configurable
-    private static final int CODE_SERVER_LOWEST_PORT = 50000;
-    private static final int CODE_SERVER_HIGHEST_PORT = 50100;
-
     @Inject
     private Event<AppReady> appReadyEvent;
 
     @Inject
-    private ServerMessageBus bus;
+    private ClientOutputService clientOutputService;
+
+    @Inject
+    private MavenBuildEngineProvider buildEngineProvider;
+
+    @Inject
+    private WarCache warCache;
+
+    @Inject
+    private GwtUnitCache unitCache;
+
+    @Inject
+    private DeploymentWatcher deploymentWatcher;
 
-    @Resource
-    private ManagedExecutorService execService;
+    @Inject
+    private DeploymentStrategyProvider deploymentStrategyProvider;
 
-    private final Set<Integer> leasedCodeServerPorts = new ConcurrentHashSet<Integer>();
+    @Inject
+    private CodeServerPool codeServerPool;
+
+    @Inject
+    private ResourceReaper reaper;
 
     public BuildCallable createProductionDeploymentCallable( final Project project,
                                                              final File pomXml,
@@ -65,8 +79,14 @@ public class BuildCallableFactory {
                                                    session,
                                                    queueSessionId,
                                                    sreq,
-                                                   bus,
-                                                   appReadyEvent );
+                                                   clientOutputService.createOutputHandler( queueSessionId ),
+                                                   buildEngineProvider.getEngine(),
+                                                   appReadyEvent,
+                                                   warCache,
+                                                   unitCache,
+                                                   deploymentWatcher,
+                                                   deploymentStrategyProvider.getStrategy(),
+                                                   reaper );
             session.setAttribute( BUILD_AND_DEPLOY_CALLABLE_ATTR_KEY, callable );
         }
 
@@ -85,51 +105,19 @@ public class BuildCallableFactory {
                                                                  session,
                                                                  queueSessionId,
                                                                  sreq,
-                                                                 bus,
+                                                                 clientOutputService.createOutputHandler( queueSessionId ),
+                                                                 buildEngineProvider.getEngine(),
                                                                  appReadyEvent,
-                                                                 getAvailableCodeServerPort(),
-                                                                 execService );
+                                                                 warCache,
+                                                                 unitCache,
+                                                                 deploymentWatcher,
+                                                                 deploymentStrategyProvider.getStrategy(),
+                                                                 reaper,
+                                                                 codeServerPool );
             session.setAttribute( CODE_SERVER_CALLABLE_ATTR_KEY, callable );
         }
 
         return callable;
     }
 
-    private CodeServerPortHandle getAvailableCodeServerPort() {
-        return new CodeServerPortHandle() {
-
-            private Integer leasedPort = leaseAvailableCodeServerPort();
-
-            @Override
-            public void relinquishPort() {
-                leasedCodeServerPorts.remove( leasedPort );
-                leasedPort = null;
-            }
-
-            @Override
-            public Integer getPortNumber() {
-                if ( leasedPort != null )
-                    return leasedPort;
-                else
-                    throw new RuntimeException( "Cannot get port number after relinquishing." );
-            }
-        };
-    }
-
-    private synchronized Integer leaseAvailableCodeServerPort() {
-        Integer port = CODE_SERVER_LOWEST_PORT;
-
-        while ( port <= CODE_SERVER_HIGHEST_PORT && leasedCodeServerPorts.contains( port ) ) {
-            port++;
-        }
-
-        if ( port > CODE_SERVER_HIGHEST_PORT ) {
-            throw new RuntimeException( "All available code server ports are in use." );
-        }
-
-        leasedCodeServerPorts.add( port );
-
-        return port;
-    }
-
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.build;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.livespark.client.shared.BuildLogLines;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the most recent build output sent to each client, so that clients only need to keep the lines they show.
+ * Lines are numbered from the last time the client's output was cleaned. Only a bounded number of lines is kept per
+ * client, and only for a bounded number of clients.
+ */
+@ApplicationScoped
+public class BuildLogStore {
+
+    private static final Logger logger = LoggerFactory.getLogger( BuildLogStore.class );
+
+    private static final String HISTORY_LINES_PROPERTY = "livespark.build_output.history_lines";
+    private static final int DEFAULT_HISTORY_LINES = 50000;
+    private static final int MAX_LOGS = 100;
+
+    private static class Log {
+
+        final ArrayDeque<String> lines = new ArrayDeque<String>();
+        int firstLine = 0;
+
+        int nextLine() {
+            return firstLine + lines.size();
+        }
+    }
+
+    private final int historyLines = readHistoryLines();
+
+    private final Map<String, Log> logs = new LinkedHashMap<String, Log>( 16, 0.75f, true ) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( final Map.Entry<String, Log> eldest ) {
+            return size() > MAX_LOGS;
+        }
+    };
+
+    private static int readHistoryLines() {
+        final String configured = System.getProperty( HISTORY_LINES_PROPERTY );
+        if ( configured != null ) {
+            try {
+                return Math.max( 0, Integer.parseInt( configured.trim() ) );
+            } catch ( NumberFormatException e ) {
+                logger.warn( "Ignoring invalid value for " + HISTORY_LINES_PROPERTY + ": " + configured );
+            }
+        }
+
+        return DEFAULT_HISTORY_LINES;
+    }
+
+    /**
+     * Records a chunk of newline-terminated lines sent to a client.
+     *
+     * @return The index of the first line of the chunk.
+     */
+    public synchronized int append( final String queueSessionId, final String chunk ) {
+        final Log log = getLog( queueSessionId );
+        final int firstLine = log.nextLine();
+
+        int lineStart = 0;
+        int lineEnd;
+        while ( ( lineEnd = chunk.indexOf( '\n', lineStart ) ) != -1 ) {
+            log.lines.addLast( chunk.substring( lineStart, lineEnd ) );
+            lineStart = lineEnd + 1;
+        }
+        while ( log.lines.size() > historyLines ) {
+            log.lines.removeFirst();
+            log.firstLine++;
+        }
+
+        return firstLine;
+    }
+
+    public synchronized void clear( final String queueSessionId ) {
+        logs.remove( queueSessionId );
+    }
+
+    /**
+     * @return The remembered lines in the range [from, to) of a client's output.
+     */
+    public synchronized BuildLogLines getLines( final String queueSessionId, final int from, final int to ) {
+        final Log log = logs.get( queueSessionId );
+        final List<String> lines = new ArrayList<String>();
+        if ( log == null ) {
+            return new BuildLogLines( from, lines );
+        }
+
+        final int start = Math.max( from, log.firstLine );
+        final int end = Math.min( to, log.nextLine() );
+        final Iterator<String> iter = log.lines.iterator();
+        for ( int i = log.firstLine; i < end && iter.hasNext(); i++ ) {
+            final String line = iter.next();
+            if ( i >= start ) {
+                lines.add( line );
+            }
+        }
+
+        return new BuildLogLines( start, lines );
+    }
+
+    private Log getLog( final String queueSessionId ) {
+        Log log = logs.get( queueSessionId );
+        if ( log == null ) {
+            log = new Log();
+            logs.put( queueSessionId, log );
+        }
+
+        return log;
+    }
+
+}
@@ -19,24 +19,145 @@ import org.jboss.errai.bus.client.api.base.MessageBuilder;
 import org.jboss.errai.bus.server.api.ServerMessageBus;
 import org.jboss.errai.common.client.protocols.MessageParts;
 
+/**
+ * Streams build output to a client in chunks of lines instead of one bus message per line.
+ * <p>
+ * A chunk is sent once it grows past {@link #MAX_CHUNK_CHARS} or once its oldest line is older than the flush interval.
+ * Chunks are sent at most once every {@link #MIN_SEND_INTERVAL_MS}, and a producer that fills a chunk sooner waits,
+ * so a build cannot produce output faster than it is streamed. Runs of [DEBUG] lines are replaced by a single line
+ * counting them. Each message carries the number of lines it contains in its "lines" part and the number of debug
+ * lines omitted from it in its "omitted" part. Sent lines are recorded in the {@link BuildLogStore}, and each message
+ * carries the index of its first line in its "firstLine" part.
+ */
 public class ClientOutputHandler implements OutputHandler {
 
+    static final String OUTPUT_SUBJECT = "MavenBuilderOutput";
+
+    private static final String DEBUG_OUTPUT_PROPERTY = "livespark.build_output.debug";
+    private static final boolean sendDebugOutput = Boolean.valueOf( System.getProperty( DEBUG_OUTPUT_PROPERTY, "false" ) );
+
+    private static final String DEBUG_PREFIX = "[DEBUG]";
+    private static final int MAX_CHUNK_CHARS = 16 * 1024;
+    private static final long MIN_SEND_INTERVAL_MS = 50;
+
     private final ServerMessageBus bus;
+    private final BuildLogStore logStore;
     private final String queueSessionId;
+    private final long flushIntervalMs;
+
+    private final StringBuilder chunk = new StringBuilder();
+    private int chunkLines = 0;
+    private int omittedLines = 0;
+    private int omittedRun = 0;
+    private long chunkStartedAt = 0;
+    private volatile long lastSentAt = 0;
 
-    public ClientOutputHandler( final ServerMessageBus bus, final String queueSessionId ) {
+    ClientOutputHandler( final ServerMessageBus bus,
+                         final BuildLogStore logStore,
+                         final String queueSessionId,
+                         final long flushIntervalMs ) {
         this.bus = bus;
+        this.logStore = logStore;
         this.queueSessionId = queueSessionId;
+        this.flushIntervalMs = flushIntervalMs;
     }
 
     @Override
     public void handleOutput( String line ) {
+        synchronized ( this ) {
+            if ( !sendDebugOutput && line.startsWith( DEBUG_PREFIX ) ) {
+                omittedRun++;
+                omittedLines++;
+            } else {
+                appendOmittedRun();
+                appendLine( line );
+            }
+
+            if ( chunk.length() < MAX_CHUNK_CHARS ) {
+                if ( isStale() ) {
+                    send();
+                }
+                return;
+            }
+        }
+
+        // The producer waits without holding the lock, so that scheduled flushes are not held up meanwhile.
+        awaitSendSlot();
+        synchronized ( this ) {
+            // A flush may have sent the chunk while the producer waited.
+            if ( chunk.length() >= MAX_CHUNK_CHARS ) {
+                send();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        appendOmittedRun();
+        if ( chunkLines > 0 ) {
+            send();
+        }
+    }
+
+    /**
+     * Sends the pending chunk if its oldest line has waited for longer than the flush interval.
+     */
+    synchronized void flushIfStale() {
+        if ( isStale() || ( chunkLines == 0 && omittedRun > 0 ) ) {
+            flush();
+        }
+    }
+
+    private boolean isStale() {
+        return chunkLines > 0 && System.currentTimeMillis() - chunkStartedAt >= flushIntervalMs;
+    }
+
+    private void appendOmittedRun() {
+        if ( omittedRun > 0 ) {
+            appendLine( DEBUG_PREFIX + " (" + omittedRun + " debug lines omitted)" );
+            omittedRun = 0;
+        }
+    }
+
+    private void appendLine( final String line ) {
+        if ( chunkLines == 0 ) {
+            chunkStartedAt = System.currentTimeMillis();
+        }
+        chunk.append( line ).append( '\n' );
+        chunkLines++;
+    }
+
+    private void awaitSendSlot() {
+        long wait = lastSentAt + MIN_SEND_INTERVAL_MS - System.currentTimeMillis();
+        while ( wait > 0 ) {
+            try {
+                Thread.sleep( wait );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            wait = lastSentAt + MIN_SEND_INTERVAL_MS - System.currentTimeMillis();
+        }
+    }
+
+    private void send() {
+        final String output = chunk.toString();
+        final int firstLine = logStore.append( queueSessionId, output );
+
         MessageBuilder.createMessage()
-            .toSubject( "MavenBuilderOutput" )
+            .toSubject( OUTPUT_SUBJECT )
             .signalling()
             .with( MessageParts.SessionID, queueSessionId )
-            .with( "output", line + "\n" )
+            .with( "output", output )
+            .with( "firstLine", firstLine )
+            .with( "lines", chunkLines )
+            .with( "omitted", omittedLines )
             .noErrorHandling().sendNowWith( bus );
+
+        chunk.setLength( 0 );
+        chunkLines = 0;
+        omittedLines = 0;
+        lastSentAt = System.currentTimeMillis();
     }
 
 }
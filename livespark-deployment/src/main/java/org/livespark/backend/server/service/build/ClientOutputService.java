@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.build;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.jboss.errai.bus.client.api.base.MessageBuilder;
+import org.jboss.errai.bus.server.api.ServerMessageBus;
+import org.jboss.errai.common.client.protocols.MessageParts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the {@link ClientOutputHandler ClientOutputHandlers} that stream build output to clients, and periodically
+ * flushes output that has been waiting for longer than the flush interval.
+ */
+@ApplicationScoped
+public class ClientOutputService {
+
+    private static final Logger logger = LoggerFactory.getLogger( ClientOutputService.class );
+
+    private static final String FLUSH_INTERVAL_PROPERTY = "livespark.build_output.flush_interval_ms";
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 250;
+
+    @Inject
+    private ServerMessageBus bus;
+
+    @Inject
+    private BuildLogStore logStore;
+
+    @Resource
+    private ManagedScheduledExecutorService scheduledExecService;
+
+    private final long flushIntervalMs = readFlushInterval();
+
+    /*
+     * Handlers are only weakly referenced, so a handler is forgotten along with the build callable owning it.
+     */
+    private final Set<ClientOutputHandler> handlers = Collections.newSetFromMap( new WeakHashMap<ClientOutputHandler, Boolean>() );
+
+    private ScheduledFuture<?> flushTask;
+
+    private static long readFlushInterval() {
+        final String configured = System.getProperty( FLUSH_INTERVAL_PROPERTY );
+        if ( configured != null ) {
+            try {
+                return Math.max( 10, Long.parseLong( configured.trim() ) );
+            } catch ( NumberFormatException e ) {
+                logger.warn( "Ignoring invalid value for " + FLUSH_INTERVAL_PROPERTY + ": " + configured );
+            }
+        }
+
+        return DEFAULT_FLUSH_INTERVAL_MS;
+    }
+
+    @PostConstruct
+    private void setup() {
+        flushTask = scheduledExecService.scheduleWithFixedDelay( new Runnable() {
+
+            @Override
+            public void run() {
+                for ( final ClientOutputHandler handler : getHandlers() ) {
+                    try {
+                        handler.flushIfStale();
+                    } catch ( RuntimeException e ) {
+                        logger.warn( "Unable to flush build output.", e );
+                    }
+                }
+            }
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS );
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if ( flushTask != null ) {
+            flushTask.cancel( false );
+        }
+    }
+
+    public ClientOutputHandler createOutputHandler( final String queueSessionId ) {
+        final ClientOutputHandler handler = new ClientOutputHandler( bus, logStore, queueSessionId, flushIntervalMs );
+        synchronized ( handlers ) {
+            handlers.add( handler );
+        }
+
+        return handler;
+    }
+
+    /**
+     * Sends a single line to a client right away.
+     */
+    public void sendOutput( final String queueSessionId, final String line ) {
+        final ClientOutputHandler handler = new ClientOutputHandler( bus, logStore, queueSessionId, flushIntervalMs );
+        handler.handleOutput( line );
+        handler.flush();
+    }
+
+    /**
+     * Clears the build output shown by a client.
+     */
+    public void cleanOutput( final String queueSessionId ) {
+        logStore.clear( queueSessionId );
+        MessageBuilder.createMessage()
+                      .toSubject( ClientOutputHandler.OUTPUT_SUBJECT )
+                      .signalling()
+                      .with( MessageParts.SessionID, queueSessionId )
+                      .with( "clean", Boolean.TRUE )
+                      .noErrorHandling().sendNowWith( bus );
+    }
+
+    private List<ClientOutputHandler> getHandlers() {
+        synchronized ( handlers ) {
+            return new ArrayList<ClientOutputHandler>( handlers );
+        }
+    }
+
+}
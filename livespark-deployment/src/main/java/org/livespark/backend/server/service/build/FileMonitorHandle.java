@@ -18,7 +18,8 @@ package org.livespark.backend.server.service.build;
 import javax.servlet.http.HttpSessionBindingEvent;
 import javax.servlet.http.HttpSessionBindingListener;
 
-import org.apache.commons.io.monitor.FileAlterationMonitor;
+import org.livespark.backend.server.service.deploy.DeploymentWatcher;
+import org.livespark.backend.server.service.reaper.ResourceReaper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,12 +27,14 @@ public class FileMonitorHandle implements HttpSessionBindingListener {
 
     private static final Logger logger = LoggerFactory.getLogger( FileMonitorHandle.class );
 
-    private final FileAlterationMonitor monitor;
+    private final DeploymentWatcher.Registration registration;
     private final String fileName;
+    private final ResourceReaper reaper;
 
-    public FileMonitorHandle( final FileAlterationMonitor monitor, final String fileName ) {
-        this.monitor = monitor;
+    public FileMonitorHandle( final DeploymentWatcher.Registration registration, final String fileName, final ResourceReaper reaper ) {
+        this.registration = registration;
         this.fileName = fileName;
+        this.reaper = reaper;
     }
 
     @Override
@@ -40,11 +43,17 @@ public class FileMonitorHandle implements HttpSessionBindingListener {
 
     @Override
     public void valueUnbound( HttpSessionBindingEvent event ) {
-        try {
-            monitor.stop();
-        } catch ( Exception e ) {
-            logger.error( "An error occurred while stopping the FileAlterationMonitor for " + fileName, e );
-        }
+        reaper.submit( "deployment watch of " + fileName, new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    registration.cancel();
+                } catch ( Exception e ) {
+                    logger.error( "An error occurred while stopping to watch the deployment of " + fileName, e );
+                }
+            }
+        } );
     }
 
 }
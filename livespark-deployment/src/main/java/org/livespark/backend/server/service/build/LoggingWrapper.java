@@ -33,4 +33,9 @@ public class LoggingWrapper implements OutputHandler {
         handler.handleOutput( line );
     }
 
+    @Override
+    public void flush() {
+        handler.flush();
+    }
+
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.build;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.guvnor.common.services.project.builder.model.BuildMessage;
+import org.guvnor.common.services.project.model.Project;
+import org.guvnor.common.services.shared.message.Level;
+import org.uberfire.backend.vfs.Path;
+import org.uberfire.backend.vfs.PathFactory;
+
+/**
+ * Turns the errors and warnings in the output of a Maven build into {@link BuildMessage BuildMessages}, one line at a
+ * time, while the build runs. It recognizes:
+ * <ul>
+ * <li>javac messages from the maven-compiler-plugin: {@code [ERROR] /path/Foo.java:[12,5] message}</li>
+ * <li>GWT compiler errors: {@code [ERROR] Errors in 'file:/path/Foo.java'} followed by {@code [ERROR] Line 12: message}</li>
+ * <li>Failed Maven goals: {@code [ERROR] Failed to execute goal ...}</li>
+ * </ul>
+ * Files inside the build workspace are reported with their path in the project.
+ */
+public class MavenOutputParser {
+
+    private static final Pattern JAVAC_MESSAGE = Pattern.compile( "^\\[(ERROR|WARNING)\\] (.+\\.java):\\[(\\d+)(?:,(\\d+))?\\] (.*)$" );
+    private static final Pattern GWT_ERRORS_IN = Pattern.compile( "\\[ERROR\\] Errors in '(?:file:)?(.+?)'" );
+    private static final Pattern GWT_LINE_ERROR = Pattern.compile( "\\[ERROR\\] Line (\\d+): (.*)$" );
+    private static final Pattern GOAL_FAILURE = Pattern.compile( "^\\[ERROR\\] (Failed to execute goal .*)$" );
+
+    private final Project project;
+    private final String workspacePrefix;
+    private final List<BuildMessage> messages = new ArrayList<BuildMessage>();
+
+    /*
+     * The maven-compiler-plugin prints its errors twice, once while compiling and once in the goal failure.
+     */
+    private final Set<String> seen = new HashSet<String>();
+
+    private String gwtErrorFile;
+
+    public MavenOutputParser( final Project project, final File workspace ) {
+        this.project = project;
+        this.workspacePrefix = workspace.getAbsolutePath() + File.separator;
+    }
+
+    /**
+     * @return The message for the given line, or null if the line does not report a problem or repeats one.
+     */
+    public synchronized BuildMessage parse( final String line ) {
+        Matcher matcher = JAVAC_MESSAGE.matcher( line );
+        if ( matcher.matches() ) {
+            final Level level = "ERROR".equals( matcher.group( 1 ) ) ? Level.ERROR : Level.WARNING;
+            final int column = matcher.group( 4 ) != null ? Integer.parseInt( matcher.group( 4 ) ) : 0;
+            return add( level, matcher.group( 2 ), Integer.parseInt( matcher.group( 3 ) ), column, matcher.group( 5 ) );
+        }
+
+        matcher = GWT_ERRORS_IN.matcher( line );
+        if ( matcher.find() ) {
+            gwtErrorFile = matcher.group( 1 );
+            return null;
+        }
+
+        matcher = GWT_LINE_ERROR.matcher( line );
+        if ( matcher.find() && gwtErrorFile != null ) {
+            return add( Level.ERROR, gwtErrorFile, Integer.parseInt( matcher.group( 1 ) ), 0, matcher.group( 2 ) );
+        }
+
+        matcher = GOAL_FAILURE.matcher( line );
+        if ( matcher.matches() ) {
+            return add( Level.ERROR, null, 0, 0, matcher.group( 1 ) );
+        }
+
+        return null;
+    }
+
+    /**
+     * @return True if the given message is a compile error, after which the build cannot succeed.
+     */
+    public static boolean isFatal( final BuildMessage message ) {
+        return message.getLevel() == Level.ERROR && message.getLine() > 0;
+    }
+
+    public synchronized List<BuildMessage> getMessages() {
+        return new ArrayList<BuildMessage>( messages );
+    }
+
+    private BuildMessage add( final Level level,
+                              final String file,
+                              final int line,
+                              final int column,
+                              final String text ) {
+        if ( !seen.add( level + ":" + file + ":" + line + ":" + column + ":" + text ) ) {
+            return null;
+        }
+
+        final BuildMessage message = new BuildMessage();
+        message.setLevel( level );
+        message.setLine( line );
+        message.setColumn( column );
+
+        final Path path = file != null ? toProjectPath( file ) : null;
+        if ( path != null ) {
+            message.setPath( path );
+            message.setText( text );
+        } else if ( file != null ) {
+            message.setText( file + ":" + line + ": " + text );
+        } else {
+            message.setText( text );
+        }
+
+        messages.add( message );
+
+        return message;
+    }
+
+    private Path toProjectPath( final String file ) {
+        final String absolutePath = new File( file ).getAbsolutePath();
+        if ( !absolutePath.startsWith( workspacePrefix ) ) {
+            return null;
+        }
+
+        final String relativePath = absolutePath.substring( workspacePrefix.length() ).replace( File.separatorChar, '/' );
+        final String fileName = relativePath.substring( relativePath.lastIndexOf( '/' ) + 1 );
+
+        return PathFactory.newPath( fileName, project.getRootPath().toURI() + "/" + relativePath );
+    }
+
+}
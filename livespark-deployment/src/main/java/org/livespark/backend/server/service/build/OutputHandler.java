@@ -19,4 +19,9 @@ public interface OutputHandler {
 
     void handleOutput( String line );
 
+    /**
+     * Delivers any output that is still buffered.
+     */
+    void flush();
+
 }
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.cache;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.artifact.versioning.ArtifactVersion;
+import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
+import org.apache.maven.artifact.versioning.InvalidVersionSpecificationException;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.livespark.project.ContentHash;
+
+/**
+ * Fingerprints the artifacts a build resolves from the local repository beyond what the project's POM pins down.
+ * <p>
+ * Released artifacts never change, so their version identifies them. Versions are taken from the POM, its parents and
+ * the BOMs they import, as Maven does. The fingerprint covers the files of the SNAPSHOTs a build selects, and for
+ * version ranges, LATEST and RELEASE the version they select among those in the local repository. The POMs of SNAPSHOTs
+ * are followed to the artifacts they pull in. Files the resolver only keeps for its own bookkeeping, such as metadata
+ * and update check markers, change without any artifact changing and are left out.
+ */
+final class DependencyState {
+
+    private static final String DEFAULT_PLUGIN_GROUP_ID = "org.apache.maven.plugins";
+    private static final Pattern PROPERTY = Pattern.compile( "\\$\\{([^}]+)\\}" );
+    private static final int MAX_PARENTS = 16;
+
+    private DependencyState() {
+    }
+
+    /*
+     * The versions a model resolves with its parents and imported BOMs.
+     */
+    private static class EffectiveModel {
+
+        final Properties properties = new Properties();
+        final Map<String, String> managedVersions = new HashMap<String, String>();
+        final Map<String, String> managedPluginVersions = new HashMap<String, String>();
+        final Map<String, String[]> dependencies = new LinkedHashMap<String, String[]>();
+        final List<String[]> parents = new ArrayList<String[]>();
+
+        String interpolate( final String value ) {
+            if ( value == null ) {
+                return null;
+            }
+
+            String interpolated = value;
+            for ( int i = 0; i < 8 && interpolated.contains( "${" ); i++ ) {
+                final Matcher matcher = PROPERTY.matcher( interpolated );
+                final StringBuffer result = new StringBuffer();
+                while ( matcher.find() ) {
+                    final String replacement = properties.getProperty( matcher.group( 1 ), matcher.group( 0 ) );
+                    matcher.appendReplacement( result, Matcher.quoteReplacement( replacement ) );
+                }
+                matcher.appendTail( result );
+                if ( result.toString().equals( interpolated ) ) {
+                    break;
+                }
+                interpolated = result.toString();
+            }
+
+            return interpolated;
+        }
+    }
+
+    /**
+     * @return The fingerprint of what the project of the given POM resolves from the given repository.
+     * @throws IOException
+     *             If the POM cannot be read.
+     */
+    static String of( final File pomXml,
+                      final File repositoryDir ) throws IOException {
+        final List<String> state = new ArrayList<String>();
+        final Set<String> visited = new HashSet<String>();
+        final LinkedList<Model> pending = new LinkedList<Model>();
+        pending.add( read( pomXml ) );
+
+        while ( !pending.isEmpty() ) {
+            final EffectiveModel model = resolve( pending.removeFirst(), repositoryDir, 0 );
+            final List<String[]> artifacts = new ArrayList<String[]>( model.parents );
+            artifacts.addAll( model.dependencies.values() );
+            for ( final String[] coordinates : artifacts ) {
+                final String groupId = coordinates[0];
+                final String artifactId = coordinates[1];
+                final String version = coordinates[2];
+                if ( groupId == null || artifactId == null || isPinned( version ) || !visited.add( groupId + ":" + artifactId + ":" + version ) ) {
+                    continue;
+                }
+
+                final File artifactDir = new File( repositoryDir, groupId.replace( '.', '/' ) + "/" + artifactId );
+                final String selected = select( artifactDir, version );
+                final String prefix = groupId + ":" + artifactId;
+                if ( selected == null ) {
+                    // Which version is used cannot be told, but it can only change with the versions that are present.
+                    state.add( prefix + " " + getVersions( artifactDir ) );
+                } else if ( !selected.endsWith( "-SNAPSHOT" ) ) {
+                    state.add( prefix + ":" + selected );
+                } else {
+                    addFiles( new File( artifactDir, selected ), prefix + ":" + selected, state );
+                    final File snapshotPom = new File( artifactDir, selected + "/" + artifactId + "-" + selected + ".pom" );
+                    if ( snapshotPom.isFile() ) {
+                        try {
+                            pending.add( read( snapshotPom ) );
+                        } catch ( IOException e ) {
+                            // The files of the POM are part of the state already.
+                        }
+                    }
+                }
+            }
+        }
+        Collections.sort( state );
+
+        final StringBuilder fingerprint = new StringBuilder();
+        for ( final String entry : state ) {
+            fingerprint.append( entry ).append( '\n' );
+        }
+
+        return ContentHash.of( fingerprint.toString() );
+    }
+
+    private static Model read( final File pomXml ) throws IOException {
+        final Reader reader = new FileReader( pomXml );
+        try {
+            return new MavenXpp3Reader().read( reader, false );
+        } catch ( XmlPullParserException e ) {
+            throw new IOException( "Unable to parse " + pomXml, e );
+        } finally {
+            reader.close();
+        }
+    }
+
+    /*
+     * Parents and imported BOMs are read from the local repository. One that is not there yet leaves the versions it
+     * manages unresolved.
+     */
+    private static EffectiveModel resolve( final Model model,
+                                           final File repositoryDir,
+                                           final int importDepth ) {
+        final List<Model> lineage = new ArrayList<Model>();
+        final EffectiveModel effective = new EffectiveModel();
+        Model current = model;
+        while ( current != null && lineage.size() < MAX_PARENTS ) {
+            lineage.add( current );
+            final Parent parent = current.getParent();
+            if ( parent == null ) {
+                break;
+            }
+            effective.parents.add( new String[]{ parent.getGroupId(), parent.getArtifactId(), parent.getVersion() } );
+            current = readFromRepository( repositoryDir, parent.getGroupId(), parent.getArtifactId(), parent.getVersion() );
+        }
+
+        // Properties of children override those of their parents.
+        for ( int i = lineage.size() - 1; i >= 0; i-- ) {
+            final Model ancestor = lineage.get( i );
+            effective.properties.putAll( ancestor.getProperties() );
+            final String groupId = ancestor.getGroupId() != null ? ancestor.getGroupId() : ( ancestor.getParent() != null ? ancestor.getParent().getGroupId() : null );
+            final String version = ancestor.getVersion() != null ? ancestor.getVersion() : ( ancestor.getParent() != null ? ancestor.getParent().getVersion() : null );
+            for ( final String prefix : new String[]{ "project.", "pom." } ) {
+                if ( groupId != null ) {
+                    effective.properties.setProperty( prefix + "groupId", groupId );
+                }
+                if ( version != null ) {
+                    effective.properties.setProperty( prefix + "version", version );
+                }
+            }
+        }
+
+        // Declarations of children take precedence over those of their parents.
+        final List<Dependency> imports = new ArrayList<Dependency>();
+        for ( final Model ancestor : lineage ) {
+            if ( ancestor.getDependencyManagement() != null ) {
+                for ( final Dependency managed : ancestor.getDependencyManagement().getDependencies() ) {
+                    if ( "import".equals( managed.getScope() ) ) {
+                        imports.add( managed );
+                    } else {
+                        putIfAbsent( effective.managedVersions, key( effective, managed.getGroupId(), managed.getArtifactId() ), managed.getVersion() );
+                    }
+                }
+            }
+            final Build build = ancestor.getBuild();
+            if ( build != null && build.getPluginManagement() != null ) {
+                for ( final Plugin plugin : build.getPluginManagement().getPlugins() ) {
+                    putIfAbsent( effective.managedPluginVersions, key( effective, getGroupId( plugin ), plugin.getArtifactId() ), plugin.getVersion() );
+                }
+            }
+        }
+        for ( final Dependency bom : imports ) {
+            final Model bomModel = readFromRepository( repositoryDir,
+                                                       effective.interpolate( bom.getGroupId() ),
+                                                       bom.getArtifactId(),
+                                                       effective.interpolate( bom.getVersion() ) );
+            if ( bomModel != null && importDepth < MAX_PARENTS ) {
+                final EffectiveModel bomEffective = resolve( bomModel, repositoryDir, importDepth + 1 );
+                for ( final Map.Entry<String, String> managed : bomEffective.managedVersions.entrySet() ) {
+                    putIfAbsent( effective.managedVersions, managed.getKey(), bomEffective.interpolate( managed.getValue() ) );
+                }
+            }
+            effective.parents.add( new String[]{ effective.interpolate( bom.getGroupId() ), bom.getArtifactId(), effective.interpolate( bom.getVersion() ) } );
+        }
+
+        for ( final Model ancestor : lineage ) {
+            for ( final Dependency dependency : ancestor.getDependencies() ) {
+                final String key = key( effective, dependency.getGroupId(), dependency.getArtifactId() );
+                if ( !effective.dependencies.containsKey( key ) ) {
+                    final String version = dependency.getVersion() != null ? dependency.getVersion() : effective.managedVersions.get( key );
+                    effective.dependencies.put( key, new String[]{ effective.interpolate( dependency.getGroupId() ),
+                                                                   dependency.getArtifactId(),
+                                                                   effective.interpolate( version ) } );
+                }
+            }
+            final Build build = ancestor.getBuild();
+            if ( build != null ) {
+                for ( final Plugin plugin : build.getPlugins() ) {
+                    final String key = key( effective, getGroupId( plugin ), plugin.getArtifactId() );
+                    if ( !effective.dependencies.containsKey( key ) ) {
+                        final String version = plugin.getVersion() != null ? plugin.getVersion() : effective.managedPluginVersions.get( key );
+                        effective.dependencies.put( key, new String[]{ effective.interpolate( getGroupId( plugin ) ),
+                                                                       plugin.getArtifactId(),
+                                                                       effective.interpolate( version ) } );
+                    }
+                }
+            }
+        }
+
+        return effective;
+    }
+
+    private static Model readFromRepository( final File repositoryDir,
+                                             final String groupId,
+                                             final String artifactId,
+                                             final String version ) {
+        if ( groupId == null || artifactId == null || version == null || version.contains( "${" ) ) {
+            return null;
+        }
+
+        final File pom = new File( repositoryDir, groupId.replace( '.', '/' ) + "/" + artifactId + "/" + version + "/" + artifactId + "-" + version + ".pom" );
+        try {
+            return pom.isFile() ? read( pom ) : null;
+        } catch ( IOException e ) {
+            return null;
+        }
+    }
+
+    private static String getGroupId( final Plugin plugin ) {
+        return plugin.getGroupId() != null ? plugin.getGroupId() : DEFAULT_PLUGIN_GROUP_ID;
+    }
+
+    private static String key( final EffectiveModel effective,
+                               final String groupId,
+                               final String artifactId ) {
+        return effective.interpolate( groupId ) + ":" + artifactId;
+    }
+
+    private static void putIfAbsent( final Map<String, String> map,
+                                     final String key,
+                                     final String value ) {
+        if ( value != null && !map.containsKey( key ) ) {
+            map.put( key, value );
+        }
+    }
+
+    private static boolean isPinned( final String version ) {
+        return version != null
+                && !version.endsWith( "-SNAPSHOT" )
+                && !version.contains( "${" )
+                && !version.startsWith( "[" )
+                && !version.startsWith( "(" )
+                && !"LATEST".equals( version )
+                && !"RELEASE".equals( version );
+    }
+
+    /*
+     * The version the build uses, or null if it cannot be told.
+     */
+    private static String select( final File artifactDir,
+                                  final String version ) {
+        if ( version == null || version.contains( "${" ) ) {
+            return null;
+        } else if ( version.endsWith( "-SNAPSHOT" ) ) {
+            return version;
+        }
+
+        final List<ArtifactVersion> available = new ArrayList<ArtifactVersion>();
+        for ( final String present : getVersions( artifactDir ) ) {
+            if ( !"RELEASE".equals( version ) || !present.endsWith( "-SNAPSHOT" ) ) {
+                available.add( new DefaultArtifactVersion( present ) );
+            }
+        }
+        if ( "LATEST".equals( version ) || "RELEASE".equals( version ) ) {
+            return available.isEmpty() ? null : Collections.max( available ).toString();
+        }
+
+        try {
+            final ArtifactVersion selected = VersionRange.createFromVersionSpec( version ).matchVersion( available );
+            return selected != null ? selected.toString() : null;
+        } catch ( InvalidVersionSpecificationException e ) {
+            return null;
+        }
+    }
+
+    /*
+     * The versions of an artifact in the local repository, sorted by name.
+     */
+    private static List<String> getVersions( final File artifactDir ) {
+        final List<String> versions = new ArrayList<String>();
+        final File[] versionDirs = artifactDir.listFiles();
+        if ( versionDirs != null ) {
+            for ( final File versionDir : versionDirs ) {
+                if ( versionDir.isDirectory() ) {
+                    versions.add( versionDir.getName() );
+                }
+            }
+        }
+        Collections.sort( versions );
+
+        return versions;
+    }
+
+    private static void addFiles( final File versionDir,
+                                  final String prefix,
+                                  final List<String> state ) {
+        final File[] files = versionDir.listFiles();
+        if ( files == null ) {
+            // Not resolved yet.
+            state.add( prefix + " -" );
+            return;
+        }
+
+        for ( final File file : files ) {
+            if ( file.isFile() && !isBookkeeping( file.getName() ) ) {
+                state.add( prefix + "/" + file.getName() + " " + file.length() + " " + file.lastModified() );
+            }
+        }
+    }
+
+    private static boolean isBookkeeping( final String name ) {
+        return name.startsWith( "maven-metadata" )
+                || name.equals( "_remote.repositories" )
+                || name.equals( "_maven.repositories" )
+                || name.equals( "resolver-status.properties" )
+                || name.endsWith( ".lastUpdated" )
+                || name.endsWith( ".sha1" )
+                || name.endsWith( ".md5" );
+    }
+
+}
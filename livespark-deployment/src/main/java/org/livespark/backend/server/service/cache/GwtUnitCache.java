@@ -0,0 +1,325 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.cache;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.livespark.project.ContentHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares GWT's persistent unit cache between all builds and code servers of the server, so that library compilation
+ * units are compiled once rather than once per session.
+ * <p>
+ * Caches are keyed by the parent and dependencies of the project, so projects with the same libraries share a cache.
+ * GWT keeps its cache in the {@value #UNIT_CACHE_DIR} subdirectory of the configured directory, and so do the shared
+ * caches and the snapshots.
+ * GWT compacts its cache by replacing files, which is not safe while another compiler reads the same directory. Each
+ * build therefore {@link #lease(File) leases} a private snapshot of the shared cache, made of hard links, and publishes
+ * the files it wrote when it {@link Lease#release() releases} the lease. When the shared caches exceed
+ * {@value #MAX_SIZE_PROPERTY} megabytes, the least recently used ones are deleted. A size of zero disables the cache.
+ */
+@ApplicationScoped
+public class GwtUnitCache {
+
+    private static final Logger logger = LoggerFactory.getLogger( GwtUnitCache.class );
+
+    private static final String CACHE_DIR_PROPERTY = "livespark.gwt.unit_cache.dir";
+    private static final String MAX_SIZE_PROPERTY = "livespark.gwt.unit_cache.max_size_mb";
+    private static final long DEFAULT_MAX_SIZE_MB = 512;
+
+    private static final String GWT_PERSISTENT_UNIT_CACHE = "gwt.persistentunitcache";
+    private static final String GWT_PERSISTENT_UNIT_CACHE_DIR = "gwt.persistentunitcachedir";
+    private static final String UNIT_CACHE_DIR = "gwt-unitCache";
+    private static final String LEASES_DIR = ".leases";
+
+    private static final Lease NO_LEASE = new Lease( null, null, null, Collections.<String>emptySet() );
+
+    private File cacheDir;
+    private long maxSize;
+
+    @PostConstruct
+    void setup() {
+        cacheDir = new File( System.getProperty( CACHE_DIR_PROPERTY,
+                                                 new File( System.getProperty( "java.io.tmpdir" ), "livespark-gwt-unit-cache" ).getAbsolutePath() ) );
+        maxSize = readMaxSizeMb() * 1024 * 1024;
+
+        if ( isEnabled() ) {
+            // Snapshots left by a previous server run were never published.
+            FileUtils.deleteQuietly( new File( cacheDir, LEASES_DIR ) );
+            cacheDir.mkdirs();
+        }
+    }
+
+    private static long readMaxSizeMb() {
+        final String configured = System.getProperty( MAX_SIZE_PROPERTY );
+        if ( configured != null ) {
+            try {
+                return Math.max( 0, Long.parseLong( configured.trim() ) );
+            } catch ( NumberFormatException e ) {
+                logger.warn( "Ignoring invalid value for " + MAX_SIZE_PROPERTY + ": " + configured );
+            }
+        }
+
+        return DEFAULT_MAX_SIZE_MB;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @return A private snapshot of the shared unit cache for the project of the given POM. It must be released once
+     *         the build or code server using it has stopped.
+     */
+    public Lease lease( final File pomXml ) {
+        if ( !isEnabled() ) {
+            return NO_LEASE;
+        }
+
+        final String key = getKey( pomXml );
+        final File sharedDir = new File( cacheDir, key );
+        final File leaseDir = new File( cacheDir, LEASES_DIR + "/" + key + "-" + UUID.randomUUID() );
+        final Set<String> snapshot = new HashSet<String>();
+        try {
+            leaseDir.mkdirs();
+            synchronized ( this ) {
+                sharedDir.mkdirs();
+                sharedDir.setLastModified( System.currentTimeMillis() );
+                final File leaseUnitDir = new File( leaseDir, UNIT_CACHE_DIR );
+                leaseUnitDir.mkdirs();
+                for ( final File file : listFiles( new File( sharedDir, UNIT_CACHE_DIR ) ) ) {
+                    linkOrCopy( file, new File( leaseUnitDir, file.getName() ) );
+                    snapshot.add( file.getName() );
+                }
+            }
+        } catch ( IOException e ) {
+            logger.warn( "Unable to snapshot the GWT unit cache " + key + ". The build uses an empty cache.", e );
+        }
+
+        return new Lease( this, sharedDir, leaseDir, snapshot );
+    }
+
+    /*
+     * GWT only reuses units compiled against the same classpath, so the key covers the project's parent and
+     * dependencies, but not its own coordinates.
+     */
+    private static String getKey( final File pomXml ) {
+        try {
+            final Reader reader = new FileReader( pomXml );
+            final Model model;
+            try {
+                model = new MavenXpp3Reader().read( reader );
+            } finally {
+                reader.close();
+            }
+
+            final StringBuilder classpath = new StringBuilder();
+            final Parent parent = model.getParent();
+            if ( parent != null ) {
+                classpath.append( parent.getId() ).append( '\n' );
+            }
+            final List<String> dependencies = new ArrayList<String>();
+            for ( final Dependency dependency : model.getDependencies() ) {
+                dependencies.add( dependency.getManagementKey() + ":" + dependency.getVersion() + ":" + dependency.getScope() );
+            }
+            Collections.sort( dependencies );
+            for ( final String dependency : dependencies ) {
+                classpath.append( dependency ).append( '\n' );
+            }
+
+            return ContentHash.of( classpath.toString() );
+        } catch ( IOException | XmlPullParserException e ) {
+            logger.debug( "Unable to read the dependencies of {}. Keying the GWT unit cache by the whole POM.", pomXml );
+            try {
+                return ContentHash.of( pomXml );
+            } catch ( IOException ioe ) {
+                return ContentHash.of( pomXml.getAbsolutePath() );
+            }
+        }
+    }
+
+    /*
+     * Files written by the compiler are added to the shared cache. Snapshot files the compiler removed were merged into
+     * a new file by its compaction, so they are removed from the shared cache too. Leases taken earlier keep their own
+     * links to them.
+     */
+    private void publish( final Lease lease ) {
+        try {
+            synchronized ( this ) {
+                if ( !lease.sharedDir.isDirectory() ) {
+                    // Evicted while the lease was held.
+                    return;
+                }
+
+                final File sharedUnitDir = new File( lease.sharedDir, UNIT_CACHE_DIR );
+                sharedUnitDir.mkdirs();
+                final Set<String> current = new HashSet<String>();
+                for ( final File file : listFiles( new File( lease.leaseDir, UNIT_CACHE_DIR ) ) ) {
+                    current.add( file.getName() );
+                    if ( !lease.snapshot.contains( file.getName() ) ) {
+                        final File published = new File( sharedUnitDir, file.getName() );
+                        if ( !published.exists() ) {
+                            Files.move( file.toPath(), published.toPath(), StandardCopyOption.ATOMIC_MOVE );
+                        }
+                    }
+                }
+                for ( final String name : lease.snapshot ) {
+                    if ( !current.contains( name ) ) {
+                        FileUtils.deleteQuietly( new File( sharedUnitDir, name ) );
+                    }
+                }
+
+                evictIfNecessary();
+            }
+        } catch ( IOException e ) {
+            logger.warn( "Unable to publish GWT unit cache files from " + lease.leaseDir + ".", e );
+        } finally {
+            FileUtils.deleteQuietly( lease.leaseDir );
+        }
+    }
+
+    private void evictIfNecessary() {
+        final File[] sharedDirs = cacheDir.listFiles();
+        if ( sharedDirs == null ) {
+            return;
+        }
+
+        final List<File> candidates = new ArrayList<File>();
+        long totalSize = 0;
+        for ( final File sharedDir : sharedDirs ) {
+            if ( sharedDir.isDirectory() && !sharedDir.getName().startsWith( "." ) ) {
+                candidates.add( sharedDir );
+                totalSize += FileUtils.sizeOfDirectory( sharedDir );
+            }
+        }
+        Collections.sort( candidates, new Comparator<File>() {
+
+            @Override
+            public int compare( final File o1, final File o2 ) {
+                return Long.compare( o1.lastModified(), o2.lastModified() );
+            }
+        } );
+
+        for ( final File eldest : candidates ) {
+            if ( totalSize <= maxSize ) {
+                break;
+            }
+            totalSize -= FileUtils.sizeOfDirectory( eldest );
+            FileUtils.deleteQuietly( eldest );
+            logger.debug( "Evicted GWT unit cache {}.", eldest.getName() );
+        }
+    }
+
+    private static List<File> listFiles( final File dir ) {
+        final File[] files = dir.listFiles();
+        if ( files == null ) {
+            return Collections.emptyList();
+        }
+
+        final List<File> retVal = new ArrayList<File>( Arrays.asList( files ) );
+        for ( final File file : files ) {
+            if ( !file.isFile() ) {
+                retVal.remove( file );
+            }
+        }
+
+        return retVal;
+    }
+
+    private static void linkOrCopy( final File source, final File target ) throws IOException {
+        try {
+            Files.createLink( target.toPath(), source.toPath() );
+        } catch ( IOException | UnsupportedOperationException e ) {
+            // The file system does not support hard links.
+            Files.copy( source.toPath(), target.toPath(), StandardCopyOption.COPY_ATTRIBUTES );
+        }
+    }
+
+    /**
+     * A private snapshot of a shared unit cache, used by one build or code server.
+     */
+    public static class Lease {
+
+        private final GwtUnitCache cache;
+        private final File sharedDir;
+        private final File leaseDir;
+        private final Set<String> snapshot;
+
+        private Lease( final GwtUnitCache cache,
+                       final File sharedDir,
+                       final File leaseDir,
+                       final Set<String> snapshot ) {
+            this.cache = cache;
+            this.sharedDir = sharedDir;
+            this.leaseDir = leaseDir;
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * Points GWT at this snapshot for the given request.
+         */
+        public void configure( final InvocationRequest request ) {
+            if ( cache == null ) {
+                return;
+            }
+
+            Properties props = request.getProperties();
+            if ( props == null ) {
+                props = new Properties();
+                request.setProperties( props );
+            }
+            props.setProperty( GWT_PERSISTENT_UNIT_CACHE, "true" );
+            props.setProperty( GWT_PERSISTENT_UNIT_CACHE_DIR, leaseDir.getAbsolutePath() );
+        }
+
+        /**
+         * Publishes the units compiled with this snapshot and deletes the snapshot.
+         */
+        public void release() {
+            if ( cache != null ) {
+                cache.publish( this );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.cache;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.livespark.backend.server.service.maven.OfflineDependencyResolver;
+import org.livespark.project.ContentHash;
+import org.livespark.project.WorkspaceManifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps packaged WARs keyed by the content of the workspace they were built from, so that building an unchanged
+ * project again can skip Maven altogether.
+ * <p>
+ * Keys also cover the {@link DependencyState artifacts} the build resolves from the local repository and the build of
+ * the server, since either can change what the same sources package into. Entries are directories named after their
+ * key below the cache directory. When the total size of the entries exceeds the configured budget, the least recently
+ * used entries are evicted. A budget of zero disables the cache.
+ */
+@ApplicationScoped
+public class WarCache {
+
+    private static final Logger logger = LoggerFactory.getLogger( WarCache.class );
+
+    private static final String CACHE_DIR_PROPERTY = "livespark.war_cache.dir";
+    private static final String MAX_SIZE_PROPERTY = "livespark.war_cache.max_size_mb";
+    private static final long DEFAULT_MAX_SIZE_MB = 1024;
+
+    private static final String SERVER_BUILD_FILE = "server-build";
+    private static final String SERVER_BUILD_RESOURCE = "/META-INF/maven/org.livespark/livespark-deployment/pom.properties";
+    private static final String SERVER_BUILD = readServerBuild();
+
+    private static final FileFilter ENTRY_FILTER = new FileFilter() {
+
+        @Override
+        public boolean accept( final File file ) {
+            return file.isDirectory() && !file.getName().startsWith( "." );
+        }
+    };
+
+    @Inject
+    private OfflineDependencyResolver dependencyResolver;
+
+    private File cacheDir;
+    private long maxSize;
+    private long totalSize = 0;
+
+    /*
+     * Entry sizes by key, least recently used first.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>( 16, 0.75f, true );
+
+    @PostConstruct
+    void setup() {
+        cacheDir = new File( System.getProperty( CACHE_DIR_PROPERTY,
+                                                 new File( System.getProperty( "java.io.tmpdir" ), "livespark-war-cache" ).getAbsolutePath() ) );
+        maxSize = readMaxSizeMb() * 1024 * 1024;
+
+        if ( !isEnabled() ) {
+            return;
+        }
+
+        cacheDir.mkdirs();
+        dropEntriesOfOtherServerBuilds();
+        loadEntries();
+    }
+
+    private static long readMaxSizeMb() {
+        final String configured = System.getProperty( MAX_SIZE_PROPERTY );
+        if ( configured != null ) {
+            try {
+                return Math.max( 0, Long.parseLong( configured.trim() ) );
+            } catch ( NumberFormatException e ) {
+                logger.warn( "Ignoring invalid value for " + MAX_SIZE_PROPERTY + ": " + configured );
+            }
+        }
+
+        return DEFAULT_MAX_SIZE_MB;
+    }
+
+    /*
+     * The properties Maven packages into the server's jar name its version and when it was built, so they tell SNAPSHOT
+     * builds of the server apart too.
+     */
+    private static String readServerBuild() {
+        final InputStream is = WarCache.class.getResourceAsStream( SERVER_BUILD_RESOURCE );
+        if ( is == null ) {
+            return "unknown";
+        }
+
+        try {
+            try {
+                return ContentHash.of( IOUtils.toByteArray( is ) );
+            } finally {
+                is.close();
+            }
+        } catch ( IOException e ) {
+            logger.warn( "Unable to read " + SERVER_BUILD_RESOURCE + ".", e );
+            return "unknown";
+        }
+    }
+
+    /*
+     * Keys include the server build, so entries of other builds could never be used again and would only take up the
+     * budget until they were evicted.
+     */
+    private void dropEntriesOfOtherServerBuilds() {
+        final File serverBuildFile = new File( cacheDir, SERVER_BUILD_FILE );
+        try {
+            if ( serverBuildFile.isFile() && SERVER_BUILD.equals( FileUtils.readFileToString( serverBuildFile, "UTF-8" ) ) ) {
+                return;
+            }
+
+            final File[] entryDirs = cacheDir.listFiles( ENTRY_FILTER );
+            if ( entryDirs != null && entryDirs.length > 0 ) {
+                logger.info( "Dropping {} cached WARs of another server build.", entryDirs.length );
+                for ( final File entryDir : entryDirs ) {
+                    FileUtils.deleteQuietly( entryDir );
+                }
+            }
+            FileUtils.writeStringToFile( serverBuildFile, SERVER_BUILD, "UTF-8" );
+        } catch ( IOException e ) {
+            logger.warn( "Unable to check the server build of the cached WARs.", e );
+        }
+    }
+
+    /*
+     * Entries left by a previous server run are kept, ordered by when they were last used. Partially stored entries are
+     * discarded.
+     */
+    private synchronized void loadEntries() {
+        final File[] entryDirs = cacheDir.listFiles( ENTRY_FILTER );
+        if ( entryDirs == null ) {
+            return;
+        }
+
+        for ( final File partial : cacheDir.listFiles() ) {
+            if ( partial.getName().startsWith( "." ) ) {
+                FileUtils.deleteQuietly( partial );
+            }
+        }
+
+        Arrays.sort( entryDirs, new Comparator<File>() {
+
+            @Override
+            public int compare( final File o1, final File o2 ) {
+                return Long.compare( o1.lastModified(), o2.lastModified() );
+            }
+        } );
+        for ( final File entryDir : entryDirs ) {
+            final long size = FileUtils.sizeOfDirectory( entryDir );
+            entries.put( entryDir.getName(), size );
+            totalSize += size;
+        }
+        evictIfNecessary();
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @param workspace
+     *            A workspace the project was synchronized into.
+     * @param buildMode
+     *            Identifies how the WARs are packaged, for workspaces that are packaged in more than one way.
+     * @return The key of the WARs packaged from the current content of the workspace, or null if the WARs cannot be
+     *         cached.
+     */
+    public String getKey( final File workspace,
+                          final String buildMode ) {
+        if ( !isEnabled() || !WorkspaceManifest.exists( workspace ) ) {
+            return null;
+        }
+
+        final String dependencyState;
+        try {
+            dependencyState = DependencyState.of( new File( workspace, "pom.xml" ), dependencyResolver.getRepositoryDir() );
+        } catch ( IOException e ) {
+            logger.debug( "Unable to determine the dependencies of {}. Its WARs are not cached.", workspace );
+            return null;
+        }
+        final String treeHash = WorkspaceManifest.load( workspace ).getTreeHash();
+
+        return ContentHash.of( treeHash + ":" + buildMode + ":" + dependencyState + ":" + SERVER_BUILD );
+    }
+
+    /**
+     * Copies the WARs cached under the given key into the target directory, replacing any WARs already there.
+     *
+     * @return True if the key was cached and the WARs were restored.
+     */
+    public boolean restore( final String key, final File targetDir ) {
+        if ( !isEnabled() ) {
+            return false;
+        }
+
+        final File entryDir = new File( cacheDir, key );
+        synchronized ( this ) {
+            if ( entries.get( key ) == null ) {
+                return false;
+            }
+            entryDir.setLastModified( System.currentTimeMillis() );
+        }
+
+        try {
+            targetDir.mkdirs();
+            for ( final File war : FileUtils.listFiles( targetDir, new String[]{"war"}, false ) ) {
+                FileUtils.deleteQuietly( war );
+            }
+            for ( final File war : FileUtils.listFiles( entryDir, new String[]{"war"}, false ) ) {
+                FileUtils.copyFileToDirectory( war, targetDir );
+            }
+
+            return true;
+        } catch ( IOException | IllegalArgumentException e ) {
+            // The entry may have been evicted while it was copied.
+            logger.warn( "Unable to restore cached WAR " + key + ". The project will be built.", e );
+            return false;
+        }
+    }
+
+    /**
+     * Caches the given WARs under the given key.
+     */
+    public void store( final String key, final Collection<File> wars ) {
+        if ( !isEnabled() || wars.isEmpty() ) {
+            return;
+        }
+
+        synchronized ( this ) {
+            if ( entries.containsKey( key ) ) {
+                return;
+            }
+        }
+
+        final File entryDir = new File( cacheDir, key );
+        final File tmpDir = new File( cacheDir, "." + key + "-" + UUID.randomUUID() );
+        try {
+            for ( final File war : wars ) {
+                FileUtils.copyFileToDirectory( war, tmpDir );
+            }
+
+            synchronized ( this ) {
+                if ( entries.containsKey( key ) || !tmpDir.renameTo( entryDir ) ) {
+                    return;
+                }
+
+                final long size = FileUtils.sizeOfDirectory( entryDir );
+                entries.put( key, size );
+                totalSize += size;
+                evictIfNecessary();
+            }
+        } catch ( IOException e ) {
+            logger.warn( "Unable to cache WAR " + key + ".", e );
+        } finally {
+            FileUtils.deleteQuietly( tmpDir );
+        }
+    }
+
+    private void evictIfNecessary() {
+        final Iterator<Map.Entry<String, Long>> iter = entries.entrySet().iterator();
+        while ( totalSize > maxSize && iter.hasNext() ) {
+            final Map.Entry<String, Long> eldest = iter.next();
+            iter.remove();
+            totalSize -= eldest.getValue();
+            FileUtils.deleteQuietly( new File( cacheDir, eldest.getKey() ) );
+            logger.debug( "Evicted cached WAR {}.", eldest.getKey() );
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.codeserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.livespark.backend.server.service.build.CodeServerPortHandle;
+import org.livespark.backend.server.service.build.OutputHandler;
+import org.livespark.backend.server.service.cache.GwtUnitCache;
+import org.livespark.backend.server.service.maven.MavenBuildEngine;
+import org.livespark.backend.server.service.metrics.BuildMetrics;
+
+/**
+ * A GWT code server ("gwt:run-codeserver") for one workspace, bound to a leased port. It can be restarted if it stops,
+ * and its output can be redirected when it is handed from one owner to another.
+ */
+public class CodeServer {
+
+    private static final String GWT_CODE_SERVER_PORT = "gwt.codeServerPort";
+    private static final String GWT_CODE_SERVER_LAUNCHER_DIR = "gwt.codeServer.launcherDir";
+    private static final String CODE_SERVER_READY_MESSAGE = "The code server is ready at";
+    private static final String READY_TIMEOUT_PROPERTY = "livespark.codeserver.ready_timeout";
+    private static final long readyTimeoutSeconds = Long.getLong( READY_TIMEOUT_PROPERTY, 300 );
+    private static final long PORT_PROBE_INTERVAL_MS = 1000;
+    private static final int PORT_PROBE_TIMEOUT_MS = 200;
+    private static final String RECOMPILE_USER_AGENT_PROPERTY = "livespark.codeserver.recompile.user_agent";
+    private static final String RECOMPILE_USER_AGENT = System.getProperty( RECOMPILE_USER_AGENT_PROPERTY, "safari" );
+    private static final Pattern RECOMPILE_OK = Pattern.compile( "\"status\"\\s*:\\s*\"ok\"" );
+
+    private final File pomXml;
+    private final CodeServerPortHandle port;
+    private final MavenBuildEngine buildEngine;
+    private final ExecutorService execService;
+    private final BuildMetrics metrics;
+    private final GwtUnitCache unitCache;
+    private final boolean pooledWorkspace;
+
+    private volatile OutputHandler outputHandler;
+    private volatile long idleSince;
+
+    /*
+     * Released when the code server is ready or when it stopped before becoming ready, in which case error is set.
+     */
+    private volatile CountDownLatch ready;
+    private volatile Throwable error = null;
+    private volatile long launchedAt;
+    private Future<?> running;
+
+    CodeServer( final File pomXml,
+                final CodeServerPortHandle port,
+                final MavenBuildEngine buildEngine,
+                final ExecutorService execService,
+                final BuildMetrics metrics,
+                final GwtUnitCache unitCache,
+                final boolean pooledWorkspace,
+                final OutputHandler outputHandler ) {
+        this.pomXml = pomXml;
+        this.port = port;
+        this.buildEngine = buildEngine;
+        this.execService = execService;
+        this.metrics = metrics;
+        this.unitCache = unitCache;
+        this.pooledWorkspace = pooledWorkspace;
+        this.outputHandler = outputHandler;
+    }
+
+    public Integer getPort() {
+        return port.getPortNumber();
+    }
+
+    public File getWorkspace() {
+        return pomXml.getParentFile();
+    }
+
+    /**
+     * @return True if the workspace was created by the {@link CodeServerPool}, which then also deletes it.
+     */
+    boolean isPooledWorkspace() {
+        return pooledWorkspace;
+    }
+
+    public void setOutputHandler( final OutputHandler outputHandler ) {
+        this.outputHandler = outputHandler;
+    }
+
+    long getIdleSince() {
+        return idleSince;
+    }
+
+    void setIdleSince( final long idleSince ) {
+        this.idleSince = idleSince;
+    }
+
+    /**
+     * Launches the code server unless it is already running.
+     */
+    public synchronized void start() {
+        if ( running != null && !running.isDone() ) {
+            return;
+        }
+
+        final InvocationRequest codeServerRequest = createCodeServerRequest();
+        final CountDownLatch latch = new CountDownLatch( 1 );
+        setCodeServerOutputHandler( codeServerRequest, latch );
+
+        // Units the code server compiles are published when it stops.
+        final GwtUnitCache.Lease unitCacheLease = unitCache.lease( pomXml );
+        unitCacheLease.configure( codeServerRequest );
+
+        error = null;
+        ready = latch;
+        launchedAt = System.currentTimeMillis();
+        running = execService.submit( new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    final InvocationResult result = buildEngine.execute( codeServerRequest );
+                    if ( latch.getCount() > 0 ) {
+                        error = new IllegalStateException( "The code server stopped with exit code " + result.getExitCode() + " before it was ready." );
+                    }
+                } catch ( MavenInvocationException e ) {
+                    if ( latch.getCount() > 0 ) {
+                        error = e;
+                    }
+                } finally {
+                    latch.countDown();
+                    unitCacheLease.release();
+                }
+            }
+        } );
+    }
+
+    /**
+     * @return True if the code server was started, has not stopped, and accepts connections.
+     */
+    public synchronized boolean isAlive() {
+        return running != null && !running.isDone() && ready.getCount() == 0 && error == null && isPortOpen();
+    }
+
+    /**
+     * Stops the code server. It can be started again.
+     */
+    public synchronized void stop() {
+        if ( running != null ) {
+            running.cancel( true );
+        }
+    }
+
+    /**
+     * Stops the code server and relinquishes its port. It must not be used afterwards.
+     */
+    void dispose() {
+        stop();
+        port.relinquishPort();
+    }
+
+    /**
+     * Blocks until the started code server is ready. Readiness is normally signalled by the code server's output.
+     * Probing the port covers output that does not contain the expected message.
+     *
+     * @throws TimeoutException
+     *             If the code server was not ready in time, in which case it is stopped.
+     */
+    public void awaitReady() throws Throwable {
+        final CountDownLatch latch = ready;
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( readyTimeoutSeconds );
+
+        try {
+            while ( !latch.await( PORT_PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS ) ) {
+                if ( isPortOpen() ) {
+                    signalReady( latch );
+                } else if ( System.currentTimeMillis() >= deadline ) {
+                    stop();
+                    outputHandler.handleOutput( "[ERROR] The code server was not ready after " + readyTimeoutSeconds + " seconds." );
+                    throw new TimeoutException( "Code server in " + getWorkspace() + " was not ready after " + readyTimeoutSeconds + " seconds." );
+                }
+            }
+        } catch ( InterruptedException e ) {
+            // The build was cancelled while the code server was starting.
+            stop();
+            throw e;
+        }
+
+        if ( error != null ) {
+            throw error;
+        }
+    }
+
+    /**
+     * Asks the running code server to recompile every module it serves, so that the next page load gets the current
+     * client code. Modules are compiled for the {@value #RECOMPILE_USER_AGENT_PROPERTY} user agent. Browsers with other
+     * user agents are compiled for when they reload.
+     *
+     * @return True if every module compiled.
+     */
+    public boolean recompile() {
+        final List<String> modules;
+        try {
+            modules = GwtModules.find( pomXml );
+        } catch ( IOException e ) {
+            outputHandler.handleOutput( "[ERROR] Unable to determine the GWT modules of " + getWorkspace() + ": " + e.getMessage() );
+            return false;
+        }
+        if ( modules.isEmpty() ) {
+            outputHandler.handleOutput( "[ERROR] No GWT module was found in " + getWorkspace() );
+            return false;
+        }
+
+        for ( final String module : modules ) {
+            outputHandler.handleOutput( "[INFO] Recompiling " + module + " on the code server..." );
+            try {
+                final HttpURLConnection connection = (HttpURLConnection) new URL( "http://localhost:" + port.getPortNumber()
+                                                                                   + "/recompile/" + module
+                                                                                   + "?user.agent=" + RECOMPILE_USER_AGENT ).openConnection();
+                connection.setConnectTimeout( PORT_PROBE_TIMEOUT_MS * 5 );
+                connection.setReadTimeout( (int) TimeUnit.SECONDS.toMillis( readyTimeoutSeconds ) );
+
+                final InputStream response = connection.getResponseCode() == HttpURLConnection.HTTP_OK ? connection.getInputStream()
+                                                                                                         : connection.getErrorStream();
+                final String body = response != null ? IOUtils.toString( response, "UTF-8" ) : "";
+                if ( !RECOMPILE_OK.matcher( body ).find() ) {
+                    outputHandler.handleOutput( "[ERROR] The code server failed to recompile " + module + ". See the code server output for details." );
+                    return false;
+                }
+            } catch ( IOException e ) {
+                outputHandler.handleOutput( "[ERROR] Unable to reach the code server on port " + port.getPortNumber() + ": " + e.getMessage() );
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private InvocationRequest createCodeServerRequest() {
+        final DefaultInvocationRequest codeServerRequest = new DefaultInvocationRequest();
+        final Properties codeServerProperties = new Properties();
+        final File webappFolder = new File( getWorkspace(), "src/main/webapp" );
+
+        codeServerProperties.setProperty( GWT_CODE_SERVER_LAUNCHER_DIR, webappFolder.getAbsolutePath() );
+        codeServerProperties.setProperty( GWT_CODE_SERVER_PORT, String.valueOf( port.getPortNumber() ) );
+
+        codeServerRequest.setPomFile( pomXml );
+        codeServerRequest.setGoals( Collections.singletonList( "gwt:run-codeserver" ) );
+        codeServerRequest.setProperties( codeServerProperties );
+
+        return codeServerRequest;
+    }
+
+    private void signalReady( final CountDownLatch latch ) {
+        synchronized ( latch ) {
+            if ( latch.getCount() > 0 ) {
+                metrics.recordTime( BuildMetrics.CODE_SERVER_READY, System.currentTimeMillis() - launchedAt );
+                latch.countDown();
+            }
+        }
+    }
+
+    private boolean isPortOpen() {
+        final Socket socket = new Socket();
+        try {
+            socket.connect( new InetSocketAddress( InetAddress.getLoopbackAddress(), port.getPortNumber() ), PORT_PROBE_TIMEOUT_MS );
+            return true;
+        } catch ( IOException e ) {
+            return false;
+        } finally {
+            try {
+                socket.close();
+            } catch ( IOException ignore ) {
+            }
+        }
+    }
+
+    private void setCodeServerOutputHandler( final InvocationRequest codeServerRequest, final CountDownLatch latch ) {
+        codeServerRequest.setOutputHandler( new InvocationOutputHandler() {
+
+            @Override
+            public void consumeLine( String line ) {
+                if ( latch.getCount() > 0 && line.contains( CODE_SERVER_READY_MESSAGE ) ) {
+                    signalReady( latch );
+                }
+                outputHandler.handleOutput( line );
+            }
+        } );
+    }
+
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.codeserver;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.apache.commons.io.FileUtils;
+import org.guvnor.common.services.project.model.Project;
+import org.livespark.backend.server.service.build.OutputHandler;
+import org.livespark.backend.server.service.cache.GwtUnitCache;
+import org.livespark.backend.server.service.dir.WorkspaceManager;
+import org.livespark.backend.server.service.dir.WorkspacePreparer;
+import org.livespark.backend.server.service.maven.MavenBuildEngineProvider;
+import org.livespark.backend.server.service.metrics.BuildMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps up to {@value #POOL_SIZE_PROPERTY} warm code servers per project, so that the first development mode build of
+ * a session does not wait for a code server to start.
+ * <p>
+ * A warm code server runs in a workspace owned by the pool. A session takes over the workspace together with the code
+ * server with {@link #takeWarmWorkspace(Project)} and {@link #acquire(Project, File, OutputHandler)}. When the session
+ * ends, the code server is {@link #release(Project, CodeServer) released} and either kept for the next session or
+ * stopped. Idle code servers are stopped after {@value #IDLE_TIMEOUT_PROPERTY} seconds.
+ */
+@ApplicationScoped
+public class CodeServerPool {
+
+    private static final Logger logger = LoggerFactory.getLogger( CodeServerPool.class );
+
+    public static final String POOL_SIZE_PROPERTY = "livespark.codeserver.pool.size";
+    public static final String IDLE_TIMEOUT_PROPERTY = "livespark.codeserver.pool.idle_timeout";
+    private static final int DEFAULT_POOL_SIZE = 1;
+    private static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 900;
+    private static final long REAP_INTERVAL_SECONDS = 30;
+
+    private static final OutputHandler LOGGING_OUTPUT = new OutputHandler() {
+
+        @Override
+        public void handleOutput( final String line ) {
+            logger.debug( line );
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    @Resource
+    private ManagedExecutorService execService;
+
+    @Resource
+    private ManagedScheduledExecutorService scheduledExecService;
+
+    @Inject
+    private CodeServerPortAllocator portAllocator;
+
+    @Inject
+    private MavenBuildEngineProvider buildEngineProvider;
+
+    @Inject
+    private BuildMetrics metrics;
+
+    @Inject
+    private WorkspaceManager workspaceManager;
+
+    @Inject
+    private GwtUnitCache unitCache;
+
+    private final int poolSize = readPoolSize();
+    private final long idleTimeoutMs = TimeUnit.SECONDS.toMillis( readIdleTimeoutSeconds() );
+
+    /*
+     * Ready code servers in pooled workspaces, by project root.
+     */
+    private final Map<String, Queue<CodeServer>> idle = new ConcurrentHashMap<String, Queue<CodeServer>>();
+
+    /*
+     * Warm code servers whose workspace was taken by a session that has not acquired them yet, by workspace.
+     */
+    private final Map<File, CodeServer> reserved = new ConcurrentHashMap<File, CodeServer>();
+
+    private final Map<String, AtomicInteger> warming = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private ScheduledFuture<?> reapTask;
+
+    private static int readPoolSize() {
+        final String configured = System.getProperty( POOL_SIZE_PROPERTY );
+        if ( configured != null ) {
+            try {
+                return Math.max( 0, Integer.parseInt( configured.trim() ) );
+            } catch ( NumberFormatException e ) {
+                logger.warn( "Ignoring invalid value for " + POOL_SIZE_PROPERTY + ": " + configured );
+            }
+        }
+
+        return DEFAULT_POOL_SIZE;
+    }
+
+    private static long readIdleTimeoutSeconds() {
+        final String configured = System.getProperty( IDLE_TIMEOUT_PROPERTY );
+        if ( configured != null ) {
+            try {
+                return Math.max( 0, Long.parseLong( configured.trim() ) );
+            } catch ( NumberFormatException e ) {
+                logger.warn( "Ignoring invalid value for " + IDLE_TIMEOUT_PROPERTY + ": " + configured );
+            }
+        }
+
+        return DEFAULT_IDLE_TIMEOUT_SECONDS;
+    }
+
+    @PostConstruct
+    private void setup() {
+        reapTask = scheduledExecService.scheduleWithFixedDelay( new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    reapIdle();
+                } catch ( RuntimeException e ) {
+                    logger.error( "Unable to reap idle code servers.", e );
+                }
+            }
+        }, REAP_INTERVAL_SECONDS, REAP_INTERVAL_SECONDS, TimeUnit.SECONDS );
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if ( reapTask != null ) {
+            reapTask.cancel( false );
+        }
+        for ( final Queue<CodeServer> servers : idle.values() ) {
+            CodeServer server;
+            while ( ( server = servers.poll() ) != null ) {
+                discard( server );
+            }
+        }
+        for ( final CodeServer server : reserved.values() ) {
+            discard( server );
+        }
+        reserved.clear();
+    }
+
+    /**
+     * Reserves a warm code server of the given project for a new session.
+     *
+     * @return The workspace of the reserved code server, which the session must use as its own and pass to
+     *         {@link #acquire(Project, File, OutputHandler)}, or null if there is no warm code server.
+     */
+    public File takeWarmWorkspace( final Project project ) {
+        final Queue<CodeServer> servers = idle.get( getKey( project ) );
+        if ( servers == null ) {
+            return null;
+        }
+
+        CodeServer server;
+        while ( ( server = servers.poll() ) != null ) {
+            if ( server.isAlive() ) {
+                reserved.put( server.getWorkspace(), server );
+                return server.getWorkspace();
+            }
+
+            logger.debug( "Discarding code server in {}, which stopped while idle.", server.getWorkspace() );
+            discard( server );
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The code server reserved for the given workspace, or a new code server for it. The code server may not
+     *         be started yet.
+     */
+    public CodeServer acquire( final Project project,
+                               final File pomXml,
+                               final OutputHandler outputHandler ) {
+        CodeServer server = reserved.remove( pomXml.getParentFile() );
+        if ( server != null ) {
+            logger.debug( "Using warm code server on port {} for {}.", server.getPort(), project.getProjectName() );
+            server.setOutputHandler( outputHandler );
+        } else {
+            server = createCodeServer( pomXml, false, outputHandler );
+            // The code server writes to its workspace for as long as it runs, so the workspace must not be evicted.
+            workspaceManager.beginUse( server.getWorkspace() );
+        }
+
+        return server;
+    }
+
+    /**
+     * Returns a code server that is no longer used. It is kept warm for the next session if it runs in a pooled
+     * workspace and the pool of its project is not full. Otherwise it is stopped.
+     */
+    public void release( final Project project,
+                         final CodeServer server ) {
+        server.setOutputHandler( LOGGING_OUTPUT );
+        if ( server.isPooledWorkspace() && poolSize > 0 && server.isAlive() ) {
+            final Queue<CodeServer> servers = getIdle( project );
+            if ( servers.size() < poolSize ) {
+                server.setIdleSince( System.currentTimeMillis() );
+                servers.add( server );
+                return;
+            }
+        }
+
+        discard( server );
+    }
+
+    /**
+     * Starts warm code servers in the background until the pool of the given project is full.
+     */
+    public void replenish( final Project project,
+                           final WorkspacePreparer preparer ) {
+        if ( poolSize == 0 ) {
+            return;
+        }
+
+        final String key = getKey( project );
+        final AtomicInteger inProgress = getWarming( key );
+        while ( true ) {
+            final int current = inProgress.get();
+            if ( getIdle( project ).size() + current >= poolSize ) {
+                return;
+            }
+            if ( inProgress.compareAndSet( current, current + 1 ) ) {
+                break;
+            }
+        }
+
+        execService.submit( new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    final CodeServer server = warmUp( project, preparer );
+                    if ( server != null ) {
+                        release( project, server );
+                    }
+                } finally {
+                    inProgress.decrementAndGet();
+                }
+            }
+        } );
+    }
+
+    private CodeServer warmUp( final Project project,
+                               final WorkspacePreparer preparer ) {
+        File workspace = null;
+        CodeServer server = null;
+        try {
+            workspace = File.createTempFile( project.getProjectName() + "-codeserver", "" );
+            workspace.delete();
+            workspace.mkdir();
+
+            server = createCodeServer( preparer.prepare( project, workspace ), true, LOGGING_OUTPUT );
+            server.start();
+            server.awaitReady();
+            logger.debug( "Warmed up a code server on port {} for {}.", server.getPort(), project.getProjectName() );
+
+            return server;
+        } catch ( Throwable t ) {
+            logger.warn( "Unable to warm up a code server for " + project.getProjectName(), t );
+            if ( server != null ) {
+                discard( server );
+            } else if ( workspace != null ) {
+                FileUtils.deleteQuietly( workspace );
+            }
+
+            return null;
+        }
+    }
+
+    private CodeServer createCodeServer( final File pomXml,
+                                         final boolean pooledWorkspace,
+                                         final OutputHandler outputHandler ) {
+        return new CodeServer( pomXml,
+                               portAllocator.lease(),
+                               buildEngineProvider.getCodeServerEngine(),
+                               execService,
+                               metrics,
+                               unitCache,
+                               pooledWorkspace,
+                               outputHandler );
+    }
+
+    private void reapIdle() {
+        final long now = System.currentTimeMillis();
+        for ( final Queue<CodeServer> servers : idle.values() ) {
+            final Iterator<CodeServer> iter = servers.iterator();
+            while ( iter.hasNext() ) {
+                final CodeServer server = iter.next();
+                if ( now - server.getIdleSince() >= idleTimeoutMs || !server.isAlive() ) {
+                    if ( servers.remove( server ) ) {
+                        logger.debug( "Stopping idle code server on port {}.", server.getPort() );
+                        discard( server );
+                    }
+                }
+            }
+        }
+    }
+
+    private void discard( final CodeServer server ) {
+        server.dispose();
+        if ( server.isPooledWorkspace() ) {
+            FileUtils.deleteQuietly( server.getWorkspace() );
+        } else {
+            workspaceManager.endUse( server.getWorkspace() );
+        }
+    }
+
+    private Queue<CodeServer> getIdle( final Project project ) {
+        final String key = getKey( project );
+        Queue<CodeServer> servers = idle.get( key );
+        if ( servers == null ) {
+            synchronized ( idle ) {
+                servers = idle.get( key );
+                if ( servers == null ) {
+                    servers = new ConcurrentLinkedQueue<CodeServer>();
+                    idle.put( key, servers );
+                }
+            }
+        }
+
+        return servers;
+    }
+
+    private AtomicInteger getWarming( final String key ) {
+        AtomicInteger inProgress = warming.get( key );
+        if ( inProgress == null ) {
+            synchronized ( warming ) {
+                inProgress = warming.get( key );
+                if ( inProgress == null ) {
+                    inProgress = new AtomicInteger();
+                    warming.put( key, inProgress );
+                }
+            }
+        }
+
+        return inProgress;
+    }
+
+    private static String getKey( final Project project ) {
+        return project.getRootPath().toURI();
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.codeserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.livespark.backend.server.service.build.CodeServerPortHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Leases ports for code servers from the ranges configured with {@value #PORTS_PROPERTY} (for example
+ * {@code 50000-50100,51000-51010}).
+ * <p>
+ * Leases are kept in a bitmap that is updated with compare-and-set, so leasing and relinquishing never block. Before a
+ * port is handed out it is checked to be free, so ports taken by other processes are skipped.
+ */
+@ApplicationScoped
+public class CodeServerPortAllocator {
+
+    private static final Logger logger = LoggerFactory.getLogger( CodeServerPortAllocator.class );
+
+    public static final String PORTS_PROPERTY = "livespark.codeserver.ports";
+    private static final String DEFAULT_PORTS = "50000-50100";
+
+    private final int[] ports = readPorts();
+    private final AtomicLongArray leased = new AtomicLongArray( ( ports.length + 63 ) / 64 );
+
+    /*
+     * Where the next search starts, so that recently relinquished ports are not reused right away.
+     */
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    private static int[] readPorts() {
+        final String configured = System.getProperty( PORTS_PROPERTY );
+        if ( configured != null ) {
+            try {
+                return parsePorts( configured );
+            } catch ( IllegalArgumentException e ) {
+                logger.warn( "Ignoring invalid value for " + PORTS_PROPERTY + ": " + configured );
+            }
+        }
+
+        return parsePorts( DEFAULT_PORTS );
+    }
+
+    private static int[] parsePorts( final String ranges ) {
+        final List<Integer> ports = new ArrayList<Integer>();
+        for ( final String range : ranges.split( "," ) ) {
+            final String[] bounds = range.trim().split( "-" );
+            if ( bounds.length > 2 ) {
+                throw new IllegalArgumentException( range );
+            }
+
+            final int lowest = Integer.parseInt( bounds[ 0 ].trim() );
+            final int highest = bounds.length == 2 ? Integer.parseInt( bounds[ 1 ].trim() ) : lowest;
+            if ( lowest < 1 || highest > 65535 || lowest > highest ) {
+                throw new IllegalArgumentException( range );
+            }
+
+            for ( int port = lowest; port <= highest; port++ ) {
+                if ( !ports.contains( port ) ) {
+                    ports.add( port );
+                }
+            }
+        }
+
+        final int[] retVal = new int[ ports.size() ];
+        for ( int i = 0; i < retVal.length; i++ ) {
+            retVal[ i ] = ports.get( i );
+        }
+
+        return retVal;
+    }
+
+    /**
+     * @return A handle for a free port that is leased until the handle is relinquished.
+     * @throws RuntimeException
+     *             If every configured port is leased or in use.
+     */
+    public CodeServerPortHandle lease() {
+        final int start = Math.abs( nextIndex.getAndIncrement() % ports.length );
+        for ( int offset = 0; offset < ports.length; offset++ ) {
+            final int index = ( start + offset ) % ports.length;
+            if ( tryLease( index ) ) {
+                if ( isPortFree( ports[ index ] ) ) {
+                    return createHandle( index );
+                }
+
+                logger.debug( "Skipping code server port {}, which is in use by another process.", ports[ index ] );
+                release( index );
+            }
+        }
+
+        throw new RuntimeException( "All available code server ports are in use." );
+    }
+
+    /**
+     * @return The number of ports that are currently leased.
+     */
+    public int getLeasedCount() {
+        int count = 0;
+        for ( int i = 0; i < leased.length(); i++ ) {
+            count += Long.bitCount( leased.get( i ) );
+        }
+
+        return count;
+    }
+
+    private boolean tryLease( final int index ) {
+        final int word = index >>> 6;
+        final long bit = 1L << ( index & 63 );
+        long current;
+        do {
+            current = leased.get( word );
+            if ( ( current & bit ) != 0 ) {
+                return false;
+            }
+        } while ( !leased.compareAndSet( word, current, current | bit ) );
+
+        return true;
+    }
+
+    private void release( final int index ) {
+        final int word = index >>> 6;
+        final long bit = 1L << ( index & 63 );
+        long current;
+        do {
+            current = leased.get( word );
+        } while ( !leased.compareAndSet( word, current, current & ~bit ) );
+    }
+
+    private CodeServerPortHandle createHandle( final int index ) {
+        return new CodeServerPortHandle() {
+
+            private final AtomicBoolean relinquished = new AtomicBoolean( false );
+
+            @Override
+            public void relinquishPort() {
+                if ( relinquished.compareAndSet( false, true ) ) {
+                    release( index );
+                }
+            }
+
+            @Override
+            public Integer getPortNumber() {
+                if ( !relinquished.get() )
+                    return ports[ index ];
+                else
+                    throw new RuntimeException( "Cannot get port number after relinquishing." );
+            }
+        };
+    }
+
+    private static boolean isPortFree( final int port ) {
+        final ServerSocket socket;
+        try {
+            socket = new ServerSocket();
+        } catch ( IOException e ) {
+            return false;
+        }
+
+        try {
+            socket.setReuseAddress( false );
+            socket.bind( new InetSocketAddress( port ) );
+            return true;
+        } catch ( IOException e ) {
+            return false;
+        } finally {
+            try {
+                socket.close();
+            } catch ( IOException ignore ) {
+            }
+        }
+    }
+
+}
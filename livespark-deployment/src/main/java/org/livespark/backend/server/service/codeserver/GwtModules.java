@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.codeserver;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+/**
+ * Finds the GWT modules that "gwt:run-codeserver" launches for a project, by the names the code server serves them
+ * under.
+ * <p>
+ * The modules are those of the gwt-maven-plugin configuration ({@code <module>} or {@code <modules>}). Without such a
+ * configuration the plugin launches the modules in the project's sources, of which only those with an entry point can
+ * be recompiled. A module with a {@code rename-to} attribute is served under that name.
+ */
+final class GwtModules {
+
+    private static final String GWT_PLUGIN_GROUP_ID = "org.codehaus.mojo";
+    private static final String GWT_PLUGIN_ARTIFACT_ID = "gwt-maven-plugin";
+    private static final String[] MODULE_SOURCE_DIRS = { "src/main/java", "src/main/resources" };
+    private static final String MODULE_SUFFIX = ".gwt.xml";
+    private static final Pattern RENAME_TO = Pattern.compile( "<module\\b[^>]*\\brename-to\\s*=\\s*[\"']([^\"']+)[\"']" );
+
+    private GwtModules() {
+    }
+
+    /**
+     * @return The names under which the code server of the project of the given POM serves its modules. Empty if no
+     *         module was found.
+     * @throws IOException
+     *             If the POM cannot be read.
+     */
+    static List<String> find( final File pomXml ) throws IOException {
+        final File workspace = pomXml.getParentFile();
+        List<String> modules = getConfiguredModules( read( pomXml ) );
+        if ( modules.isEmpty() ) {
+            modules = findEntryPointModules( workspace );
+        }
+
+        final List<String> names = new ArrayList<String>();
+        for ( final String module : modules ) {
+            final String name = getServedName( workspace, module );
+            if ( !names.contains( name ) ) {
+                names.add( name );
+            }
+        }
+
+        return names;
+    }
+
+    private static Model read( final File pomXml ) throws IOException {
+        final Reader reader = new FileReader( pomXml );
+        try {
+            return new MavenXpp3Reader().read( reader, false );
+        } catch ( XmlPullParserException e ) {
+            throw new IOException( "Unable to parse " + pomXml, e );
+        } finally {
+            reader.close();
+        }
+    }
+
+    /*
+     * The modules of the plugin's configuration in the build, or else in the plugin management of the POM.
+     */
+    private static List<String> getConfiguredModules( final Model model ) {
+        final List<String> modules = new ArrayList<String>();
+        final Build build = model.getBuild();
+        if ( build == null ) {
+            return modules;
+        }
+
+        final List<Plugin> plugins = new ArrayList<Plugin>( build.getPlugins() );
+        if ( build.getPluginManagement() != null ) {
+            plugins.addAll( build.getPluginManagement().getPlugins() );
+        }
+        for ( final Plugin plugin : plugins ) {
+            if ( !GWT_PLUGIN_ARTIFACT_ID.equals( plugin.getArtifactId() )
+                    || ( plugin.getGroupId() != null && !GWT_PLUGIN_GROUP_ID.equals( plugin.getGroupId() ) )
+                    || !( plugin.getConfiguration() instanceof Xpp3Dom ) ) {
+                continue;
+            }
+
+            final Xpp3Dom configuration = (Xpp3Dom) plugin.getConfiguration();
+            addModule( configuration.getChild( "module" ), modules );
+            final Xpp3Dom moduleList = configuration.getChild( "modules" );
+            if ( moduleList != null ) {
+                for ( final Xpp3Dom module : moduleList.getChildren() ) {
+                    addModule( module, modules );
+                }
+            }
+            if ( !modules.isEmpty() ) {
+                break;
+            }
+        }
+
+        return modules;
+    }
+
+    private static void addModule( final Xpp3Dom module,
+                                   final List<String> modules ) {
+        if ( module != null && module.getValue() != null && !module.getValue().trim().isEmpty() ) {
+            modules.add( module.getValue().trim() );
+        }
+    }
+
+    private static List<String> findEntryPointModules( final File workspace ) {
+        final List<String> modules = new ArrayList<String>();
+        for ( final String sourceDir : MODULE_SOURCE_DIRS ) {
+            final File dir = new File( workspace, sourceDir );
+            if ( !dir.isDirectory() ) {
+                continue;
+            }
+            for ( final File file : FileUtils.listFiles( dir, new String[]{ "xml" }, true ) ) {
+                if ( file.getName().endsWith( MODULE_SUFFIX ) && readModule( file ).contains( "<entry-point" ) ) {
+                    final String relativePath = dir.toURI().relativize( file.toURI() ).getPath();
+                    modules.add( relativePath.substring( 0, relativePath.length() - MODULE_SUFFIX.length() ).replace( '/', '.' ) );
+                }
+            }
+        }
+
+        return modules;
+    }
+
+    /*
+     * A module that is not in the project's sources comes from a dependency, and is served under its own name unless
+     * it renames itself.
+     */
+    private static String getServedName( final File workspace,
+                                         final String module ) {
+        for ( final String sourceDir : MODULE_SOURCE_DIRS ) {
+            final File file = new File( workspace, sourceDir + "/" + module.replace( '.', '/' ) + MODULE_SUFFIX );
+            if ( file.isFile() ) {
+                final Matcher renameTo = RENAME_TO.matcher( readModule( file ) );
+                return renameTo.find() ? renameTo.group( 1 ).trim() : module;
+            }
+        }
+
+        return module;
+    }
+
+    private static String readModule( final File module ) {
+        try {
+            return FileUtils.readFileToString( module, "UTF-8" );
+        } catch ( IOException e ) {
+            return "";
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.deploy;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Deploys a copy of the packaged WAR archive.
+ */
+public class ArchiveDeploymentStrategy implements DeploymentStrategy {
+
+    @Override
+    public boolean deploy( final File war, final File deployment ) throws IOException {
+        FileUtils.deleteQuietly( deployment );
+        FileUtils.copyFile( war, deployment );
+
+        return true;
+    }
+
+    @Override
+    public void undeploy( final File deployment ) {
+        FileUtils.deleteQuietly( deployment );
+    }
+
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.deploy;
+
+import java.io.File;
+
+/**
+ * Notified by the {@link DeploymentWatcher} when the deployment scanner has processed a deployment.
+ */
+public interface DeploymentListener {
+
+    void onDeployed( File deployment );
+
+    void onDeploymentFailed( File deployment );
+
+}
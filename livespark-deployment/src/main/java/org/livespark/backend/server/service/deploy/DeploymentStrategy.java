@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.deploy;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Puts packaged WARs into the server's deployment directory.
+ */
+public interface DeploymentStrategy {
+
+    /**
+     * Deploys the given WAR as the given deployment, replacing any previous version of it.
+     *
+     * @return True if the deployment scanner will (re)deploy the deployment, in which case it reports back through its
+     * marker files. False if the running deployment was updated in place.
+     */
+    boolean deploy( File war, File deployment ) throws IOException;
+
+    /**
+     * Removes a deployment made by {@link #deploy(File, File)}.
+     */
+    void undeploy( File deployment );
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.deploy;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Holds the {@link DeploymentStrategy} used by all deployments. The strategy is chosen with the
+ * {@value #DEPLOYMENT_MODE_PROPERTY} system property: {@code archive} (the default) or {@code exploded}. In exploded
+ * mode, {@value #STATIC_IN_PLACE_PROPERTY} (true by default) controls whether changes to static resources only are
+ * applied without a redeployment.
+ */
+@ApplicationScoped
+public class DeploymentStrategyProvider {
+
+    public static final String DEPLOYMENT_MODE_PROPERTY = "livespark.deployment.mode";
+    public static final String STATIC_IN_PLACE_PROPERTY = "livespark.deployment.static_in_place";
+    private static final String EXPLODED_MODE = "exploded";
+
+    private DeploymentStrategy strategy;
+
+    @PostConstruct
+    private void setup() {
+        final String mode = System.getProperty( DEPLOYMENT_MODE_PROPERTY, "archive" );
+        if ( EXPLODED_MODE.equals( mode ) ) {
+            strategy = new ExplodedDeploymentStrategy( Boolean.valueOf( System.getProperty( STATIC_IN_PLACE_PROPERTY, "true" ) ) );
+        } else {
+            strategy = new ArchiveDeploymentStrategy();
+        }
+    }
+
+    public DeploymentStrategy getStrategy() {
+        return strategy;
+    }
+
+}
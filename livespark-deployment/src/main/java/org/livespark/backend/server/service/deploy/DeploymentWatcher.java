@@ -0,0 +1,289 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.deploy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the markers the WildFly deployment scanner writes next to deployments (".deployed" and ".failed") and
+ * notifies the listeners registered for each deployment.
+ * <p>
+ * A single periodic task serves every registration. Deployment directories are watched with a {@link WatchService}, so
+ * a tick normally only drains pending events. Directories that cannot be watched, and every directory when no
+ * {@link WatchService} is available, fall back to checking the markers of their registered deployments. The cost of a
+ * tick therefore depends on the number of changed markers, not on the number of sessions.
+ */
+@ApplicationScoped
+public class DeploymentWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger( DeploymentWatcher.class );
+
+    private static final String DEPLOYED_SUFFIX = ".deployed";
+    private static final String FAILED_SUFFIX = ".failed";
+    private static final long TICK_INTERVAL_MS = 250;
+
+    /**
+     * Stops notifications for a registration.
+     */
+    public interface Registration {
+
+        void cancel();
+
+    }
+
+    private class Watched implements Registration {
+
+        final File deployment;
+        final DeploymentListener listener;
+        volatile long deployedSeen;
+        volatile long failedSeen;
+
+        Watched( final File deployment, final DeploymentListener listener ) {
+            this.deployment = deployment;
+            this.listener = listener;
+            this.deployedSeen = marker( deployment, DEPLOYED_SUFFIX ).lastModified();
+            this.failedSeen = marker( deployment, FAILED_SUFFIX ).lastModified();
+        }
+
+        @Override
+        public void cancel() {
+            unregister( this );
+        }
+    }
+
+    @Resource
+    private ManagedScheduledExecutorService scheduledExecService;
+
+    private WatchService watchService;
+    private ScheduledFuture<?> tickTask;
+
+    /*
+     * Registrations by deployment directory, then by deployment name.
+     */
+    private final Map<File, Map<String, List<Watched>>> registrations = new ConcurrentHashMap<File, Map<String, List<Watched>>>();
+    private final Map<WatchKey, File> watchedDirs = new ConcurrentHashMap<WatchKey, File>();
+    private final Set<File> polledDirs = Collections.newSetFromMap( new ConcurrentHashMap<File, Boolean>() );
+
+    @PostConstruct
+    private void setup() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch ( IOException | UnsupportedOperationException e ) {
+            logger.warn( "Unable to create a WatchService. Deployment markers will be polled.", e );
+        }
+
+        tickTask = scheduledExecService.scheduleWithFixedDelay( new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch ( RuntimeException e ) {
+                    logger.error( "Unable to check deployment markers.", e );
+                }
+            }
+        }, TICK_INTERVAL_MS, TICK_INTERVAL_MS, TimeUnit.MILLISECONDS );
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if ( tickTask != null ) {
+            tickTask.cancel( false );
+        }
+        if ( watchService != null ) {
+            try {
+                watchService.close();
+            } catch ( IOException e ) {
+                logger.warn( "Unable to close deployment WatchService.", e );
+            }
+        }
+    }
+
+    /**
+     * Notifies the given listener whenever the given deployment is deployed or fails to deploy, until the returned
+     * registration is cancelled.
+     */
+    public synchronized Registration watch( final File deployment, final DeploymentListener listener ) {
+        final File deployDir = deployment.getAbsoluteFile().getParentFile();
+        Map<String, List<Watched>> byName = registrations.get( deployDir );
+        if ( byName == null ) {
+            byName = new ConcurrentHashMap<String, List<Watched>>();
+            registrations.put( deployDir, byName );
+            watchDirectory( deployDir );
+        }
+
+        List<Watched> watchers = byName.get( deployment.getName() );
+        if ( watchers == null ) {
+            watchers = new CopyOnWriteArrayList<Watched>();
+            byName.put( deployment.getName(), watchers );
+        }
+
+        final Watched watched = new Watched( deployment.getAbsoluteFile(), listener );
+        watchers.add( watched );
+
+        return watched;
+    }
+
+    private synchronized void unregister( final Watched watched ) {
+        final File deployDir = watched.deployment.getParentFile();
+        final Map<String, List<Watched>> byName = registrations.get( deployDir );
+        if ( byName == null ) {
+            return;
+        }
+
+        final List<Watched> watchers = byName.get( watched.deployment.getName() );
+        if ( watchers != null ) {
+            watchers.remove( watched );
+            if ( watchers.isEmpty() ) {
+                byName.remove( watched.deployment.getName() );
+            }
+        }
+    }
+
+    private void watchDirectory( final File deployDir ) {
+        if ( watchService != null ) {
+            try {
+                final WatchKey key = deployDir.toPath().register( watchService,
+                                                                  StandardWatchEventKinds.ENTRY_CREATE,
+                                                                  StandardWatchEventKinds.ENTRY_MODIFY );
+                watchedDirs.put( key, deployDir );
+                return;
+            } catch ( IOException | UnsupportedOperationException e ) {
+                logger.warn( "Unable to watch " + deployDir + ". Its deployment markers will be polled.", e );
+            }
+        }
+        polledDirs.add( deployDir );
+    }
+
+    private void tick() {
+        if ( watchService != null ) {
+            WatchKey key;
+            while ( ( key = watchService.poll() ) != null ) {
+                final File deployDir = watchedDirs.get( key );
+                final Set<String> changed = new HashSet<String>();
+                for ( final WatchEvent<?> event : key.pollEvents() ) {
+                    if ( event.kind() == StandardWatchEventKinds.OVERFLOW ) {
+                        // Events were lost, so every deployment of the directory must be checked.
+                        changed.addAll( getDeploymentNames( deployDir ) );
+                    } else {
+                        final String fileName = ( (Path) event.context() ).getFileName().toString();
+                        changed.add( stripMarkerSuffix( fileName ) );
+                    }
+                }
+                if ( !key.reset() ) {
+                    watchedDirs.remove( key );
+                    if ( deployDir != null ) {
+                        polledDirs.add( deployDir );
+                    }
+                }
+                if ( deployDir != null ) {
+                    checkMarkers( deployDir, changed );
+                }
+            }
+        }
+
+        for ( final File deployDir : polledDirs ) {
+            checkMarkers( deployDir, getDeploymentNames( deployDir ) );
+        }
+    }
+
+    private Collection<String> getDeploymentNames( final File deployDir ) {
+        final Map<String, List<Watched>> byName = registrations.get( deployDir );
+        return byName != null ? new ArrayList<String>( byName.keySet() ) : new ArrayList<String>();
+    }
+
+    private void checkMarkers( final File deployDir, final Collection<String> deploymentNames ) {
+        final Map<String, List<Watched>> byName = registrations.get( deployDir );
+        if ( byName == null ) {
+            return;
+        }
+
+        for ( final String name : deploymentNames ) {
+            final List<Watched> watchers = byName.get( name );
+            if ( watchers == null ) {
+                continue;
+            }
+
+            for ( final Watched watched : watchers ) {
+                final long deployed = marker( watched.deployment, DEPLOYED_SUFFIX ).lastModified();
+                final long failed = marker( watched.deployment, FAILED_SUFFIX ).lastModified();
+                if ( deployed != 0 && deployed != watched.deployedSeen ) {
+                    watched.deployedSeen = deployed;
+                    notifyListener( watched, true );
+                }
+                if ( failed != 0 && failed != watched.failedSeen ) {
+                    watched.failedSeen = failed;
+                    notifyListener( watched, false );
+                }
+            }
+        }
+    }
+
+    private void notifyListener( final Watched watched, final boolean deployed ) {
+        try {
+            if ( deployed ) {
+                watched.listener.onDeployed( watched.deployment );
+            } else {
+                watched.listener.onDeploymentFailed( watched.deployment );
+            }
+        } catch ( RuntimeException e ) {
+            logger.error( "Deployment listener for " + watched.deployment + " failed.", e );
+        }
+    }
+
+    private static String stripMarkerSuffix( final String fileName ) {
+        if ( fileName.endsWith( DEPLOYED_SUFFIX ) ) {
+            return fileName.substring( 0, fileName.length() - DEPLOYED_SUFFIX.length() );
+        } else if ( fileName.endsWith( FAILED_SUFFIX ) ) {
+            return fileName.substring( 0, fileName.length() - FAILED_SUFFIX.length() );
+        }
+
+        return fileName;
+    }
+
+    private static File marker( final File deployment, final String suffix ) {
+        return new File( deployment.getParentFile(), deployment.getName() + suffix );
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.deploy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.livespark.project.WorkspaceManifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deploys the packaged WAR as an exploded directory and on later deployments only rewrites the entries whose content
+ * changed.
+ * <p>
+ * Entries are compared by the CRC-32 checksum and size the archive already records for them, so unchanged entries are
+ * neither extracted nor written. The checksums of the deployed entries are kept in a manifest next to the packaged
+ * WAR. A redeployment is requested with a ".dodeploy" marker, unless only static resources (entries outside of
+ * WEB-INF and META-INF) changed and static resources may be updated in place.
+ */
+public class ExplodedDeploymentStrategy implements DeploymentStrategy {
+
+    private static final Logger logger = LoggerFactory.getLogger( ExplodedDeploymentStrategy.class );
+
+    private static final String DO_DEPLOY_SUFFIX = ".dodeploy";
+    private static final String MANIFEST_SUFFIX = ".deployed-entries";
+    private static final String[] MARKER_SUFFIXES = new String[]{ DO_DEPLOY_SUFFIX, ".deployed", ".failed", ".undeployed", ".pending", ".isdeploying" };
+
+    private final boolean updateStaticResourcesInPlace;
+
+    public ExplodedDeploymentStrategy( final boolean updateStaticResourcesInPlace ) {
+        this.updateStaticResourcesInPlace = updateStaticResourcesInPlace;
+    }
+
+    @Override
+    public boolean deploy( final File war, final File deployment ) throws IOException {
+        if ( deployment.isFile() ) {
+            // Left over from a deployment of the archive.
+            FileUtils.deleteQuietly( deployment );
+        }
+
+        final boolean newDeployment = !deployment.isDirectory();
+        final File manifestFile = new File( war.getParentFile(), deployment.getName() + MANIFEST_SUFFIX );
+        if ( newDeployment ) {
+            FileUtils.deleteQuietly( manifestFile );
+        }
+
+        final WorkspaceManifest manifest = WorkspaceManifest.load( deployment, manifestFile );
+        final Set<String> entries = new HashSet<String>();
+        boolean redeployRequired = newDeployment;
+        int written = 0;
+        int deleted = 0;
+
+        final ZipFile zip = new ZipFile( war );
+        try {
+            final Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while ( zipEntries.hasMoreElements() ) {
+                final ZipEntry entry = zipEntries.nextElement();
+                final File destination = new File( deployment, entry.getName() );
+                if ( entry.isDirectory() ) {
+                    destination.mkdirs();
+                    continue;
+                }
+
+                entries.add( entry.getName() );
+                final String checksum = entry.getCrc() + ":" + entry.getSize();
+                if ( checksum.equals( manifest.getHash( entry.getName() ) ) && destination.isFile() ) {
+                    continue;
+                }
+
+                extract( zip, entry, destination );
+                manifest.put( entry.getName(), checksum );
+                redeployRequired |= !isStaticResource( entry.getName() );
+                written++;
+            }
+        } finally {
+            zip.close();
+        }
+
+        for ( final String deployed : manifest.getPaths() ) {
+            if ( !entries.contains( deployed ) ) {
+                FileUtils.deleteQuietly( new File( deployment, deployed ) );
+                manifest.remove( deployed );
+                redeployRequired |= !isStaticResource( deployed );
+                deleted++;
+            }
+        }
+        manifest.save();
+
+        logger.debug( "Synchronized {} into {}: {} written, {} deleted.", war, deployment, written, deleted );
+
+        if ( redeployRequired || !updateStaticResourcesInPlace ) {
+            FileUtils.touch( marker( deployment, DO_DEPLOY_SUFFIX ) );
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void undeploy( final File deployment ) {
+        FileUtils.deleteQuietly( deployment );
+        for ( final String suffix : MARKER_SUFFIXES ) {
+            FileUtils.deleteQuietly( marker( deployment, suffix ) );
+        }
+    }
+
+    private boolean isStaticResource( final String entryName ) {
+        return !entryName.startsWith( "WEB-INF/" ) && !entryName.startsWith( "META-INF/" );
+    }
+
+    /*
+     * Written to a temporary file first so the server never serves a half-written resource.
+     */
+    private void extract( final ZipFile zip,
+                          final ZipEntry entry,
+                          final File destination ) throws IOException {
+        destination.getParentFile().mkdirs();
+        final File tmpFile = new File( destination.getParentFile(), "." + destination.getName() + ".tmp" );
+        final InputStream is = zip.getInputStream( entry );
+        try {
+            final OutputStream os = new FileOutputStream( tmpFile );
+            try {
+                IOUtils.copy( is, os );
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+
+        java.nio.file.Files.move( tmpFile.toPath(),
+                                  destination.toPath(),
+                                  java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                                  java.nio.file.StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    private static File marker( final File deployment, final String suffix ) {
+        return new File( deployment.getParentFile(), deployment.getName() + suffix );
+    }
+
+}
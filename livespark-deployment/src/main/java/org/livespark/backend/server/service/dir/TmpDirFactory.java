@@ -19,15 +19,27 @@ import java.io.File;
 import java.io.IOException;
 
 import javax.enterprise.context.Dependent;
+import javax.inject.Inject;
 import javax.servlet.http.HttpSession;
 
 import org.guvnor.common.services.project.model.Project;
+import org.livespark.backend.server.service.reaper.ResourceReaper;
+import org.livespark.backend.server.service.scheduler.BuildScheduler;
 
 @Dependent
 public class TmpDirFactory {
 
     private static final String TMP_DIR_HANDLE_SESSION_ATTR_KEY = TmpDirHandle.class.getCanonicalName();
 
+    @Inject
+    private WorkspaceManager workspaceManager;
+
+    @Inject
+    private BuildScheduler buildScheduler;
+
+    @Inject
+    private ResourceReaper reaper;
+
     public File getTmpDir( final Project project, final HttpSession session ) throws IOException {
         TmpDirHandle handle = (TmpDirHandle) session.getAttribute( TMP_DIR_HANDLE_SESSION_ATTR_KEY );
 
@@ -39,19 +51,26 @@ public class TmpDirFactory {
         return handle.getFile();
     }
 
+    public boolean hasTmpDir( final HttpSession session ) {
+        return session.getAttribute( TMP_DIR_HANDLE_SESSION_ATTR_KEY ) != null;
+    }
+
+    /**
+     * Makes an existing directory the tmp dir of the given session. The directory is not deleted when the session ends.
+     */
+    public void adoptTmpDir( final File tmpDir, final HttpSession session ) {
+        session.setAttribute( TMP_DIR_HANDLE_SESSION_ATTR_KEY, new TmpDirHandle( tmpDir, null, null, null ) );
+    }
+
     private TmpDirHandle createNewDirAndHandle( final Project project, final HttpSession session ) throws IOException {
         final File tmpDir = createTmpProjectDir( project, session );
-        final TmpDirHandle handle = new TmpDirHandle( tmpDir );
+        final TmpDirHandle handle = new TmpDirHandle( tmpDir, workspaceManager, buildScheduler, reaper );
 
         return handle;
     }
 
     private File createTmpProjectDir( final Project project, final HttpSession session ) throws IOException {
-        final File tmpDir = File.createTempFile( project.getProjectName() + session.getId(), "" );
-        tmpDir.delete();
-        tmpDir.mkdir();
-
-        return tmpDir;
+        return workspaceManager.createWorkspace( project, session.getId() );
     }
 
 }
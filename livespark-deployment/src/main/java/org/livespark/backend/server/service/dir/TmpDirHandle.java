@@ -20,16 +20,34 @@ import java.io.File;
 import javax.servlet.http.HttpSessionBindingEvent;
 import javax.servlet.http.HttpSessionBindingListener;
 
-import org.uberfire.java.nio.file.Files;
-import org.uberfire.java.nio.file.Paths;
-import org.uberfire.java.nio.file.StandardDeleteOption;
+import org.livespark.backend.server.service.reaper.ResourceReaper;
+import org.livespark.backend.server.service.scheduler.BuildScheduler;
+
 
 public class TmpDirHandle implements HttpSessionBindingListener {
 
     private final File tmpDir;
+    private final WorkspaceManager workspaceManager;
+    private final BuildScheduler buildScheduler;
+    private final ResourceReaper reaper;
 
-    public TmpDirHandle(final File tmpDir) {
+    /**
+     * @param workspaceManager
+     *            Disposes of the directory when the session ends, or null if the directory is owned by someone else
+     *            and must outlive the session.
+     * @param buildScheduler
+     *            Cancels the builds of the session in the directory before it is disposed of.
+     * @param reaper
+     *            Disposes of the directory in the background.
+     */
+    public TmpDirHandle( final File tmpDir,
+                         final WorkspaceManager workspaceManager,
+                         final BuildScheduler buildScheduler,
+                         final ResourceReaper reaper ) {
         this.tmpDir = tmpDir;
+        this.workspaceManager = workspaceManager;
+        this.buildScheduler = buildScheduler;
+        this.reaper = reaper;
     }
 
     public File getFile() {
@@ -43,7 +61,17 @@ public class TmpDirHandle implements HttpSessionBindingListener {
 
     @Override
     public void valueUnbound( HttpSessionBindingEvent event ) {
-        Files.deleteIfExists( Paths.get( tmpDir.toURI() ), StandardDeleteOption.NON_EMPTY_DIRECTORIES );
+        if ( workspaceManager != null ) {
+            // Nobody will look at the results of the session's builds, and a running build defers the disposal.
+            buildScheduler.cancel( event.getSession().getId(), tmpDir );
+            reaper.submit( "workspace " + tmpDir, new Runnable() {
+
+                @Override
+                public void run() {
+                    workspaceManager.dispose( tmpDir );
+                }
+            } );
+        }
     }
 
 }
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.dir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.commons.io.FileUtils;
+import org.guvnor.common.services.project.model.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Owns the build workspaces of all sessions.
+ * <p>
+ * Every project has one base workspace holding its current sources. A session workspace is populated by cloning the
+ * base with hard links, so sessions share the disk space of their sources. Sources are only ever replaced, never
+ * overwritten in place (see {@link org.livespark.project.ProjectUnpacker}), so a session that changes a file gets its
+ * own copy and the base and other sessions are unaffected.
+ * <p>
+ * Workspaces are counted as in use while a build runs in them. When the workspaces take more than
+ * {@value #QUOTA_PROPERTY} megabytes, the least recently used ones that are not in use are evicted: base workspaces
+ * are deleted, and session workspaces lose their build output, which their next build recreates. With
+ * {@value #RAM_PROPERTY} set, workspaces are kept in /dev/shm.
+ */
+@ApplicationScoped
+public class WorkspaceManager {
+
+    private static final Logger logger = LoggerFactory.getLogger( WorkspaceManager.class );
+
+    public static final String DIR_PROPERTY = "livespark.workspace.dir";
+    public static final String RAM_PROPERTY = "livespark.workspace.ram";
+    public static final String QUOTA_PROPERTY = "livespark.workspace.quota_mb";
+
+    private static final File RAM_DIR = new File( "/dev/shm" );
+    private static final String BASE_DIR = "base";
+    private static final String SESSIONS_DIR = "sessions";
+    private static final String TARGET_DIR = "target";
+
+    private class Workspace {
+
+        final File dir;
+        final boolean base;
+        int users = 0;
+        long size = 0;
+        boolean disposed = false;
+
+        Workspace( final File dir, final boolean base ) {
+            this.dir = dir;
+            this.base = base;
+        }
+    }
+
+    private File rootDir;
+    private long quota;
+
+    /*
+     * Ordered from least to most recently used.
+     */
+    private final LinkedHashMap<File, Workspace> workspaces = new LinkedHashMap<File, Workspace>( 16, 0.75f, true );
+    private final Map<String, Object> baseLocks = new HashMap<String, Object>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    @PostConstruct
+    void setup() {
+        rootDir = getRootDir();
+        quota = readQuotaMb() * 1024 * 1024;
+
+        // Workspaces of a previous server run belong to sessions that no longer exist. Only the directories this
+        // manager creates are deleted, as the configured directory may hold other files.
+        FileUtils.deleteQuietly( new File( rootDir, BASE_DIR ) );
+        FileUtils.deleteQuietly( new File( rootDir, SESSIONS_DIR ) );
+        rootDir.mkdirs();
+    }
+
+    private static File getRootDir() {
+        final String configured = System.getProperty( DIR_PROPERTY );
+        if ( configured != null ) {
+            return new File( configured );
+        }
+
+        if ( Boolean.getBoolean( RAM_PROPERTY ) ) {
+            if ( RAM_DIR.isDirectory() && RAM_DIR.canWrite() ) {
+                return new File( RAM_DIR, "livespark-workspaces" );
+            }
+            logger.warn( RAM_DIR + " is not available. Build workspaces are kept on disk." );
+        }
+
+        return new File( System.getProperty( "java.io.tmpdir" ), "livespark-workspaces" );
+    }
+
+    private static long readQuotaMb() {
+        final String configured = System.getProperty( QUOTA_PROPERTY );
+        if ( configured != null ) {
+            try {
+                return Math.max( 0, Long.parseLong( configured.trim() ) );
+            } catch ( NumberFormatException e ) {
+                logger.warn( "Ignoring invalid value for " + QUOTA_PROPERTY + ": " + configured );
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return A new, empty workspace for a session. It must be {@link #dispose(File) disposed} when the session ends.
+     */
+    public File createWorkspace( final Project project, final String sessionId ) {
+        final File dir = new File( rootDir, SESSIONS_DIR + "/" + project.getProjectName() + "-" + sessionId + "-" + sequence.incrementAndGet() );
+        dir.mkdirs();
+
+        synchronized ( this ) {
+            workspaces.put( dir, new Workspace( dir, false ) );
+        }
+
+        return dir;
+    }
+
+    /**
+     * Deletes a session workspace. A workspace that a build or code server still uses is deleted once the last of them
+     * {@link #endUse(File) ends its use}.
+     */
+    public void dispose( final File workspace ) {
+        synchronized ( this ) {
+            final Workspace entry = workspaces.get( workspace );
+            if ( entry != null && entry.users > 0 ) {
+                logger.debug( "Deferring the deletion of workspace {} until it is no longer in use.", workspace );
+                entry.disposed = true;
+                return;
+            }
+            workspaces.remove( workspace );
+        }
+        FileUtils.deleteQuietly( workspace );
+    }
+
+    /**
+     * Marks a workspace as used by a build until {@link #endUse(File)}. Workspaces in use are never evicted.
+     */
+    public synchronized void beginUse( final File workspace ) {
+        final Workspace entry = workspaces.get( workspace );
+        if ( entry != null ) {
+            entry.users++;
+        }
+    }
+
+    public void endUse( final File workspace ) {
+        final long size = sizeOf( workspace );
+        final Workspace entry;
+        synchronized ( this ) {
+            entry = workspaces.get( workspace );
+        }
+        if ( entry != null && release( entry, size ) ) {
+            FileUtils.deleteQuietly( workspace );
+        }
+        enforceQuota();
+    }
+
+    /*
+     * Ends one use of a workspace.
+     *
+     * @return True if the workspace was disposed while in use and is to be deleted now.
+     */
+    private synchronized boolean release( final Workspace entry,
+                                          final long size ) {
+        entry.users--;
+        entry.size = size;
+        if ( entry.disposed && entry.users == 0 && workspaces.get( entry.dir ) == entry ) {
+            workspaces.remove( entry.dir );
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Fills an empty session workspace with a clone of the project's base workspace, after bringing the base up to date
+     * with the given preparer. The preparer hands the synchronization state of the base over to the clone, so the clone
+     * is up to date as well.
+     */
+    public void populate( final Project project,
+                          final File workspace,
+                          final WorkspacePreparer preparer ) throws IOException {
+        final File base = new File( rootDir, BASE_DIR + "/" + toDirName( project.getRootPath().toURI() ) );
+        final long start = System.currentTimeMillis();
+
+        synchronized ( getBaseLock( base ) ) {
+            synchronized ( this ) {
+                Workspace entry = workspaces.get( base );
+                if ( entry == null ) {
+                    entry = new Workspace( base, true );
+                    workspaces.put( base, entry );
+                }
+                entry.users++;
+            }
+
+            try {
+                base.mkdirs();
+                preparer.prepare( project, base );
+                cloneWorkspace( base.toPath(), workspace.toPath() );
+                preparer.handOver( project, base, workspace );
+            } finally {
+                final long size = sizeOf( base );
+                synchronized ( this ) {
+                    final Workspace entry = workspaces.get( base );
+                    if ( entry != null ) {
+                        entry.users--;
+                        entry.size = size;
+                    }
+                }
+            }
+        }
+
+        logger.debug( "Cloned the base workspace of {} into {} in {} ms.", project.getProjectName(), workspace, System.currentTimeMillis() - start );
+        enforceQuota();
+    }
+
+    /*
+     * Files are hard-linked, except for those at the root of the workspace, which are copied. Hidden files at the root
+     * hold the synchronization state of the workspace and are left to the preparer to hand over. Build output is not
+     * shared.
+     */
+    private void cloneWorkspace( final Path base, final Path workspace ) throws IOException {
+        Files.walkFileTree( base, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory( final Path dir,
+                                                      final BasicFileAttributes attrs ) throws IOException {
+                if ( dir.equals( base.resolve( TARGET_DIR ) ) ) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                Files.createDirectories( workspace.resolve( base.relativize( dir ) ) );
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile( final Path file,
+                                              final BasicFileAttributes attrs ) throws IOException {
+                final Path clone = workspace.resolve( base.relativize( file ) );
+                Files.deleteIfExists( clone );
+                if ( file.getParent().equals( base ) ) {
+                    if ( file.getFileName().toString().startsWith( "." ) ) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Files.copy( file, clone, StandardCopyOption.COPY_ATTRIBUTES );
+                } else {
+                    try {
+                        Files.createLink( clone, file );
+                    } catch ( IOException | UnsupportedOperationException e ) {
+                        // The file system does not support hard links.
+                        Files.copy( file, clone, StandardCopyOption.COPY_ATTRIBUTES );
+                    }
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+
+    /*
+     * Sizes count hard-linked files once per workspace, so usage is overestimated and eviction errs on the safe side.
+     */
+    private void enforceQuota() {
+        if ( quota <= 0 ) {
+            return;
+        }
+
+        final List<Workspace> evicted = new ArrayList<Workspace>();
+        synchronized ( this ) {
+            long usage = 0;
+            for ( final Workspace entry : workspaces.values() ) {
+                usage += entry.size;
+            }
+
+            for ( final Workspace entry : workspaces.values() ) {
+                if ( usage <= quota ) {
+                    break;
+                }
+                if ( entry.users == 0 && entry.size > 0 ) {
+                    // Counted as in use until it is evicted, so that no build starts in it meanwhile.
+                    entry.users++;
+                    usage -= entry.size;
+                    evicted.add( entry );
+                }
+            }
+        }
+
+        for ( final Workspace entry : evicted ) {
+            logger.debug( "Evicting workspace {} to stay within the workspace quota.", entry.dir );
+            if ( entry.base ) {
+                synchronized ( getBaseLock( entry.dir ) ) {
+                    FileUtils.deleteQuietly( entry.dir );
+                    synchronized ( this ) {
+                        if ( workspaces.get( entry.dir ) == entry ) {
+                            workspaces.remove( entry.dir );
+                        }
+                    }
+                }
+            } else {
+                FileUtils.deleteQuietly( new File( entry.dir, TARGET_DIR ) );
+                if ( release( entry, sizeOf( entry.dir ) ) ) {
+                    FileUtils.deleteQuietly( entry.dir );
+                }
+            }
+        }
+    }
+
+    private static long sizeOf( final File dir ) {
+        return dir.isDirectory() ? FileUtils.sizeOfDirectory( dir ) : 0;
+    }
+
+    private Object getBaseLock( final File base ) {
+        synchronized ( baseLocks ) {
+            Object lock = baseLocks.get( base.getName() );
+            if ( lock == null ) {
+                lock = new Object();
+                baseLocks.put( base.getName(), lock );
+            }
+
+            return lock;
+        }
+    }
+
+    private static String toDirName( final String uri ) {
+        return uri.replaceAll( "[^A-Za-z0-9._-]", "_" );
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.livespark.backend.server.service.dir;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.guvnor.common.services.project.model.Project;
+
+/**
+ * Brings a build workspace up to date with the sources of a project.
+ */
+public interface WorkspacePreparer {
+
+    /**
+     * @return The pom.xml of the prepared workspace.
+     */
+    File prepare( Project project, File workspace ) throws IOException;
+
+    /**
+     * Hands the synchronization state of a prepared workspace over to a clone of it, so that bringing the clone up to
+     * date only applies the changes made since the workspace was prepared.
+     */
+    void handOver( Project project, File workspace, File clone ) throws IOException;
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.incremental;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.apache.commons.io.FileUtils;
+import org.guvnor.common.services.project.model.Project;
+import org.kie.workbench.common.services.shared.project.KieProjectService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.uberfire.backend.vfs.Path;
+
+/**
+ * Keeps track of the resources changed in each project so that build workspaces can be brought up to date by only
+ * copying what changed since they were last synchronized.
+ * <p>
+ * Every recorded change bumps a per-project generation number. A workspace stores the generation it was last
+ * synchronized to in a marker file, so a workspace only needs the paths changed after that generation. Changes to
+ * resources that affect the whole build (the pom.xml and ErraiApp.properties) require a full rebuild of every
+ * workspace synchronized before them.
+ */
+@ApplicationScoped
+public class ProjectChangeTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger( ProjectChangeTracker.class );
+
+    private static final String MARKER_FILE_NAME = ".livespark-build-state";
+    private static final Charset MARKER_CHARSET = Charset.forName( "UTF-8" );
+    private static final int MAX_TRACKED_PATHS = 10000;
+
+    private static class ChangedPath {
+
+        final Path path;
+        final long generation;
+
+        ChangedPath( final Path path, final long generation ) {
+            this.path = path;
+            this.generation = generation;
+        }
+    }
+
+    private static class ProjectChanges {
+
+        long generation = 0;
+        long fullBuildGeneration = 0;
+        final Map<String, ChangedPath> changedPaths = new HashMap<String, ChangedPath>();
+    }
+
+    /*
+     * Identifies this tracker instance in workspace markers, so that workspaces left over from a previous server run
+     * (when generations restarted at zero) are never considered up to date.
+     */
+    private final String trackerId = UUID.randomUUID().toString();
+
+    private final Map<String, ProjectChanges> projects = new HashMap<String, ProjectChanges>();
+
+    @Inject
+    private KieProjectService projectService;
+
+    public void recordChange( final Path resource ) {
+        final Project project = projectService.resolveProject( resource );
+        if ( project != null ) {
+            recordChange( project, resource );
+        }
+    }
+
+    public synchronized void recordChange( final Project project, final Path resource ) {
+        final ProjectChanges changes = getProjectChanges( project );
+        changes.generation++;
+
+        if ( requiresFullBuild( resource ) || changes.changedPaths.size() >= MAX_TRACKED_PATHS ) {
+            changes.fullBuildGeneration = changes.generation;
+            changes.changedPaths.clear();
+        } else {
+            changes.changedPaths.put( resource.toURI(), new ChangedPath( resource, changes.generation ) );
+        }
+    }
+
+    /**
+     * @return The changes that must be applied to the given workspace to bring it up to date with the project.
+     */
+    public synchronized WorkspaceChanges getChangesSince( final Project project, final File workspace ) {
+        final ProjectChanges changes = getProjectChanges( project );
+        final Long syncedGeneration = readSyncedGeneration( workspace );
+
+        if ( syncedGeneration == null || syncedGeneration < changes.fullBuildGeneration ) {
+            return new WorkspaceChanges( workspace, changes.generation, true, new ArrayList<Path>() );
+        }
+
+        final List<Path> changedPaths = new ArrayList<Path>();
+        for ( final ChangedPath changed : changes.changedPaths.values() ) {
+            if ( changed.generation > syncedGeneration ) {
+                changedPaths.add( changed.path );
+            }
+        }
+
+        return new WorkspaceChanges( workspace, changes.generation, false, changedPaths );
+    }
+
+    /**
+     * Records that the workspace now contains every change described by the given {@link WorkspaceChanges}.
+     */
+    public void markSynced( final WorkspaceChanges changes ) {
+        final File marker = new File( changes.getWorkspace(), MARKER_FILE_NAME );
+        try {
+            FileUtils.writeStringToFile( marker, trackerId + ":" + changes.getGeneration(), MARKER_CHARSET );
+        } catch ( IOException e ) {
+            logger.warn( "Unable to record build state for workspace " + changes.getWorkspace() + ". The next build will be a full build.", e );
+            FileUtils.deleteQuietly( marker );
+        }
+    }
+
+    /**
+     * Records that a clone of a workspace is synchronized to the same generation as the workspace, so that the next
+     * synchronization of the clone only applies later changes.
+     */
+    public void handOver( final File workspace, final File clone ) {
+        final File cloneMarker = new File( clone, MARKER_FILE_NAME );
+        try {
+            if ( readSyncedGeneration( workspace ) != null ) {
+                FileUtils.copyFile( new File( workspace, MARKER_FILE_NAME ), cloneMarker );
+                return;
+            }
+        } catch ( IOException e ) {
+            logger.warn( "Unable to hand over build state from workspace " + workspace + ". The next build of " + clone + " will be a full build.", e );
+        }
+        FileUtils.deleteQuietly( cloneMarker );
+    }
+
+    private Long readSyncedGeneration( final File workspace ) {
+        final File marker = new File( workspace, MARKER_FILE_NAME );
+        if ( !marker.isFile() ) {
+            return null;
+        }
+
+        try {
+            final String[] state = FileUtils.readFileToString( marker, MARKER_CHARSET ).trim().split( ":" );
+            if ( state.length == 2 && trackerId.equals( state[0] ) ) {
+                return Long.valueOf( state[1] );
+            }
+        } catch ( IOException | NumberFormatException e ) {
+            logger.warn( "Unable to read build state for workspace " + workspace + ". A full build will be performed.", e );
+        }
+
+        return null;
+    }
+
+    private ProjectChanges getProjectChanges( final Project project ) {
+        final String key = project.getRootPath().toURI();
+        ProjectChanges changes = projects.get( key );
+        if ( changes == null ) {
+            changes = new ProjectChanges();
+            projects.put( key, changes );
+        }
+
+        return changes;
+    }
+
+    private boolean requiresFullBuild( final Path resource ) {
+        final String fileName = resource.getFileName();
+
+        return "pom.xml".equals( fileName ) || "ErraiApp.properties".equals( fileName );
+    }
+
+}
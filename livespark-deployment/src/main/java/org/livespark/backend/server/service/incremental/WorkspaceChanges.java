@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.incremental;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.uberfire.backend.vfs.Path;
+
+/**
+ * The project resources that changed since a build workspace was last synchronized.
+ */
+public class WorkspaceChanges {
+
+    private final File workspace;
+    private final long generation;
+    private final boolean fullBuildRequired;
+    private final Collection<Path> changedPaths;
+
+    WorkspaceChanges( final File workspace,
+                      final long generation,
+                      final boolean fullBuildRequired,
+                      final Collection<Path> changedPaths ) {
+        this.workspace = workspace;
+        this.generation = generation;
+        this.fullBuildRequired = fullBuildRequired;
+        this.changedPaths = Collections.unmodifiableCollection( changedPaths );
+    }
+
+    public File getWorkspace() {
+        return workspace;
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return True if the workspace must be rebuilt from scratch, either because it was never synchronized or because
+     * a resource affecting the whole build (such as the pom.xml) changed.
+     */
+    public boolean isFullBuildRequired() {
+        return fullBuildRequired;
+    }
+
+    /**
+     * @return The same changes, but requiring a full build. Used when the workspace turned out to be stale.
+     */
+    public WorkspaceChanges asFullBuild() {
+        return new WorkspaceChanges( workspace, generation, true, new ArrayList<Path>() );
+    }
+
+    /**
+     * @return Paths that were added, updated or deleted since the last synchronization. Only meaningful if
+     * {@link #isFullBuildRequired()} is false.
+     */
+    public Collection<Path> getChangedPaths() {
+        return changedPaths;
+    }
+
+}
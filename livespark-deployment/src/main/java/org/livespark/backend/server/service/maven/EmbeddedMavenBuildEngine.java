@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.maven;
+
+import java.io.File;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+
+import org.apache.maven.Maven;
+import org.apache.maven.execution.AbstractExecutionListener;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenExecutionRequestPopulationException;
+import org.apache.maven.execution.MavenExecutionRequestPopulator;
+import org.apache.maven.execution.MavenExecutionResult;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.settings.Settings;
+import org.apache.maven.settings.building.DefaultSettingsBuildingRequest;
+import org.apache.maven.settings.building.SettingsBuilder;
+import org.apache.maven.settings.building.SettingsBuildingException;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.codehaus.plexus.ContainerConfiguration;
+import org.codehaus.plexus.DefaultContainerConfiguration;
+import org.codehaus.plexus.DefaultPlexusContainer;
+import org.codehaus.plexus.PlexusConstants;
+import org.codehaus.plexus.PlexusContainerException;
+import org.codehaus.plexus.classworlds.ClassWorld;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+import org.codehaus.plexus.util.cli.CommandLineException;
+
+/**
+ * Runs Maven inside the server JVM with a single long-lived Plexus container. Plugin class realms, resolved plugin
+ * descriptors and the Maven core classes stay loaded between builds, so repeat builds of the same project skip JVM
+ * startup, core bootstrapping and plugin resolution.
+ */
+public class EmbeddedMavenBuildEngine implements MavenBuildEngine {
+
+    private static final String CORE_REALM = "plexus.core";
+    private static final File USER_SETTINGS_FILE = new File( System.getProperty( "user.home" ), ".m2/settings.xml" );
+
+    private final DefaultPlexusContainer container;
+    private final OutputHandlerLoggerManager loggerManager;
+    private final Maven maven;
+    private final MavenExecutionRequestPopulator populator;
+    private final Settings settings;
+
+    public EmbeddedMavenBuildEngine( final ClassLoader parent ) throws PlexusContainerException,
+                                                                       ComponentLookupException,
+                                                                       SettingsBuildingException {
+        final ClassWorld classWorld = new ClassWorld( CORE_REALM, parent );
+        final ContainerConfiguration configuration = new DefaultContainerConfiguration()
+                .setClassWorld( classWorld )
+                .setRealm( classWorld.getClassRealm( CORE_REALM ) )
+                .setClassPathScanning( PlexusConstants.SCANNING_INDEX )
+                .setAutoWiring( true )
+                .setName( "livespark-maven" );
+
+        loggerManager = new OutputHandlerLoggerManager();
+        container = new DefaultPlexusContainer( configuration );
+        container.setLoggerManager( loggerManager );
+
+        maven = container.lookup( Maven.class );
+        populator = container.lookup( MavenExecutionRequestPopulator.class );
+        settings = buildSettings( container.lookup( SettingsBuilder.class ) );
+    }
+
+    @Override
+    public InvocationResult execute( final InvocationRequest request ) throws MavenInvocationException {
+        if ( Thread.currentThread().isInterrupted() ) {
+            throw new CancellationException( "The build was cancelled." );
+        }
+
+        final MavenExecutionRequest executionRequest = createExecutionRequest( request );
+        final ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
+
+        loggerManager.bind( request.getOutputHandler( null ), request.isDebug() );
+        try {
+            Thread.currentThread().setContextClassLoader( container.getContainerRealm() );
+            return toInvocationResult( maven.execute( executionRequest ) );
+        } finally {
+            Thread.currentThread().setContextClassLoader( originalClassLoader );
+            loggerManager.unbind();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        container.dispose();
+    }
+
+    private MavenExecutionRequest createExecutionRequest( final InvocationRequest request ) throws MavenInvocationException {
+        final File pomFile = request.getPomFile();
+        final MavenExecutionRequest executionRequest = new DefaultMavenExecutionRequest();
+
+        executionRequest.setPom( pomFile );
+        executionRequest.setBaseDirectory( request.getBaseDirectory( pomFile.getParentFile() ) );
+        executionRequest.setGoals( request.getGoals() );
+        executionRequest.setSystemProperties( copyOf( System.getProperties() ) );
+        executionRequest.setUserProperties( copyOf( request.getProperties() ) );
+        executionRequest.setInteractiveMode( false );
+        executionRequest.setOffline( request.isOffline() );
+        executionRequest.setUpdateSnapshots( request.isUpdateSnapshots() );
+        executionRequest.setShowErrors( request.isShowErrors() );
+        executionRequest.setLoggingLevel( request.isDebug() ? MavenExecutionRequest.LOGGING_LEVEL_DEBUG
+                                                            : MavenExecutionRequest.LOGGING_LEVEL_INFO );
+        executionRequest.setExecutionListener( new OutputExecutionListener() );
+        executionRequest.setStartTime( new Date() );
+
+        if ( request.getProfiles() != null ) {
+            executionRequest.setActiveProfiles( request.getProfiles() );
+        }
+
+        final File localRepository = request.getLocalRepositoryDirectory( null );
+        if ( localRepository != null ) {
+            executionRequest.setLocalRepositoryPath( localRepository );
+        }
+
+        try {
+            populator.populateFromSettings( executionRequest, settings );
+            populator.populateDefaults( executionRequest );
+        } catch ( MavenExecutionRequestPopulationException e ) {
+            throw new MavenInvocationException( "Unable to configure embedded Maven request for " + pomFile, e );
+        }
+
+        return executionRequest;
+    }
+
+    private InvocationResult toInvocationResult( final MavenExecutionResult result ) {
+        for ( final Throwable t : result.getExceptions() ) {
+            loggerManager.consumeLine( "[ERROR] " + t.getMessage() );
+        }
+        loggerManager.consumeLine( "[INFO] " + ( result.hasExceptions() ? "BUILD FAILURE" : "BUILD SUCCESS" ) );
+
+        final int exitCode = result.hasExceptions() ? 1 : 0;
+
+        return new InvocationResult() {
+
+            @Override
+            public int getExitCode() {
+                return exitCode;
+            }
+
+            @Override
+            public CommandLineException getExecutionException() {
+                return null;
+            }
+        };
+    }
+
+    private Settings buildSettings( final SettingsBuilder settingsBuilder ) throws SettingsBuildingException {
+        final DefaultSettingsBuildingRequest request = new DefaultSettingsBuildingRequest();
+        request.setUserSettingsFile( USER_SETTINGS_FILE );
+        request.setSystemProperties( System.getProperties() );
+
+        final String mavenHome = System.getProperty( "maven.home", System.getenv( "M2_HOME" ) );
+        if ( mavenHome != null ) {
+            request.setGlobalSettingsFile( new File( mavenHome, "conf/settings.xml" ) );
+        }
+
+        return settingsBuilder.build( request ).getEffectiveSettings();
+    }
+
+    private static Properties copyOf( final Properties properties ) {
+        final Properties copy = new Properties();
+        if ( properties != null ) {
+            copy.putAll( properties );
+        }
+
+        return copy;
+    }
+
+    /**
+     * Writes the lifecycle lines that the Maven command line client would normally print.
+     */
+    private class OutputExecutionListener extends AbstractExecutionListener {
+
+        @Override
+        public void projectStarted( final ExecutionEvent event ) {
+            checkCancelled();
+            loggerManager.consumeLine( "[INFO] Building " + event.getProject().getName() + " " + event.getProject().getVersion() );
+        }
+
+        @Override
+        public void mojoStarted( final ExecutionEvent event ) {
+            checkCancelled();
+            final MojoExecution mojo = event.getMojoExecution();
+            loggerManager.consumeLine( "[INFO] --- " + mojo.getArtifactId() + ":" + mojo.getVersion() + ":" + mojo.getGoal()
+                                       + " (" + mojo.getExecutionId() + ") @ " + event.getProject().getArtifactId() + " ---" );
+        }
+
+        /*
+         * Mojos rarely react to interrupts, so a cancelled build is stopped before its next mojo instead.
+         */
+        private void checkCancelled() {
+            if ( Thread.currentThread().isInterrupted() ) {
+                throw new CancellationException( "The build was cancelled." );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.maven;
+
+import org.apache.maven.shared.invoker.DefaultInvoker;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+
+/**
+ * Launches a new Maven process for every invocation. This is the slowest engine, but it needs nothing beyond a Maven
+ * installation, so it is used as the fallback when the embedded engine cannot be started.
+ */
+public class ForkedMavenBuildEngine implements MavenBuildEngine {
+
+    @Override
+    public InvocationResult execute( final InvocationRequest request ) throws MavenInvocationException {
+        return new DefaultInvoker().execute( request );
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+}
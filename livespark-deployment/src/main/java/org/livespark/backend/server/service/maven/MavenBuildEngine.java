@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.maven;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+
+/**
+ * Runs Maven invocations for build callables. Implementations may be long-lived and shared by all builds, so they must
+ * be safe to use from several threads at once.
+ */
+public interface MavenBuildEngine {
+
+    /**
+     * Runs the given request to completion, streaming output lines to the request's output handler.
+     */
+    InvocationResult execute( InvocationRequest request ) throws MavenInvocationException;
+
+    /**
+     * Releases any resources held by this engine. The engine must not be used afterwards.
+     */
+    void dispose();
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.maven;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.livespark.backend.server.service.worker.WorkerBuildEngine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the {@link MavenBuildEngine} shared by all builds. The engine is chosen with the
+ * {@value #BUILD_ENGINE_PROPERTY} system property: {@code embedded} (the default), {@code forked}, or {@code worker}
+ * for a pool of separate worker JVMs (see {@link WorkerBuildEngine}). Every request is configured by the
+ * {@link OfflineDependencyResolver} before it runs.
+ * <p>
+ * Code servers run until they are stopped, so they would hold a worker for good and be killed by its build timeout.
+ * With the worker pool they run on the embedded engine instead, which also runs builds while no worker is available.
+ */
+@ApplicationScoped
+public class MavenBuildEngineProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger( MavenBuildEngineProvider.class );
+
+    public static final String BUILD_ENGINE_PROPERTY = "livespark.build.engine";
+    private static final String FORKED_ENGINE = "forked";
+    private static final String WORKER_ENGINE = "worker";
+
+    @Resource
+    private ManagedExecutorService execService;
+
+    @Inject
+    private OfflineDependencyResolver dependencyResolver;
+
+    private MavenBuildEngine engine;
+    private MavenBuildEngine configuredEngine;
+    private MavenBuildEngine codeServerEngine;
+    private MavenBuildEngine configuredCodeServerEngine;
+
+    @PostConstruct
+    private void setup() {
+        final String engineName = System.getProperty( BUILD_ENGINE_PROPERTY, "embedded" );
+        if ( FORKED_ENGINE.equals( engineName ) ) {
+            engine = new ForkedMavenBuildEngine();
+            codeServerEngine = engine;
+        } else if ( WORKER_ENGINE.equals( engineName ) ) {
+            codeServerEngine = createEmbeddedEngine();
+            engine = createWorkerEngine( codeServerEngine );
+        } else {
+            engine = createEmbeddedEngine();
+            codeServerEngine = engine;
+        }
+        configuredEngine = configure( engine );
+        configuredCodeServerEngine = codeServerEngine != engine ? configure( codeServerEngine ) : configuredEngine;
+    }
+
+    @PreDestroy
+    private void teardown() {
+        engine.dispose();
+        if ( codeServerEngine != engine ) {
+            codeServerEngine.dispose();
+        }
+    }
+
+    public MavenBuildEngine getEngine() {
+        return configuredEngine;
+    }
+
+    /**
+     * @return The engine for "gwt:run-codeserver", which does not finish until the code server is stopped.
+     */
+    public MavenBuildEngine getCodeServerEngine() {
+        return configuredCodeServerEngine;
+    }
+
+    private MavenBuildEngine configure( final MavenBuildEngine engine ) {
+        return new MavenBuildEngine() {
+
+            @Override
+            public InvocationResult execute( final InvocationRequest request ) throws MavenInvocationException {
+                dependencyResolver.configure( request );
+                return engine.execute( request );
+            }
+
+            @Override
+            public void dispose() {
+                // The shared engines are disposed with this provider.
+            }
+        };
+    }
+
+    private MavenBuildEngine createWorkerEngine( final MavenBuildEngine fallback ) {
+        try {
+            return new WorkerBuildEngine( execService, fallback );
+        } catch ( Exception e ) {
+            logger.warn( "Unable to start the build worker pool. Falling back to the embedded Maven build engine.", e );
+            return fallback;
+        }
+    }
+
+    private MavenBuildEngine createEmbeddedEngine() {
+        final ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
+        final ClassLoader engineClassLoader = MavenBuildEngineProvider.class.getClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader( engineClassLoader );
+            return new EmbeddedMavenBuildEngine( engineClassLoader );
+        } catch ( Exception | LinkageError e ) {
+            logger.warn( "Unable to start the embedded Maven build engine. Falling back to a forked Maven process per build.", e );
+            return new ForkedMavenBuildEngine();
+        } finally {
+            Thread.currentThread().setContextClassLoader( originalClassLoader );
+        }
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.guvnor.common.services.backend.file.DotFileFilter;
+import org.guvnor.common.services.project.model.Project;
+import org.livespark.client.shared.DependencyResolutionStatus;
+import org.livespark.client.shared.DependencyResolutionStatus.State;
+import org.livespark.project.ContentHash;
+import org.livespark.project.ProjectUnpacker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.uberfire.io.IOService;
+import org.uberfire.java.nio.file.Paths;
+
+/**
+ * Resolves the dependency and plugin closure of projects into a local repository shared by all builds, and configures
+ * every Maven invocation to use that repository.
+ * <p>
+ * The repository is {@value #REPOSITORY_PROPERTY} (by default {@code ~/.m2/livespark-repository}). With
+ * {@value #OFFLINE_PROPERTY} set to {@code auto} (the default), a build runs offline if a POM with the same content as
+ * its own was resolved successfully. Builds of projects created since, or whose POM changed, run online, and their POM
+ * is resolved in the background so that later builds run offline. {@code true} always runs builds offline, which suits
+ * servers without network access whose repository was populated in advance, and {@code false} never does.
+ */
+@ApplicationScoped
+public class OfflineDependencyResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger( OfflineDependencyResolver.class );
+
+    public static final String REPOSITORY_PROPERTY = "livespark.maven.repository";
+    public static final String OFFLINE_PROPERTY = "livespark.maven.offline";
+
+    private static final List<String> RESOLVE_GOALS = Arrays.asList( "dependency:go-offline", "dependency:resolve-plugins" );
+
+    private enum OfflineMode {
+        AUTO, ALWAYS, NEVER
+    }
+
+    @Resource
+    private ManagedExecutorService execService;
+
+    @Inject
+    @Named("ioStrategy")
+    private IOService ioService;
+
+    @Inject
+    private MavenBuildEngineProvider buildEngineProvider;
+
+    private final File repositoryDir = readRepositoryDir();
+    private final OfflineMode offlineMode = readOfflineMode();
+
+    private final Map<String, DependencyResolutionStatus> statuses = new ConcurrentHashMap<String, DependencyResolutionStatus>();
+
+    /*
+     * Content hashes of the POMs whose dependencies are in the repository, and of those being resolved for builds.
+     */
+    private final Set<String> resolvedPoms = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+    private final Set<String> resolvingPoms = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+
+    private ProjectUnpacker unpacker;
+
+    private static File readRepositoryDir() {
+        final String configured = System.getProperty( REPOSITORY_PROPERTY );
+        if ( configured != null ) {
+            return new File( configured );
+        }
+
+        return new File( System.getProperty( "user.home" ), ".m2/livespark-repository" );
+    }
+
+    private static OfflineMode readOfflineMode() {
+        final String configured = System.getProperty( OFFLINE_PROPERTY );
+        if ( configured == null || "auto".equalsIgnoreCase( configured.trim() ) ) {
+            return OfflineMode.AUTO;
+        } else if ( "true".equalsIgnoreCase( configured.trim() ) ) {
+            return OfflineMode.ALWAYS;
+        } else if ( "false".equalsIgnoreCase( configured.trim() ) ) {
+            return OfflineMode.NEVER;
+        }
+
+        logger.warn( "Ignoring invalid value for " + OFFLINE_PROPERTY + ": " + configured );
+        return OfflineMode.AUTO;
+    }
+
+    @PostConstruct
+    private void setup() {
+        unpacker = new ProjectUnpacker( ioService, new DotFileFilter() );
+        repositoryDir.mkdirs();
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        unpacker.shutdown();
+    }
+
+    /**
+     * Uses the shared local repository for the given request, unless it names its own, and runs it offline if the
+     * repository holds everything its POM needs.
+     */
+    public void configure( final InvocationRequest request ) {
+        if ( request.getLocalRepositoryDirectory( null ) == null ) {
+            request.setLocalRepositoryDirectory( repositoryDir );
+        }
+        if ( isOffline( request.getPomFile() ) ) {
+            request.setOffline( true );
+        }
+    }
+
+    /**
+     * @return The local repository every build uses.
+     */
+    public File getRepositoryDir() {
+        return repositoryDir;
+    }
+
+    /**
+     * @return True if builds of projects whose dependencies were resolved run offline.
+     */
+    public boolean isOffline() {
+        switch ( offlineMode ) {
+            case ALWAYS:
+                return true;
+            case NEVER:
+                return false;
+            default:
+                return !resolvedPoms.isEmpty();
+        }
+    }
+
+    /*
+     * A POM that was not resolved yet is resolved in the background, while the build that needs it runs online.
+     */
+    private boolean isOffline( final File pomXml ) {
+        switch ( offlineMode ) {
+            case ALWAYS:
+                return true;
+            case NEVER:
+                return false;
+            default:
+                if ( pomXml == null || !pomXml.isFile() ) {
+                    return false;
+                }
+
+                final String pomHash;
+                try {
+                    pomHash = ContentHash.of( pomXml );
+                } catch ( IOException e ) {
+                    logger.debug( "Unable to read {}. The build runs online.", pomXml );
+                    return false;
+                }
+                if ( resolvedPoms.contains( pomHash ) ) {
+                    return true;
+                }
+                if ( resolvingPoms.add( pomHash ) ) {
+                    resolveInBackground( pomXml, pomHash );
+                }
+
+                return false;
+        }
+    }
+
+    /**
+     * Resolves the dependencies of the given projects in the background, one project at a time.
+     */
+    public void resolve( final Collection<Project> projects ) {
+        final List<Project> pending = new ArrayList<Project>( projects );
+        for ( final Project project : pending ) {
+            statuses.put( getKey( project ), new DependencyResolutionStatus( project.getProjectName(), State.PENDING, null ) );
+        }
+
+        execService.submit( new Runnable() {
+
+            @Override
+            public void run() {
+                for ( final Project project : pending ) {
+                    resolve( project );
+                }
+            }
+        } );
+    }
+
+    /*
+     * The POM is copied, since the workspace it belongs to changes while its build runs.
+     */
+    private void resolveInBackground( final File pomXml,
+                                      final String pomHash ) {
+        final File workspace;
+        try {
+            workspace = File.createTempFile( "livespark-dependencies", "" );
+            workspace.delete();
+            workspace.mkdir();
+            FileUtils.copyFileToDirectory( pomXml, workspace );
+        } catch ( IOException e ) {
+            logger.warn( "Unable to copy " + pomXml + " for dependency resolution.", e );
+            resolvingPoms.remove( pomHash );
+            return;
+        }
+
+        execService.submit( new Runnable() {
+
+            @Override
+            public void run() {
+                final long start = System.currentTimeMillis();
+                try {
+                    final InvocationResult result = buildEngineProvider.getEngine().execute( createResolveRequest( pomXml.getParentFile().getName(),
+                                                                                                                   new File( workspace, "pom.xml" ) ) );
+                    if ( result.getExitCode() == 0 ) {
+                        resolvedPoms.add( pomHash );
+                        logger.info( "Resolved the dependencies of the changed POM {} in {} ms.", pomXml, System.currentTimeMillis() - start );
+                    } else {
+                        logger.warn( "Unable to resolve the dependencies of {}: Maven exited with code {}.", pomXml, result.getExitCode() );
+                    }
+                } catch ( Exception e ) {
+                    logger.warn( "Unable to resolve the dependencies of " + pomXml, e );
+                } finally {
+                    // A failed POM is retried by its next build.
+                    resolvingPoms.remove( pomHash );
+                    FileUtils.deleteQuietly( workspace );
+                }
+            }
+        } );
+    }
+
+    public List<DependencyResolutionStatus> getStatuses() {
+        return new ArrayList<DependencyResolutionStatus>( statuses.values() );
+    }
+
+    private void resolve( final Project project ) {
+        final String key = getKey( project );
+        final long start = System.currentTimeMillis();
+        statuses.put( key, new DependencyResolutionStatus( project.getProjectName(), State.RESOLVING, null ) );
+
+        File workspace = null;
+        String pomHash = null;
+        try {
+            workspace = File.createTempFile( project.getProjectName() + "-dependencies", "" );
+            workspace.delete();
+            workspace.mkdir();
+            unpacker.syncSourceFileSystemToDisk( project, Paths.get( workspace.toURI().toString() ) );
+
+            final File pomXml = new File( workspace, "pom.xml" );
+            pomHash = ContentHash.of( pomXml );
+            // Builds of the project run online meanwhile, without resolving the same POM again.
+            resolvingPoms.add( pomHash );
+            final InvocationResult result = buildEngineProvider.getEngine().execute( createResolveRequest( project.getProjectName(), pomXml ) );
+            if ( result.getExitCode() == 0 ) {
+                resolvedPoms.add( pomHash );
+                statuses.put( key, new DependencyResolutionStatus( project.getProjectName(), State.RESOLVED, null ) );
+                logger.info( "Resolved the dependencies of {} in {} ms.", project.getProjectName(), System.currentTimeMillis() - start );
+            } else {
+                statuses.put( key, new DependencyResolutionStatus( project.getProjectName(),
+                                                                   State.FAILED,
+                                                                   "Maven exited with code " + result.getExitCode() ) );
+                logger.warn( "Unable to resolve the dependencies of {}: Maven exited with code {}.", project.getProjectName(), result.getExitCode() );
+            }
+        } catch ( Exception e ) {
+            statuses.put( key, new DependencyResolutionStatus( project.getProjectName(), State.FAILED, e.getMessage() ) );
+            logger.warn( "Unable to resolve the dependencies of " + project.getProjectName(), e );
+        } finally {
+            if ( pomHash != null ) {
+                resolvingPoms.remove( pomHash );
+            }
+            if ( workspace != null ) {
+                FileUtils.deleteQuietly( workspace );
+            }
+        }
+    }
+
+    private InvocationRequest createResolveRequest( final String name, final File pomXml ) {
+        final DefaultInvocationRequest request = new DefaultInvocationRequest();
+        request.setPomFile( pomXml );
+        request.setGoals( RESOLVE_GOALS );
+        request.setOutputHandler( new InvocationOutputHandler() {
+
+            @Override
+            public void consumeLine( final String line ) {
+                logger.debug( "[{}] {}", name, line );
+            }
+        } );
+
+        return request;
+    }
+
+    private static String getKey( final Project project ) {
+        return project.getRootPath().toURI();
+    }
+
+}
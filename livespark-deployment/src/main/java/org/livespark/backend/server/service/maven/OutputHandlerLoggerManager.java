@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.maven;
+
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+import org.codehaus.plexus.logging.AbstractLogger;
+import org.codehaus.plexus.logging.BaseLoggerManager;
+import org.codehaus.plexus.logging.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plexus logger manager for the embedded Maven container. Log output is routed to the output handler of the invocation
+ * running on the current thread. Mojos are configured on that thread and receive a logger bound to its invocation, so
+ * output a mojo logs from its own threads, such as the stream pumpers of forked processes, is covered as well. Output
+ * logged outside of an invocation, or after it ended, goes to the server log.
+ * <p>
+ * Bindings are not inherited by new threads, because threads that libraries create during a build and keep would route
+ * the output of later builds to the wrong client.
+ */
+class OutputHandlerLoggerManager extends BaseLoggerManager {
+
+    private static final org.slf4j.Logger fallback = LoggerFactory.getLogger( EmbeddedMavenBuildEngine.class );
+
+    private static class Binding {
+
+        volatile InvocationOutputHandler handler;
+        final boolean debug;
+
+        Binding( final InvocationOutputHandler handler, final boolean debug ) {
+            this.handler = handler;
+            this.debug = debug;
+        }
+    }
+
+    private final ThreadLocal<Binding> binding = new ThreadLocal<Binding>();
+
+    void bind( final InvocationOutputHandler handler, final boolean debug ) {
+        binding.set( new Binding( handler, debug ) );
+    }
+
+    void unbind() {
+        final Binding current = binding.get();
+        if ( current != null ) {
+            // Loggers handed to mojos may outlive the invocation. They no longer hold on to its handler.
+            current.handler = null;
+        }
+        binding.remove();
+    }
+
+    void consumeLine( final String line ) {
+        consumeLine( binding.get(), line );
+    }
+
+    private static void consumeLine( final Binding target, final String line ) {
+        final InvocationOutputHandler handler = target != null ? target.handler : null;
+        if ( handler != null ) {
+            handler.consumeLine( line );
+        } else {
+            fallback.info( line );
+        }
+    }
+
+    /*
+     * Loggers requested during an invocation, which is where mojos are configured, are bound to that invocation.
+     */
+    @Override
+    public Logger getLoggerForComponent( final String role, final String roleHint ) {
+        final Binding current = binding.get();
+        if ( current == null ) {
+            return super.getLoggerForComponent( role, roleHint );
+        }
+
+        return new OutputHandlerLogger( toMapKey( role, roleHint ), current );
+    }
+
+    @Override
+    protected Logger createLogger( final String key ) {
+        return new OutputHandlerLogger( key, null );
+    }
+
+    private class OutputHandlerLogger extends AbstractLogger {
+
+        /*
+         * The invocation this logger is bound to, or null to use the one of the current thread.
+         */
+        private final Binding bound;
+
+        OutputHandlerLogger( final String name, final Binding bound ) {
+            super( Logger.LEVEL_DEBUG, name );
+            this.bound = bound;
+        }
+
+        private Binding target() {
+            return bound != null ? bound : binding.get();
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            final Binding current = target();
+            return current != null && current.debug;
+        }
+
+        @Override
+        public void debug( final String message, final Throwable throwable ) {
+            if ( isDebugEnabled() ) {
+                write( "[DEBUG] ", message, throwable );
+            }
+        }
+
+        @Override
+        public void info( final String message, final Throwable throwable ) {
+            write( "[INFO] ", message, throwable );
+        }
+
+        @Override
+        public void warn( final String message, final Throwable throwable ) {
+            write( "[WARNING] ", message, throwable );
+        }
+
+        @Override
+        public void error( final String message, final Throwable throwable ) {
+            write( "[ERROR] ", message, throwable );
+        }
+
+        @Override
+        public void fatalError( final String message, final Throwable throwable ) {
+            write( "[ERROR] ", message, throwable );
+        }
+
+        @Override
+        public Logger getChildLogger( final String name ) {
+            return this;
+        }
+
+        private void write( final String prefix, final String message, final Throwable throwable ) {
+            final Binding current = target();
+            if ( message != null ) {
+                consumeLine( current, prefix + message );
+            }
+            if ( throwable != null ) {
+                consumeLine( current, prefix + throwable.toString() );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects timings of the build pipeline, keyed by metric name. The timings are also published through JMX as
+ * {@value #OBJECT_NAME} and over HTTP by the {@link BuildMetricsServlet}.
+ */
+@ApplicationScoped
+public class BuildMetrics implements BuildMetricsMXBean {
+
+    public static final String CODE_SERVER_READY = "codeserver.ready";
+    public static final String SESSION_TEARDOWN = "session.teardown";
+
+    public static final String OBJECT_NAME = "org.livespark:type=BuildMetrics";
+
+    private static final Logger logger = LoggerFactory.getLogger( BuildMetrics.class );
+
+    private final ConcurrentMap<String, TimingStatistics> timings = new ConcurrentHashMap<String, TimingStatistics>();
+
+    private ObjectName objectName;
+
+    @PostConstruct
+    private void setup() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName( OBJECT_NAME );
+            if ( server.isRegistered( name ) ) {
+                // Left behind by an earlier deployment of the application.
+                server.unregisterMBean( name );
+            }
+            server.registerMBean( this, name );
+            objectName = name;
+        } catch ( JMException e ) {
+            logger.warn( "Unable to publish build metrics through JMX.", e );
+        }
+    }
+
+    @PreDestroy
+    private void teardown() {
+        if ( objectName != null ) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean( objectName );
+            } catch ( JMException e ) {
+                logger.warn( "Unable to unregister build metrics from JMX.", e );
+            }
+        }
+    }
+
+    public void recordTime( final String name, final long millis ) {
+        final TimingStatistics statistics = getTiming( name );
+        statistics.record( millis );
+        logger.debug( "{} took {} ms ({})", name, millis, statistics );
+    }
+
+    public TimingStatistics getTiming( final String name ) {
+        TimingStatistics statistics = timings.get( name );
+        if ( statistics == null ) {
+            final TimingStatistics created = new TimingStatistics();
+            statistics = timings.putIfAbsent( name, created );
+            if ( statistics == null ) {
+                statistics = created;
+            }
+        }
+
+        return statistics;
+    }
+
+    /**
+     * @return Every recorded timing, sorted by name.
+     */
+    public Map<String, TimingStatistics> getTimings() {
+        return new TreeMap<String, TimingStatistics>( timings );
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        final Map<String, Long> retVal = new TreeMap<String, Long>();
+        for ( final Map.Entry<String, TimingStatistics> entry : timings.entrySet() ) {
+            retVal.put( entry.getKey(), entry.getValue().getCount() );
+        }
+
+        return retVal;
+    }
+
+    @Override
+    public Map<String, Long> getMeanMillis() {
+        final Map<String, Long> retVal = new TreeMap<String, Long>();
+        for ( final Map.Entry<String, TimingStatistics> entry : timings.entrySet() ) {
+            retVal.put( entry.getKey(), entry.getValue().getMean() );
+        }
+
+        return retVal;
+    }
+
+    @Override
+    public Map<String, Long> getMedianMillis() {
+        return getPercentiles( 50 );
+    }
+
+    @Override
+    public Map<String, Long> getP90Millis() {
+        return getPercentiles( 90 );
+    }
+
+    @Override
+    public Map<String, Long> getP99Millis() {
+        return getPercentiles( 99 );
+    }
+
+    @Override
+    public Map<String, Long> getMaxMillis() {
+        final Map<String, Long> retVal = new TreeMap<String, Long>();
+        for ( final Map.Entry<String, TimingStatistics> entry : timings.entrySet() ) {
+            retVal.put( entry.getKey(), entry.getValue().getMax() );
+        }
+
+        return retVal;
+    }
+
+    @Override
+    public void reset() {
+        timings.clear();
+    }
+
+    private Map<String, Long> getPercentiles( final double percentile ) {
+        final Map<String, Long> retVal = new TreeMap<String, Long>();
+        for ( final Map.Entry<String, TimingStatistics> entry : timings.entrySet() ) {
+            retVal.put( entry.getKey(), entry.getValue().getPercentile( percentile ) );
+        }
+
+        return retVal;
+    }
+
+}
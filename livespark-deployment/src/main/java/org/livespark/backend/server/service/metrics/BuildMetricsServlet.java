@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.livespark.backend.server.service.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the {@link BuildMetrics} as histograms in the Prometheus text format, so that build hosts can be scraped
+ * without a JMX client.
+ */
+public class BuildMetricsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String METRIC = "livespark_timing_milliseconds";
+
+    @Inject
+    private BuildMetrics metrics;
+
+    @Override
+    protected void doGet( final HttpServletRequest req,
+                          final HttpServletResponse resp ) throws ServletException, IOException {
+        resp.setContentType( "text/plain; version=0.0.4" );
+        resp.setCharacterEncoding( "UTF-8" );
+        resp.setHeader( "Cache-Control", "no-cache" );
+
+        final PrintWriter writer = resp.getWriter();
+        final long[] bounds = TimingStatistics.getBucketBounds();
+
+        writer.println( "# HELP " + METRIC + " Durations of the phases of the LiveSpark build pipeline." );
+        writer.println( "# TYPE " + METRIC + " histogram" );
+        for ( final Map.Entry<String, TimingStatistics> entry : metrics.getTimings().entrySet() ) {
+            final String name = entry.getKey();
+            final TimingStatistics statistics = entry.getValue();
+            synchronized ( statistics ) {
+                final long[] counts = statistics.getBucketCounts();
+                long cumulative = 0;
+                for ( int i = 0; i < bounds.length; i++ ) {
+                    cumulative += counts[ i ];
+                    writer.println( METRIC + "_bucket{name=\"" + name + "\",le=\"" + bounds[ i ] + "\"} " + cumulative );
+                }
+                writer.println( METRIC + "_bucket{name=\"" + name + "\",le=\"+Inf\"} " + statistics.getCount() );
+                writer.println( METRIC + "_sum{name=\"" + name + "\"} " + statistics.getTotal() );
+                writer.println( METRIC + "_count{name=\"" + name + "\"} " + statistics.getCount() );
+            }
+        }
+        writer.flush();
+    }
+
+}
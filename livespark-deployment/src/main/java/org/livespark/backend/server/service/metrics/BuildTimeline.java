@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.livespark.backend.server.service.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The timed phases (spans) of one build, from the request to the application being ready. Every span is also recorded
+ * in the {@link BuildMetrics} as "build.&lt;phase&gt;".
+ * <p>
+ * While a build runs, its timeline is {@link #attach() attached} to the build thread, so that code deep in the
+ * pipeline can find it with {@link #current()}.
+ */
+public class BuildTimeline {
+
+    public static final String WORKSPACE = "workspace";
+    public static final String QUEUE = "queue";
+    public static final String UNPACK = "unpack";
+    public static final String CODE_SERVER = "codeserver";
+    public static final String RECOMPILE = "recompile";
+    public static final String MAVEN = "maven";
+    public static final String DEPLOY_COPY = "deploy";
+    public static final String SERVER_DEPLOY = "server_deploy";
+    public static final String APP_READY = "app_ready";
+
+    private static final String METRIC_PREFIX = "build.";
+
+    private static final ThreadLocal<BuildTimeline> current = new ThreadLocal<BuildTimeline>();
+
+    /*
+     * Used when no build is attached to the thread. It records nothing.
+     */
+    private static final BuildTimeline DETACHED = new BuildTimeline( null );
+
+    /**
+     * Measures one phase, from its creation until {@link #end()}.
+     */
+    public class Span {
+
+        private final String phase;
+        private final long startedAt = System.currentTimeMillis();
+
+        private Span( final String phase ) {
+            this.phase = phase;
+        }
+
+        public void end() {
+            record( phase, System.currentTimeMillis() - startedAt );
+        }
+
+        public BuildTimeline getTimeline() {
+            return BuildTimeline.this;
+        }
+    }
+
+    private final BuildMetrics metrics;
+    private final long startedAt = System.currentTimeMillis();
+    private final Map<String, Long> spans = new LinkedHashMap<String, Long>();
+
+    public BuildTimeline( final BuildMetrics metrics ) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return The timeline attached to the current thread. Spans of a thread without a timeline are discarded.
+     */
+    public static BuildTimeline current() {
+        final BuildTimeline timeline = current.get();
+        return timeline != null ? timeline : DETACHED;
+    }
+
+    public void attach() {
+        current.set( this );
+    }
+
+    public static void detach() {
+        current.remove();
+    }
+
+    public Span start( final String phase ) {
+        return new Span( phase );
+    }
+
+    /**
+     * Records a phase. Phases that occur more than once in a build are added up.
+     */
+    public void record( final String phase, final long millis ) {
+        if ( metrics == null ) {
+            return;
+        }
+
+        synchronized ( spans ) {
+            final Long previous = spans.get( phase );
+            spans.put( phase, previous != null ? previous + millis : millis );
+        }
+        metrics.recordTime( METRIC_PREFIX + phase, millis );
+    }
+
+    /**
+     * @return Milliseconds since the build was requested.
+     */
+    public long getElapsed() {
+        return System.currentTimeMillis() - startedAt;
+    }
+
+    /**
+     * @return The recorded phases in the order they ended, e.g. "workspace 2 ms, unpack 130 ms, maven 9.1 s".
+     */
+    public String getSummary() {
+        final StringBuilder sb = new StringBuilder();
+        synchronized ( spans ) {
+            for ( final Map.Entry<String, Long> span : spans.entrySet() ) {
+                if ( sb.length() > 0 ) {
+                    sb.append( ", " );
+                }
+                sb.append( span.getKey() ).append( ' ' ).append( format( span.getValue() ) );
+            }
+        }
+
+        return sb.toString();
+    }
+
+    public static String format( final long millis ) {
+        if ( millis < 1000 ) {
+            return millis + " ms";
+        }
+
+        return String.format( "%.1f s", millis / 1000.0 );
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Count, total, minimum, maximum and last value of a series of durations in milliseconds, and a histogram of the
+ * durations from which percentiles are estimated.
+ */
+public class TimingStatistics {
+
+    /*
+     * Upper bounds of the histogram buckets. A last bucket holds everything above the highest bound.
+     */
+    private static final long[] BUCKET_BOUNDS = new long[]{ 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000 };
+
+    private final long[] buckets = new long[ BUCKET_BOUNDS.length + 1 ];
+    private long count = 0;
+    private long total = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+    private long last = 0;
+
+    public synchronized void record( final long millis ) {
+        count++;
+        total += millis;
+        min = Math.min( min, millis );
+        max = Math.max( max, millis );
+        last = millis;
+        buckets[ getBucket( millis ) ]++;
+    }
+
+    private static int getBucket( final long millis ) {
+        final int index = Arrays.binarySearch( BUCKET_BOUNDS, millis );
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * @return The upper bounds (inclusive) of the histogram buckets, except for the last bucket, which is unbounded.
+     */
+    public static long[] getBucketBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    /**
+     * @return The number of durations in each histogram bucket. There is one more bucket than there are bounds.
+     */
+    public synchronized long[] getBucketCounts() {
+        return buckets.clone();
+    }
+
+    /**
+     * @param percentile
+     *            Between 0 and 100.
+     * @return An upper estimate of the given percentile: the bound of the bucket it falls into, but never more than the
+     *         maximum.
+     */
+    public synchronized long getPercentile( final double percentile ) {
+        if ( count == 0 ) {
+            return 0;
+        }
+
+        final long rank = Math.max( 1, (long) Math.ceil( count * percentile / 100 ) );
+        long seen = 0;
+        for ( int i = 0; i < BUCKET_BOUNDS.length; i++ ) {
+            seen += buckets[ i ];
+            if ( seen >= rank ) {
+                return Math.min( BUCKET_BOUNDS[ i ], max );
+            }
+        }
+
+        return max;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    public synchronized long getMin() {
+        return count > 0 ? min : 0;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized long getLast() {
+        return last;
+    }
+
+    public synchronized long getMean() {
+        return count > 0 ? total / count : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=" + count + ", mean=" + getMean() + "ms, p90=" + getPercentile( 90 ) + "ms, min=" + getMin() + "ms, max=" + max + "ms, last=" + last + "ms";
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.reaper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.livespark.backend.server.service.metrics.BuildMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Releases the build resources of ended sessions in the background, so that session invalidation does not wait for
+ * undeployments, workspace deletions or code server shutdowns.
+ * <p>
+ * At most {@value #PARALLELISM_PROPERTY} teardowns run at once (default 2). A teardown that fails is retried with an
+ * increasing delay, up to {@value #MAX_ATTEMPTS_PROPERTY} attempts (default 8). Resources whose teardown never
+ * succeeded are logged as leaked and reported by {@link #getLeakedResources()}.
+ */
+@ApplicationScoped
+public class ResourceReaper {
+
+    private static final Logger logger = LoggerFactory.getLogger( ResourceReaper.class );
+
+    public static final String PARALLELISM_PROPERTY = "livespark.reaper.parallelism";
+    public static final String MAX_ATTEMPTS_PROPERTY = "livespark.reaper.max_attempts";
+    private static final int DEFAULT_PARALLELISM = 2;
+    private static final int DEFAULT_MAX_ATTEMPTS = 8;
+    private static final long INITIAL_RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 60000;
+
+    private static class Teardown {
+
+        final String resource;
+        final Runnable task;
+        int attempts = 0;
+
+        Teardown( final String resource, final Runnable task ) {
+            this.resource = resource;
+            this.task = task;
+        }
+    }
+
+    @Resource
+    private ManagedExecutorService execService;
+
+    @Resource
+    private ManagedScheduledExecutorService scheduledExecService;
+
+    @Inject
+    private BuildMetrics metrics;
+
+    private final int maxAttempts = readPositiveInt( MAX_ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS );
+
+    private final Queue<Teardown> queue = new ConcurrentLinkedQueue<Teardown>();
+    private final List<String> leaked = Collections.synchronizedList( new ArrayList<String>() );
+
+    private Semaphore permits;
+    private volatile boolean shutdown = false;
+
+    @PostConstruct
+    private void setup() {
+        permits = new Semaphore( readPositiveInt( PARALLELISM_PROPERTY, DEFAULT_PARALLELISM ) );
+    }
+
+    /*
+     * Resources still queued when the server stops are released on the stopping thread, as far as possible.
+     */
+    @PreDestroy
+    private void shutdown() {
+        shutdown = true;
+        Teardown teardown;
+        while ( ( teardown = queue.poll() ) != null ) {
+            if ( !attempt( teardown ) ) {
+                reportLeak( teardown );
+            }
+        }
+    }
+
+    private static int readPositiveInt( final String property, final int defaultValue ) {
+        final String configured = System.getProperty( property );
+        if ( configured != null ) {
+            try {
+                return Math.max( 1, Integer.parseInt( configured.trim() ) );
+            } catch ( NumberFormatException e ) {
+                logger.warn( "Ignoring invalid value for " + property + ": " + configured );
+            }
+        }
+
+        return defaultValue;
+    }
+
+    /**
+     * Queues the teardown of a resource and returns immediately.
+     *
+     * @param resource
+     *            Describes the resource in log messages and leak reports.
+     * @param task
+     *            Releases the resource. It fails by throwing, and may then be run again.
+     */
+    public void submit( final String resource, final Runnable task ) {
+        queue.add( new Teardown( resource, task ) );
+        dispatch();
+    }
+
+    /**
+     * @return The number of teardowns that are queued or waiting for a retry.
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return The resources whose teardown failed on every attempt.
+     */
+    public List<String> getLeakedResources() {
+        synchronized ( leaked ) {
+            return new ArrayList<String>( leaked );
+        }
+    }
+
+    /*
+     * A permit is taken before polling, so teardowns queued while all permits are taken are picked up by the task that
+     * releases the next permit.
+     */
+    private void dispatch() {
+        while ( !shutdown && permits.tryAcquire() ) {
+            final Teardown teardown = queue.poll();
+            if ( teardown == null ) {
+                permits.release();
+                if ( queue.isEmpty() ) {
+                    return;
+                }
+                continue;
+            }
+
+            try {
+                execService.submit( new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            runTeardown( teardown );
+                        } finally {
+                            permits.release();
+                            dispatch();
+                        }
+                    }
+                } );
+            } catch ( RejectedExecutionException e ) {
+                permits.release();
+                runTeardown( teardown );
+            }
+        }
+    }
+
+    private void runTeardown( final Teardown teardown ) {
+        if ( attempt( teardown ) ) {
+            return;
+        }
+
+        if ( teardown.attempts >= maxAttempts || shutdown ) {
+            reportLeak( teardown );
+            return;
+        }
+
+        final long delay = Math.min( MAX_RETRY_DELAY_MS, INITIAL_RETRY_DELAY_MS << ( teardown.attempts - 1 ) );
+        try {
+            scheduledExecService.schedule( new Runnable() {
+
+                @Override
+                public void run() {
+                    queue.add( teardown );
+                    dispatch();
+                }
+            }, delay, TimeUnit.MILLISECONDS );
+        } catch ( RejectedExecutionException e ) {
+            reportLeak( teardown );
+        }
+    }
+
+    private boolean attempt( final Teardown teardown ) {
+        teardown.attempts++;
+        final long start = System.currentTimeMillis();
+        try {
+            teardown.task.run();
+            metrics.recordTime( BuildMetrics.SESSION_TEARDOWN, System.currentTimeMillis() - start );
+            return true;
+        } catch ( Throwable t ) {
+            logger.debug( "Attempt " + teardown.attempts + " to release " + teardown.resource + " failed.", t );
+            return false;
+        }
+    }
+
+    private void reportLeak( final Teardown teardown ) {
+        leaked.add( teardown.resource );
+        logger.error( "Unable to release {} after {} attempts. The resource is leaked.", teardown.resource, teardown.attempts );
+    }
+
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.scheduler;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.livespark.backend.server.service.build.ClientOutputService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs build requests on the container's executor without letting them pile up.
+ * <ul>
+ * <li>At most a configurable number of builds run at once (by default half the available processors).</li>
+ * <li>At most one build runs in a workspace at a time.</li>
+ * <li>A request for a build that is already queued for the same session is merged into the queued build.</li>
+ * <li>Sessions with queued builds take turns, so one session cannot starve the others.</li>
+ * <li>A new request of a session cancels the build that session is running in the same workspace, since nobody will
+ * look at its result.</li>
+ * </ul>
+ * Running builds are {@link Future futures} that are cancelled by interrupting the build thread.
+ * Queued builds are told their position in the queue, and how long they waited once they start, through the
+ * MavenBuilderOutput bus subject.
+ */
+@ApplicationScoped
+public class BuildScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger( BuildScheduler.class );
+
+    private static final String MAX_CONCURRENT_BUILDS_PROPERTY = "livespark.build.max_concurrent_builds";
+
+    @Inject
+    private ClientOutputService clientOutputService;
+
+    @Resource
+    private ManagedExecutorService execService;
+
+    private final int maxConcurrentBuilds = readMaxConcurrentBuilds();
+
+    /*
+     * Sessions with queued builds, in the order they will next be served.
+     */
+    private final LinkedList<String> sessionRotation = new LinkedList<String>();
+    private final Map<String, LinkedList<ScheduledBuild>> queuedBuilds = new HashMap<String, LinkedList<ScheduledBuild>>();
+    private final Map<File, ScheduledBuild> runningBuilds = new HashMap<File, ScheduledBuild>();
+
+    private static int readMaxConcurrentBuilds() {
+        final String configured = System.getProperty( MAX_CONCURRENT_BUILDS_PROPERTY );
+        if ( configured != null ) {
+            try {
+                return Math.max( 1, Integer.parseInt( configured.trim() ) );
+            } catch ( NumberFormatException e ) {
+                logger.warn( "Ignoring invalid value for " + MAX_CONCURRENT_BUILDS_PROPERTY + ": " + configured );
+            }
+        }
+
+        return Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 );
+    }
+
+    /**
+     * Queues a build, or merges it into an equivalent build that is still queued.
+     *
+     * @return True if the build was queued, false if it was merged into an already queued build.
+     */
+    public boolean schedule( final ScheduledBuild build ) {
+        final boolean queued;
+        final ScheduledBuild superseded;
+        synchronized ( this ) {
+            superseded = findRunning( build.getSessionId(), build.getWorkspace() );
+            final ScheduledBuild pending = findQueued( build.getSessionId(), build.getBuildKey() );
+            if ( pending != null ) {
+                // The queued build reads the project sources when it starts, so it will already include this request.
+                pending.setTask( build.getTask() );
+                queued = false;
+            } else {
+                build.setQueuedAt( System.currentTimeMillis() );
+                enqueue( build );
+                queued = true;
+            }
+        }
+
+        if ( superseded != null && cancelRunning( superseded ) ) {
+            sendOutput( superseded.getQueueSessionId(), "[INFO] Cancelling the running build, which this request supersedes." );
+        }
+        if ( !queued ) {
+            sendOutput( build.getQueueSessionId(), "[INFO] An identical build is already queued. This request was merged into it." );
+        }
+        dispatch();
+
+        return queued;
+    }
+
+    /**
+     * Cancels the queued and running builds of a session in a workspace.
+     *
+     * @return True if a build was cancelled.
+     */
+    public boolean cancel( final String sessionId, final File workspace ) {
+        final List<ScheduledBuild> dequeued = new LinkedList<ScheduledBuild>();
+        final ScheduledBuild running;
+        synchronized ( this ) {
+            final LinkedList<ScheduledBuild> sessionQueue = queuedBuilds.get( sessionId );
+            if ( sessionQueue != null ) {
+                final Iterator<ScheduledBuild> iter = sessionQueue.iterator();
+                while ( iter.hasNext() ) {
+                    final ScheduledBuild queued = iter.next();
+                    if ( queued.getWorkspace().equals( workspace ) ) {
+                        iter.remove();
+                        dequeued.add( queued );
+                    }
+                }
+                if ( sessionQueue.isEmpty() ) {
+                    queuedBuilds.remove( sessionId );
+                    sessionRotation.remove( sessionId );
+                }
+            }
+            running = findRunning( sessionId, workspace );
+        }
+
+        boolean cancelled = false;
+        for ( final ScheduledBuild queued : dequeued ) {
+            sendOutput( queued.getQueueSessionId(), "[INFO] Queued build cancelled." );
+            cancelled = true;
+        }
+        if ( running != null && cancelRunning( running ) ) {
+            sendOutput( running.getQueueSessionId(), "[INFO] Cancelling the running build..." );
+            cancelled = true;
+        }
+        if ( !dequeued.isEmpty() ) {
+            // Builds behind the cancelled ones moved up.
+            dispatch();
+        }
+
+        return cancelled;
+    }
+
+    public int getMaxConcurrentBuilds() {
+        return maxConcurrentBuilds;
+    }
+
+    private void enqueue( final ScheduledBuild build ) {
+        LinkedList<ScheduledBuild> sessionQueue = queuedBuilds.get( build.getSessionId() );
+        if ( sessionQueue == null ) {
+            sessionQueue = new LinkedList<ScheduledBuild>();
+            queuedBuilds.put( build.getSessionId(), sessionQueue );
+            sessionRotation.addLast( build.getSessionId() );
+        }
+        sessionQueue.addLast( build );
+    }
+
+    private ScheduledBuild findRunning( final String sessionId, final File workspace ) {
+        final ScheduledBuild running = runningBuilds.get( workspace );
+        if ( running != null && running.getSessionId().equals( sessionId ) && !running.getFuture().isCancelled() ) {
+            return running;
+        }
+
+        return null;
+    }
+
+    private boolean cancelRunning( final ScheduledBuild build ) {
+        logger.debug( "Cancelling build in {}.", build.getWorkspace() );
+        return build.getFuture().cancel( true );
+    }
+
+    private ScheduledBuild findQueued( final String sessionId, final String buildKey ) {
+        final List<ScheduledBuild> sessionQueue = queuedBuilds.get( sessionId );
+        if ( sessionQueue != null ) {
+            for ( final ScheduledBuild queued : sessionQueue ) {
+                if ( queued.getBuildKey().equals( buildKey ) ) {
+                    return queued;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private void dispatch() {
+        final List<ScheduledBuild> started = new LinkedList<ScheduledBuild>();
+        final Map<ScheduledBuild, Integer> moved = new HashMap<ScheduledBuild, Integer>();
+
+        synchronized ( this ) {
+            int sessionsWithoutRunnableBuild = 0;
+            while ( runningBuilds.size() < maxConcurrentBuilds && sessionsWithoutRunnableBuild < sessionRotation.size() ) {
+                final String sessionId = sessionRotation.removeFirst();
+                final LinkedList<ScheduledBuild> sessionQueue = queuedBuilds.get( sessionId );
+                final ScheduledBuild next = pollRunnable( sessionQueue );
+
+                if ( sessionQueue.isEmpty() ) {
+                    queuedBuilds.remove( sessionId );
+                } else {
+                    sessionRotation.addLast( sessionId );
+                }
+
+                if ( next != null ) {
+                    // Created here so that the build can be cancelled as soon as it counts as running.
+                    next.setFuture( createFuture( next ) );
+                    runningBuilds.put( next.getWorkspace(), next );
+                    started.add( next );
+                    sessionsWithoutRunnableBuild = 0;
+                } else {
+                    sessionsWithoutRunnableBuild++;
+                }
+            }
+
+            for ( final String sessionId : sessionRotation ) {
+                int index = 0;
+                for ( final ScheduledBuild queued : queuedBuilds.get( sessionId ) ) {
+                    final int position = estimatePosition( sessionId, index++ );
+                    if ( position != queued.getReportedPosition() ) {
+                        queued.setReportedPosition( position );
+                        moved.put( queued, position );
+                    }
+                }
+            }
+        }
+
+        for ( final Map.Entry<ScheduledBuild, Integer> entry : moved.entrySet() ) {
+            sendOutput( entry.getKey().getQueueSessionId(),
+                        "[INFO] Waiting for a free build slot. Position in build queue: " + entry.getValue() + "." );
+        }
+        for ( final ScheduledBuild build : started ) {
+            start( build );
+        }
+    }
+
+    private ScheduledBuild pollRunnable( final LinkedList<ScheduledBuild> sessionQueue ) {
+        final Iterator<ScheduledBuild> iter = sessionQueue.iterator();
+        while ( iter.hasNext() ) {
+            final ScheduledBuild candidate = iter.next();
+            if ( !runningBuilds.containsKey( candidate.getWorkspace() ) ) {
+                iter.remove();
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
+    /*
+     * Sessions are served one build at a time in rotation order, so the build at the given index of a session's queue
+     * starts after index + 1 builds of each session ahead of it in the rotation and index builds of each session behind
+     * it. This ignores builds held back by a busy workspace, so it is only an estimate.
+     */
+    private int estimatePosition( final String sessionId, final int index ) {
+        int ahead = 0;
+        boolean beforeSession = true;
+        for ( final String other : sessionRotation ) {
+            if ( other.equals( sessionId ) ) {
+                beforeSession = false;
+                ahead += index;
+            } else {
+                ahead += Math.min( queuedBuilds.get( other ).size(), beforeSession ? index + 1 : index );
+            }
+        }
+
+        return ahead + 1;
+    }
+
+    /*
+     * Cancelling the future interrupts the build thread, but the thread only finishes the build once the task returns.
+     */
+    private FutureTask<Object> createFuture( final ScheduledBuild build ) {
+        final Callable<?> task = build.getTask();
+
+        return new FutureTask<Object>( new Callable<Object>() {
+
+            @Override
+            public Object call() throws Exception {
+                clientOutputService.cleanOutput( build.getQueueSessionId() );
+                reportWaitTime( build );
+
+                return task.call();
+            }
+        } );
+    }
+
+    private void start( final ScheduledBuild build ) {
+        final FutureTask<?> future = (FutureTask<?>) build.getFuture();
+        final AtomicBoolean taskStarted = new AtomicBoolean( false );
+
+        try {
+            execService.submit( new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        taskStarted.set( !future.isDone() );
+                        future.run();
+                        future.get();
+                    } catch ( CancellationException e ) {
+                        // Do not leave the interrupt of the cancellation behind on a pooled thread.
+                        Thread.interrupted();
+                        if ( taskStarted.get() ) {
+                            cleanUpCancelled( build );
+                        }
+                    } catch ( ExecutionException e ) {
+                        logger.error( "Build in " + build.getWorkspace() + " failed.", e.getCause() );
+                        sendOutput( build.getQueueSessionId(), "[ERROR] " + describe( e.getCause() ) );
+                    } catch ( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        finished( build );
+                    }
+                }
+            } );
+        } catch ( RejectedExecutionException e ) {
+            logger.error( "Unable to start build in " + build.getWorkspace() + ".", e );
+            sendOutput( build.getQueueSessionId(), "[ERROR] The server is unable to start the build at this time." );
+            finished( build );
+        }
+    }
+
+    /*
+     * Many exceptions, like NullPointerException, have no message, and their type is the only hint for the user.
+     */
+    private static String describe( final Throwable failure ) {
+        return failure.getMessage() != null ? failure.getMessage() : failure.toString();
+    }
+
+    private void cleanUpCancelled( final ScheduledBuild build ) {
+        try {
+            if ( build.getCancellationCleanup() != null ) {
+                build.getCancellationCleanup().run();
+            }
+        } catch ( RuntimeException e ) {
+            logger.warn( "Unable to clean up after the cancelled build in " + build.getWorkspace() + ".", e );
+        }
+        sendOutput( build.getQueueSessionId(), "[INFO] Build cancelled." );
+    }
+
+    private void finished( final ScheduledBuild build ) {
+        synchronized ( this ) {
+            runningBuilds.remove( build.getWorkspace() );
+        }
+        dispatch();
+    }
+
+    private void reportWaitTime( final ScheduledBuild build ) {
+        if ( build.getReportedPosition() > 0 ) {
+            final long waited = System.currentTimeMillis() - build.getQueuedAt();
+            logger.debug( "Build in {} waited {} ms in the build queue.", build.getWorkspace(), waited );
+            sendOutput( build.getQueueSessionId(),
+                        String.format( "[INFO] Build started after waiting %.1f s in the build queue.", waited / 1000.0 ) );
+        }
+    }
+
+    private void sendOutput( final String queueSessionId, final String line ) {
+        clientOutputService.sendOutput( queueSessionId, line );
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.scheduler;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * A build request waiting for, or running in, the {@link BuildScheduler}.
+ */
+public class ScheduledBuild {
+
+    private final String sessionId;
+    private final String queueSessionId;
+    private final String buildKey;
+    private final File workspace;
+    private final Runnable cancellationCleanup;
+
+    private Callable<?> task;
+    private volatile Future<?> future;
+    private long queuedAt;
+    private int reportedPosition;
+
+    /**
+     * @param sessionId
+     *            Identifies the http session that requested the build. Sessions are served round-robin.
+     * @param queueSessionId
+     *            The Errai queue session that receives progress output.
+     * @param buildKey
+     *            Builds of the same session with the same key are interchangeable, so a queued build absorbs later
+     *            requests with its key.
+     * @param workspace
+     *            The directory the build runs in. At most one build runs in a workspace at a time.
+     * @param task
+     *            Performs the build. It is interrupted if the build is cancelled while it runs.
+     * @param cancellationCleanup
+     *            Restores the workspace after the build was cancelled while it ran. May be null.
+     */
+    public ScheduledBuild( final String sessionId,
+                           final String queueSessionId,
+                           final String buildKey,
+                           final File workspace,
+                           final Callable<?> task,
+                           final Runnable cancellationCleanup ) {
+        this.sessionId = sessionId;
+        this.queueSessionId = queueSessionId;
+        this.buildKey = buildKey;
+        this.workspace = workspace;
+        this.task = task;
+        this.cancellationCleanup = cancellationCleanup;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getQueueSessionId() {
+        return queueSessionId;
+    }
+
+    public String getBuildKey() {
+        return buildKey;
+    }
+
+    public File getWorkspace() {
+        return workspace;
+    }
+
+    Runnable getCancellationCleanup() {
+        return cancellationCleanup;
+    }
+
+    /**
+     * @return The future of the running build, or null if the build has not started.
+     */
+    public Future<?> getFuture() {
+        return future;
+    }
+
+    void setFuture( final Future<?> future ) {
+        this.future = future;
+    }
+
+    Callable<?> getTask() {
+        return task;
+    }
+
+    void setTask( final Callable<?> task ) {
+        this.task = task;
+    }
+
+    long getQueuedAt() {
+        return queuedAt;
+    }
+
+    void setQueuedAt( final long queuedAt ) {
+        this.queuedAt = queuedAt;
+    }
+
+    int getReportedPosition() {
+        return reportedPosition;
+    }
+
+    void setReportedPosition( final int reportedPosition ) {
+        this.reportedPosition = reportedPosition;
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.worker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.livespark.backend.server.service.maven.EmbeddedMavenBuildEngine;
+import org.livespark.backend.server.service.maven.ForkedMavenBuildEngine;
+import org.livespark.backend.server.service.maven.MavenBuildEngine;
+
+/**
+ * The main class of a build worker JVM. It connects to the server given on the command line ({@code host port id token}) and
+ * runs the requests it receives with an embedded Maven engine, falling back to forked Maven processes.
+ * <p>
+ * The worker exits when the connection to the server is lost, so a worker never outlives its server.
+ */
+public class BuildWorker {
+
+    private static final long HEARTBEAT_INTERVAL_MS = 5000;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final MavenBuildEngine engine;
+
+    private volatile Thread buildThread;
+
+    BuildWorker( final Socket socket,
+                 final MavenBuildEngine engine ) throws IOException {
+        this.in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+        this.out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+        this.engine = engine;
+    }
+
+    public static void main( final String[] args ) throws Exception {
+        if ( args.length != 4 ) {
+            System.err.println( "Usage: " + BuildWorker.class.getName() + " <host> <port> <worker id> <token>" );
+            System.exit( 2 );
+        }
+
+        final Socket socket = new Socket( args[ 0 ], Integer.parseInt( args[ 1 ] ) );
+        socket.setTcpNoDelay( true );
+
+        final BuildWorker worker = new BuildWorker( socket, createEngine() );
+        try {
+            worker.run( args[ 2 ], args[ 3 ] );
+        } finally {
+            socket.close();
+            System.exit( 0 );
+        }
+    }
+
+    private static MavenBuildEngine createEngine() {
+        try {
+            return new EmbeddedMavenBuildEngine( BuildWorker.class.getClassLoader() );
+        } catch ( Exception | LinkageError e ) {
+            System.err.println( "Unable to start the embedded Maven build engine. Falling back to forked Maven: " + e );
+            return new ForkedMavenBuildEngine();
+        }
+    }
+
+    void run( final String workerId,
+              final String token ) throws IOException {
+        synchronized ( out ) {
+            out.writeByte( WorkerProtocol.HELLO );
+            out.writeInt( WorkerProtocol.VERSION );
+            WorkerProtocol.writeString( out, token );
+            WorkerProtocol.writeString( out, workerId );
+            out.flush();
+        }
+        startHeartbeat();
+
+        try {
+            while ( true ) {
+                final byte type = in.readByte();
+                switch ( type ) {
+                    case WorkerProtocol.RUN:
+                        startBuild( WorkerProtocol.readRequest( in ) );
+                        break;
+                    case WorkerProtocol.CANCEL:
+                        final Thread running = buildThread;
+                        if ( running != null ) {
+                            running.interrupt();
+                        }
+                        break;
+                    case WorkerProtocol.SHUTDOWN:
+                        return;
+                    default:
+                        throw new IOException( "Unexpected message type " + type );
+                }
+            }
+        } catch ( EOFException e ) {
+            // The server closed the connection.
+        } finally {
+            engine.dispose();
+        }
+    }
+
+    /*
+     * Builds run on their own thread, so that the main thread can receive a cancellation meanwhile.
+     */
+    private void startBuild( final InvocationRequest request ) {
+        request.setOutputHandler( new InvocationOutputHandler() {
+
+            @Override
+            public void consumeLine( final String line ) {
+                send( WorkerProtocol.OUTPUT, line );
+            }
+        } );
+
+        final Thread thread = new Thread( new Runnable() {
+
+            @Override
+            public void run() {
+                int exitCode = 1;
+                String failure = "";
+                try {
+                    final InvocationResult result = engine.execute( request );
+                    exitCode = result.getExitCode();
+                    if ( result.getExecutionException() != null ) {
+                        failure = result.getExecutionException().getMessage();
+                    }
+                } catch ( Throwable t ) {
+                    failure = t.getClass().getName() + ": " + t.getMessage();
+                } finally {
+                    buildThread = null;
+                    sendResult( exitCode, failure );
+                }
+            }
+        }, "livespark-build" );
+        buildThread = thread;
+        thread.start();
+    }
+
+    private void startHeartbeat() {
+        final Thread heartbeat = new Thread( new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    while ( true ) {
+                        Thread.sleep( HEARTBEAT_INTERVAL_MS );
+                        synchronized ( out ) {
+                            out.writeByte( WorkerProtocol.HEARTBEAT );
+                            out.flush();
+                        }
+                    }
+                } catch ( InterruptedException | IOException e ) {
+                    // The connection is gone, and the main thread exits with it.
+                }
+            }
+        }, "livespark-heartbeat" );
+        heartbeat.setDaemon( true );
+        heartbeat.start();
+    }
+
+    private void send( final byte type, final String value ) {
+        try {
+            synchronized ( out ) {
+                out.writeByte( type );
+                WorkerProtocol.writeString( out, value );
+                out.flush();
+            }
+        } catch ( IOException e ) {
+            // The connection is gone, and the main thread exits with it.
+        }
+    }
+
+    private void sendResult( final int exitCode, final String failure ) {
+        try {
+            synchronized ( out ) {
+                out.writeByte( WorkerProtocol.RESULT );
+                out.writeInt( exitCode );
+                WorkerProtocol.writeString( out, failure );
+                out.flush();
+            }
+        } catch ( IOException e ) {
+            // The connection is gone, and the main thread exits with it.
+        }
+    }
+
+}
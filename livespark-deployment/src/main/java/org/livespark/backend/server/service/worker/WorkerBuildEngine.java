@@ -0,0 +1,439 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.worker;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.Maven;
+import org.apache.maven.shared.invoker.DefaultInvoker;
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.livespark.backend.server.service.maven.MavenBuildEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs Maven invocations in a pool of separate worker JVMs (see {@link BuildWorker}), so that builds do not compete
+ * with the server for heap, and a runaway build can be killed without affecting the server.
+ * <p>
+ * The pool is configured with system properties:
+ * <ul>
+ * <li>{@value #WORKERS_PROPERTY}: the number of workers (default 2)</li>
+ * <li>{@value #HEAP_PROPERTY}: the maximum heap of each worker in megabytes (default 1024)</li>
+ * <li>{@value #JVM_ARGS_PROPERTY}: further JVM arguments of each worker, separated by spaces</li>
+ * <li>{@value #TIMEOUT_PROPERTY}: how long a build may run, in seconds, before its worker is killed (default 1800)</li>
+ * <li>{@value #CLASSPATH_PROPERTY}: the class path of the workers. It defaults to the directories holding the
+ * deployment's libraries, which only works if the deployment is exploded on disk.</li>
+ * <li>{@value #BIND_ADDRESS_PROPERTY}: the address workers connect to (default loopback)</li>
+ * <li>{@value #WAIT_TIMEOUT_PROPERTY}: how long a build waits for a free worker, in seconds, before it runs on the
+ * fallback engine instead (default 300)</li>
+ * </ul>
+ * Workers that die, miss their heartbeats or exceed the build timeout are replaced. Workers that exit or do not connect
+ * while starting are replaced as well, until {@value #MAX_START_FAILURES} starts in a row failed. Builds run on the
+ * fallback engine while no worker can be had.
+ */
+public class WorkerBuildEngine implements MavenBuildEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger( WorkerBuildEngine.class );
+
+    public static final String WORKERS_PROPERTY = "livespark.build.workers";
+    public static final String HEAP_PROPERTY = "livespark.build.worker.heap_mb";
+    public static final String JVM_ARGS_PROPERTY = "livespark.build.worker.jvm_args";
+    public static final String TIMEOUT_PROPERTY = "livespark.build.worker.timeout";
+    public static final String CLASSPATH_PROPERTY = "livespark.build.worker.classpath";
+    public static final String BIND_ADDRESS_PROPERTY = "livespark.build.worker.bind_address";
+    public static final String WAIT_TIMEOUT_PROPERTY = "livespark.build.worker.wait_timeout";
+
+    private static final int DEFAULT_WORKERS = 2;
+    private static final long DEFAULT_HEAP_MB = 1024;
+    private static final long DEFAULT_TIMEOUT_SECONDS = 1800;
+    private static final long DEFAULT_WAIT_TIMEOUT_SECONDS = 300;
+    private static final int HELLO_TIMEOUT_MS = 60000;
+    private static final long START_TIMEOUT_MS = 120000;
+    private static final long POLL_INTERVAL_MS = 1000;
+    private static final int MAX_START_FAILURES = 3;
+    private static final int MAX_ID_LENGTH = 64;
+
+    /*
+     * System properties the workers need to find Maven and its settings.
+     */
+    private static final List<String> FORWARDED_PROPERTIES = Arrays.asList( "maven.home", "user.home", "java.io.tmpdir" );
+
+    /*
+     * A worker process that has not connected yet.
+     */
+    private static class StartingWorker {
+
+        final Process process;
+        final long startedAt = System.currentTimeMillis();
+
+        StartingWorker( final Process process ) {
+            this.process = process;
+        }
+    }
+
+    private final ExecutorService execService;
+    private final MavenBuildEngine fallback;
+    private final ServerSocket serverSocket;
+    private final String classpath;
+    private final int workerCount = readInt( WORKERS_PROPERTY, DEFAULT_WORKERS );
+    private final long heapMb = readLong( HEAP_PROPERTY, DEFAULT_HEAP_MB );
+    private final long timeoutMs = TimeUnit.SECONDS.toMillis( readLong( TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_SECONDS ) );
+    private final long waitTimeoutMs = TimeUnit.SECONDS.toMillis( readLong( WAIT_TIMEOUT_PROPERTY, DEFAULT_WAIT_TIMEOUT_SECONDS ) );
+
+    /*
+     * Workers prove with this token that they were started by this server.
+     */
+    private final String token = new BigInteger( 130, new SecureRandom() ).toString( 32 );
+
+    private final BlockingQueue<WorkerConnection> idle = new LinkedBlockingQueue<WorkerConnection>();
+    private final Map<String, WorkerConnection> connected = new ConcurrentHashMap<String, WorkerConnection>();
+    private final Map<String, StartingWorker> starting = new ConcurrentHashMap<String, StartingWorker>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger startFailures = new AtomicInteger();
+
+    private volatile boolean disposed = false;
+
+    /**
+     * @param fallback
+     *            The engine builds run on while no worker is available. It is not disposed with this engine.
+     */
+    public WorkerBuildEngine( final ExecutorService execService,
+                              final MavenBuildEngine fallback ) throws IOException {
+        this.execService = execService;
+        this.fallback = fallback;
+        this.classpath = findClasspath();
+        this.serverSocket = new ServerSocket( 0, 50, getBindAddress() );
+
+        execService.submit( new Runnable() {
+
+            @Override
+            public void run() {
+                acceptWorkers();
+            }
+        } );
+        for ( int i = 0; i < workerCount; i++ ) {
+            startWorker();
+        }
+    }
+
+    private static int readInt( final String property, final int defaultValue ) {
+        return (int) readLong( property, defaultValue );
+    }
+
+    private static long readLong( final String property, final long defaultValue ) {
+        final String configured = System.getProperty( property );
+        if ( configured != null ) {
+            try {
+                return Math.max( 1, Long.parseLong( configured.trim() ) );
+            } catch ( NumberFormatException e ) {
+                logger.warn( "Ignoring invalid value for " + property + ": " + configured );
+            }
+        }
+
+        return defaultValue;
+    }
+
+    private static InetAddress getBindAddress() throws IOException {
+        final String configured = System.getProperty( BIND_ADDRESS_PROPERTY );
+
+        return configured != null ? InetAddress.getByName( configured ) : InetAddress.getLoopbackAddress();
+    }
+
+    /*
+     * Workers need this module, the Maven embedder and the Maven invoker.
+     */
+    private static String findClasspath() {
+        final String configured = System.getProperty( CLASSPATH_PROPERTY );
+        if ( configured != null ) {
+            return configured;
+        }
+
+        final Set<String> entries = new LinkedHashSet<String>();
+        for ( final Class<?> required : Arrays.<Class<?>>asList( BuildWorker.class, Maven.class, DefaultInvoker.class ) ) {
+            final CodeSource codeSource = required.getProtectionDomain().getCodeSource();
+            final URL location = codeSource != null ? codeSource.getLocation() : null;
+            if ( location == null || !"file".equals( location.getProtocol() ) ) {
+                throw new IllegalStateException( "Unable to determine the class path of build workers. Set " + CLASSPATH_PROPERTY + "." );
+            }
+            try {
+                final File file = new File( location.toURI() );
+                entries.add( file.isDirectory() ? file.getAbsolutePath() : file.getParent() + File.separator + "*" );
+            } catch ( URISyntaxException e ) {
+                throw new IllegalStateException( "Unable to determine the class path of build workers. Set " + CLASSPATH_PROPERTY + ".", e );
+            }
+        }
+
+        final StringBuilder classpath = new StringBuilder();
+        for ( final String entry : entries ) {
+            if ( classpath.length() > 0 ) {
+                classpath.append( File.pathSeparator );
+            }
+            classpath.append( entry );
+        }
+
+        return classpath.toString();
+    }
+
+    @Override
+    public InvocationResult execute( final InvocationRequest request ) throws MavenInvocationException {
+        final long deadline = System.currentTimeMillis() + waitTimeoutMs;
+        while ( true ) {
+            final WorkerConnection worker;
+            try {
+                worker = idle.poll( POLL_INTERVAL_MS, TimeUnit.MILLISECONDS );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException( "The build was cancelled while waiting for a build worker." );
+            }
+
+            if ( worker == null ) {
+                checkStartingWorkers();
+                if ( connected.isEmpty() && starting.isEmpty() ) {
+                    return executeOnFallback( request, "No build worker is running." );
+                } else if ( System.currentTimeMillis() >= deadline ) {
+                    return executeOnFallback( request, "No build worker became free within " + waitTimeoutMs / 1000 + " seconds." );
+                }
+                continue;
+            }
+
+            if ( !worker.isAlive() ) {
+                replace( worker );
+                continue;
+            }
+
+            try {
+                return worker.execute( request, timeoutMs );
+            } finally {
+                if ( worker.isAlive() ) {
+                    idle.add( worker );
+                } else {
+                    replace( worker );
+                }
+            }
+        }
+    }
+
+    private InvocationResult executeOnFallback( final InvocationRequest request,
+                                                final String reason ) throws MavenInvocationException {
+        logger.warn( "{} Running the build of {} in the server.", reason, request.getPomFile() );
+        final InvocationOutputHandler outputHandler = request.getOutputHandler( null );
+        if ( outputHandler != null ) {
+            outputHandler.consumeLine( "[WARNING] " + reason + " Building in the server instead." );
+        }
+
+        return fallback.execute( request );
+    }
+
+    /*
+     * Replaces workers that exited or did not connect in time while starting, unless starting workers keeps failing.
+     */
+    private void checkStartingWorkers() {
+        final long now = System.currentTimeMillis();
+        for ( final Map.Entry<String, StartingWorker> entry : starting.entrySet() ) {
+            final StartingWorker worker = entry.getValue();
+            final boolean exited = !isRunning( worker.process );
+            if ( !exited && now - worker.startedAt < START_TIMEOUT_MS ) {
+                continue;
+            }
+            if ( !starting.remove( entry.getKey(), worker ) ) {
+                continue;
+            }
+
+            worker.process.destroy();
+            if ( exited ) {
+                logger.warn( "Build worker {} exited with code {} before it connected.", entry.getKey(), worker.process.exitValue() );
+            } else {
+                logger.warn( "Build worker {} did not connect within {} seconds and is stopped.", entry.getKey(), START_TIMEOUT_MS / 1000 );
+            }
+            if ( startFailures.incrementAndGet() < MAX_START_FAILURES ) {
+                startWorker();
+            } else {
+                logger.error( "Build workers failed to start " + MAX_START_FAILURES + " times in a row and are not replaced. See their logs in "
+                                      + System.getProperty( "java.io.tmpdir" ) + "." );
+            }
+        }
+    }
+
+    private static boolean isRunning( final Process process ) {
+        try {
+            process.exitValue();
+            return false;
+        } catch ( IllegalThreadStateException e ) {
+            return true;
+        }
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        try {
+            serverSocket.close();
+        } catch ( IOException ignore ) {
+        }
+        for ( final WorkerConnection worker : connected.values() ) {
+            worker.shutdown();
+        }
+        for ( final StartingWorker worker : starting.values() ) {
+            worker.process.destroy();
+        }
+    }
+
+    private void startWorker() {
+        if ( disposed ) {
+            return;
+        }
+
+        final String id = "worker-" + nextId.incrementAndGet();
+        final List<String> command = new ArrayList<String>();
+        command.add( new File( System.getProperty( "java.home" ), "bin/java" ).getAbsolutePath() );
+        command.add( "-Xmx" + heapMb + "m" );
+        for ( final String property : FORWARDED_PROPERTIES ) {
+            if ( System.getProperty( property ) != null ) {
+                command.add( "-D" + property + "=" + System.getProperty( property ) );
+            }
+        }
+        final String jvmArgs = System.getProperty( JVM_ARGS_PROPERTY );
+        if ( jvmArgs != null && !jvmArgs.trim().isEmpty() ) {
+            command.addAll( Arrays.asList( jvmArgs.trim().split( "\\s+" ) ) );
+        }
+        command.add( "-cp" );
+        command.add( classpath );
+        command.add( BuildWorker.class.getName() );
+        command.add( serverSocket.getInetAddress().getHostAddress() );
+        command.add( String.valueOf( serverSocket.getLocalPort() ) );
+        command.add( id );
+        command.add( token );
+
+        final File log = new File( System.getProperty( "java.io.tmpdir" ), "livespark-" + id + ".log" );
+        try {
+            final Process process = new ProcessBuilder( command ).redirectErrorStream( true )
+                                                                  .redirectOutput( ProcessBuilder.Redirect.appendTo( log ) )
+                                                                  .start();
+            starting.put( id, new StartingWorker( process ) );
+            logger.debug( "Started build worker {}. Its log is {}.", id, log );
+        } catch ( IOException e ) {
+            logger.error( "Unable to start build worker " + id + ".", e );
+        }
+    }
+
+    private void replace( final WorkerConnection worker ) {
+        idle.remove( worker );
+        if ( connected.remove( worker.getId() ) != null ) {
+            worker.kill();
+            if ( worker.getProcess() != null ) {
+                logger.warn( "Replacing build worker {}.", worker.getId() );
+                startWorker();
+            }
+        }
+    }
+
+    private void acceptWorkers() {
+        while ( !disposed ) {
+            try {
+                final Socket socket = serverSocket.accept();
+                // The handshake runs on its own thread, so that a connection that never introduces itself does not
+                // hold up the workers behind it.
+                execService.submit( new Runnable() {
+
+                    @Override
+                    public void run() {
+                        handshake( socket );
+                    }
+                } );
+            } catch ( IOException e ) {
+                if ( !disposed ) {
+                    logger.warn( "Unable to accept a build worker connection.", e );
+                }
+            }
+        }
+    }
+
+    /*
+     * Only workers started by this server are accepted. They prove it with the token they were started with, and are
+     * matched to their process by their id.
+     */
+    private void handshake( final Socket socket ) {
+        try {
+            socket.setTcpNoDelay( true );
+            socket.setSoTimeout( HELLO_TIMEOUT_MS );
+
+            final DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+            if ( in.readByte() != WorkerProtocol.HELLO || in.readInt() != WorkerProtocol.VERSION ) {
+                logger.warn( "Rejecting build worker connection from {} with an unknown protocol.", socket.getRemoteSocketAddress() );
+                socket.close();
+                return;
+            }
+            final String workerToken = WorkerProtocol.readString( in, token.length() );
+            if ( !MessageDigest.isEqual( token.getBytes( "UTF-8" ), workerToken.getBytes( "UTF-8" ) ) ) {
+                logger.warn( "Rejecting build worker connection from {} with an invalid token.", socket.getRemoteSocketAddress() );
+                socket.close();
+                return;
+            }
+            final String id = WorkerProtocol.readString( in, MAX_ID_LENGTH );
+            final StartingWorker started = starting.remove( id );
+            if ( started == null ) {
+                logger.warn( "Rejecting build worker connection from {}, because worker {} is not starting.", socket.getRemoteSocketAddress(), id );
+                socket.close();
+                return;
+            }
+
+            final WorkerConnection worker = new WorkerConnection( id, started.process, socket, in );
+            startFailures.set( 0 );
+            connected.put( id, worker );
+            worker.startReading( execService );
+            idle.add( worker );
+            logger.info( "Build worker {} connected from {}.", id, socket.getRemoteSocketAddress() );
+        } catch ( IOException e ) {
+            if ( !disposed ) {
+                logger.warn( "Unable to accept the build worker connection from " + socket.getRemoteSocketAddress() + ".", e );
+            }
+            try {
+                socket.close();
+            } catch ( IOException ignore ) {
+            }
+        }
+    }
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.worker;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The server side of the connection to one build worker. A worker that sends nothing, not even a heartbeat, for
+ * {@value #HEARTBEAT_TIMEOUT_MS} ms is considered dead and is killed, failing the request it was running.
+ */
+class WorkerConnection {
+
+    private static final Logger logger = LoggerFactory.getLogger( WorkerConnection.class );
+
+    private static final int HEARTBEAT_TIMEOUT_MS = 30000;
+    private static final long CANCEL_GRACE_MS = 10000;
+
+    /*
+     * The request a worker is running, completed by the reader thread.
+     */
+    private static class Execution {
+
+        final InvocationOutputHandler outputHandler;
+        final CountDownLatch done = new CountDownLatch( 1 );
+        volatile boolean completed = false;
+        volatile int exitCode = 1;
+        volatile String failure;
+
+        Execution( final InvocationOutputHandler outputHandler ) {
+            this.outputHandler = outputHandler;
+        }
+    }
+
+    private final String id;
+    private final Process process;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private volatile boolean alive = true;
+    private volatile Execution current;
+
+    WorkerConnection( final String id,
+                      final Process process,
+                      final Socket socket,
+                      final DataInputStream in ) throws IOException {
+        this.id = id;
+        this.process = process;
+        this.socket = socket;
+        this.in = in;
+        this.out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+        socket.setSoTimeout( HEARTBEAT_TIMEOUT_MS );
+    }
+
+    String getId() {
+        return id;
+    }
+
+    /**
+     * @return The worker process, or null if the worker was not started by this server.
+     */
+    Process getProcess() {
+        return process;
+    }
+
+    boolean isAlive() {
+        return alive && ( process == null || isRunning( process ) );
+    }
+
+    void startReading( final ExecutorService execService ) {
+        execService.submit( new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    while ( true ) {
+                        read( in.readByte() );
+                    }
+                } catch ( SocketTimeoutException e ) {
+                    logger.warn( "Build worker {} missed its heartbeats and is stopped.", id );
+                } catch ( IOException e ) {
+                    if ( alive ) {
+                        logger.warn( "Lost the connection to build worker " + id + ".", e );
+                    }
+                } finally {
+                    kill();
+                }
+            }
+        } );
+    }
+
+    private void read( final byte type ) throws IOException {
+        final Execution execution = current;
+        switch ( type ) {
+            case WorkerProtocol.HEARTBEAT:
+                break;
+            case WorkerProtocol.OUTPUT:
+                final String line = WorkerProtocol.readString( in );
+                if ( execution != null && execution.outputHandler != null ) {
+                    execution.outputHandler.consumeLine( line );
+                }
+                break;
+            case WorkerProtocol.RESULT:
+                final int exitCode = in.readInt();
+                final String failure = WorkerProtocol.readString( in );
+                if ( execution != null ) {
+                    execution.exitCode = exitCode;
+                    execution.failure = failure.isEmpty() ? null : failure;
+                    execution.completed = true;
+                    current = null;
+                    execution.done.countDown();
+                }
+                break;
+            default:
+                throw new IOException( "Unexpected message type " + type + " from build worker " + id );
+        }
+    }
+
+    /**
+     * Runs the given request on the worker and blocks until it completes. Interrupting the calling thread cancels the
+     * request.
+     *
+     * @param timeoutMs
+     *            How long the request may run before the worker is killed.
+     */
+    InvocationResult execute( final InvocationRequest request,
+                              final long timeoutMs ) throws MavenInvocationException {
+        final Execution execution = new Execution( request.getOutputHandler( null ) );
+        current = execution;
+        try {
+            synchronized ( out ) {
+                out.writeByte( WorkerProtocol.RUN );
+                WorkerProtocol.writeRequest( out, request );
+                out.flush();
+            }
+        } catch ( IOException e ) {
+            kill();
+            throw new MavenInvocationException( "Unable to send the build to worker " + id, e );
+        }
+
+        try {
+            if ( !execution.done.await( timeoutMs, TimeUnit.MILLISECONDS ) ) {
+                kill();
+                throw new MavenInvocationException( "The build did not finish within " + timeoutMs / 1000 + " seconds on worker " + id );
+            }
+        } catch ( InterruptedException e ) {
+            cancel( execution );
+            Thread.currentThread().interrupt();
+            throw new CancellationException( "The build was cancelled." );
+        }
+
+        if ( !execution.completed ) {
+            throw new MavenInvocationException( "Build worker " + id + " stopped while building." );
+        }
+
+        return toInvocationResult( execution );
+    }
+
+    private void cancel( final Execution execution ) {
+        try {
+            synchronized ( out ) {
+                out.writeByte( WorkerProtocol.CANCEL );
+                out.flush();
+            }
+            if ( execution.done.await( CANCEL_GRACE_MS, TimeUnit.MILLISECONDS ) ) {
+                return;
+            }
+        } catch ( IOException | InterruptedException e ) {
+            // Killed below.
+        }
+
+        logger.warn( "Build worker {} did not stop its build after it was cancelled and is killed.", id );
+        kill();
+    }
+
+    void shutdown() {
+        alive = false;
+        try {
+            synchronized ( out ) {
+                out.writeByte( WorkerProtocol.SHUTDOWN );
+                out.flush();
+            }
+        } catch ( IOException e ) {
+            // Killed below.
+        }
+        kill();
+    }
+
+    void kill() {
+        alive = false;
+        try {
+            socket.close();
+        } catch ( IOException ignore ) {
+        }
+        if ( process != null ) {
+            process.destroy();
+        }
+
+        final Execution execution = current;
+        if ( execution != null ) {
+            current = null;
+            execution.done.countDown();
+        }
+    }
+
+    private static boolean isRunning( final Process process ) {
+        try {
+            process.exitValue();
+            return false;
+        } catch ( IllegalThreadStateException e ) {
+            return true;
+        }
+    }
+
+    private static InvocationResult toInvocationResult( final Execution execution ) {
+        final CommandLineException executionException = execution.failure != null ? new CommandLineException( execution.failure ) : null;
+
+        return new InvocationResult() {
+
+            @Override
+            public int getExitCode() {
+                return execution.exitCode;
+            }
+
+            @Override
+            public CommandLineException getExecutionException() {
+                return executionException;
+            }
+        };
+    }
+
+}
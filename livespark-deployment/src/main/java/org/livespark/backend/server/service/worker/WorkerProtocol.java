@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.service.worker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.InvocationRequest;
+
+/**
+ * The messages exchanged between the server and its build workers.
+ * <p>
+ * A worker connects to the server over TCP and introduces itself with {@link #HELLO}, which carries the token the server
+ * started it with. It then runs one request at a
+ * time: the server sends {@link #RUN}, the worker streams {@link #OUTPUT} lines and ends with {@link #RESULT}. While
+ * connected, the worker sends a {@link #HEARTBEAT} every few seconds, whether or not it is busy. The server may send
+ * {@link #CANCEL} while a request runs, and {@link #SHUTDOWN} at any time.
+ * <p>
+ * Every message is a type byte followed by its fields. Strings are a length followed by UTF-8 bytes, so output lines
+ * of any length can be sent. Requests refer to the workspace by path, which only requires that the worker sees the same
+ * file system as the server.
+ */
+public final class WorkerProtocol {
+
+    public static final int VERSION = 2;
+
+    /** Worker to server: protocol version (int), token (string), worker id (string). */
+    public static final byte HELLO = 1;
+
+    /** Server to worker: an invocation request. */
+    public static final byte RUN = 2;
+
+    /** Worker to server: one line of output (string). */
+    public static final byte OUTPUT = 3;
+
+    /** Worker to server: the exit code (int) and a failure message (string, empty if there is none). */
+    public static final byte RESULT = 4;
+
+    /** Worker to server: no fields. */
+    public static final byte HEARTBEAT = 5;
+
+    /** Server to worker: stop the running request. No fields. */
+    public static final byte CANCEL = 6;
+
+    /** Server to worker: exit. No fields. */
+    public static final byte SHUTDOWN = 7;
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private WorkerProtocol() {
+    }
+
+    public static void writeString( final DataOutputStream out, final String value ) throws IOException {
+        final byte[] bytes = ( value != null ? value : "" ).getBytes( UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    public static String readString( final DataInputStream in ) throws IOException {
+        return readString( in, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Reads a string from a peer that is not trusted yet, which must not make the reader allocate more than the given
+     * number of bytes.
+     */
+    public static String readString( final DataInputStream in, final int maxLength ) throws IOException {
+        final int length = in.readInt();
+        if ( length < 0 || length > maxLength ) {
+            throw new IOException( "Invalid string length " + length );
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully( bytes );
+
+        return new String( bytes, UTF_8 );
+    }
+
+    public static void writeRequest( final DataOutputStream out, final InvocationRequest request ) throws IOException {
+        final File pomFile = request.getPomFile();
+        final File baseDirectory = request.getBaseDirectory( null );
+        final File localRepository = request.getLocalRepositoryDirectory( null );
+
+        writeString( out, pomFile.getAbsolutePath() );
+        writeString( out, baseDirectory != null ? baseDirectory.getAbsolutePath() : "" );
+        writeString( out, localRepository != null ? localRepository.getAbsolutePath() : "" );
+        writeStrings( out, request.getGoals() );
+        writeStrings( out, request.getProfiles() );
+
+        final Properties properties = request.getProperties() != null ? request.getProperties() : new Properties();
+        out.writeInt( properties.size() );
+        for ( final Map.Entry<Object, Object> property : properties.entrySet() ) {
+            writeString( out, String.valueOf( property.getKey() ) );
+            writeString( out, String.valueOf( property.getValue() ) );
+        }
+
+        out.writeBoolean( request.isOffline() );
+        out.writeBoolean( request.isUpdateSnapshots() );
+        out.writeBoolean( request.isShowErrors() );
+        out.writeBoolean( request.isDebug() );
+    }
+
+    /**
+     * @return The request, without an output handler.
+     */
+    public static InvocationRequest readRequest( final DataInputStream in ) throws IOException {
+        final DefaultInvocationRequest request = new DefaultInvocationRequest();
+
+        request.setPomFile( new File( readString( in ) ) );
+        final String baseDirectory = readString( in );
+        if ( !baseDirectory.isEmpty() ) {
+            request.setBaseDirectory( new File( baseDirectory ) );
+        }
+        final String localRepository = readString( in );
+        if ( !localRepository.isEmpty() ) {
+            request.setLocalRepositoryDirectory( new File( localRepository ) );
+        }
+        request.setGoals( readStrings( in ) );
+        request.setProfiles( readStrings( in ) );
+
+        final Properties properties = new Properties();
+        final int propertyCount = in.readInt();
+        for ( int i = 0; i < propertyCount; i++ ) {
+            properties.setProperty( readString( in ), readString( in ) );
+        }
+        request.setProperties( properties );
+
+        request.setOffline( in.readBoolean() );
+        request.setUpdateSnapshots( in.readBoolean() );
+        request.setShowErrors( in.readBoolean() );
+        request.setDebug( in.readBoolean() );
+
+        return request;
+    }
+
+    private static void writeStrings( final DataOutputStream out, final List<String> values ) throws IOException {
+        if ( values == null ) {
+            out.writeInt( 0 );
+            return;
+        }
+
+        out.writeInt( values.size() );
+        for ( final String value : values ) {
+            writeString( out, value );
+        }
+    }
+
+    private static List<String> readStrings( final DataInputStream in ) throws IOException {
+        final int count = in.readInt();
+        final List<String> values = new ArrayList<String>( count );
+        for ( int i = 0; i < count; i++ ) {
+            values.add( readString( in ) );
+        }
+
+        return values;
+    }
+
+}
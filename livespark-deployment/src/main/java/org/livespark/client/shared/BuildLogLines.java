@@ -0,0 +1,47 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.client.shared;
+
+import java.util.List;
+
+import org.jboss.errai.common.client.api.annotations.MapsTo;
+import org.jboss.errai.common.client.api.annotations.Portable;
+
+/**
+ * Consecutive lines of build output, starting at the given line index.
+ */
+@Portable
+public class BuildLogLines {
+
+    private final int firstLine;
+    private final List<String> lines;
+
+    public BuildLogLines( @MapsTo("firstLine") int firstLine,
+                          @MapsTo("lines") List<String> lines ) {
+        this.firstLine = firstLine;
+        this.lines = lines;
+    }
+
+    public int getFirstLine() {
+        return firstLine;
+    }
+
+    public List<String> getLines() {
+        return lines;
+    }
+
+}
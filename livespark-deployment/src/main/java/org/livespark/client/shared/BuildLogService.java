@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.client.shared;
+
+import org.jboss.errai.bus.server.annotations.Remote;
+
+/**
+ * Gives clients access to build output lines they no longer hold in memory.
+ */
+@Remote
+public interface BuildLogService {
+
+    /**
+     * @param from
+     *            Index of the first requested line of the caller's current build output, inclusive.
+     * @param to
+     *            Index of the last requested line, exclusive.
+     * @return The requested lines that the server still remembers.
+     */
+    BuildLogLines getLines( int from, int to );
+
+}
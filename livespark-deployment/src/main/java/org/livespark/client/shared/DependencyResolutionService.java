@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.client.shared;
+
+import java.util.List;
+
+import org.jboss.errai.bus.server.annotations.Remote;
+
+/**
+ * Reports the resolution of project dependencies into the local repository shared by all builds.
+ */
+@Remote
+public interface DependencyResolutionService {
+
+    List<DependencyResolutionStatus> getStatuses();
+
+    /**
+     * @return True if builds of projects whose dependencies were resolved run offline against the shared local
+     *         repository.
+     */
+    boolean isOffline();
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.client.shared;
+
+import org.jboss.errai.common.client.api.annotations.MapsTo;
+import org.jboss.errai.common.client.api.annotations.Portable;
+
+/**
+ * How far the dependencies of one project have been resolved into the shared local repository.
+ */
+@Portable
+public class DependencyResolutionStatus {
+
+    public enum State {
+        PENDING, RESOLVING, RESOLVED, FAILED
+    }
+
+    private final String projectName;
+    private final State state;
+    private final String detail;
+
+    public DependencyResolutionStatus( @MapsTo("projectName") String projectName,
+                                       @MapsTo("state") State state,
+                                       @MapsTo("detail") String detail ) {
+        this.projectName = projectName;
+        this.state = state;
+        this.detail = detail;
+    }
+
+    public String getProjectName() {
+        return projectName;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return Why resolution failed, or null.
+     */
+    public String getDetail() {
+        return detail;
+    }
+
+}
@@ -27,4 +27,11 @@ public interface GwtWarBuildService extends BuildService {
 
     BuildResults buildAndDeployDevMode( Project project );
 
+    /**
+     * Cancels the queued and running builds of the given project that were requested by the current session.
+     *
+     * @return True if a build was cancelled.
+     */
+    boolean cancelBuild( Project project );
+
 }
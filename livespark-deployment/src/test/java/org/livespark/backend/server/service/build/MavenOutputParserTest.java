@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.build;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+
+import org.guvnor.common.services.project.builder.model.BuildMessage;
+import org.guvnor.common.services.project.model.Project;
+import org.guvnor.common.services.shared.message.Level;
+import org.junit.Before;
+import org.junit.Test;
+import org.uberfire.backend.vfs.Path;
+
+public class MavenOutputParserTest {
+
+    private static final String ROOT = "default://master@ls-playground/project";
+
+    private File workspace;
+    private MavenOutputParser parser;
+
+    @Before
+    public void setup() {
+        final Path rootPath = mock( Path.class );
+        when( rootPath.toURI() ).thenReturn( ROOT );
+        final Project project = mock( Project.class );
+        when( project.getRootPath() ).thenReturn( rootPath );
+
+        workspace = new File( System.getProperty( "java.io.tmpdir" ), "workspace" ).getAbsoluteFile();
+        parser = new MavenOutputParser( project, workspace );
+    }
+
+    @Test
+    public void testJavacError() {
+        final BuildMessage message = parser.parse( "[ERROR] " + source( "src/main/java/org/Foo.java" ) + ":[12,5] cannot find symbol" );
+
+        assertNotNull( message );
+        assertEquals( Level.ERROR, message.getLevel() );
+        assertEquals( 12, message.getLine() );
+        assertEquals( 5, message.getColumn() );
+        assertEquals( "cannot find symbol", message.getText() );
+        assertEquals( ROOT + "/src/main/java/org/Foo.java", message.getPath().toURI() );
+        assertEquals( "Foo.java", message.getPath().getFileName() );
+        assertTrue( MavenOutputParser.isFatal( message ) );
+    }
+
+    @Test
+    public void testJavacWarningWithoutColumn() {
+        final BuildMessage message = parser.parse( "[WARNING] " + source( "src/main/java/org/Foo.java" ) + ":[3] deprecated" );
+
+        assertEquals( Level.WARNING, message.getLevel() );
+        assertEquals( 3, message.getLine() );
+        assertEquals( 0, message.getColumn() );
+        assertFalse( MavenOutputParser.isFatal( message ) );
+    }
+
+    @Test
+    public void testFileOutsideOfWorkspace() {
+        final String file = new File( "/elsewhere/Foo.java" ).getAbsolutePath();
+        final BuildMessage message = parser.parse( "[ERROR] " + file + ":[7,1] broken" );
+
+        assertNull( message.getPath() );
+        assertEquals( file + ":7: broken", message.getText() );
+    }
+
+    @Test
+    public void testGwtErrors() {
+        assertNull( parser.parse( "[INFO]    Tracing compile failure path for type 'org.Foo'" ) );
+        assertNull( parser.parse( "[INFO]       [ERROR] Errors in 'file:" + source( "src/main/java/org/Foo.java" ) + "'" ) );
+
+        final BuildMessage message = parser.parse( "[INFO]          [ERROR] Line 42: No source code is available for type org.Bar" );
+
+        assertEquals( Level.ERROR, message.getLevel() );
+        assertEquals( 42, message.getLine() );
+        assertEquals( "No source code is available for type org.Bar", message.getText() );
+        assertEquals( ROOT + "/src/main/java/org/Foo.java", message.getPath().toURI() );
+    }
+
+    @Test
+    public void testGwtLineErrorWithoutFileIsIgnored() {
+        assertNull( parser.parse( "[INFO]          [ERROR] Line 42: No source code is available for type org.Bar" ) );
+    }
+
+    @Test
+    public void testGoalFailure() {
+        final BuildMessage message = parser.parse( "[ERROR] Failed to execute goal org.apache.maven.plugins:maven-compiler-plugin:3.1:compile" );
+
+        assertEquals( Level.ERROR, message.getLevel() );
+        assertNull( message.getPath() );
+        assertEquals( "Failed to execute goal org.apache.maven.plugins:maven-compiler-plugin:3.1:compile", message.getText() );
+        assertFalse( MavenOutputParser.isFatal( message ) );
+    }
+
+    @Test
+    public void testRepeatedMessageIsReportedOnce() {
+        final String line = "[ERROR] " + source( "src/main/java/org/Foo.java" ) + ":[12,5] cannot find symbol";
+
+        assertNotNull( parser.parse( line ) );
+        assertNull( parser.parse( line ) );
+        assertNotNull( parser.parse( "[ERROR] " + source( "src/main/java/org/Foo.java" ) + ":[13,5] cannot find symbol" ) );
+        assertEquals( 2, parser.getMessages().size() );
+    }
+
+    @Test
+    public void testOtherLinesAreIgnored() {
+        assertNull( parser.parse( "[INFO] BUILD SUCCESS" ) );
+        assertNull( parser.parse( "[ERROR] " ) );
+        assertNull( parser.parse( "[WARNING] Using platform encoding" ) );
+        assertTrue( parser.getMessages().isEmpty() );
+    }
+
+    private String source( final String relativePath ) {
+        return new File( workspace, relativePath ).getAbsolutePath();
+    }
+}
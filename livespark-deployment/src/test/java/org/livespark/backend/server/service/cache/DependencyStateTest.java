@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DependencyStateTest {
+
+    private static final String PARENT = "<parent><groupId>org.example</groupId><artifactId>parent</artifactId><version>1.0</version></parent>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File repositoryDir;
+    private File pomXml;
+
+    @Before
+    public void setup() throws Exception {
+        repositoryDir = folder.newFolder( "repository" );
+        pomXml = new File( folder.newFolder( "workspace" ), "pom.xml" );
+    }
+
+    @Test
+    public void testResolverBookkeepingIsIgnored() throws Exception {
+        project( "", dependency( "lib", "1.0-SNAPSHOT" ) );
+        write( "org/example/lib/1.0-SNAPSHOT/lib-1.0-SNAPSHOT.jar", "jar" );
+        final String state = DependencyState.of( pomXml, repositoryDir );
+
+        write( "org/example/lib/1.0-SNAPSHOT/maven-metadata-remote.xml", "checked" );
+        write( "org/example/lib/1.0-SNAPSHOT/_remote.repositories", "checked" );
+        write( "org/example/lib/1.0-SNAPSHOT/resolver-status.properties", "checked" );
+        write( "org/example/lib/maven-metadata-remote.xml", "checked" );
+
+        assertEquals( state, DependencyState.of( pomXml, repositoryDir ) );
+
+        write( "org/example/lib/1.0-SNAPSHOT/lib-1.0-SNAPSHOT.jar", "updated" );
+
+        assertFalse( state.equals( DependencyState.of( pomXml, repositoryDir ) ) );
+    }
+
+    @Test
+    public void testVersionManagedByParent() throws Exception {
+        parent( "<properties><lib.version>2.0-SNAPSHOT</lib.version></properties>"
+                + "<dependencyManagement><dependencies>" + dependency( "lib", "${lib.version}" ) + "</dependencies></dependencyManagement>" );
+        project( PARENT, dependency( "lib", null ) );
+        write( "org/example/lib/2.0-SNAPSHOT/lib-2.0-SNAPSHOT.jar", "jar" );
+        final String state = DependencyState.of( pomXml, repositoryDir );
+
+        // Other versions of the artifact are not used.
+        write( "org/example/lib/1.0-SNAPSHOT/lib-1.0-SNAPSHOT.jar", "jar" );
+        assertEquals( state, DependencyState.of( pomXml, repositoryDir ) );
+
+        write( "org/example/lib/2.0-SNAPSHOT/lib-2.0-SNAPSHOT.jar", "updated" );
+        assertFalse( state.equals( DependencyState.of( pomXml, repositoryDir ) ) );
+    }
+
+    @Test
+    public void testReleaseManagedByParentIsPinned() throws Exception {
+        parent( "<dependencyManagement><dependencies>" + dependency( "lib", "2.0" ) + "</dependencies></dependencyManagement>" );
+        project( PARENT, dependency( "lib", null ) );
+        write( "org/example/lib/2.0/lib-2.0.jar", "jar" );
+        final String state = DependencyState.of( pomXml, repositoryDir );
+
+        write( "org/example/lib/2.0/lib-2.0.jar", "touched" );
+        write( "org/example/lib/3.0/lib-3.0.jar", "jar" );
+
+        assertEquals( state, DependencyState.of( pomXml, repositoryDir ) );
+    }
+
+    @Test
+    public void testRangeCoversTheSelectedVersion() throws Exception {
+        project( "", dependency( "lib", "[1.0,2.0)" ) );
+        write( "org/example/lib/1.0/lib-1.0.jar", "jar" );
+        write( "org/example/lib/1.5/lib-1.5.jar", "jar" );
+        final String state = DependencyState.of( pomXml, repositoryDir );
+
+        write( "org/example/lib/2.5/lib-2.5.jar", "jar" );
+        assertEquals( state, DependencyState.of( pomXml, repositoryDir ) );
+
+        write( "org/example/lib/1.7/lib-1.7.jar", "jar" );
+        assertFalse( state.equals( DependencyState.of( pomXml, repositoryDir ) ) );
+    }
+
+    private void project( final String parent,
+                          final String dependencies ) throws Exception {
+        FileUtils.writeStringToFile( pomXml, "<project>" + parent + "<artifactId>app</artifactId>"
+                + "<dependencies>" + dependencies + "</dependencies></project>", "UTF-8" );
+    }
+
+    private void parent( final String content ) throws Exception {
+        write( "org/example/parent/1.0/parent-1.0.pom", "<project><groupId>org.example</groupId><artifactId>parent</artifactId>"
+                + "<version>1.0</version>" + content + "</project>" );
+    }
+
+    private static String dependency( final String artifactId,
+                                      final String version ) {
+        return "<dependency><groupId>org.example</groupId><artifactId>" + artifactId + "</artifactId>"
+                + ( version != null ? "<version>" + version + "</version>" : "" ) + "</dependency>";
+    }
+
+    private void write( final String path,
+                        final String content ) throws Exception {
+        FileUtils.writeStringToFile( new File( repositoryDir, path ), content, "UTF-8" );
+    }
+}
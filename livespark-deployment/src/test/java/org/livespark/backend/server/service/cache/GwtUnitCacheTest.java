@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GwtUnitCacheTest {
+
+    private static final String CACHE_DIR_PROPERTY = "livespark.gwt.unit_cache.dir";
+    private static final String UNIT_CACHE_DIR = "gwt-unitCache";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GwtUnitCache cache;
+    private File pomXml;
+
+    @Before
+    public void setup() throws Exception {
+        System.setProperty( CACHE_DIR_PROPERTY, new File( folder.getRoot(), "cache" ).getAbsolutePath() );
+        cache = new GwtUnitCache();
+        cache.setup();
+
+        pomXml = new File( folder.newFolder( "workspace" ), "pom.xml" );
+        FileUtils.writeStringToFile( pomXml, "<project><artifactId>app</artifactId><dependencies><dependency>"
+                + "<groupId>org.example</groupId><artifactId>lib</artifactId><version>1.0</version>"
+                + "</dependency></dependencies></project>", "UTF-8" );
+    }
+
+    @After
+    public void clearProperties() {
+        System.clearProperty( CACHE_DIR_PROPERTY );
+    }
+
+    @Test
+    public void testCompiledUnitsAreShared() throws Exception {
+        final GwtUnitCache.Lease first = cache.lease( pomXml );
+        write( unitCacheDir( first ), "units-1", "compiled" );
+        first.release();
+
+        final GwtUnitCache.Lease second = cache.lease( pomXml );
+        assertEquals( "compiled", FileUtils.readFileToString( new File( unitCacheDir( second ), "units-1" ), "UTF-8" ) );
+        second.release();
+    }
+
+    @Test
+    public void testCompactedUnitsAreReplaced() throws Exception {
+        final GwtUnitCache.Lease first = cache.lease( pomXml );
+        write( unitCacheDir( first ), "units-1", "compiled" );
+        first.release();
+
+        final GwtUnitCache.Lease second = cache.lease( pomXml );
+        FileUtils.forceDelete( new File( unitCacheDir( second ), "units-1" ) );
+        write( unitCacheDir( second ), "units-2", "compacted" );
+        second.release();
+
+        final File third = unitCacheDir( cache.lease( pomXml ) );
+        assertFalse( new File( third, "units-1" ).exists() );
+        assertTrue( new File( third, "units-2" ).exists() );
+    }
+
+    /*
+     * @return The directory GWT keeps its cache in when configured with the lease.
+     */
+    private static File unitCacheDir( final GwtUnitCache.Lease lease ) {
+        final InvocationRequest request = new DefaultInvocationRequest();
+        lease.configure( request );
+
+        return new File( request.getProperties().getProperty( "gwt.persistentunitcachedir" ), UNIT_CACHE_DIR );
+    }
+
+    private static void write( final File dir,
+                               final String name,
+                               final String content ) throws Exception {
+        FileUtils.writeStringToFile( new File( dir, name ), content, "UTF-8" );
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.cache;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.livespark.backend.server.service.maven.OfflineDependencyResolver;
+import org.livespark.project.WorkspaceManifest;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WarCacheTest {
+
+    private static final String CACHE_DIR_PROPERTY = "livespark.war_cache.dir";
+    private static final String MAX_SIZE_PROPERTY = "livespark.war_cache.max_size_mb";
+
+    private static final int WAR_SIZE = 400 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private OfflineDependencyResolver dependencyResolver;
+
+    @InjectMocks
+    private WarCache cache;
+
+    private File cacheDir;
+    private File repositoryDir;
+
+    @Before
+    public void setup() throws Exception {
+        cacheDir = new File( folder.getRoot(), "cache" );
+        repositoryDir = folder.newFolder( "repository" );
+        System.setProperty( CACHE_DIR_PROPERTY, cacheDir.getAbsolutePath() );
+        System.setProperty( MAX_SIZE_PROPERTY, "1" );
+        when( dependencyResolver.getRepositoryDir() ).thenReturn( repositoryDir );
+
+        cache.setup();
+    }
+
+    @After
+    public void clearProperties() {
+        System.clearProperty( CACHE_DIR_PROPERTY );
+        System.clearProperty( MAX_SIZE_PROPERTY );
+    }
+
+    @Test
+    public void testStoreAndRestore() throws Exception {
+        cache.store( "a", Arrays.asList( war( "built", "app.war", 'a' ) ) );
+
+        final File targetDir = folder.newFolder( "target" );
+        FileUtils.writeStringToFile( new File( targetDir, "stale.war" ), "stale", "UTF-8" );
+
+        assertTrue( cache.restore( "a", targetDir ) );
+        assertEquals( Arrays.asList( "app.war" ), Arrays.asList( targetDir.list() ) );
+        assertEquals( WAR_SIZE, new File( targetDir, "app.war" ).length() );
+    }
+
+    @Test
+    public void testRestoreUnknownKey() throws Exception {
+        assertFalse( cache.restore( "unknown", folder.newFolder( "target" ) ) );
+    }
+
+    @Test
+    public void testEmptyBuildIsNotStored() throws Exception {
+        cache.store( "a", Collections.<File>emptyList() );
+
+        assertFalse( cache.restore( "a", folder.newFolder( "target" ) ) );
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+        cache.store( "a", Arrays.asList( war( "a", "app.war", 'a' ) ) );
+        cache.store( "b", Arrays.asList( war( "b", "app.war", 'b' ) ) );
+        assertTrue( cache.restore( "a", folder.newFolder( "target-a" ) ) );
+
+        cache.store( "c", Arrays.asList( war( "c", "app.war", 'c' ) ) );
+
+        assertTrue( cache.restore( "a", folder.newFolder( "target-a2" ) ) );
+        assertFalse( cache.restore( "b", folder.newFolder( "target-b" ) ) );
+        assertTrue( cache.restore( "c", folder.newFolder( "target-c" ) ) );
+        assertFalse( new File( cacheDir, "b" ).exists() );
+    }
+
+    @Test
+    public void testEntriesSurviveRestart() throws Exception {
+        cache.store( "a", Arrays.asList( war( "a", "app.war", 'a' ) ) );
+        final File partial = new File( cacheDir, ".b-partial" );
+        partial.mkdirs();
+
+        final WarCache restarted = new WarCache();
+        restarted.setup();
+
+        assertTrue( restarted.restore( "a", folder.newFolder( "target" ) ) );
+        assertFalse( partial.exists() );
+    }
+
+    @Test
+    public void testEntriesOfOtherServerBuildsAreDropped() throws Exception {
+        cache.store( "a", Arrays.asList( war( "a", "app.war", 'a' ) ) );
+        FileUtils.writeStringToFile( new File( cacheDir, "server-build" ), "other", "UTF-8" );
+
+        final WarCache upgraded = new WarCache();
+        upgraded.setup();
+
+        assertFalse( upgraded.restore( "a", folder.newFolder( "target" ) ) );
+        assertFalse( new File( cacheDir, "a" ).exists() );
+    }
+
+    @Test
+    public void testZeroSizeDisablesCache() throws Exception {
+        System.setProperty( MAX_SIZE_PROPERTY, "0" );
+        final WarCache disabled = new WarCache();
+        disabled.setup();
+
+        disabled.store( "a", Arrays.asList( war( "a", "app.war", 'a' ) ) );
+
+        assertFalse( disabled.isEnabled() );
+        assertFalse( disabled.restore( "a", folder.newFolder( "target" ) ) );
+        assertNull( disabled.getKey( folder.getRoot(), "production" ) );
+    }
+
+    @Test
+    public void testKeyRequiresSynchronizedWorkspace() throws Exception {
+        assertNull( cache.getKey( folder.newFolder( "workspace" ), "production" ) );
+    }
+
+    @Test
+    public void testKeyCoversContentBuildModeAndDependencies() throws Exception {
+        final File workspace = workspace( "<project><dependencies><dependency><groupId>org.example</groupId>"
+                + "<artifactId>lib</artifactId><version>1.0-SNAPSHOT</version></dependency></dependencies></project>" );
+        final String key = cache.getKey( workspace, "production" );
+
+        assertNotNull( key );
+        assertEquals( key, cache.getKey( workspace, "production" ) );
+        assertFalse( key.equals( cache.getKey( workspace, "development" ) ) );
+
+        FileUtils.writeStringToFile( new File( repositoryDir, "org/example/lib/1.0-SNAPSHOT/lib-1.0-SNAPSHOT.jar" ), "updated", "UTF-8" );
+        final String updatedKey = cache.getKey( workspace, "production" );
+        assertFalse( key.equals( updatedKey ) );
+
+        final WorkspaceManifest manifest = WorkspaceManifest.load( workspace );
+        manifest.put( "src/main/java/Foo.java", "changed" );
+        manifest.save();
+        assertFalse( updatedKey.equals( cache.getKey( workspace, "production" ) ) );
+    }
+
+    private File war( final String dir,
+                      final String name,
+                      final char content ) throws Exception {
+        final char[] chars = new char[WAR_SIZE];
+        Arrays.fill( chars, content );
+        final File war = new File( folder.getRoot(), "wars/" + dir + "/" + name );
+        FileUtils.writeStringToFile( war, new String( chars ), "US-ASCII" );
+
+        return war;
+    }
+
+    private File workspace( final String pom ) throws Exception {
+        final File workspace = folder.newFolder( "workspace" );
+        FileUtils.writeStringToFile( new File( workspace, "pom.xml" ), pom, "UTF-8" );
+        final WorkspaceManifest manifest = WorkspaceManifest.load( workspace );
+        manifest.put( "pom.xml", "hash" );
+        manifest.save();
+
+        return workspace;
+    }
+}
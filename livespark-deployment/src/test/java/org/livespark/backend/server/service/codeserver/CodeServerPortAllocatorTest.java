@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.codeserver;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+import org.livespark.backend.server.service.build.CodeServerPortHandle;
+
+public class CodeServerPortAllocatorTest {
+
+    @After
+    public void clearPorts() {
+        System.clearProperty( CodeServerPortAllocator.PORTS_PROPERTY );
+    }
+
+    @Test
+    public void testLeasesEveryPortOnce() throws Exception {
+        final List<Integer> ports = findFreePorts( 3 );
+        final CodeServerPortAllocator allocator = allocator( join( ports ) );
+
+        final Set<Integer> leased = new HashSet<Integer>();
+        for ( int i = 0; i < ports.size(); i++ ) {
+            leased.add( allocator.lease().getPortNumber() );
+        }
+
+        assertEquals( new HashSet<Integer>( ports ), leased );
+        assertEquals( 3, allocator.getLeasedCount() );
+        try {
+            allocator.lease();
+            fail( "Leased more ports than configured." );
+        } catch ( RuntimeException e ) {
+            assertEquals( 3, allocator.getLeasedCount() );
+        }
+    }
+
+    @Test
+    public void testRelinquishedPortIsLeasedAgain() throws Exception {
+        final List<Integer> ports = findFreePorts( 1 );
+        final CodeServerPortAllocator allocator = allocator( join( ports ) );
+
+        final CodeServerPortHandle handle = allocator.lease();
+        handle.relinquishPort();
+
+        assertEquals( 0, allocator.getLeasedCount() );
+        assertEquals( ports.get( 0 ), allocator.lease().getPortNumber() );
+    }
+
+    @Test
+    public void testRelinquishingTwiceReleasesOnce() throws Exception {
+        final List<Integer> ports = findFreePorts( 1 );
+        final CodeServerPortAllocator allocator = allocator( join( ports ) );
+
+        final CodeServerPortHandle first = allocator.lease();
+        first.relinquishPort();
+        final CodeServerPortHandle second = allocator.lease();
+        first.relinquishPort();
+
+        assertEquals( 1, allocator.getLeasedCount() );
+        assertEquals( ports.get( 0 ), second.getPortNumber() );
+        try {
+            first.getPortNumber();
+            fail( "Got the port number of a relinquished handle." );
+        } catch ( RuntimeException e ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPortInUseIsSkipped() throws Exception {
+        final List<Integer> ports = findFreePorts( 2 );
+        final CodeServerPortAllocator allocator = allocator( join( ports ) );
+
+        final ServerSocket taken = new ServerSocket();
+        try {
+            taken.bind( new InetSocketAddress( ports.get( 0 ) ) );
+
+            assertEquals( ports.get( 1 ), allocator.lease().getPortNumber() );
+            try {
+                allocator.lease();
+                fail( "Leased a port that is in use." );
+            } catch ( RuntimeException e ) {
+                assertEquals( 1, allocator.getLeasedCount() );
+            }
+        } finally {
+            taken.close();
+        }
+    }
+
+    @Test
+    public void testRangesAndDuplicates() throws Exception {
+        final List<Integer> ports = findFreePorts( 1 );
+        final int port = ports.get( 0 );
+        final CodeServerPortAllocator allocator = allocator( " " + port + "-" + port + " , " + port );
+
+        assertEquals( Integer.valueOf( port ), allocator.lease().getPortNumber() );
+        try {
+            allocator.lease();
+            fail( "A port listed twice was leased twice." );
+        } catch ( RuntimeException e ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConcurrentLeasesGetDistinctPorts() throws Exception {
+        final List<Integer> ports = findFreePorts( 8 );
+        final CodeServerPortAllocator allocator = allocator( join( ports ) );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final ExecutorService executor = Executors.newFixedThreadPool( ports.size() );
+        try {
+            final List<Future<Integer>> leases = new ArrayList<Future<Integer>>();
+            for ( int i = 0; i < ports.size(); i++ ) {
+                leases.add( executor.submit( new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        return allocator.lease().getPortNumber();
+                    }
+                } ) );
+            }
+            start.countDown();
+
+            final Set<Integer> leased = new HashSet<Integer>();
+            for ( final Future<Integer> lease : leases ) {
+                leased.add( lease.get() );
+            }
+
+            assertEquals( new HashSet<Integer>( ports ), leased );
+            assertEquals( ports.size(), allocator.getLeasedCount() );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static CodeServerPortAllocator allocator( final String ports ) {
+        System.setProperty( CodeServerPortAllocator.PORTS_PROPERTY, ports );
+
+        return new CodeServerPortAllocator();
+    }
+
+    /*
+     * Ports the system handed out as free, which are very likely still free when the test leases them.
+     */
+    private static List<Integer> findFreePorts( final int count ) throws Exception {
+        final List<ServerSocket> sockets = new ArrayList<ServerSocket>();
+        final List<Integer> ports = new ArrayList<Integer>();
+        try {
+            for ( int i = 0; i < count; i++ ) {
+                final ServerSocket socket = new ServerSocket( 0 );
+                sockets.add( socket );
+                ports.add( socket.getLocalPort() );
+            }
+        } finally {
+            for ( final ServerSocket socket : sockets ) {
+                socket.close();
+            }
+        }
+        Collections.sort( ports );
+
+        return ports;
+    }
+
+    private static String join( final List<Integer> ports ) {
+        final StringBuilder joined = new StringBuilder();
+        for ( final Integer port : ports ) {
+            if ( joined.length() > 0 ) {
+                joined.append( ',' );
+            }
+            joined.append( port );
+        }
+
+        return joined.toString();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.codeserver;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GwtModulesTest {
+
+    private static final String ENTRY_POINT_MODULE = "<module><entry-point class=\"org.example.client.App\"/></module>";
+    private static final String LIBRARY_MODULE = "<module><inherits name=\"com.google.gwt.user.User\"/></module>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConfiguredModule() throws Exception {
+        final File pomXml = pom( "<module>org.example.App</module>" );
+        module( "src/main/java", "org.example.App", LIBRARY_MODULE );
+        module( "src/main/resources", "org.example.Other", ENTRY_POINT_MODULE );
+
+        assertEquals( Arrays.asList( "org.example.App" ), GwtModules.find( pomXml ) );
+    }
+
+    @Test
+    public void testConfiguredModuleList() throws Exception {
+        final File pomXml = pom( "<modules><module>org.example.A</module><module> org.example.B </module></modules>" );
+
+        assertEquals( Arrays.asList( "org.example.A", "org.example.B" ), GwtModules.find( pomXml ) );
+    }
+
+    @Test
+    public void testRenamedModule() throws Exception {
+        final File pomXml = pom( "<modules><module>org.example.Fast</module><module>org.example.Full</module></modules>" );
+        module( "src/main/resources", "org.example.Fast", "<!DOCTYPE module>\n<module rename-to=\"org.example.App\">"
+                + "<inherits name=\"org.example.Full\"/></module>" );
+        module( "src/main/resources", "org.example.Full", "<module rename-to='org.example.App'></module>" );
+
+        assertEquals( Arrays.asList( "org.example.App" ), GwtModules.find( pomXml ) );
+    }
+
+    @Test
+    public void testUnconfiguredPluginUsesEntryPointModules() throws Exception {
+        final File pomXml = pom( null );
+        module( "src/main/java", "org.example.Library", LIBRARY_MODULE );
+        module( "src/main/resources", "org.example.App", "<module rename-to=\"app\"><entry-point class=\"org.example.client.App\"/></module>" );
+
+        assertEquals( Arrays.asList( "app" ), GwtModules.find( pomXml ) );
+    }
+
+    @Test
+    public void testNoModules() throws Exception {
+        assertEquals( Collections.<String>emptyList(), GwtModules.find( pom( null ) ) );
+    }
+
+    private File pom( final String configuration ) throws Exception {
+        final File pomXml = new File( folder.getRoot(), "pom.xml" );
+        FileUtils.writeStringToFile( pomXml, "<project><build><plugins><plugin><groupId>org.codehaus.mojo</groupId>"
+                + "<artifactId>gwt-maven-plugin</artifactId>"
+                + ( configuration != null ? "<configuration>" + configuration + "</configuration>" : "" )
+                + "</plugin></plugins></build></project>", "UTF-8" );
+
+        return pomXml;
+    }
+
+    private void module( final String sourceDir,
+                         final String name,
+                         final String content ) throws Exception {
+        FileUtils.writeStringToFile( new File( folder.getRoot(), sourceDir + "/" + name.replace( '.', '/' ) + ".gwt.xml" ), content, "UTF-8" );
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.dir;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.guvnor.common.services.project.model.Project;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.uberfire.backend.vfs.Path;
+
+public class WorkspaceManagerTest {
+
+    private static final String SOURCE = "src/main/java/org/example/App.java";
+    private static final String SYNC_STATE = ".sync";
+    private static final int OUTPUT_SIZE = 700 * 1024;
+
+    /*
+     * Writes the project sources into the base workspace the way ProjectUnpacker does, replacing files instead of
+     * overwriting them, and hands over its synchronization state by copying it.
+     */
+    private static class SourcePreparer implements WorkspacePreparer {
+
+        boolean stateCloned = false;
+
+        @Override
+        public File prepare( final Project project,
+                             final File workspace ) throws IOException {
+            replace( workspace, SOURCE, "class App {}" );
+            replace( workspace, SYNC_STATE, "synchronized" );
+
+            return replace( workspace, "pom.xml", "<project/>" );
+        }
+
+        @Override
+        public void handOver( final Project project,
+                              final File workspace,
+                              final File clone ) throws IOException {
+            stateCloned = new File( clone, SYNC_STATE ).exists();
+            FileUtils.copyFile( new File( workspace, SYNC_STATE ), new File( clone, SYNC_STATE ) );
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File rootDir;
+    private WorkspaceManager manager;
+    private Project project;
+
+    @Before
+    public void setup() {
+        rootDir = new File( folder.getRoot(), "workspaces" );
+        System.setProperty( WorkspaceManager.DIR_PROPERTY, rootDir.getAbsolutePath() );
+        manager = new WorkspaceManager();
+        manager.setup();
+
+        final Path rootPath = mock( Path.class );
+        when( rootPath.toURI() ).thenReturn( "default://master@repository/project" );
+        project = mock( Project.class );
+        when( project.getProjectName() ).thenReturn( "project" );
+        when( project.getRootPath() ).thenReturn( rootPath );
+    }
+
+    @After
+    public void clearProperties() {
+        System.clearProperty( WorkspaceManager.DIR_PROPERTY );
+        System.clearProperty( WorkspaceManager.QUOTA_PROPERTY );
+    }
+
+    @Test
+    public void testSetupOnlyDeletesWorkspaces() throws Exception {
+        final File workspace = manager.createWorkspace( project, "s1" );
+        final File other = write( rootDir, "other/file", "kept" );
+
+        new WorkspaceManager().setup();
+
+        assertFalse( workspace.exists() );
+        assertTrue( other.exists() );
+    }
+
+    @Test
+    public void testDisposeDeletesUnusedWorkspace() {
+        final File workspace = manager.createWorkspace( project, "s1" );
+        assertTrue( workspace.isDirectory() );
+
+        manager.dispose( workspace );
+
+        assertFalse( workspace.exists() );
+    }
+
+    @Test
+    public void testDisposeOfWorkspaceInUseIsDeferred() {
+        final File workspace = manager.createWorkspace( project, "s1" );
+        manager.beginUse( workspace );
+        manager.beginUse( workspace );
+
+        manager.dispose( workspace );
+        assertTrue( workspace.isDirectory() );
+
+        manager.endUse( workspace );
+        assertTrue( workspace.isDirectory() );
+
+        manager.endUse( workspace );
+        assertFalse( workspace.exists() );
+    }
+
+    @Test
+    public void testDisposeOnlyAffectsTheWorkspace() {
+        final File first = manager.createWorkspace( project, "s1" );
+        final File second = manager.createWorkspace( project, "s1" );
+        manager.beginUse( second );
+
+        manager.dispose( first );
+
+        assertFalse( first.exists() );
+        assertTrue( second.isDirectory() );
+    }
+
+    @Test
+    public void testPopulateLinksSources() throws Exception {
+        final File first = manager.createWorkspace( project, "s1" );
+        final File second = manager.createWorkspace( project, "s2" );
+        manager.populate( project, first, new SourcePreparer() );
+        manager.populate( project, second, new SourcePreparer() );
+
+        final File source = new File( first, SOURCE );
+        assertTrue( Files.isSameFile( source.toPath(), new File( second, SOURCE ).toPath() ) );
+        // Files at the root are copied.
+        assertFalse( Files.isSameFile( new File( first, "pom.xml" ).toPath(), new File( second, "pom.xml" ).toPath() ) );
+
+        replace( first, SOURCE, "class App { int changed; }" );
+
+        assertEquals( "class App { int changed; }", read( first, SOURCE ) );
+        assertEquals( "class App {}", read( second, SOURCE ) );
+        final File third = manager.createWorkspace( project, "s3" );
+        manager.populate( project, third, new SourcePreparer() );
+        assertEquals( "class App {}", read( third, SOURCE ) );
+    }
+
+    @Test
+    public void testSynchronizationStateIsHandedOver() throws Exception {
+        final File workspace = manager.createWorkspace( project, "s1" );
+        final SourcePreparer preparer = new SourcePreparer();
+
+        manager.populate( project, workspace, preparer );
+
+        assertFalse( "Hidden files at the root of the base were cloned.", preparer.stateCloned );
+        assertEquals( "synchronized", read( workspace, SYNC_STATE ) );
+    }
+
+    @Test
+    public void testLeastRecentlyUsedBuildOutputIsEvicted() throws Exception {
+        System.setProperty( WorkspaceManager.QUOTA_PROPERTY, "1" );
+        manager.setup();
+        final File first = build( manager.createWorkspace( project, "s1" ) );
+        final File second = build( manager.createWorkspace( project, "s2" ) );
+
+        assertFalse( new File( first, "target" ).exists() );
+        assertTrue( new File( first, SOURCE ).exists() );
+        assertTrue( new File( second, "target" ).exists() );
+    }
+
+    @Test
+    public void testWorkspaceInUseIsNotEvicted() throws Exception {
+        System.setProperty( WorkspaceManager.QUOTA_PROPERTY, "1" );
+        manager.setup();
+        final File first = build( manager.createWorkspace( project, "s1" ) );
+        manager.beginUse( first );
+        final File second = build( manager.createWorkspace( project, "s2" ) );
+
+        assertTrue( new File( first, "target" ).exists() );
+        assertFalse( new File( second, "target" ).exists() );
+    }
+
+    /*
+     * Runs a fake build in a workspace, leaving build output behind.
+     */
+    private File build( final File workspace ) throws Exception {
+        manager.beginUse( workspace );
+        write( workspace, SOURCE, "class App {}" );
+        FileUtils.writeByteArrayToFile( new File( workspace, "target/app.war" ), new byte[ OUTPUT_SIZE ] );
+        manager.endUse( workspace );
+
+        return workspace;
+    }
+
+    private static File write( final File dir,
+                               final String path,
+                               final String content ) throws IOException {
+        final File file = new File( dir, path );
+        FileUtils.writeStringToFile( file, content, "UTF-8" );
+
+        return file;
+    }
+
+    private static File replace( final File dir,
+                                 final String path,
+                                 final String content ) throws IOException {
+        Files.deleteIfExists( new File( dir, path ).toPath() );
+
+        return write( dir, path, content );
+    }
+
+    private static String read( final File dir,
+                                final String path ) throws IOException {
+        return FileUtils.readFileToString( new File( dir, path ), "UTF-8" );
+    }
+}
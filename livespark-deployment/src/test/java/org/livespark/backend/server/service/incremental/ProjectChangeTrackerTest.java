@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.incremental;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.guvnor.common.services.project.model.Project;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.uberfire.backend.vfs.Path;
+
+public class ProjectChangeTrackerTest {
+
+    private static final String ROOT = "default://master@ls-playground/project";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ProjectChangeTracker tracker;
+    private Project project;
+    private File workspace;
+
+    @Before
+    public void setup() throws Exception {
+        tracker = new ProjectChangeTracker();
+        project = mockProject( ROOT );
+        workspace = folder.newFolder( "workspace" );
+    }
+
+    @Test
+    public void testNewWorkspaceRequiresFullBuild() {
+        tracker.recordChange( project, path( "src/main/java/Foo.java" ) );
+
+        final WorkspaceChanges changes = tracker.getChangesSince( project, workspace );
+
+        assertTrue( changes.isFullBuildRequired() );
+        assertSame( workspace, changes.getWorkspace() );
+    }
+
+    @Test
+    public void testSyncedWorkspaceOnlyGetsLaterChanges() {
+        tracker.recordChange( project, path( "src/main/java/Before.java" ) );
+        tracker.markSynced( tracker.getChangesSince( project, workspace ) );
+
+        tracker.recordChange( project, path( "src/main/java/After.java" ) );
+        tracker.recordChange( project, path( "src/main/resources/After.html" ) );
+
+        final WorkspaceChanges changes = tracker.getChangesSince( project, workspace );
+
+        assertFalse( changes.isFullBuildRequired() );
+        assertEquals( uris( "src/main/java/After.java", "src/main/resources/After.html" ), uris( changes.getChangedPaths() ) );
+    }
+
+    @Test
+    public void testUpToDateWorkspaceHasNoChanges() {
+        tracker.recordChange( project, path( "src/main/java/Foo.java" ) );
+        tracker.markSynced( tracker.getChangesSince( project, workspace ) );
+
+        final WorkspaceChanges changes = tracker.getChangesSince( project, workspace );
+
+        assertFalse( changes.isFullBuildRequired() );
+        assertTrue( changes.getChangedPaths().isEmpty() );
+    }
+
+    @Test
+    public void testRepeatedChangesAreReportedOnce() {
+        tracker.markSynced( tracker.getChangesSince( project, workspace ) );
+        tracker.recordChange( project, path( "src/main/java/Foo.java" ) );
+        tracker.recordChange( project, path( "src/main/java/Foo.java" ) );
+
+        assertEquals( 1, tracker.getChangesSince( project, workspace ).getChangedPaths().size() );
+    }
+
+    @Test
+    public void testPomChangeRequiresFullBuild() {
+        tracker.markSynced( tracker.getChangesSince( project, workspace ) );
+        tracker.recordChange( project, path( "pom.xml" ) );
+
+        assertTrue( tracker.getChangesSince( project, workspace ).isFullBuildRequired() );
+    }
+
+    @Test
+    public void testWorkspaceSyncedAfterPomChangeIsIncremental() {
+        tracker.recordChange( project, path( "pom.xml" ) );
+        tracker.markSynced( tracker.getChangesSince( project, workspace ) );
+        tracker.recordChange( project, path( "src/main/java/Foo.java" ) );
+
+        final WorkspaceChanges changes = tracker.getChangesSince( project, workspace );
+
+        assertFalse( changes.isFullBuildRequired() );
+        assertEquals( uris( "src/main/java/Foo.java" ), uris( changes.getChangedPaths() ) );
+    }
+
+    @Test
+    public void testProjectsAreTrackedSeparately() throws Exception {
+        final Project other = mockProject( "default://master@ls-playground/other" );
+        final File otherWorkspace = folder.newFolder( "other" );
+        tracker.markSynced( tracker.getChangesSince( project, workspace ) );
+        tracker.markSynced( tracker.getChangesSince( other, otherWorkspace ) );
+
+        tracker.recordChange( other, mockPath( "default://master@ls-playground/other/pom.xml" ) );
+
+        assertFalse( tracker.getChangesSince( project, workspace ).isFullBuildRequired() );
+        assertTrue( tracker.getChangesSince( other, otherWorkspace ).isFullBuildRequired() );
+    }
+
+    @Test
+    public void testWorkspaceOfPreviousRunRequiresFullBuild() {
+        tracker.markSynced( tracker.getChangesSince( project, workspace ) );
+
+        final ProjectChangeTracker restarted = new ProjectChangeTracker();
+
+        assertTrue( restarted.getChangesSince( project, workspace ).isFullBuildRequired() );
+    }
+
+    @Test
+    public void testCloneOfSyncedWorkspaceIsIncremental() throws Exception {
+        final File clone = folder.newFolder( "clone" );
+        tracker.recordChange( project, path( "pom.xml" ) );
+        tracker.markSynced( tracker.getChangesSince( project, workspace ) );
+        tracker.handOver( workspace, clone );
+        tracker.recordChange( project, path( "src/main/java/Foo.java" ) );
+
+        final WorkspaceChanges changes = tracker.getChangesSince( project, clone );
+
+        assertFalse( changes.isFullBuildRequired() );
+        assertEquals( uris( "src/main/java/Foo.java" ), uris( changes.getChangedPaths() ) );
+    }
+
+    @Test
+    public void testCloneOfUnsyncedWorkspaceRequiresFullBuild() throws Exception {
+        final File clone = folder.newFolder( "clone" );
+        tracker.markSynced( tracker.getChangesSince( project, clone ) );
+        tracker.handOver( workspace, clone );
+
+        assertTrue( tracker.getChangesSince( project, clone ).isFullBuildRequired() );
+    }
+
+    @Test
+    public void testAsFullBuild() {
+        tracker.markSynced( tracker.getChangesSince( project, workspace ) );
+        tracker.recordChange( project, path( "src/main/java/Foo.java" ) );
+
+        final WorkspaceChanges changes = tracker.getChangesSince( project, workspace ).asFullBuild();
+
+        assertTrue( changes.isFullBuildRequired() );
+        assertTrue( changes.getChangedPaths().isEmpty() );
+    }
+
+    private static Project mockProject( final String rootUri ) {
+        final Project project = mock( Project.class );
+        final Path rootPath = mockPath( rootUri );
+        when( project.getRootPath() ).thenReturn( rootPath );
+
+        return project;
+    }
+
+    private static Path path( final String relativePath ) {
+        return mockPath( ROOT + "/" + relativePath );
+    }
+
+    private static Path mockPath( final String uri ) {
+        final Path path = mock( Path.class );
+        when( path.toURI() ).thenReturn( uri );
+        when( path.getFileName() ).thenReturn( uri.substring( uri.lastIndexOf( '/' ) + 1 ) );
+
+        return path;
+    }
+
+    private static Set<String> uris( final String... relativePaths ) {
+        final Set<String> uris = new HashSet<String>();
+        for ( final String relativePath : relativePaths ) {
+            uris.add( ROOT + "/" + relativePath );
+        }
+
+        return uris;
+    }
+
+    private static Set<String> uris( final Collection<Path> paths ) {
+        final Set<String> uris = new HashSet<String>();
+        for ( final Path path : paths ) {
+            uris.add( path.toURI() );
+        }
+
+        return uris;
+    }
+}
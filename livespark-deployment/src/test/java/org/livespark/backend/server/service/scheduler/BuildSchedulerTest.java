@@ -0,0 +1,311 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.backend.server.service.scheduler;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.enterprise.concurrent.ManagedExecutorService;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.livespark.backend.server.service.build.ClientOutputService;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BuildSchedulerTest {
+
+    private static final String MAX_CONCURRENT_BUILDS_PROPERTY = "livespark.build.max_concurrent_builds";
+
+    @Mock
+    private ClientOutputService clientOutputService;
+
+    @Mock
+    private ManagedExecutorService execService;
+
+    @InjectMocks
+    private BuildScheduler scheduler;
+
+    /*
+     * Builds submitted to the executor, run by the test in submission order.
+     */
+    private final LinkedList<Runnable> submitted = new LinkedList<Runnable>();
+
+    /*
+     * Names of the build tasks in the order they were called.
+     */
+    private final List<String> executed = new ArrayList<String>();
+
+    @BeforeClass
+    public static void limitConcurrentBuilds() {
+        System.setProperty( MAX_CONCURRENT_BUILDS_PROPERTY, "2" );
+    }
+
+    @AfterClass
+    public static void clearConcurrentBuilds() {
+        System.clearProperty( MAX_CONCURRENT_BUILDS_PROPERTY );
+    }
+
+    @Before
+    public void setup() {
+        when( execService.submit( any( Runnable.class ) ) ).thenAnswer( new Answer<Object>() {
+
+            @Override
+            public Object answer( final InvocationOnMock invocation ) {
+                submitted.add( (Runnable) invocation.getArguments()[0] );
+                return null;
+            }
+        } );
+    }
+
+    @Test
+    public void testBuildsStartUpToTheLimit() {
+        assertEquals( 2, scheduler.getMaxConcurrentBuilds() );
+
+        assertTrue( scheduler.schedule( build( "s1", "k1", "w1", "a" ) ) );
+        assertTrue( scheduler.schedule( build( "s2", "k2", "w2", "b" ) ) );
+        assertTrue( scheduler.schedule( build( "s3", "k3", "w3", "c" ) ) );
+
+        assertEquals( 2, submitted.size() );
+        verify( clientOutputService ).sendOutput( "q-s3", "[INFO] Waiting for a free build slot. Position in build queue: 1." );
+
+        runAll();
+
+        assertEquals( Arrays.asList( "a", "b", "c" ), executed );
+    }
+
+    @Test
+    public void testIdenticalQueuedBuildIsMerged() {
+        scheduler.schedule( build( "s2", "k2", "w2", "blocker1" ) );
+        scheduler.schedule( build( "s3", "k3", "w3", "blocker2" ) );
+
+        assertTrue( scheduler.schedule( build( "s1", "k1", "w1", "first" ) ) );
+        assertFalse( scheduler.schedule( build( "s1", "k1", "w1", "second" ) ) );
+        verify( clientOutputService ).sendOutput( "q-s1", "[INFO] An identical build is already queued. This request was merged into it." );
+
+        runAll();
+
+        assertEquals( Arrays.asList( "blocker1", "blocker2", "second" ), executed );
+    }
+
+    @Test
+    public void testBuildsWithDifferentKeysAreNotMerged() {
+        scheduler.schedule( build( "s2", "k2", "w2", "blocker1" ) );
+        scheduler.schedule( build( "s3", "k3", "w3", "blocker2" ) );
+
+        assertTrue( scheduler.schedule( build( "s1", "k1", "w1", "first" ) ) );
+        assertTrue( scheduler.schedule( build( "s1", "k4", "w4", "second" ) ) );
+
+        runAll();
+
+        assertEquals( Arrays.asList( "blocker1", "blocker2", "first", "second" ), executed );
+    }
+
+    @Test
+    public void testOneBuildPerWorkspace() {
+        scheduler.schedule( build( "s1", "k1", "w1", "a" ) );
+        scheduler.schedule( build( "s2", "k2", "w1", "b" ) );
+
+        // A slot is free, but the workspace is busy.
+        assertEquals( 1, submitted.size() );
+
+        runNext();
+
+        assertEquals( 1, submitted.size() );
+        runAll();
+        assertEquals( Arrays.asList( "a", "b" ), executed );
+    }
+
+    @Test
+    public void testBusyWorkspaceDoesNotBlockOtherBuilds() {
+        scheduler.schedule( build( "s1", "k1", "w1", "a" ) );
+        scheduler.schedule( build( "s2", "k2", "w1", "b" ) );
+        scheduler.schedule( build( "s2", "k3", "w2", "c" ) );
+
+        assertEquals( 2, submitted.size() );
+
+        runAll();
+
+        assertEquals( Arrays.asList( "a", "c", "b" ), executed );
+    }
+
+    @Test
+    public void testSessionsTakeTurns() {
+        scheduler.schedule( build( "s1", "k1", "w1", "a1" ) );
+        scheduler.schedule( build( "s1", "k2", "w2", "a2" ) );
+        scheduler.schedule( build( "s1", "k3", "w3", "a3" ) );
+        scheduler.schedule( build( "s1", "k4", "w4", "a4" ) );
+        scheduler.schedule( build( "s2", "k5", "w5", "b1" ) );
+
+        verify( clientOutputService ).sendOutput( "q-s1", "[INFO] Waiting for a free build slot. Position in build queue: 1." );
+        verify( clientOutputService ).sendOutput( "q-s2", "[INFO] Waiting for a free build slot. Position in build queue: 2." );
+
+        runAll();
+
+        assertEquals( Arrays.asList( "a1", "a2", "a3", "b1", "a4" ), executed );
+    }
+
+    @Test
+    public void testCancelQueuedBuild() {
+        scheduler.schedule( build( "s2", "k2", "w2", "blocker1" ) );
+        scheduler.schedule( build( "s3", "k3", "w3", "blocker2" ) );
+        scheduler.schedule( build( "s1", "k1", "w1", "cancelled" ) );
+
+        assertTrue( scheduler.cancel( "s1", new File( "w1" ) ) );
+        verify( clientOutputService ).sendOutput( "q-s1", "[INFO] Queued build cancelled." );
+
+        runAll();
+
+        assertEquals( Arrays.asList( "blocker1", "blocker2" ), executed );
+    }
+
+    @Test
+    public void testCancelOnlyAffectsTheSession() {
+        scheduler.schedule( build( "s1", "k1", "w1", "a" ) );
+
+        assertFalse( scheduler.cancel( "s2", new File( "w1" ) ) );
+        assertFalse( scheduler.cancel( "s1", new File( "w2" ) ) );
+
+        runAll();
+
+        assertEquals( Arrays.asList( "a" ), executed );
+    }
+
+    @Test
+    public void testCancelBuildBeforeItRuns() {
+        final Runnable cleanup = mock( Runnable.class );
+        scheduler.schedule( new ScheduledBuild( "s1", "q-s1", "k1", new File( "w1" ), task( "cancelled" ), cleanup ) );
+
+        assertTrue( scheduler.cancel( "s1", new File( "w1" ) ) );
+        verify( clientOutputService ).sendOutput( "q-s1", "[INFO] Cancelling the running build..." );
+
+        runAll();
+
+        assertTrue( executed.isEmpty() );
+        // Nothing ran, so there is nothing to clean up.
+        verify( cleanup, never() ).run();
+    }
+
+    @Test
+    public void testCancelRunningBuildCleansUp() {
+        final Runnable cleanup = mock( Runnable.class );
+        scheduler.schedule( new ScheduledBuild( "s1", "q-s1", "k1", new File( "w1" ), new Callable<Object>() {
+
+            @Override
+            public Object call() {
+                executed.add( "running" );
+                scheduler.cancel( "s1", new File( "w1" ) );
+                return null;
+            }
+        }, cleanup ) );
+
+        runAll();
+
+        assertEquals( Arrays.asList( "running" ), executed );
+        verify( cleanup ).run();
+        verify( clientOutputService ).sendOutput( "q-s1", "[INFO] Build cancelled." );
+        assertFalse( "The interrupt of the cancellation was left behind.", Thread.currentThread().isInterrupted() );
+    }
+
+    @Test
+    public void testNewRequestSupersedesRunningBuild() {
+        scheduler.schedule( build( "s1", "k1", "w1", "superseded" ) );
+        scheduler.schedule( build( "s1", "k2", "w1", "current" ) );
+
+        verify( clientOutputService ).sendOutput( "q-s1", "[INFO] Cancelling the running build, which this request supersedes." );
+
+        runAll();
+
+        assertEquals( Arrays.asList( "current" ), executed );
+    }
+
+    @Test
+    public void testFinishedBuildFreesTheWorkspace() {
+        scheduler.schedule( build( "s1", "k1", "w1", "a" ) );
+        runAll();
+        scheduler.schedule( build( "s1", "k1", "w1", "b" ) );
+        runAll();
+
+        assertEquals( Arrays.asList( "a", "b" ), executed );
+        verify( clientOutputService, never() ).sendOutput( eq( "q-s1" ), startsWith( "[INFO] Cancelling" ) );
+    }
+
+    @Test
+    public void testFailureIsReported() {
+        scheduler.schedule( new ScheduledBuild( "s1", "q-s1", "k1", new File( "w1" ), new Callable<Object>() {
+
+            @Override
+            public Object call() {
+                throw new IllegalStateException( "Workspace is gone." );
+            }
+        }, null ) );
+        scheduler.schedule( new ScheduledBuild( "s2", "q-s2", "k2", new File( "w2" ), new Callable<Object>() {
+
+            @Override
+            public Object call() {
+                throw new NullPointerException();
+            }
+        }, null ) );
+
+        runAll();
+
+        verify( clientOutputService ).sendOutput( "q-s1", "[ERROR] Workspace is gone." );
+        verify( clientOutputService ).sendOutput( "q-s2", "[ERROR] java.lang.NullPointerException" );
+    }
+
+    private ScheduledBuild build( final String sessionId,
+                                  final String buildKey,
+                                  final String workspace,
+                                  final String name ) {
+        return new ScheduledBuild( sessionId, "q-" + sessionId, buildKey, new File( workspace ), task( name ), null );
+    }
+
+    private Callable<Object> task( final String name ) {
+        return new Callable<Object>() {
+
+            @Override
+            public Object call() {
+                executed.add( name );
+                return null;
+            }
+        };
+    }
+
+    private void runNext() {
+        submitted.removeFirst().run();
+    }
+
+    private void runAll() {
+        while ( !submitted.isEmpty() ) {
+            runNext();
+        }
+    }
+}
@@ -26,5 +26,16 @@ public interface FormSourcesGenerator {
 
     void generateEntityFormSources(FormDefinition form, Path resourcePath);
 
+    /**
+     * Generates the sources of an entity form on behalf of the given user, for callers that run outside of the user's
+     * request.
+     *
+     * @param committer
+     *            The identifier of the user the generated sources are committed as.
+     * @throws SourceGenerationException
+     *             If the sources could not be generated or written.
+     */
+    void generateEntityFormSources(FormDefinition form, Path resourcePath, String committer);
+
     void generateFormSources(FormDefinition form, Path resourcePath);
 }
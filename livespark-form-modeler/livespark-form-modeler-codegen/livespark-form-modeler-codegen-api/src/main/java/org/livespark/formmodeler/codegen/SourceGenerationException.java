@@ -0,0 +1,33 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.formmodeler.codegen;
+
+/**
+ * Thrown when the sources of a form could not be generated or written.
+ */
+public class SourceGenerationException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public SourceGenerationException( String message ) {
+        super( message );
+    }
+
+    public SourceGenerationException( String message, Throwable cause ) {
+        super( message, cause );
+    }
+}
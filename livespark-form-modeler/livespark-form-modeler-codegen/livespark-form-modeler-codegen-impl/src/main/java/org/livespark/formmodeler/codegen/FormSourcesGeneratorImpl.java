@@ -19,8 +19,22 @@ package org.livespark.formmodeler.codegen;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -52,11 +66,23 @@ import org.uberfire.java.nio.base.options.CommentedOption;
 
 /**
  * Created by pefernan on 5/5/15.
+ * <p>
+ * The generators are independent of each other and run in parallel on a pool of {@value #PARALLELISM_PROPERTY}
+ * threads (default: up to 4). If one of them fails or does not finish within {@value #TIMEOUT_PROPERTY} seconds
+ * (default 60), the others are cancelled and nothing is written.
  */
 @ApplicationScoped
 public class FormSourcesGeneratorImpl implements FormSourcesGenerator {
     private static transient Logger log = LoggerFactory.getLogger( FormSourcesGeneratorImpl.class );
 
+    public static final String PARALLELISM_PROPERTY = "livespark.codegen.parallelism";
+    public static final String TIMEOUT_PROPERTY = "livespark.codegen.timeout";
+    private static final int DEFAULT_PARALLELISM = Math.min( 4, Runtime.getRuntime().availableProcessors() );
+    private static final long DEFAULT_TIMEOUT_SECONDS = 60;
+
+    private ExecutorService generatorExecutor;
+    private long timeoutMs;
+
     @Inject
     @Named("ioStrategy")
     private IOService ioService;
@@ -112,10 +138,51 @@ public class FormSourcesGeneratorImpl implements FormSourcesGenerator {
     @Inject
     private ErraiAppPropertiesGenerator serializableTypesGenerator;
 
+    @PostConstruct
+    protected void init() {
+        final ClassLoader classLoader = getClass().getClassLoader();
+        final AtomicInteger threadCount = new AtomicInteger();
+        generatorExecutor = Executors.newFixedThreadPool( (int) readPositiveLong( PARALLELISM_PROPERTY, DEFAULT_PARALLELISM ),
+                                                          new ThreadFactory() {
+
+            @Override
+            public Thread newThread( Runnable runnable ) {
+                Thread thread = new Thread( runnable, "livespark-codegen-" + threadCount.incrementAndGet() );
+                thread.setDaemon( true );
+                thread.setContextClassLoader( classLoader );
+                return thread;
+            }
+        } );
+        timeoutMs = TimeUnit.SECONDS.toMillis( readPositiveLong( TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_SECONDS ) );
+    }
+
+    @PreDestroy
+    protected void destroy() {
+        generatorExecutor.shutdownNow();
+    }
+
+    private static long readPositiveLong( String property, long defaultValue ) {
+        String configured = System.getProperty( property );
+        if ( configured != null ) {
+            try {
+                return Math.max( 1, Long.parseLong( configured.trim() ) );
+            } catch ( NumberFormatException e ) {
+                log.warn( "Ignoring invalid value for " + property + ": " + configured );
+            }
+        }
+
+        return defaultValue;
+    }
+
+    @Override
+    public void generateEntityFormSources(final FormDefinition form, Path resourcePath) {
+        generateEntityFormSources( form, resourcePath, identity.getIdentifier() );
+    }
+
     @Override
-    public void generateEntityFormSources(FormDefinition form, Path resourcePath) {
+    public void generateEntityFormSources(final FormDefinition form, Path resourcePath, String committer) {
         Package resPackage = projectService.resolvePackage(resourcePath);
-        KieProject project = projectService.resolveProject(resourcePath);
+        final KieProject project = projectService.resolveProject(resourcePath);
 
         Package root = getRootPackage(resPackage);
 
@@ -124,68 +191,84 @@ public class FormSourcesGeneratorImpl implements FormSourcesGenerator {
         Package shared = getOrCreateSharedPackage(client);
         Package server = getOrCreateServerPackage(root);
 
-        SourceGenerationContext context = new SourceGenerationContext( form, resourcePath, root, local, shared, server );
-
-        String modelSource = modelSourceGenerator.generateFormModelSource( context );
+        final SourceGenerationContext context = new SourceGenerationContext( form, resourcePath, root, local, shared, server );
 
+        // The layout template is part of the form definition the generators read, so it is completed first.
         if ( form.getLayoutTemplate() == null ) {
             form.setLayoutTemplate( formLayoutTemplateGenerator.generateLayoutTemplate( form ) );
         }
 
-        String formTemplateLayout = formDefinitionSerializer.serialize( form );
+        GeneratorBatch batch = new GeneratorBatch();
 
-        String javaTemplate = javaTemplateSourceGenerator.generateJavaTemplateSource( context );
-        String htmlTemplate = htmlTemplateSourceGenerator.generateHTMLTemplateSource( context );
+        Future<String> modelSource = batch.submit( new Callable<String>() {
+            @Override
+            public String call() {
+                return modelSourceGenerator.generateFormModelSource( context );
+            }
+        } );
+        Future<String> formTemplateLayout = batch.submit( new Callable<String>() {
+            @Override
+            public String call() {
+                return formDefinitionSerializer.serialize( form );
+            }
+        } );
 
-        String listJavaTemplate = javaListTemplateSourceGenerator.generateJavaTemplateSource( context );
-        String listHtmlTemplate = htmlListTemplateSourceGenerator.generateHTMLTemplateSource( context );
-        String listItemJavaTemplate = javaListItemTemplateSourceGenerator.generateJavaTemplateSource( context );
+        Future<String> javaTemplate = batch.submit( javaTemplateSourceGenerator, context );
+        Future<String> htmlTemplate = batch.submit( htmlTemplateSourceGenerator, context );
 
-        String restServiceTemplate = javaRestTemplateSourceGenerator.generateJavaTemplateSource( context );
-        String restImplTemplate = javaRestImplTemplateSourceGenerator.generateJavaTemplateSource( context );
-        String entityServiceTemplate = javaEntityServiceTemplateSourceGenerator.generateJavaTemplateSource( context );
+        Future<String> listJavaTemplate = batch.submit( javaListTemplateSourceGenerator, context );
+        Future<String> listHtmlTemplate = batch.submit( htmlListTemplateSourceGenerator, context );
+        Future<String> listItemJavaTemplate = batch.submit( javaListItemTemplateSourceGenerator, context );
 
-        String serializableTypesDeclaration = serializableTypesGenerator.generate( getSerializableTypeClassNames( project ) );
+        Future<String> restServiceTemplate = batch.submit( javaRestTemplateSourceGenerator, context );
+        Future<String> restImplTemplate = batch.submit( javaRestImplTemplateSourceGenerator, context );
+        Future<String> entityServiceTemplate = batch.submit( javaEntityServiceTemplateSourceGenerator, context );
+
+        String serializableTypesDeclaration;
+        try {
+            // Loading the data model needs the request's context, so it stays on this thread.
+            serializableTypesDeclaration = serializableTypesGenerator.generate( getSerializableTypeClassNames( project ) );
+            batch.await();
+        } catch ( Exception e ) {
+            batch.cancel();
+            if ( e instanceof InterruptedException ) {
+                Thread.currentThread().interrupt();
+            }
+            throw new SourceGenerationException( "It was not possible to generate form sources for file: " + resourcePath, e );
+        }
 
         if ( !allNonEmpty( resourcePath,
-                modelSource,
-                formTemplateLayout,
-                javaTemplate,
-                htmlTemplate,
-                listJavaTemplate,
-                listHtmlTemplate,
-                listItemJavaTemplate,
-                restServiceTemplate,
-                restImplTemplate,
-                entityServiceTemplate,
+                batch.get( modelSource ),
+                batch.get( formTemplateLayout ),
+                batch.get( javaTemplate ),
+                batch.get( htmlTemplate ),
+                batch.get( listJavaTemplate ),
+                batch.get( listHtmlTemplate ),
+                batch.get( listItemJavaTemplate ),
+                batch.get( restServiceTemplate ),
+                batch.get( restImplTemplate ),
+                batch.get( entityServiceTemplate ),
                 serializableTypesDeclaration ) ) {
-            log.warn( "Unable to generate the required form assets for Data Object: {}", resourcePath );
-            return;
+            throw new SourceGenerationException( "Unable to generate the required form assets for Data Object: " + resourcePath );
         }
 
-        org.uberfire.java.nio.file.Path parent = Paths.convert( resourcePath ).getParent();
+        GeneratedFiles files = new GeneratedFiles();
+        files.add( javaSourcePath( context.getModelName(), shared ), batch.get( modelSource ) );
+        files.add( formTemplatePath( form.getName(), shared ), batch.get( formTemplateLayout ) );
 
-        ioService.startBatch( parent.getFileSystem() );
-        try {
-            writeJavaSource( resourcePath, context.getModelName(), modelSource, shared );
-            writeFormTemplate( resourcePath, form.getName(), formTemplateLayout, shared );
+        files.add( javaSourcePath( context.getFormViewName(), local ), batch.get( javaTemplate ) );
+        files.add( javaSourcePath( context.getListViewName(), local ), batch.get( listJavaTemplate ) );
+        files.add( javaSourcePath( context.getListItemViewName(), local ), batch.get( listItemJavaTemplate ) );
+        files.add( javaSourcePath( context.getRestServiceName(), shared ), batch.get( restServiceTemplate ) );
+        files.add( javaSourcePath( context.getRestServiceImplName(), server ), batch.get( restImplTemplate ) );
+        files.add( javaSourcePath( context.getEntityServiceName(), server ), batch.get( entityServiceTemplate ) );
 
-            writeJavaSource( resourcePath, context.getFormViewName(), javaTemplate, local );
-            writeJavaSource( resourcePath, context.getListViewName(), listJavaTemplate, local );
-            writeJavaSource( resourcePath, context.getListItemViewName(), listItemJavaTemplate, local );
-            writeJavaSource( resourcePath, context.getRestServiceName(), restServiceTemplate, shared );
-            writeJavaSource( resourcePath, context.getRestServiceImplName(), restImplTemplate, server );
-            writeJavaSource( resourcePath, context.getEntityServiceName(), entityServiceTemplate, server );
+        files.add( htmlSourcePath( context.getFormViewName(), local ), batch.get( htmlTemplate ) );
+        files.add( htmlSourcePath( context.getListViewName(), local ), batch.get( listHtmlTemplate ) );
 
-            writeHTMLSource( resourcePath, context.getFormViewName(), htmlTemplate, local );
-            writeHTMLSource( resourcePath, context.getListViewName(), listHtmlTemplate, local );
+        files.add( erraiAppPropertiesPath( project ), serializableTypesDeclaration );
 
-            writeErraiAppProperties( serializableTypesDeclaration, project );
-        } catch ( Exception e ) {
-            log.error( "It was not possible to generate form sources for file: " + resourcePath + " due to the following errors.", e );
-        } finally {
-            ioService.endBatch();
-        }
+        writeChangedFiles( resourcePath, files, committer );
     }
 
     @Override
@@ -198,35 +281,94 @@ public class FormSourcesGeneratorImpl implements FormSourcesGenerator {
         Package local = getOrCreateLocalPackage( client );
         Package shared = getOrCreateSharedPackage( client );
 
-        SourceGenerationContext context = new SourceGenerationContext( form, resourcePath, root, local, shared, null );
+        final SourceGenerationContext context = new SourceGenerationContext( form, resourcePath, root, local, shared, null );
+
+        GeneratorBatch batch = new GeneratorBatch();
 
-        String modelSource = modelSourceGenerator.generateFormModelSource( context );
+        Future<String> modelSource = batch.submit( new Callable<String>() {
+            @Override
+            public String call() {
+                return modelSourceGenerator.generateFormModelSource( context );
+            }
+        } );
 
-        String javaTemplate = javaTemplateSourceGenerator.generateJavaTemplateSource( context );
-        String htmlTemplate = htmlTemplateSourceGenerator.generateHTMLTemplateSource( context );
+        Future<String> javaTemplate = batch.submit( javaTemplateSourceGenerator, context );
+        Future<String> htmlTemplate = batch.submit( htmlTemplateSourceGenerator, context );
+
+        try {
+            batch.await();
+        } catch ( Exception e ) {
+            batch.cancel();
+            if ( e instanceof InterruptedException ) {
+                Thread.currentThread().interrupt();
+            }
+            log.error( "It was not possible to generate form sources for file: " + resourcePath + " due to the following errors.", e );
+            return;
+        }
 
         if ( !allNonEmpty( resourcePath,
-                             modelSource,
-                             javaTemplate,
-                             htmlTemplate ) ) {
+                             batch.get( modelSource ),
+                             batch.get( javaTemplate ),
+                             batch.get( htmlTemplate ) ) ) {
             log.warn( "Unable to generate the required form assets for Data Object: {}", resourcePath );
             return;
         }
 
+        GeneratedFiles files = new GeneratedFiles();
+        files.add( javaSourcePath( context.getModelName(), shared ), batch.get( modelSource ) );
+        files.add( javaSourcePath( context.getFormViewName(), local ), batch.get( javaTemplate ) );
+        files.add( htmlSourcePath( context.getFormViewName(), local ), batch.get( htmlTemplate ) );
+
+        try {
+            writeChangedFiles( resourcePath, files, identity.getIdentifier() );
+        } catch ( SourceGenerationException e ) {
+            log.error( "It was not possible to generate form sources for file: " + resourcePath + " due to the following errors.", e.getCause() );
+        }
+    }
+
+    /*
+     * Regenerating a form mostly reproduces the files already in the repository. Those are skipped, and the rest is
+     * committed together, so each generation costs at most one commit and one round of indexing.
+     */
+    private void writeChangedFiles( Path resourcePath, GeneratedFiles files, String committer ) {
+        Map<org.uberfire.java.nio.file.Path, String> changed = new LinkedHashMap<org.uberfire.java.nio.file.Path, String>();
+        for ( Map.Entry<org.uberfire.java.nio.file.Path, String> file : files.entries() ) {
+            if ( !isUnchanged( file.getKey(), file.getValue() ) ) {
+                changed.put( file.getKey(), file.getValue() );
+            }
+        }
+        int skipped = files.size() - changed.size();
+
+        if ( changed.isEmpty() ) {
+            log.info( "Generated sources for {} are unchanged. Skipped {} files.", resourcePath, skipped );
+            return;
+        }
+
         org.uberfire.java.nio.file.Path parent = Paths.convert( resourcePath ).getParent();
+        CommentedOption option = makeCommentedOption( committer, "Generated form sources for '" + resourcePath + "'" );
 
-        ioService.startBatch( parent.getFileSystem() );
+        ioService.startBatch( parent.getFileSystem(), option );
         try {
-            writeJavaSource( resourcePath, context.getModelName(), modelSource, shared );
-            writeJavaSource( resourcePath, context.getFormViewName(), javaTemplate, local );
-            writeHTMLSource( resourcePath, context.getFormViewName(), htmlTemplate, local );
+            for ( Map.Entry<org.uberfire.java.nio.file.Path, String> file : changed.entrySet() ) {
+                ioService.write( file.getKey(), file.getValue(), option );
+            }
+            log.info( "Wrote {} generated sources for {}. Skipped {} unchanged files.", changed.size(), resourcePath, skipped );
         } catch ( Exception e ) {
-            log.error( "It was not possible to generate form sources for file: " + resourcePath + " due to the following errors.", e );
+            throw new SourceGenerationException( "It was not possible to write the form sources for file: " + resourcePath, e );
         } finally {
             ioService.endBatch();
         }
     }
 
+    private boolean isUnchanged( org.uberfire.java.nio.file.Path path, String content ) {
+        try {
+            return ioService.exists( path ) && content.equals( ioService.readAllString( path ) );
+        } catch ( Exception e ) {
+            log.debug( "Unable to read " + path + ". It is written.", e );
+            return false;
+        }
+    }
+
     private Collection<String> getSerializableTypeClassNames( KieProject project ) {
         Set<DataObject> dataObjects = dataModelerService.loadModel( project ).getDataObjects();
         Collection<String> retVal = new ArrayList<String>( dataObjects.size() );
@@ -253,15 +395,11 @@ public class FormSourcesGeneratorImpl implements FormSourcesGenerator {
         || className.contains( ".builtin." ) );
     }
 
-    private void writeErraiAppProperties( String serializableTypesDeclaration, KieProject project  ) {
+    private org.uberfire.java.nio.file.Path erraiAppPropertiesPath( KieProject project ) {
         Package defaultPackage = projectService.resolveDefaultPackage( project );
         Path resourceRoot = defaultPackage.getPackageMainResourcesPath();
 
-        org.uberfire.java.nio.file.Path parentPath = Paths.convert( resourceRoot );
-        org.uberfire.java.nio.file.Path filePath = parentPath.resolve( "ErraiApp.properties" );
-        ioService.write( filePath,
-                         serializableTypesDeclaration,
-                         makeCommentedOption( "Updated ErraiApp.properties." ) );
+        return Paths.convert( resourceRoot ).resolve( "ErraiApp.properties" );
     }
 
     private Package getOrCreateServerPackage( Package root ) {
@@ -309,43 +447,23 @@ public class FormSourcesGeneratorImpl implements FormSourcesGenerator {
         return true;
     }
 
-    private void writeFormTemplate( Path dataObjectPath,
-                                  String name,
-                                  String formTemplate,
-                                  Package sourcePackage ) {
-        org.uberfire.java.nio.file.Path parentPath = Paths.convert( sourcePackage.getPackageMainResourcesPath() );
-        org.uberfire.java.nio.file.Path htmlPath = parentPath.resolve( name + ".frm" );
-
-        ioService.write( htmlPath,
-                formTemplate,
-                makeCommentedOption( "Added HTML Source for Form Template '" + dataObjectPath + "'" ) );
+    private org.uberfire.java.nio.file.Path formTemplatePath( String name, Package sourcePackage ) {
+        return Paths.convert( sourcePackage.getPackageMainResourcesPath() ).resolve( name + ".frm" );
     }
 
-    private void writeHTMLSource( Path dataObjectPath,
-                                  String name,
-                                  String htmlTemplate,
-                                  Package sourcePackage ) {
-        org.uberfire.java.nio.file.Path parentPath = Paths.convert( sourcePackage.getPackageMainResourcesPath() );
-        org.uberfire.java.nio.file.Path htmlPath = parentPath.resolve( name + ".html" );
-
-        ioService.write( htmlPath,
-                         htmlTemplate,
-                         makeCommentedOption( "Added HTML Source for Form Template '" + dataObjectPath + "'" ) );
+    private org.uberfire.java.nio.file.Path htmlSourcePath( String name, Package sourcePackage ) {
+        return Paths.convert( sourcePackage.getPackageMainResourcesPath() ).resolve( name + ".html" );
     }
 
-    private void writeJavaSource( Path dataObjectPath,
-                                  String name,
-                                  String javaSource,
-                                  Package sourcePackage ) {
-        org.uberfire.java.nio.file.Path parentPath = Paths.convert( sourcePackage.getPackageMainSrcPath() );
-        org.uberfire.java.nio.file.Path filePath = parentPath.resolve( name + ".java" );
-        ioService.write( filePath,
-                         javaSource,
-                         makeCommentedOption( "Added Java Source for Form Model '" + dataObjectPath + "'" ) );
+    private org.uberfire.java.nio.file.Path javaSourcePath( String name, Package sourcePackage ) {
+        return Paths.convert( sourcePackage.getPackageMainSrcPath() ).resolve( name + ".java" );
     }
 
     public CommentedOption makeCommentedOption( String commitMessage ) {
-        final String name = identity.getIdentifier();
+        return makeCommentedOption( identity.getIdentifier(), commitMessage );
+    }
+
+    private CommentedOption makeCommentedOption( String name, String commitMessage ) {
         final Date when = new Date();
 
         final CommentedOption option = new CommentedOption( name,
@@ -354,4 +472,84 @@ public class FormSourcesGeneratorImpl implements FormSourcesGenerator {
                 when );
         return option;
     }
+
+    /*
+     * The files produced by one call, in the order they are written.
+     */
+    private static class GeneratedFiles {
+        private final Map<org.uberfire.java.nio.file.Path, String> files = new LinkedHashMap<org.uberfire.java.nio.file.Path, String>();
+
+        void add( org.uberfire.java.nio.file.Path path, String content ) {
+            files.put( path, content );
+        }
+
+        Set<Map.Entry<org.uberfire.java.nio.file.Path, String>> entries() {
+            return files.entrySet();
+        }
+
+        int size() {
+            return files.size();
+        }
+    }
+
+    /*
+     * The generators of one call, which succeed or fail together.
+     */
+    private class GeneratorBatch {
+        private final List<Future<String>> futures = new ArrayList<Future<String>>();
+
+        Future<String> submit( Callable<String> generator ) {
+            Future<String> future = generatorExecutor.submit( generator );
+            futures.add( future );
+            return future;
+        }
+
+        Future<String> submit( final FormJavaTemplateSourceGenerator generator, final SourceGenerationContext context ) {
+            return submit( new Callable<String>() {
+                @Override
+                public String call() {
+                    return generator.generateJavaTemplateSource( context );
+                }
+            } );
+        }
+
+        Future<String> submit( final FormHTMLTemplateSourceGenerator generator, final SourceGenerationContext context ) {
+            return submit( new Callable<String>() {
+                @Override
+                public String call() {
+                    return generator.generateHTMLTemplateSource( context );
+                }
+            } );
+        }
+
+        /**
+         * Waits until every generator finished, sharing one timeout between them.
+         *
+         * @throws ExecutionException
+         *             If a generator failed.
+         */
+        void await() throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            for ( Future<String> future : futures ) {
+                future.get( Math.max( 0, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+            }
+        }
+
+        void cancel() {
+            for ( Future<String> future : futures ) {
+                future.cancel( true );
+            }
+        }
+
+        /**
+         * @return The source a generator produced. Only valid after {@link #await()} returned.
+         */
+        String get( Future<String> future ) {
+            try {
+                return future.get();
+            } catch ( InterruptedException | ExecutionException e ) {
+                throw new IllegalStateException( "The generator has not finished successfully.", e );
+            }
+        }
+    }
 }
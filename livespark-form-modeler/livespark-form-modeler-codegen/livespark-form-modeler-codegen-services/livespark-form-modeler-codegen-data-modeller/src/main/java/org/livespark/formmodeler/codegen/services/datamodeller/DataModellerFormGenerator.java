@@ -24,4 +24,14 @@ import org.uberfire.backend.vfs.Path;
  */
 public interface DataModellerFormGenerator {
     public void generateFormForDataObject(DataObject dataObject, Path path);
+
+    /**
+     * Generates the form of a data object on behalf of the given user, for callers that run outside of the user's
+     * request.
+     *
+     * @param committer
+     *            The identifier of the user the generated sources are committed as.
+     * @return True if a form was generated, false if the data object has no fields to show.
+     */
+    public boolean generateFormForDataObject(DataObject dataObject, Path path, String committer);
 }
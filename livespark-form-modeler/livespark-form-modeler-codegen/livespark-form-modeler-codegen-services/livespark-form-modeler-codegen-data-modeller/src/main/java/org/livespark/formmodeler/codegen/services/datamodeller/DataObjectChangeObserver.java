@@ -27,17 +27,11 @@ import javax.enterprise.context.Dependent;
 import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 
-import org.guvnor.common.services.project.model.Project;
-import org.kie.workbench.common.screens.datamodeller.service.DataModelerService;
-import org.kie.workbench.common.services.datamodeller.core.DataModel;
-import org.kie.workbench.common.services.datamodeller.core.DataObject;
-import org.kie.workbench.common.services.shared.project.KieProject;
-import org.kie.workbench.common.services.shared.project.KieProjectService;
-import org.livespark.formmodeler.codegen.util.SourceGenerationUtil;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.livespark.formmodeler.codegen.services.datamodeller.FormGenerationScheduler.Priority;
 import org.uberfire.backend.vfs.Path;
+import org.uberfire.rpc.SessionInfo;
 import org.uberfire.workbench.events.ResourceAddedEvent;
+import org.uberfire.workbench.events.ResourceBatchChangesEvent;
 import org.uberfire.workbench.events.ResourceCopiedEvent;
 import org.uberfire.workbench.events.ResourceDeletedEvent;
 import org.uberfire.workbench.events.ResourceRenamedEvent;
@@ -45,26 +39,19 @@ import org.uberfire.workbench.events.ResourceUpdatedEvent;
 
 /**
  * Server side component that observes for the Data Objects add/delete/update events
- * and generates the associated form.
+ * and schedules the generation of the associated form (see {@link FormGenerationScheduler}).
+ * Single changes are handled as interactive saves, batches of changes as bulk changes.
  */
 @Dependent
 public class DataObjectChangeObserver {
 
-    private static final Logger logger = LoggerFactory.getLogger( DataObjectChangeObserver.class );
-
-    @Inject
-    private KieProjectService projectService;
-
     @Inject
-    private DataModelerService dataModelerService;
-
-    @Inject
-    private DataModellerFormGenerator formGenerator;
+    private FormGenerationScheduler scheduler;
 
 
     public void processResourceAdd( @Observes final ResourceAddedEvent resourceAddedEvent ) {
         if ( isFormAware( resourceAddedEvent.getPath() ) ) {
-            generateSources( resourceAddedEvent.getPath() );
+            scheduler.schedule( resourceAddedEvent.getPath(), Priority.INTERACTIVE, getCommitter( resourceAddedEvent.getSessionInfo() ) );
         }
     }
 
@@ -74,14 +61,17 @@ public class DataObjectChangeObserver {
 
     public void processResourceUpdate( @Observes final ResourceUpdatedEvent resourceUpdatedEvent ) {
         if ( isFormAware( resourceUpdatedEvent.getPath() ) ) {
-            generateSources( resourceUpdatedEvent.getPath() );
+            scheduler.schedule( resourceUpdatedEvent.getPath(), Priority.INTERACTIVE, getCommitter( resourceUpdatedEvent.getSessionInfo() ) );
         }
     }
 
-    protected void generateSources (Path path) {
-        DataObject dataObject = getDataObjectForPath( path );
-
-        if ( dataObject != null ) formGenerator.generateFormForDataObject( dataObject, path );
+    public void processResourceBatchChanges( @Observes final ResourceBatchChangesEvent resourceBatchChangesEvent ) {
+        String committer = getCommitter( resourceBatchChangesEvent.getSessionInfo() );
+        for ( Path path : resourceBatchChangesEvent.getBatch().keySet() ) {
+            if ( isFormAware( path ) ) {
+                scheduler.schedule( path, Priority.BULK, committer );
+            }
+        }
     }
 
     public void processResourceCopied( @Observes final ResourceCopiedEvent resourceCopiedEvent ) {
@@ -93,27 +83,6 @@ public class DataObjectChangeObserver {
 
     }
 
-    protected DataObject getDataObjectForPath(Path path) {
-        if (!path.getFileName().endsWith( ".java" )) return null;
-
-        try {
-            KieProject project = projectService.resolveProject( path );
-            DataModel dataModel = dataModelerService.loadModel( project );
-            String className = calculateClassName( project, path );
-            DataObject dataObject = dataModel != null ? dataModel.getDataObject( className ) : null;
-
-            if ( dataObject != null ) {
-                if ( !dataObject.getSuperClassName().equals( SourceGenerationUtil.FORM_MODEL_CLASS )
-                        && !dataObject.getSuperClassName().equals( SourceGenerationUtil.FORM_VIEW_CLASS ) )
-                    return dataObject;
-            }
-
-        } catch ( Exception e ) {
-            logger.warn( "Error loading Data Object for path '{}': {}", path.toURI(), e );
-        }
-        return null;
-    }
-
     protected boolean isFormAware( final Path path ) {
         return path != null &&
                 //TODO review this filtering.
@@ -128,32 +97,14 @@ public class DataObjectChangeObserver {
                 !path.getFileName().endsWith( REST_SERVICE_SUFFIX );
     }
 
-    private String calculateClassName(Project project,
-            Path path) {
-
-        Path rootPath = project.getRootPath();
-        if (!path.toURI().startsWith(rootPath.toURI())) {
+    /*
+     * Generation runs outside of the request that changed the data object, so the user is taken from the event.
+     */
+    private String getCommitter( final SessionInfo sessionInfo ) {
+        if ( sessionInfo == null || sessionInfo.getIdentity() == null ) {
             return null;
         }
 
-        org.guvnor.common.services.project.model.Package defaultPackage = projectService.resolveDefaultPackage(project);
-        Path srcPath = null;
-
-        if (path.toURI().startsWith(defaultPackage.getPackageMainSrcPath().toURI())) {
-            srcPath = defaultPackage.getPackageMainSrcPath();
-        } else if (path.toURI().startsWith(defaultPackage.getPackageTestSrcPath().toURI())) {
-            srcPath = defaultPackage.getPackageTestSrcPath();
-        }
-
-        //project: default://master@uf-playground/mortgages/main/src/Pojo.java
-        if (srcPath == null) {
-            return null;
-        }
-
-        String strPath = path.toURI().substring(srcPath.toURI().length() + 1, path.toURI().length());
-        strPath = strPath.replace("/", ".");
-        strPath = strPath.substring(0, strPath.indexOf(".java"));
-
-        return strPath;
+        return sessionInfo.getIdentity().getIdentifier();
     }
 }
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.formmodeler.codegen.services.datamodeller;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+
+import org.guvnor.common.services.project.model.Project;
+import org.jboss.weld.context.bound.BoundRequestContext;
+import org.kie.workbench.common.screens.datamodeller.service.DataModelerService;
+import org.kie.workbench.common.services.datamodeller.core.DataModel;
+import org.kie.workbench.common.services.datamodeller.core.DataObject;
+import org.kie.workbench.common.services.shared.project.KieProject;
+import org.kie.workbench.common.services.shared.project.KieProjectService;
+import org.livespark.formmodeler.codegen.services.datamodeller.events.FormGenerationCompletedEvent;
+import org.livespark.formmodeler.codegen.services.datamodeller.events.FormGenerationFailedEvent;
+import org.livespark.formmodeler.codegen.util.SourceGenerationUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.uberfire.backend.vfs.Path;
+
+/**
+ * Generates the forms of changed data objects in the background, so that saving a data object does not wait for its
+ * forms.
+ * <p>
+ * Changes are debounced per data object: its forms are generated once no further change arrived for
+ * {@value #DEBOUNCE_PROPERTY} ms (default 500), but no later than {@value #MAX_DELAY_PROPERTY} ms (default 5000) after
+ * the first change. A burst of changes to one data object thus costs one generation, and changes that arrive while its
+ * forms are being generated cost one more afterwards. Generations run on a pool of {@value #WORKERS_PROPERTY} threads
+ * (default 2), which serves interactive saves before bulk changes. A generation that produced forms ends with a
+ * {@link FormGenerationCompletedEvent}, and one that could not load the data object or generate its forms ends with a
+ * {@link FormGenerationFailedEvent}. Data objects without fields to show end without either.
+ */
+@ApplicationScoped
+public class FormGenerationScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger( FormGenerationScheduler.class );
+
+    public static final String DEBOUNCE_PROPERTY = "livespark.formgen.debounce_ms";
+    public static final String MAX_DELAY_PROPERTY = "livespark.formgen.max_delay_ms";
+    public static final String WORKERS_PROPERTY = "livespark.formgen.workers";
+
+    private static final long DEFAULT_DEBOUNCE_MS = 500;
+    private static final long DEFAULT_MAX_DELAY_MS = 5000;
+    private static final int DEFAULT_WORKERS = 2;
+
+    /*
+     * Sources generated for changes that do not say who made them are committed as this user.
+     */
+    private static final String SYSTEM_COMMITTER = "system";
+
+    public enum Priority {
+        /** A data object saved by a user. */
+        INTERACTIVE,
+        /** One of many data objects changed at once, for example by an import. */
+        BULK
+    }
+
+    @Inject
+    private KieProjectService projectService;
+
+    @Inject
+    private DataModelerService dataModelerService;
+
+    @Inject
+    private DataModellerFormGenerator formGenerator;
+
+    @Inject
+    private BoundRequestContext requestContext;
+
+    @Inject
+    private Event<FormGenerationCompletedEvent> completedEvent;
+
+    @Inject
+    private Event<FormGenerationFailedEvent> failedEvent;
+
+    /*
+     * The data objects whose forms are waiting to be generated or are being generated, by URI. It also guards the
+     * state of its generations.
+     */
+    private final Map<String, Generation> generations = new HashMap<String, Generation>();
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    private ScheduledThreadPoolExecutor timer;
+    private ThreadPoolExecutor workers;
+    private long debounceMs;
+    private long maxDelayMs;
+
+    @PostConstruct
+    protected void init() {
+        debounceMs = readLong( DEBOUNCE_PROPERTY, DEFAULT_DEBOUNCE_MS );
+        maxDelayMs = readLong( MAX_DELAY_PROPERTY, DEFAULT_MAX_DELAY_MS );
+
+        timer = newTimer();
+
+        final int workerCount = (int) readLong( WORKERS_PROPERTY, DEFAULT_WORKERS );
+        workers = new ThreadPoolExecutor( workerCount,
+                                          workerCount,
+                                          0,
+                                          TimeUnit.MILLISECONDS,
+                                          new PriorityBlockingQueue<Runnable>(),
+                                          newThreadFactory( "livespark-formgen-" ) );
+    }
+
+    @PreDestroy
+    protected void destroy() {
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /*
+     * Runs the debounce delays. Tests replace it to fire delays on demand.
+     */
+    protected ScheduledThreadPoolExecutor newTimer() {
+        final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor( 1, newThreadFactory( "livespark-formgen-timer-" ) );
+        timer.setRemoveOnCancelPolicy( true );
+
+        return timer;
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private static long readLong( final String property, final long defaultValue ) {
+        final String configured = System.getProperty( property );
+        if ( configured != null ) {
+            try {
+                return Math.max( 1, Long.parseLong( configured.trim() ) );
+            } catch ( NumberFormatException e ) {
+                logger.warn( "Ignoring invalid value for " + property + ": " + configured );
+            }
+        }
+
+        return defaultValue;
+    }
+
+    private static ThreadFactory newThreadFactory( final String prefix ) {
+        final ClassLoader classLoader = FormGenerationScheduler.class.getClassLoader();
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        return new ThreadFactory() {
+
+            @Override
+            public Thread newThread( final Runnable runnable ) {
+                final Thread thread = new Thread( runnable, prefix + threadCount.incrementAndGet() );
+                thread.setDaemon( true );
+                thread.setContextClassLoader( classLoader );
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Schedules the generation of the forms of the data object at the given path, and returns at once.
+     *
+     * @param committer
+     *            The identifier of the user who changed the data object, or null if it is unknown.
+     */
+    public void schedule( final Path path,
+                          final Priority priority,
+                          final String committer ) {
+        synchronized ( generations ) {
+            Generation generation = generations.get( path.toURI() );
+            if ( generation == null ) {
+                generation = new Generation( path );
+                generations.put( path.toURI(), generation );
+            }
+            try {
+                generation.update( priority, committer );
+            } catch ( RejectedExecutionException e ) {
+                generations.remove( path.toURI() );
+                logger.debug( "Ignoring the change of {}, because the application is stopping.", path.toURI() );
+            }
+        }
+    }
+
+    /**
+     * @return The number of data objects whose forms are waiting to be generated or are being generated.
+     */
+    public int getPendingCount() {
+        synchronized ( generations ) {
+            return generations.size();
+        }
+    }
+
+    /*
+     * The data object is loaded when its generation runs rather than when it changed, so that coalesced changes are
+     * all seen. Failures to load it are thrown, so that they are reported like failures to generate its forms.
+     *
+     * @return True if forms were generated, false if the path is not a data object or it has no fields to show.
+     */
+    protected boolean generate( final Path path,
+                                final String committer ) {
+        final DataObject dataObject = getDataObjectForPath( path );
+        if ( dataObject == null ) {
+            return false;
+        }
+
+        return formGenerator.generateFormForDataObject( dataObject, path, committer );
+    }
+
+    /**
+     * @return The data object at the given path, or null if the path is not a data object or holds generated form
+     *         sources.
+     */
+    protected DataObject getDataObjectForPath( final Path path ) {
+        if ( !path.getFileName().endsWith( ".java" ) ) {
+            return null;
+        }
+
+        final KieProject project = projectService.resolveProject( path );
+        final DataModel dataModel = dataModelerService.loadModel( project );
+        final String className = calculateClassName( project, path );
+        final DataObject dataObject = dataModel != null ? dataModel.getDataObject( className ) : null;
+
+        if ( dataObject == null
+                || dataObject.getSuperClassName().equals( SourceGenerationUtil.FORM_MODEL_CLASS )
+                || dataObject.getSuperClassName().equals( SourceGenerationUtil.FORM_VIEW_CLASS ) ) {
+            return null;
+        }
+
+        return dataObject;
+    }
+
+    private String calculateClassName( final Project project,
+                                       final Path path ) {
+        final Path rootPath = project.getRootPath();
+        if ( !path.toURI().startsWith( rootPath.toURI() ) ) {
+            return null;
+        }
+
+        final org.guvnor.common.services.project.model.Package defaultPackage = projectService.resolveDefaultPackage( project );
+        final Path srcPath;
+        if ( path.toURI().startsWith( defaultPackage.getPackageMainSrcPath().toURI() ) ) {
+            srcPath = defaultPackage.getPackageMainSrcPath();
+        } else if ( path.toURI().startsWith( defaultPackage.getPackageTestSrcPath().toURI() ) ) {
+            srcPath = defaultPackage.getPackageTestSrcPath();
+        } else {
+            return null;
+        }
+
+        // project: default://master@uf-playground/mortgages/main/src/Pojo.java
+        final String relativePath = path.toURI().substring( srcPath.toURI().length() + 1 );
+
+        return relativePath.substring( 0, relativePath.indexOf( ".java" ) ).replace( "/", "." );
+    }
+
+    /*
+     * The pending changes of one data object. A generation waits for its debounce delay, then in the worker queue, and
+     * then runs. Its state is guarded by the generations map, and it is only ordered in the worker queue while its
+     * priority and sequence do not change.
+     */
+    private class Generation implements Runnable,
+                                        Comparable<Generation> {
+
+        private final Path path;
+
+        private Priority priority;
+        private String committer;
+        private long sequence;
+
+        private long firstChange;
+        private long delayRound;
+        private ScheduledFuture<?> delay;
+        private boolean queued = false;
+        private boolean running = false;
+        private boolean changedWhileRunning = false;
+
+        Generation( final Path path ) {
+            this.path = path;
+        }
+
+        void update( final Priority priority,
+                     final String committer ) {
+            if ( committer != null ) {
+                this.committer = committer;
+            }
+            final boolean raised = this.priority == null || priority.compareTo( this.priority ) < 0;
+
+            if ( queued ) {
+                // The queued run loads the latest model anyway. It only moves ahead if its priority was raised.
+                if ( raised && workers.remove( this ) ) {
+                    this.priority = priority;
+                    enqueue();
+                }
+                return;
+            }
+
+            if ( raised ) {
+                this.priority = priority;
+            }
+            if ( running ) {
+                changedWhileRunning = true;
+            } else {
+                restartDelay();
+            }
+        }
+
+        private void restartDelay() {
+            final long now = currentTimeMillis();
+            if ( delay == null ) {
+                firstChange = now;
+            } else {
+                delay.cancel( false );
+            }
+
+            // A delay that already fired while this one was scheduled finds a newer round and does nothing.
+            final long round = ++delayRound;
+            delay = timer.schedule( new Runnable() {
+
+                @Override
+                public void run() {
+                    synchronized ( generations ) {
+                        if ( round == delayRound ) {
+                            delay = null;
+                            enqueue();
+                        }
+                    }
+                }
+            }, Math.max( 0, Math.min( debounceMs, firstChange + maxDelayMs - now ) ), TimeUnit.MILLISECONDS );
+        }
+
+        private void enqueue() {
+            queued = true;
+            sequence = nextSequence.incrementAndGet();
+            workers.execute( this );
+        }
+
+        @Override
+        public void run() {
+            final String runCommitter;
+            synchronized ( generations ) {
+                queued = false;
+                running = true;
+                priority = null;
+                runCommitter = committer != null ? committer : SYSTEM_COMMITTER;
+            }
+
+            // Loading the data model and generating the forms expect a request context, which worker threads lack.
+            final Map<String, Object> requestStorage = new HashMap<String, Object>();
+            requestContext.associate( requestStorage );
+            requestContext.activate();
+            try {
+                if ( generate( path, runCommitter ) ) {
+                    completedEvent.fire( new FormGenerationCompletedEvent( path ) );
+                }
+            } catch ( Exception e ) {
+                logger.error( "Unable to generate the forms of " + path.toURI() + ".", e );
+                failedEvent.fire( new FormGenerationFailedEvent( path, e ) );
+            } finally {
+                try {
+                    requestContext.invalidate();
+                    requestContext.deactivate();
+                } finally {
+                    requestContext.dissociate( requestStorage );
+                }
+                finished();
+            }
+        }
+
+        private void finished() {
+            synchronized ( generations ) {
+                running = false;
+                if ( changedWhileRunning ) {
+                    changedWhileRunning = false;
+                    try {
+                        restartDelay();
+                        return;
+                    } catch ( RejectedExecutionException e ) {
+                        // The application is stopping.
+                    }
+                }
+                generations.remove( path.toURI() );
+            }
+        }
+
+        @Override
+        public int compareTo( final Generation other ) {
+            final int byPriority = priority.compareTo( other.priority );
+
+            return byPriority != 0 ? byPriority : Long.compare( sequence, other.sequence );
+        }
+    }
+
+}
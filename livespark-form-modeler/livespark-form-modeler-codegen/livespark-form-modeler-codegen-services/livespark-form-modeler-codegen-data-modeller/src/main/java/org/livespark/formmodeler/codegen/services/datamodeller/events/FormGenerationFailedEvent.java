@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.formmodeler.codegen.services.datamodeller.events;
+
+import org.uberfire.backend.vfs.Path;
+
+/**
+ * Fired when the forms of a changed data object could not be generated.
+ */
+public class FormGenerationFailedEvent {
+
+    private final Path path;
+    private final Throwable cause;
+
+    public FormGenerationFailedEvent( final Path path,
+                                      final Throwable cause ) {
+        this.path = path;
+        this.cause = cause;
+    }
+
+    /**
+     * @return The path of the data object.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    public Throwable getCause() {
+        return cause;
+    }
+}
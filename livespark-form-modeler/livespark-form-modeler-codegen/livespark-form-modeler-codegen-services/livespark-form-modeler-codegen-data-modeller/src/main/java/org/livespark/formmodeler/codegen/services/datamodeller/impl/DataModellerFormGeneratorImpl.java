@@ -67,8 +67,27 @@ public class DataModellerFormGeneratorImpl implements DataModellerFormGenerator
 
     @Override
     public void generateFormForDataObject( DataObject dataObject, Path path ) {
+        FormDefinition form = createForm( dataObject, path );
 
-        if (dataObject.getProperties().isEmpty()) return;
+        if ( form != null ) formSourcesGenerator.generateEntityFormSources( form, path );
+    }
+
+    @Override
+    public boolean generateFormForDataObject( DataObject dataObject, Path path, String committer ) {
+        FormDefinition form = createForm( dataObject, path );
+
+        if ( form == null ) return false;
+
+        formSourcesGenerator.generateEntityFormSources( form, path, committer );
+        return true;
+    }
+
+    /**
+     * @return The form of the given data object, or null if it has no fields to show.
+     */
+    protected FormDefinition createForm( DataObject dataObject, Path path ) {
+
+        if (dataObject.getProperties().isEmpty()) return null;
 
         FormDefinition form = formFinderSerivce.getNewFormInstance();
 
@@ -89,10 +108,9 @@ public class DataModellerFormGeneratorImpl implements DataModellerFormGenerator
             form.getFields().add( field );
         }
 
-        if (form.getFields().isEmpty()) return;
-
-        formSourcesGenerator.generateEntityFormSources(form, path);
+        if (form.getFields().isEmpty()) return null;
 
+        return form;
     }
 
     protected boolean loadEmbeddedFormConfig ( FieldDefinition field, Path path ) {
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.livespark.formmodeler.codegen.services.datamodeller;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.event.Event;
+
+import org.guvnor.common.services.project.model.Package;
+import org.jboss.weld.context.bound.BoundRequestContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kie.workbench.common.screens.datamodeller.service.DataModelerService;
+import org.kie.workbench.common.services.datamodeller.core.DataModel;
+import org.kie.workbench.common.services.datamodeller.core.DataObject;
+import org.kie.workbench.common.services.shared.project.KieProject;
+import org.kie.workbench.common.services.shared.project.KieProjectService;
+import org.livespark.formmodeler.codegen.services.datamodeller.FormGenerationScheduler.Priority;
+import org.livespark.formmodeler.codegen.services.datamodeller.events.FormGenerationCompletedEvent;
+import org.livespark.formmodeler.codegen.services.datamodeller.events.FormGenerationFailedEvent;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.uberfire.backend.vfs.Path;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FormGenerationSchedulerTest {
+
+    private static final long DEBOUNCE_MS = 200;
+    private static final long MAX_DELAY_MS = 800;
+    private static final long TIMEOUT_MS = 10000;
+
+    private static final String PROJECT = "default://master@repository/project";
+    private static final String SOURCES = PROJECT + "/src/main/java";
+
+    /*
+     * Keeps the delays it is given instead of running them, so that tests fire them on demand.
+     */
+    static class ManualTimer extends ScheduledThreadPoolExecutor {
+
+        final List<Runnable> delays = Collections.synchronizedList( new ArrayList<Runnable>() );
+        final List<Long> delayMs = Collections.synchronizedList( new ArrayList<Long>() );
+        final List<ScheduledFuture<?>> futures = Collections.synchronizedList( new ArrayList<ScheduledFuture<?>>() );
+        private int fired = 0;
+
+        ManualTimer() {
+            super( 1 );
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule( final Runnable command,
+                                            final long delay,
+                                            final TimeUnit unit ) {
+            final ScheduledFuture<?> future = mock( ScheduledFuture.class );
+            delayMs.add( unit.toMillis( delay ) );
+            futures.add( future );
+            delays.add( command );
+
+            return future;
+        }
+
+        /*
+         * Fires the delays scheduled since the last call, as if they all passed.
+         */
+        synchronized void fire() {
+            while ( fired < delays.size() ) {
+                delays.get( fired++ ).run();
+            }
+        }
+    }
+
+    /*
+     * Records the generations instead of running them, except for data object sources, which are generated. A
+     * generation blocks while its path has a gate that is closed.
+     */
+    static class RecordingScheduler extends FormGenerationScheduler {
+
+        final ManualTimer timer = new ManualTimer();
+        final List<String> generated = Collections.synchronizedList( new ArrayList<String>() );
+        final Map<String, CountDownLatch> gates = new ConcurrentHashMap<String, CountDownLatch>();
+        final Map<String, CountDownLatch> started = new ConcurrentHashMap<String, CountDownLatch>();
+        volatile long now = 0;
+
+        @Override
+        protected ScheduledThreadPoolExecutor newTimer() {
+            return timer;
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        protected boolean generate( final Path path,
+                                    final String committer ) {
+            final String uri = path.toURI();
+            generated.add( uri );
+            final CountDownLatch start = started.get( uri );
+            if ( start != null ) {
+                start.countDown();
+            }
+            final CountDownLatch gate = gates.get( uri );
+            if ( gate != null ) {
+                try {
+                    gate.await( TIMEOUT_MS, TimeUnit.MILLISECONDS );
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if ( uri.endsWith( ".java" ) ) {
+                return super.generate( path, committer );
+            }
+            if ( uri.contains( "broken" ) ) {
+                throw new IllegalStateException( "Unable to generate " + uri );
+            }
+
+            return true;
+        }
+    }
+
+    @Mock
+    private KieProjectService projectService;
+
+    @Mock
+    private DataModelerService dataModelerService;
+
+    @Mock
+    private DataModellerFormGenerator formGenerator;
+
+    @Mock
+    private BoundRequestContext requestContext;
+
+    @Mock
+    private Event<FormGenerationCompletedEvent> completedEvent;
+
+    @Mock
+    private Event<FormGenerationFailedEvent> failedEvent;
+
+    @InjectMocks
+    private RecordingScheduler scheduler;
+
+    @Before
+    public void setup() {
+        System.setProperty( FormGenerationScheduler.DEBOUNCE_PROPERTY, String.valueOf( DEBOUNCE_MS ) );
+        System.setProperty( FormGenerationScheduler.MAX_DELAY_PROPERTY, String.valueOf( MAX_DELAY_MS ) );
+        System.setProperty( FormGenerationScheduler.WORKERS_PROPERTY, "1" );
+        scheduler.init();
+    }
+
+    @After
+    public void teardown() {
+        scheduler.destroy();
+        System.clearProperty( FormGenerationScheduler.DEBOUNCE_PROPERTY );
+        System.clearProperty( FormGenerationScheduler.MAX_DELAY_PROPERTY );
+        System.clearProperty( FormGenerationScheduler.WORKERS_PROPERTY );
+    }
+
+    @Test
+    public void testBurstOfChangesIsGeneratedOnce() throws Exception {
+        for ( int i = 0; i < 5; i++ ) {
+            scheduler.schedule( path( "a" ), Priority.INTERACTIVE, "user" );
+        }
+        assertEquals( 1, scheduler.getPendingCount() );
+
+        scheduler.timer.fire();
+        awaitIdle();
+
+        assertEquals( Arrays.asList( "a" ), scheduler.generated );
+        verify( completedEvent ).fire( any( FormGenerationCompletedEvent.class ) );
+    }
+
+    @Test
+    public void testGenerationWaitsForQuiet() throws Exception {
+        scheduler.schedule( path( "a" ), Priority.INTERACTIVE, "user" );
+        scheduler.now = DEBOUNCE_MS / 2;
+        scheduler.schedule( path( "a" ), Priority.INTERACTIVE, "user" );
+
+        // The second change restarted the delay of the first.
+        assertEquals( 2, scheduler.timer.delays.size() );
+        verify( scheduler.timer.futures.get( 0 ) ).cancel( false );
+        assertEquals( DEBOUNCE_MS, (long) scheduler.timer.delayMs.get( 1 ) );
+
+        // A cancelled delay that fires anyway, because it had already started, does not generate again.
+        scheduler.timer.fire();
+        awaitIdle();
+
+        assertEquals( Arrays.asList( "a" ), scheduler.generated );
+    }
+
+    @Test
+    public void testContinuousChangesAreGeneratedAfterTheMaximumDelay() throws Exception {
+        scheduler.schedule( path( "a" ), Priority.BULK, null );
+        scheduler.now = MAX_DELAY_MS - DEBOUNCE_MS / 2;
+        scheduler.schedule( path( "a" ), Priority.BULK, null );
+        scheduler.now = MAX_DELAY_MS + DEBOUNCE_MS;
+        scheduler.schedule( path( "a" ), Priority.BULK, null );
+
+        assertEquals( Arrays.asList( DEBOUNCE_MS, DEBOUNCE_MS / 2, 0L ), scheduler.timer.delayMs );
+    }
+
+    @Test
+    public void testChangeWhileGeneratingIsGeneratedAgain() throws Exception {
+        final CountDownLatch gate = block( "a" );
+        final CountDownLatch started = new CountDownLatch( 1 );
+        scheduler.started.put( "a", started );
+        scheduler.schedule( path( "a" ), Priority.INTERACTIVE, "user" );
+        scheduler.timer.fire();
+        assertTrue( started.await( TIMEOUT_MS, TimeUnit.MILLISECONDS ) );
+
+        scheduler.schedule( path( "a" ), Priority.INTERACTIVE, "user" );
+        scheduler.schedule( path( "a" ), Priority.INTERACTIVE, "user" );
+        scheduler.gates.remove( "a" );
+        gate.countDown();
+
+        awaitDelays( 2 );
+        scheduler.timer.fire();
+        awaitIdle();
+        assertEquals( Arrays.asList( "a", "a" ), scheduler.generated );
+    }
+
+    @Test
+    public void testInteractiveChangesGoFirst() throws Exception {
+        final CountDownLatch gate = occupyWorker();
+
+        scheduler.schedule( path( "bulk" ), Priority.BULK, null );
+        scheduler.schedule( path( "interactive" ), Priority.INTERACTIVE, "user" );
+        scheduler.timer.fire();
+        gate.countDown();
+
+        awaitIdle();
+        assertEquals( Arrays.asList( "busy", "interactive", "bulk" ), scheduler.generated );
+    }
+
+    @Test
+    public void testRaisedPriorityMovesAhead() throws Exception {
+        final CountDownLatch gate = occupyWorker();
+
+        scheduler.schedule( path( "first" ), Priority.BULK, null );
+        scheduler.schedule( path( "second" ), Priority.BULK, null );
+        scheduler.timer.fire();
+        scheduler.schedule( path( "second" ), Priority.INTERACTIVE, "user" );
+        gate.countDown();
+
+        awaitIdle();
+        assertEquals( Arrays.asList( "busy", "second", "first" ), scheduler.generated );
+    }
+
+    @Test
+    public void testEqualPrioritiesKeepTheirOrder() throws Exception {
+        final CountDownLatch gate = occupyWorker();
+
+        scheduler.schedule( path( "first" ), Priority.BULK, null );
+        scheduler.schedule( path( "second" ), Priority.BULK, null );
+        scheduler.timer.fire();
+        gate.countDown();
+
+        awaitIdle();
+        assertEquals( Arrays.asList( "busy", "first", "second" ), scheduler.generated );
+    }
+
+    @Test
+    public void testFailureIsReported() throws Exception {
+        scheduler.schedule( path( "broken" ), Priority.INTERACTIVE, "user" );
+
+        scheduler.timer.fire();
+        awaitIdle();
+        verify( failedEvent ).fire( any( FormGenerationFailedEvent.class ) );
+        verify( completedEvent, never() ).fire( any( FormGenerationCompletedEvent.class ) );
+        verify( requestContext ).deactivate();
+    }
+
+    @Test
+    public void testDataObjectThatCannotBeLoadedFails() throws Exception {
+        final Path path = source( "org/example/Person.java" );
+        when( projectService.resolveProject( path ) ).thenThrow( new IllegalStateException( "Unable to resolve the project" ) );
+
+        scheduler.schedule( path, Priority.INTERACTIVE, "user" );
+        scheduler.timer.fire();
+        awaitIdle();
+
+        verify( failedEvent ).fire( any( FormGenerationFailedEvent.class ) );
+        verify( completedEvent, never() ).fire( any( FormGenerationCompletedEvent.class ) );
+    }
+
+    @Test
+    public void testDataObjectWithoutFormIsNotReported() throws Exception {
+        final Path path = source( "org/example/Person.java" );
+        final DataObject dataObject = dataObject( path, "org.example.Person" );
+        when( formGenerator.generateFormForDataObject( dataObject, path, "user" ) ).thenReturn( false );
+
+        scheduler.schedule( path, Priority.INTERACTIVE, "user" );
+        scheduler.timer.fire();
+        awaitIdle();
+
+        verify( formGenerator ).generateFormForDataObject( dataObject, path, "user" );
+        verify( completedEvent, never() ).fire( any( FormGenerationCompletedEvent.class ) );
+        verify( failedEvent, never() ).fire( any( FormGenerationFailedEvent.class ) );
+    }
+
+    @Test
+    public void testGeneratedFormIsReported() throws Exception {
+        final Path path = source( "org/example/Person.java" );
+        final DataObject dataObject = dataObject( path, "org.example.Person" );
+        when( formGenerator.generateFormForDataObject( dataObject, path, "user" ) ).thenReturn( true );
+
+        scheduler.schedule( path, Priority.INTERACTIVE, "user" );
+        scheduler.timer.fire();
+        awaitIdle();
+
+        verify( completedEvent ).fire( any( FormGenerationCompletedEvent.class ) );
+        verify( failedEvent, never() ).fire( any( FormGenerationFailedEvent.class ) );
+    }
+
+    private static Path path( final String uri ) {
+        final Path path = mock( Path.class );
+        when( path.toURI() ).thenReturn( uri );
+
+        return path;
+    }
+
+    private static Path source( final String relativePath ) {
+        final Path path = path( SOURCES + "/" + relativePath );
+        when( path.getFileName() ).thenReturn( relativePath.substring( relativePath.lastIndexOf( '/' ) + 1 ) );
+
+        return path;
+    }
+
+    /*
+     * Makes the given source the data object of the given class, in a project with the default layout.
+     */
+    private DataObject dataObject( final Path path,
+                                   final String className ) {
+        final KieProject project = mock( KieProject.class );
+        final Path rootPath = path( PROJECT );
+        when( project.getRootPath() ).thenReturn( rootPath );
+        when( projectService.resolveProject( path ) ).thenReturn( project );
+
+        final Package defaultPackage = mock( Package.class );
+        final Path mainSrcPath = path( SOURCES );
+        final Path testSrcPath = path( PROJECT + "/src/test/java" );
+        when( defaultPackage.getPackageMainSrcPath() ).thenReturn( mainSrcPath );
+        when( defaultPackage.getPackageTestSrcPath() ).thenReturn( testSrcPath );
+        when( projectService.resolveDefaultPackage( project ) ).thenReturn( defaultPackage );
+
+        final DataObject dataObject = mock( DataObject.class );
+        when( dataObject.getSuperClassName() ).thenReturn( "java.lang.Object" );
+        final DataModel dataModel = mock( DataModel.class );
+        when( dataModel.getDataObject( className ) ).thenReturn( dataObject );
+        when( dataModelerService.loadModel( project ) ).thenReturn( dataModel );
+
+        return dataObject;
+    }
+
+    private CountDownLatch block( final String uri ) {
+        final CountDownLatch gate = new CountDownLatch( 1 );
+        scheduler.gates.put( uri, gate );
+
+        return gate;
+    }
+
+    /*
+     * Keeps the only worker busy until the returned gate opens, so that the following generations queue up.
+     */
+    private CountDownLatch occupyWorker() throws Exception {
+        final CountDownLatch gate = block( "busy" );
+        final CountDownLatch started = new CountDownLatch( 1 );
+        scheduler.started.put( "busy", started );
+        scheduler.schedule( path( "busy" ), Priority.BULK, null );
+        scheduler.timer.fire();
+        assertTrue( started.await( TIMEOUT_MS, TimeUnit.MILLISECONDS ) );
+
+        return gate;
+    }
+
+    /*
+     * Waits until the given number of debounce delays were scheduled, including those scheduled by worker threads.
+     */
+    private void awaitDelays( final int count ) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while ( scheduler.timer.delays.size() < count ) {
+            assertTrue( "The debounce delay was not scheduled in time.", System.currentTimeMillis() < deadline );
+            Thread.sleep( 10 );
+        }
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while ( scheduler.getPendingCount() > 0 ) {
+            assertTrue( "Generations did not finish in time.", System.currentTimeMillis() < deadline );
+            Thread.sleep( 10 );
+        }
+    }
+}
@@ -249,7 +249,13 @@ public class BuildAndDeploymentTest extends BaseIntegrationTest {
         }
 
         simulateSessionExpiration();
-        assertEquals( 0, getWithSuffix( DEPLOY_DIR, ".war" ).length );
+
+        runAssertions( new Runnable() {
+            @Override
+            public void run() {
+                assertEquals( 0, getWithSuffix( DEPLOY_DIR, ".war" ).length );
+            }
+        }, 10, 500 );
     }
 
     @Test
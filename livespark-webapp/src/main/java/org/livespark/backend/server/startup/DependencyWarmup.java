@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.backend.server.startup;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.guvnor.common.services.project.model.Project;
+import org.guvnor.structure.repositories.Repository;
+import org.guvnor.structure.repositories.RepositoryService;
+import org.kie.workbench.common.services.shared.project.KieProjectService;
+import org.livespark.backend.server.service.maven.OfflineDependencyResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.uberfire.commons.services.cdi.Startup;
+import org.uberfire.commons.services.cdi.StartupType;
+
+/**
+ * Resolves the dependencies of every project in the registered repositories into the shared local repository, so
+ * that the first build of a project does not have to. Runs after {@link AppSetup} has registered the repositories.
+ */
+@Startup(StartupType.EAGER)
+@ApplicationScoped
+public class DependencyWarmup {
+
+    private static final Logger logger = LoggerFactory.getLogger( DependencyWarmup.class );
+
+    private static final String BRANCH = "master";
+
+    @Inject
+    private RepositoryService repositoryService;
+
+    @Inject
+    private KieProjectService projectService;
+
+    @Inject
+    private OfflineDependencyResolver dependencyResolver;
+
+    @PostConstruct
+    public void warmUp() {
+        final Set<Project> projects = new HashSet<Project>();
+        for ( Repository repository : repositoryService.getRepositories() ) {
+            try {
+                projects.addAll( projectService.getProjects( repository, BRANCH ) );
+            } catch ( final Exception e ) {
+                logger.warn( "Unable to list the projects of repository " + repository.getAlias(), e );
+            }
+        }
+
+        logger.info( "Resolving the dependencies of {} projects.", projects.size() );
+        dependencyResolver.resolve( projects );
+    }
+
+}
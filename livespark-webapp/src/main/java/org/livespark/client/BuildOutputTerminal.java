@@ -0,0 +1,329 @@
+/*
+ * Copyright 2015 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.livespark.client;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.Dependent;
+import javax.inject.Inject;
+
+import org.jboss.errai.common.client.api.Caller;
+import org.jboss.errai.common.client.api.ErrorCallback;
+import org.jboss.errai.common.client.api.RemoteCallback;
+import org.livespark.client.shared.BuildLogLines;
+import org.livespark.client.shared.BuildLogService;
+
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.dom.client.DivElement;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Style;
+import com.google.gwt.event.dom.client.ScrollEvent;
+import com.google.gwt.event.dom.client.ScrollHandler;
+import com.google.gwt.safehtml.shared.SafeHtmlBuilder;
+import com.google.gwt.user.client.ui.Composite;
+import com.google.gwt.user.client.ui.FlowPanel;
+import com.google.gwt.user.client.ui.ScrollPanel;
+
+/**
+ * A read-only terminal for long build logs.
+ * <p>
+ * The most recent lines are kept in a ring buffer of configurable capacity, and only the lines inside the visible
+ * viewport are rendered, so appending costs the same regardless of how long the log is. Older lines that fell out of the
+ * ring buffer are fetched from the server page by page when they are scrolled into view.
+ */
+@Dependent
+public class BuildOutputTerminal extends Composite {
+
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private static final int LINE_HEIGHT_PX = 16;
+    private static final int OVERSCAN_LINES = 20;
+    private static final int HISTORY_PAGE_SIZE = 500;
+    private static final int MAX_HISTORY_PAGES = 4;
+    private static final String UNAVAILABLE_LINE = "...";
+
+    @Inject
+    private Caller<BuildLogService> buildLogService;
+
+    private final ScrollPanel scrollPanel = new ScrollPanel();
+    private final FlowPanel content = new FlowPanel();
+    private final DivElement viewport = Document.get().createDivElement();
+
+    private String[] buffer = new String[DEFAULT_CAPACITY];
+    private int bufferStart = 0;
+    private int bufferSize = 0;
+
+    /*
+     * Number of lines received since the terminal was last cleared. The ring buffer holds the last bufferSize of them.
+     */
+    private int totalLines = 0;
+
+    /*
+     * Incremented whenever the terminal is cleared, so that history requested before can be recognised and discarded.
+     */
+    private int generation = 0;
+
+    private final Map<Integer, String[]> historyPages = new LinkedHashMap<Integer, String[]>( 16, 0.75f, true ) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( final Map.Entry<Integer, String[]> eldest ) {
+            return size() > MAX_HISTORY_PAGES;
+        }
+    };
+    private final Set<Integer> requestedPages = new HashSet<Integer>();
+
+    private boolean renderScheduled = false;
+
+    @PostConstruct
+    public void setup() {
+        initWidget( scrollPanel );
+        scrollPanel.setWidget( content );
+        content.getElement().appendChild( viewport );
+
+        fill( getElement().getStyle() );
+        applyTerminalStyle( getElement().getStyle() );
+        content.getElement().getStyle().setPosition( Style.Position.RELATIVE );
+
+        final Style viewportStyle = viewport.getStyle();
+        viewportStyle.setPosition( Style.Position.ABSOLUTE );
+        viewportStyle.setLeft( 0.0, Style.Unit.PX );
+        viewportStyle.setTop( 0.0, Style.Unit.PX );
+        viewportStyle.setProperty( "whiteSpace", "pre" );
+
+        scrollPanel.addScrollHandler( new ScrollHandler() {
+
+            @Override
+            public void onScroll( ScrollEvent event ) {
+                scheduleRender();
+            }
+        } );
+    }
+
+    @Override
+    public void onAttach() {
+        super.onAttach();
+        fill( getElement().getParentElement().getStyle() );
+        scheduleRender();
+    }
+
+    /**
+     * Sets how many of the most recent lines are kept in memory. Clears the terminal.
+     */
+    public void setCapacity( final int capacity ) {
+        buffer = new String[Math.max( 1, capacity )];
+        clear();
+    }
+
+    public void clear() {
+        for ( int i = 0; i < buffer.length; i++ ) {
+            buffer[i] = null;
+        }
+        bufferStart = 0;
+        bufferSize = 0;
+        totalLines = 0;
+        generation++;
+        historyPages.clear();
+        requestedPages.clear();
+
+        updateHeight();
+        scrollPanel.setVerticalScrollPosition( 0 );
+        scheduleRender();
+    }
+
+    /**
+     * Appends newline-terminated lines and scrolls to them, unless the user scrolled away from the end.
+     *
+     * @param firstLine
+     *            The index of the first appended line, or null if the lines directly follow the current last line.
+     */
+    public void append( final String lines, final Integer firstLine ) {
+        if ( lines == null ) {
+            return;
+        }
+
+        final boolean following = isScrolledToEnd();
+        int skip = 0;
+        if ( firstLine != null ) {
+            if ( firstLine > totalLines ) {
+                // Lines were missed. They can still be fetched from the server, so they become history.
+                bufferStart = 0;
+                bufferSize = 0;
+                totalLines = firstLine;
+            } else {
+                skip = totalLines - firstLine;
+            }
+        }
+
+        int lineStart = 0;
+        int lineEnd;
+        while ( ( lineEnd = lines.indexOf( '\n', lineStart ) ) != -1 ) {
+            if ( skip > 0 ) {
+                skip--;
+            } else {
+                push( lines.substring( lineStart, lineEnd ) );
+            }
+            lineStart = lineEnd + 1;
+        }
+        if ( lineStart < lines.length() && skip == 0 ) {
+            push( lines.substring( lineStart ) );
+        }
+
+        updateHeight();
+        if ( following ) {
+            scrollPanel.setVerticalScrollPosition( totalLines * LINE_HEIGHT_PX );
+        }
+        scheduleRender();
+    }
+
+    public int getLineCount() {
+        return totalLines;
+    }
+
+    private void push( final String line ) {
+        if ( bufferSize < buffer.length ) {
+            buffer[( bufferStart + bufferSize ) % buffer.length] = line;
+            bufferSize++;
+        } else {
+            // The evicted line now belongs to history, so a partially fetched page containing it is out of date.
+            historyPages.remove( ( totalLines - buffer.length ) / HISTORY_PAGE_SIZE );
+            buffer[bufferStart] = line;
+            bufferStart = ( bufferStart + 1 ) % buffer.length;
+        }
+        totalLines++;
+    }
+
+    private boolean isScrolledToEnd() {
+        return scrollPanel.getVerticalScrollPosition() + scrollPanel.getOffsetHeight() >= totalLines * LINE_HEIGHT_PX - LINE_HEIGHT_PX;
+    }
+
+    private void updateHeight() {
+        content.getElement().getStyle().setHeight( totalLines * LINE_HEIGHT_PX, Style.Unit.PX );
+    }
+
+    private void scheduleRender() {
+        if ( renderScheduled ) {
+            return;
+        }
+
+        renderScheduled = true;
+        Scheduler.get().scheduleFinally( new ScheduledCommand() {
+
+            @Override
+            public void execute() {
+                renderScheduled = false;
+                render();
+            }
+        } );
+    }
+
+    private void render() {
+        final int scrollTop = scrollPanel.getVerticalScrollPosition();
+        final int first = Math.max( 0, scrollTop / LINE_HEIGHT_PX - OVERSCAN_LINES );
+        final int last = Math.min( totalLines, ( scrollTop + scrollPanel.getOffsetHeight() ) / LINE_HEIGHT_PX + 1 + OVERSCAN_LINES );
+
+        final SafeHtmlBuilder html = new SafeHtmlBuilder();
+        for ( int i = first; i < last; i++ ) {
+            html.appendHtmlConstant( "<div style=\"height:" + LINE_HEIGHT_PX + "px;line-height:" + LINE_HEIGHT_PX + "px\">" );
+            html.appendEscaped( getLine( i ) );
+            html.appendHtmlConstant( "</div>" );
+        }
+
+        viewport.getStyle().setTop( first * LINE_HEIGHT_PX, Style.Unit.PX );
+        viewport.setInnerHTML( html.toSafeHtml().asString() );
+    }
+
+    private String getLine( final int index ) {
+        final int firstBuffered = totalLines - bufferSize;
+        if ( index >= firstBuffered ) {
+            return buffer[( bufferStart + index - firstBuffered ) % buffer.length];
+        }
+
+        final int page = index / HISTORY_PAGE_SIZE;
+        final String[] pageLines = historyPages.get( page );
+        if ( pageLines == null ) {
+            requestHistoryPage( page, firstBuffered );
+            return "";
+        }
+
+        final String line = pageLines[index - page * HISTORY_PAGE_SIZE];
+        return line != null ? line : UNAVAILABLE_LINE;
+    }
+
+    private void requestHistoryPage( final int page, final int firstBuffered ) {
+        if ( !requestedPages.add( page ) ) {
+            return;
+        }
+
+        final int requestGeneration = generation;
+        final int from = page * HISTORY_PAGE_SIZE;
+        final int to = Math.min( from + HISTORY_PAGE_SIZE, firstBuffered );
+        buildLogService.call( new RemoteCallback<BuildLogLines>() {
+
+            @Override
+            public void callback( final BuildLogLines result ) {
+                if ( requestGeneration != generation ) {
+                    return;
+                }
+
+                // Lines the server no longer remembers stay null.
+                final String[] pageLines = new String[HISTORY_PAGE_SIZE];
+                final List<String> lines = result.getLines();
+                for ( int i = 0; i < lines.size(); i++ ) {
+                    pageLines[result.getFirstLine() + i - from] = lines.get( i );
+                }
+                historyPages.put( page, pageLines );
+                requestedPages.remove( page );
+                scheduleRender();
+            }
+        }, new ErrorCallback<Object>() {
+
+            @Override
+            public boolean error( final Object message, final Throwable throwable ) {
+                if ( requestGeneration == generation ) {
+                    requestedPages.remove( page );
+                }
+                return true;
+            }
+        } ).getLines( from, to );
+    }
+
+    private static void fill( final Style s ) {
+        s.setPosition( Style.Position.ABSOLUTE );
+        s.setOverflow( Style.Overflow.HIDDEN );
+        s.setTop( 0.0, Style.Unit.PX );
+        s.setLeft( 0.0, Style.Unit.PX );
+        s.setWidth( 100.0, Style.Unit.PCT );
+        s.setHeight( 100.0, Style.Unit.PCT );
+    }
+
+    private static void applyTerminalStyle( final Style s ) {
+        s.setOverflow( Style.Overflow.AUTO );
+        s.setBackgroundColor( "#181818" );
+        s.setColor( "#e6e1dc" );
+        s.setProperty( "fontFamily", "Monaco, Menlo, Consolas, monospace" );
+        s.setFontSize( 12.0, Style.Unit.PX );
+    }
+
+}
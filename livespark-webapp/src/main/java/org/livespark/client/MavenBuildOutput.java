@@ -36,15 +36,13 @@ public class MavenBuildOutput extends Composite {
     private MessageBus bus;
 
     @Inject
-    private TerminalOutputScreen outputScreen;
+    private BuildOutputTerminal terminal;
 
     @PostConstruct
     public void init() {
-        initWidget( outputScreen );
+        initWidget( terminal );
 
-        outputScreen.setWrapMode( true );
-        outputScreen.setContent( null, "" );
-        outputScreen.setReadOnly( true );
+        terminal.setCapacity( BuildOutputTerminal.DEFAULT_CAPACITY );
 
         bus.subscribe( "MavenBuilderOutput", new MessageCallback() {
 
@@ -52,11 +50,11 @@ public class MavenBuildOutput extends Composite {
             public void callback( Message message ) {
                 final Boolean clean = message.get( Boolean.class, "clean" );
                 final String content = message.get( String.class, "output" );
+                final Integer firstLine = message.get( Integer.class, "firstLine" );
                 if ( clean != null && clean ) {
-                    outputScreen.setContentAndScroll( content );
-                } else {
-                    outputScreen.appendContentAndScroll( content );
+                    terminal.clear();
                 }
+                terminal.append( content, firstLine );
             }
         } );
     }
@@ -15,6 +15,8 @@
  */
 package org.livespark.client.perspectives;
 
+import java.util.List;
+
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
@@ -23,10 +25,14 @@ import javax.inject.Inject;
 import org.guvnor.m2repo.client.event.M2RepoRefreshEvent;
 import org.guvnor.m2repo.client.event.M2RepoSearchEvent;
 import org.guvnor.m2repo.client.upload.UploadFormView;
+import org.jboss.errai.common.client.api.Caller;
+import org.jboss.errai.common.client.api.RemoteCallback;
 import org.jboss.errai.ioc.client.container.SyncBeanManager;
 import org.kie.workbench.common.widgets.client.search.ContextualSearch;
 import org.kie.workbench.common.widgets.client.search.SearchBehavior;
 import org.livespark.client.resources.i18n.AppConstants;
+import org.livespark.client.shared.DependencyResolutionService;
+import org.livespark.client.shared.DependencyResolutionStatus;
 import org.uberfire.client.annotations.WorkbenchMenu;
 import org.uberfire.client.annotations.WorkbenchPanel;
 import org.uberfire.client.annotations.WorkbenchPerspective;
@@ -35,6 +41,8 @@ import org.uberfire.client.util.Layouts;
 import org.uberfire.lifecycle.OnStartup;
 import org.uberfire.mvp.Command;
 import org.uberfire.security.annotations.Roles;
+import org.uberfire.workbench.events.NotificationEvent;
+import org.uberfire.workbench.events.NotificationEvent.NotificationType;
 import org.uberfire.workbench.model.menu.MenuFactory;
 import org.uberfire.workbench.model.menu.Menus;
 
@@ -66,6 +74,12 @@ public class M2RepoPerspective extends FlowPanel {
     @Inject
     private SyncBeanManager iocManager;
 
+    @Inject
+    private Caller<DependencyResolutionService> dependencyResolutionService;
+
+    @Inject
+    private Event<NotificationEvent> notificationEvent;
+
     @Inject
     @WorkbenchPanel(parts = "M2RepoEditor")
     FlowPanel m2RepoEditor;
@@ -104,9 +118,42 @@ public class M2RepoPerspective extends FlowPanel {
                     }
                 } )
                 .endMenu()
+                .newTopLevelMenu( AppConstants.INSTANCE.Dependencies() )
+                .respondsWith( new Command() {
+                    @Override
+                    public void execute() {
+                        showDependencyResolutionStatus();
+                    }
+                } )
+                .endMenu()
                 .build();
     }
 
+    private void showDependencyResolutionStatus() {
+        dependencyResolutionService.call( new RemoteCallback<List<DependencyResolutionStatus>>() {
+
+            @Override
+            public void callback( final List<DependencyResolutionStatus> statuses ) {
+                final StringBuilder text = new StringBuilder();
+                boolean failed = false;
+                for ( final DependencyResolutionStatus status : statuses ) {
+                    text.append( status.getProjectName() ).append( ": " ).append( status.getState() );
+                    if ( status.getDetail() != null ) {
+                        text.append( " (" ).append( status.getDetail() ).append( ")" );
+                    }
+                    text.append( "\n" );
+                    failed |= status.getState() == DependencyResolutionStatus.State.FAILED;
+                }
+                if ( statuses.isEmpty() ) {
+                    text.append( "No project dependencies have been resolved." );
+                }
+
+                notificationEvent.fire( new NotificationEvent( text.toString().trim(),
+                                                               failed ? NotificationType.WARNING : NotificationType.DEFAULT ) );
+            }
+        } ).getStatuses();
+    }
+
     @OnStartup
     public void onStartup() {
         contextualSearch.setDefaultSearchBehavior( new SearchBehavior() {
@@ -22,13 +22,17 @@ import com.google.gwt.user.client.ui.Widget;
 import org.guvnor.common.services.project.model.Project;
 import org.gwtbootstrap3.client.ui.AnchorListItem;
 import org.jboss.errai.common.client.api.Caller;
+import org.jboss.errai.common.client.api.RemoteCallback;
 import org.kie.workbench.common.screens.projecteditor.client.editor.extension.BuildOptionExtension;
+import org.livespark.client.resources.i18n.AppConstants;
 import org.livespark.client.shared.GwtWarBuildService;
+import org.uberfire.workbench.events.NotificationEvent;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 
 @ApplicationScoped
 public class DevelopmentDeploymentExtension implements BuildOptionExtension {
@@ -38,19 +42,18 @@ public class DevelopmentDeploymentExtension implements BuildOptionExtension {
     @Inject
     private Caller<GwtWarBuildService> buildCaller;
 
+    @Inject
+    private Event<NotificationEvent> notificationEvent;
+
     @Override
     public Collection<Widget> getBuildOptions( Project project ) {
-        return Collections.singleton( createNavLink( project ) );
+        return Arrays.asList( createNavLink( LINK_NAME, createClickHandler( project ) ),
+                              createNavLink( AppConstants.INSTANCE.CancelBuild(), createCancelClickHandler( project ) ) );
     }
 
-    private Widget createNavLink( final Project project ) {
-        return new AnchorListItem( LINK_NAME ) {{
-            addClickHandler( new ClickHandler() {
-                @Override
-                public void onClick( ClickEvent event ) {
-                    createClickHandler( project );
-                }
-            } );
+    private Widget createNavLink( final String name, final ClickHandler clickHandler ) {
+        return new AnchorListItem( name ) {{
+            addClickHandler( clickHandler );
         }};
     }
 
@@ -64,4 +67,22 @@ public class DevelopmentDeploymentExtension implements BuildOptionExtension {
         };
     }
 
+    private ClickHandler createCancelClickHandler( final Project project ) {
+        return new ClickHandler() {
+
+            @Override
+            public void onClick( ClickEvent event ) {
+                buildCaller.call( new RemoteCallback<Boolean>() {
+
+                    @Override
+                    public void callback( Boolean cancelled ) {
+                        if ( !cancelled ) {
+                            notificationEvent.fire( new NotificationEvent( AppConstants.INSTANCE.NoBuildToCancel() ) );
+                        }
+                    }
+                } ).cancelBuild( project );
+            }
+        };
+    }
+
 }
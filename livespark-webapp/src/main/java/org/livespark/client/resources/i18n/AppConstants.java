@@ -79,6 +79,9 @@ public interface AppConstants
     String Find();
     String Upload();
     String Refresh();
+    String Dependencies();
+    String CancelBuild();
+    String NoBuildToCancel();
 
     String logoBannerError();
 